@@ -5,18 +5,20 @@
 
 package org.geogit.api;
 
+import java.util.List;
 import java.util.Map;
 
 import org.geotools.filter.identity.FeatureIdVersionedImpl;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.identity.FeatureId;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.Maps;
 
 /**
  * Provides a method of building features from {@link RevFeature} objects that have the type
@@ -55,6 +57,41 @@ public class FeatureBuilder {
         this(RevFeatureType.build(type));
     }
 
+    /**
+     * Constructs a new {@code FeatureBuilder} that builds features of type {@code targetType}
+     * out of {@link RevFeature}s of type {@code nativeType}, where the target type has a subset of
+     * the native type's attributes, in any order.
+     * <p>
+     * Values of the native attributes not in the target type are never decoded.
+     * 
+     * @param nativeType the feature type of the {@code RevFeature}s the features are built from
+     * @param targetType the feature type of the features that will be built
+     * @throws IllegalArgumentException if an attribute of the target type doesn't exist in the
+     *         native type
+     */
+    public FeatureBuilder(RevFeatureType nativeType, SimpleFeatureType targetType) {
+        final Map<String, Integer> nativeIndexes = GeogitSimpleFeature
+                .buildAttNameToRevTypeIndex(nativeType);
+        final Map<String, Integer> nameToIndex = Maps.newHashMap();
+        final Map<Integer, Integer> typeToIndex = Maps.newHashMap();
+        final List<AttributeDescriptor> descriptors = targetType.getAttributeDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            AttributeDescriptor descriptor = descriptors.get(i);
+            String name = descriptor.getLocalName();
+            Integer nativeIndex = nativeIndexes.get(name);
+            Preconditions.checkArgument(nativeIndex != null,
+                    "Attribute %s does not exist in the native type", name);
+            nameToIndex.put(name, nativeIndex);
+            typeToIndex.put(Integer.valueOf(i), nativeIndex);
+            if (descriptor.equals(targetType.getGeometryDescriptor())) {
+                nameToIndex.put(null, nativeIndex);
+            }
+        }
+        this.featureType = targetType;
+        this.attNameToRevTypeIndex = nameToIndex;
+        this.typeToRevTypeIndex = ImmutableBiMap.copyOf(typeToIndex);
+    }
+
     /**
      * Builds a {@link Feature} from the provided {@link RevFeature}.
      * 
@@ -69,8 +106,7 @@ public class FeatureBuilder {
         final String version = revFeature.getId().toString();
         final FeatureId fid = new FeatureIdVersionedImpl(id, version);
 
-        ImmutableList<Optional<Object>> values = revFeature.getValues();
-        GeogitSimpleFeature feature = new GeogitSimpleFeature(values,
+        GeogitSimpleFeature feature = new GeogitSimpleFeature(revFeature,
                 (SimpleFeatureType) featureType, fid, attNameToRevTypeIndex, typeToRevTypeIndex);
         return feature;
     }
@@ -14,6 +14,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.geotools.feature.GeometryAttributeImpl;
 import org.geotools.feature.type.AttributeDescriptorImpl;
 import org.geotools.feature.type.Types;
@@ -56,8 +58,14 @@ public class GeogitSimpleFeature implements SimpleFeature {
     private SimpleFeatureType featureType;
 
     /**
-     * The actual values held by this feature
+     * The feature the values come from, decoded on demand if it supports it
      */
+    private final RevFeature revFeature;
+
+    /**
+     * The values held by this feature once any of them is modified, {@code null} until then
+     */
+    @Nullable
     private List<Optional<Object>> revFeatureValues;
 
     /**
@@ -80,33 +88,43 @@ public class GeogitSimpleFeature implements SimpleFeature {
     /**
      * Fast construction of a new feature.
      * <p>
-     * The object takes ownership of the provided value array, do not modify after calling the
-     * constructor
+     * Values are taken from the {@link RevFeature} only as they're accessed, so if it
+     * {@link RevFeature#get(int) decodes them lazily} the values of attributes that are never
+     * accessed are never decoded. The feature type may be a subset of the {@code RevFeature}'s
+     * type, as long as the index mappings translate its attribute names and indexes to
+     * {@code RevFeature} value indexes.
      * </p>
      * 
-     * @param values
+     * @param revFeature the feature holding the values
      * @param featureType
      * @param id
-     * @param validating
      * @param nameToRevTypeInded - attribute name to value index mapping
+     * @param typeToRevTypeIndex - attribute index to value index mapping
      */
-    public GeogitSimpleFeature(ImmutableList<Optional<Object>> values,
-            SimpleFeatureType featureType, FeatureId id, Map<String, Integer> nameToRevTypeInded,
+    public GeogitSimpleFeature(RevFeature revFeature, SimpleFeatureType featureType,
+            FeatureId id, Map<String, Integer> nameToRevTypeInded,
             BiMap<Integer, Integer> typeToRevTypeIndex) {
         this.id = id;
         this.featureType = featureType;
-        this.revFeatureValues = values;
+        this.revFeature = revFeature;
         this.nameToRevTypeIndex = nameToRevTypeInded;
         this.typeToRevTypeIndex = typeToRevTypeIndex;
     }
 
     private List<Optional<Object>> mutableValues() {
-        if (revFeatureValues instanceof ImmutableList) {
-            revFeatureValues = Lists.newArrayList(revFeatureValues);
+        if (revFeatureValues == null) {
+            revFeatureValues = Lists.newArrayList(revFeature.getValues());
         }
         return revFeatureValues;
     }
 
+    private Optional<Object> value(int revTypeIndex) {
+        if (revFeatureValues == null) {
+            return revFeature.get(revTypeIndex);
+        }
+        return revFeatureValues.get(revTypeIndex);
+    }
+
     @Override
     public FeatureId getIdentifier() {
         return id;
@@ -118,13 +136,13 @@ public class GeogitSimpleFeature implements SimpleFeature {
     }
 
     public int getNumberOfAttributes() {
-        return revFeatureValues.size();
+        return featureType.getAttributeCount();
     }
 
     @Override
     public Object getAttribute(int index) throws IndexOutOfBoundsException {
         int revTypeIndex = typeToRevTypeIndex(index);
-        return revFeatureValues.get(revTypeIndex).orNull();
+        return value(revTypeIndex).orNull();
     }
 
     private int typeToRevTypeIndex(int index) {
@@ -136,7 +154,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
     public Object getAttribute(String name) {
         Integer revTypeIndex = nameToRevTypeIndex.get(name);
         if (revTypeIndex != null)
-            return revFeatureValues.get(revTypeIndex).orNull();
+            return value(revTypeIndex).orNull();
         else
             return null;
     }
@@ -148,7 +166,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
     @Override
     public int getAttributeCount() {
-        return revFeatureValues.size();
+        return featureType.getAttributeCount();
     }
 
     @Override
@@ -165,7 +183,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
     public Object getDefaultGeometry() {
         // should be specified in the index as the default key (null)
         Integer idx = nameToRevTypeIndex.get(null);
-        Object defaultGeometry = idx != null ? revFeatureValues.get(idx).orNull() : null;
+        Object defaultGeometry = idx != null ? value(idx).orNull() : null;
 
         // not found? do we have a default geometry at all?
         if (defaultGeometry == null) {
@@ -173,7 +191,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
             if (geometryDescriptor != null) {
                 Integer defaultGeomIndex = nameToRevTypeIndex.get(geometryDescriptor.getName()
                         .getLocalPart());
-                defaultGeometry = revFeatureValues.get(defaultGeomIndex.intValue()).get();
+                defaultGeometry = value(defaultGeomIndex.intValue()).orNull();
             }
         }
 
@@ -218,8 +236,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
     @Override
     public void setAttributes(List<Object> values) {
-        List<Optional<Object>> revFeatureValues = mutableValues();
-        for (int i = 0; i < revFeatureValues.size(); i++) {
+        for (int i = 0; i < getAttributeCount(); i++) {
             setAttribute(i, values.get(i));
         }
     }
@@ -242,11 +259,15 @@ public class GeogitSimpleFeature implements SimpleFeature {
         CoordinateReferenceSystem crs = featureType.getCoordinateReferenceSystem();
         Envelope bounds = ReferencedEnvelope.create(crs);
 
-        Optional<Object> o;
-        for (int i = 0; i < revFeatureValues.size(); i++) {
-            o = revFeatureValues.get(i);
-            if (o.isPresent() && o.get() instanceof Geometry) {
-                Geometry g = (Geometry) o.get();
+        // only look at the geometry attributes, so that no other value gets decoded
+        final int attributeCount = getAttributeCount();
+        for (int i = 0; i < attributeCount; i++) {
+            if (!(featureType.getDescriptor(i) instanceof GeometryDescriptor)) {
+                continue;
+            }
+            Object o = getAttribute(i);
+            if (o instanceof Geometry) {
+                Geometry g = (Geometry) o;
                 // TODO: check userData for crs... and ensure its of the same
                 // crs as the feature type
                 if (bounds.isNull()) {
@@ -316,7 +337,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
             int index = typeToRevTypeIndex.inverse().get(revTypeIdx).intValue();
             AttributeDescriptor descriptor = featureType.getDescriptor(index);
             if (descriptor instanceof GeometryDescriptor) {
-                return new GeometryAttributeImpl(revFeatureValues.get(revTypeIdx.intValue())
+                return new GeometryAttributeImpl(value(revTypeIdx.intValue())
                         .orNull(), (GeometryDescriptor) descriptor, null);
             } else {
                 return new Attribute(index);
@@ -415,7 +436,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
             return false;
         }
 
-        for (int i = 0, ii = revFeatureValues.size(); i < ii; i++) {
+        for (int i = 0, ii = getAttributeCount(); i < ii; i++) {
             Object otherAtt = feat.getAttribute(i);
 
             if (!Objects.equal(otherAtt, getAttribute(i))) {
@@ -449,7 +470,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
         @Override
         public int size() {
-            return revFeatureValues.size();
+            return getAttributeCount();
         }
     }
 
@@ -497,7 +518,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
         public Map<Object, Object> getUserData() {
             // lazily create the user data holder
             if (attributeUserData == null)
-                attributeUserData = new HashMap[revFeatureValues.size()];
+                attributeUserData = new HashMap[getAttributeCount()];
             // lazily create the attribute user data
             if (attributeUserData[index] == null)
                 attributeUserData[index] = new HashMap<Object, Object>();
@@ -506,7 +527,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
         @Override
         public Object getValue() {
-            return revFeatureValues.get(typeToRevTypeIndex.get(index)).orNull();
+            return value(typeToRevTypeIndex.get(index)).orNull();
         }
 
         @Override
@@ -672,7 +693,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
     @Override
     public void validate() throws IllegalAttributeException {
-        for (int i = 0; i < revFeatureValues.size(); i++) {
+        for (int i = 0; i < getAttributeCount(); i++) {
             AttributeDescriptor descriptor = getType().getDescriptor(i);
             Types.validate(descriptor, getAttribute(i));
         }
@@ -4,28 +4,74 @@
  */
 package org.geogit.api;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.geogit.api.RevObject.TYPE;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.text.cql2.CQL;
 import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
 import org.opengis.feature.Feature;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.And;
 import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Provides a filter for sparse repositories. A default filter can be applied to all feature types,
  * and specific filters can be applied to individual feature types.
+ * <p>
+ * Each filter is split into a prefilter on the bounds stored in the feature nodes and a residual
+ * filter. Features whose bounds can't match the filter are rejected, and features inside the
+ * filter's bounding boxes only need the residual filter, without decoding the feature at all if
+ * there is nothing else to evaluate, see {@link #filterFeature}. The results of the evaluations
+ * that did need to decode a feature are cached by feature, feature type and filter, and shared by
+ * all the {@code RepositoryFilter}s, so overlapping sparse clones with the same filters don't
+ * repeat the work.
  */
 public class RepositoryFilter {
 
-    private Map<String, Filter> repositoryFilters;
+    private static final FilterFactory2 FILTER_FACTORY = CommonFactoryFinder
+            .getFilterFactory2(null);
+
+    private static final Cache<ResultKey, Boolean> RESULTS = CacheBuilder.newBuilder()
+            .maximumSize(100 * 1000).build();
+
+    /**
+     * The outcome of checking a feature node's bounds against a filter.
+     */
+    private enum BoundsMatch {
+        /** the feature can't match the filter */
+        EXCLUDED,
+        /** the feature matches the filter */
+        INCLUDED,
+        /** the feature matches the filter if it matches the residual filter */
+        RESIDUAL,
+        /** the bounds didn't tell, the whole filter has to be evaluated */
+        UNKNOWN
+    }
+
+    private Map<String, SplitFilter> repositoryFilters;
 
     private List<FilterDescription> filterDescriptions;
 
@@ -79,7 +125,7 @@ public class RepositoryFilter {
      * Constructs a new {@code RepositoryFilter}.
      */
     public RepositoryFilter() {
-        repositoryFilters = new HashMap<String, Filter>();
+        repositoryFilters = new HashMap<String, SplitFilter>();
         filterDescriptions = new LinkedList<FilterDescription>();
     }
 
@@ -103,7 +149,8 @@ public class RepositoryFilter {
         if (filterType.equals("CQL")) {
             try {
                 Filter newFilter = CQL.toFilter(filterText);
-                repositoryFilters.put(featurePath, newFilter);
+                repositoryFilters.put(featurePath, new SplitFilter(filterType + ":" + filterText,
+                        newFilter));
                 filterDescriptions.add(new FilterDescription(featurePath, filterType, filterText));
             } catch (CQLException e) {
                 Throwables.propagate(e);
@@ -121,18 +168,245 @@ public class RepositoryFilter {
      */
     public boolean filterObject(RevFeatureType type, String featurePath, RevObject object) {
         if (object.getType() == TYPE.FEATURE) {
-            RevFeature revFeature = (RevFeature) object;
-            FeatureBuilder builder = new FeatureBuilder(type);
-            Feature feature = builder.build("TEMP_ID", revFeature);
+            SplitFilter typeFilter = getFilter(featurePath);
+            return evaluate(typeFilter, typeFilter.filter, type, (RevFeature) object);
+        }
+        return false;
+    }
 
-            Filter typeFilter = repositoryFilters.get(featurePath);
-            if (typeFilter == null) {
-                typeFilter = repositoryFilters.get("default");
+    /**
+     * Determines if the feature a node points to is filtered in this repository, looking at the
+     * node's bounds first so that the feature only gets loaded and decoded if the bounds are not
+     * enough to tell. This method can be called concurrently.
+     * 
+     * @param type the feature type
+     * @param featurePath the path of the feature (without the feature ID)
+     * @param node the feature node
+     * @param feature loads the feature the node points to, only called if needed
+     * @return true if the feature lies within the filter, false otherwise
+     */
+    public boolean filterFeature(RevFeatureType type, String featurePath, Node node,
+            Supplier<? extends RevObject> feature) {
+        SplitFilter typeFilter = getFilter(featurePath);
+        switch (typeFilter.matchBounds(type, node)) {
+        case EXCLUDED:
+            return false;
+        case INCLUDED:
+            return true;
+        case RESIDUAL:
+            return evaluate(typeFilter, typeFilter.residual, type, node.getObjectId(), feature);
+        default:
+            return evaluate(typeFilter, typeFilter.filter, type, node.getObjectId(), feature);
+        }
+    }
+
+    private SplitFilter getFilter(String featurePath) {
+        SplitFilter typeFilter = repositoryFilters.get(featurePath);
+        if (typeFilter == null) {
+            typeFilter = repositoryFilters.get("default");
+        }
+        Preconditions.checkState(typeFilter != null, "No filter applies to %s", featurePath);
+        return typeFilter;
+    }
+
+    private boolean evaluate(SplitFilter typeFilter, Filter filter, RevFeatureType type,
+            ObjectId featureId, Supplier<? extends RevObject> feature) {
+        ResultKey key = new ResultKey(featureId, type.getId(), typeFilter.key);
+        Boolean result = RESULTS.getIfPresent(key);
+        if (result == null) {
+            RevObject object = feature.get();
+            if (object.getType() != TYPE.FEATURE) {
+                return false;
             }
-            if (typeFilter.evaluate(feature)) {
+            result = Boolean.valueOf(evaluate(type, filter, (RevFeature) object));
+            RESULTS.put(key, result);
+        }
+        return result.booleanValue();
+    }
+
+    private boolean evaluate(SplitFilter typeFilter, Filter filter, RevFeatureType type,
+            RevFeature revFeature) {
+        ResultKey key = new ResultKey(revFeature.getId(), type.getId(), typeFilter.key);
+        Boolean result = RESULTS.getIfPresent(key);
+        if (result == null) {
+            result = Boolean.valueOf(evaluate(type, filter, revFeature));
+            RESULTS.put(key, result);
+        }
+        return result.booleanValue();
+    }
+
+    private static boolean evaluate(RevFeatureType type, Filter filter, RevFeature revFeature) {
+        FeatureBuilder builder = new FeatureBuilder(type);
+        Feature feature = builder.build("TEMP_ID", revFeature);
+        return filter.evaluate(feature);
+    }
+
+    /**
+     * A filter split into the bounds that features matching it must intersect, the bounding boxes
+     * it requires features to lie in, and the rest of the filter.
+     */
+    private static class SplitFilter {
+
+        final String key;
+
+        final Filter filter;
+
+        /**
+         * The bounds of the features that can match the filter, {@code null} if unbounded
+         */
+        final Envelope bounds;
+
+        /**
+         * The intersection of the top level bounding boxes of the filter, {@code null} if none
+         */
+        final Envelope boxes;
+
+        final Filter residual;
+
+        /**
+         * Whether the bounds of the filter can be compared to the bounds of the features of a
+         * given feature type, and whether features inside the boxes match them, by feature type id
+         */
+        final ConcurrentMap<ObjectId, Boolean[]> applicable;
+
+        SplitFilter(String key, Filter filter) {
+            this.key = key;
+            this.filter = filter;
+            this.applicable = new ConcurrentHashMap<ObjectId, Boolean[]>();
+
+            Envelope filterBounds = extractBounds(filter);
+            this.bounds = isBounded(filterBounds) ? filterBounds : null;
+
+            List<Filter> conjuncts = filter instanceof And ? ((And) filter).getChildren()
+                    : ImmutableList.of(filter);
+            List<Filter> rest = new ArrayList<Filter>();
+            Envelope boxes = null;
+            for (Filter f : conjuncts) {
+                Envelope box = f instanceof BBOX ? extractBounds(f) : null;
+                if (isBounded(box)) {
+                    boxes = boxes == null ? new Envelope(box) : boxes.intersection(box);
+                } else {
+                    rest.add(f);
+                }
+            }
+            this.boxes = boxes;
+            if (rest.isEmpty()) {
+                this.residual = Filter.INCLUDE;
+            } else if (rest.size() == 1) {
+                this.residual = rest.get(0);
+            } else {
+                this.residual = FILTER_FACTORY.and(rest);
+            }
+        }
+
+        BoundsMatch matchBounds(RevFeatureType type, Node node) {
+            if (bounds == null && boxes == null) {
+                return BoundsMatch.UNKNOWN;
+            }
+            Envelope nodeBounds = new Envelope();
+            node.expand(nodeBounds);
+            if (nodeBounds.isNull()) {
+                return BoundsMatch.UNKNOWN;
+            }
+            Boolean[] checks = applicable.get(type.getId());
+            if (checks == null) {
+                checks = check(type);
+                applicable.put(type.getId(), checks);
+            }
+            if (!checks[0].booleanValue()) {
+                return BoundsMatch.UNKNOWN;
+            }
+            // nodes store their bounds as floats, widen them so rounding never excludes or
+            // includes a feature it shouldn't
+            double dx = Math.ulp((float) Math.max(Math.abs(nodeBounds.getMinX()),
+                    Math.abs(nodeBounds.getMaxX())));
+            double dy = Math.ulp((float) Math.max(Math.abs(nodeBounds.getMinY()),
+                    Math.abs(nodeBounds.getMaxY())));
+            nodeBounds.expandBy(dx, dy);
+
+            if (bounds != null && !bounds.intersects(nodeBounds)) {
+                return BoundsMatch.EXCLUDED;
+            }
+            if (boxes != null) {
+                if (boxes.isNull() || !boxes.intersects(nodeBounds)) {
+                    return BoundsMatch.EXCLUDED;
+                }
+                if (checks[1].booleanValue() && boxes.contains(nodeBounds)) {
+                    return residual == Filter.INCLUDE ? BoundsMatch.INCLUDED : BoundsMatch.RESIDUAL;
+                }
+            }
+            return BoundsMatch.UNKNOWN;
+        }
+
+        /**
+         * The filter bounds can only be compared to the node bounds if they're in the same CRS,
+         * and a node inside the bounding boxes only means the feature's geometry is inside them if
+         * the feature type has a single geometry.
+         */
+        private Boolean[] check(RevFeatureType type) {
+            CoordinateReferenceSystem nativeCrs = type.type().getCoordinateReferenceSystem();
+            boolean sameCrs = sameCrs(bounds, nativeCrs) && sameCrs(boxes, nativeCrs);
+            int geometries = 0;
+            for (PropertyDescriptor descriptor : type.type().getDescriptors()) {
+                if (descriptor instanceof GeometryDescriptor) {
+                    geometries++;
+                }
+            }
+            return new Boolean[] { Boolean.valueOf(sameCrs), Boolean.valueOf(geometries == 1) };
+        }
+
+        private static boolean sameCrs(Envelope env, CoordinateReferenceSystem nativeCrs) {
+            if (!(env instanceof ReferencedEnvelope)) {
                 return true;
             }
+            CoordinateReferenceSystem crs = ((ReferencedEnvelope) env)
+                    .getCoordinateReferenceSystem();
+            return crs == null || nativeCrs == null || CRS.equalsIgnoreMetadata(crs, nativeCrs);
+        }
+
+        private static Envelope extractBounds(Filter filter) {
+            Object bounds = filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+            return bounds instanceof Envelope ? (Envelope) bounds : null;
+        }
+
+        private static boolean isBounded(Envelope env) {
+            return env != null && !env.isNull()
+                    && !(Double.isInfinite(env.getWidth()) || Double.isInfinite(env.getHeight()));
+        }
+    }
+
+    /**
+     * Identifies the result of evaluating a filter against a feature of a given feature type. The
+     * residual filter is only evaluated for features inside the filter's bounding boxes, for which
+     * it gives the same result as the whole filter, so both share the same key.
+     */
+    private static final class ResultKey {
+
+        private final ObjectId featureId;
+
+        private final ObjectId typeId;
+
+        private final String filterKey;
+
+        ResultKey(ObjectId featureId, ObjectId typeId, String filterKey) {
+            this.featureId = featureId;
+            this.typeId = typeId;
+            this.filterKey = filterKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey k = (ResultKey) o;
+            return featureId.equals(k.featureId) && typeId.equals(k.typeId)
+                    && filterKey.equals(k.filterKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(featureId, typeId, filterKey);
         }
-        return false;
     }
 }
@@ -11,7 +11,10 @@ import com.google.common.collect.ImmutableList;
 
 /**
  * A binary representation of the values of a Feature.
- * 
+ * <p>
+ * Subclasses may decode the values lazily, in which case {@link #get(int)} and {@link #size()}
+ * give access to single values without decoding the rest, while {@link #getValues()} decodes them
+ * all.
  */
 public class RevFeature extends AbstractRevObject {
 
@@ -43,6 +46,17 @@ public class RevFeature extends AbstractRevObject {
         this.values = values;
     }
 
+    /**
+     * Constructor for subclasses that provide the values themselves, which must override
+     * {@link #getValues()}, {@link #get(int)} and {@link #size()}.
+     * 
+     * @param id the {@link ObjectId} to use for this feature
+     */
+    protected RevFeature(ObjectId id) {
+        super(id);
+        this.values = null;
+    }
+
     /**
      * @return a list of values, with {@link Optional#absent()} representing a null value
      */
@@ -50,6 +64,23 @@ public class RevFeature extends AbstractRevObject {
         return values;
     }
 
+    /**
+     * @param index the index of the value, in the order of the feature type's
+     *        {@link RevFeatureType#sortedDescriptors() sorted descriptors}
+     * @return the value at the given index, with {@link Optional#absent()} representing a null
+     *         value
+     */
+    public Optional<Object> get(int index) {
+        return values.get(index);
+    }
+
+    /**
+     * @return the number of values of this feature
+     */
+    public int size() {
+        return values.size();
+    }
+
     @Override
     public TYPE getType() {
         return TYPE.FEATURE;
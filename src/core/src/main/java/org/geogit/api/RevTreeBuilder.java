@@ -464,6 +464,10 @@ public class RevTreeBuilder {
         }
 
         deletes.add(childName);
+        if (deletes.size() >= DEFAULT_NORMALIZATION_THRESHOLD) {
+            // don't hold an unbounded number of pending deletes in memory
+            normalize();
+        }
         return this;
     }
 
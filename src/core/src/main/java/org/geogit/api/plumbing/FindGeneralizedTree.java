@@ -0,0 +1,92 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Finds the {@link UpdateGeneralizedTrees generalized version} of a feature type tree that best
+ * fits a given distance, that is, the one with the largest tolerance that doesn't exceed it.
+ * <p>
+ * Returns {@link Optional#absent() absent} if there's no tolerance small enough configured, or
+ * the tree was not generalized (e.g. it's not committed yet), in which case the original tree
+ * should be used.
+ *
+ * @see UpdateGeneralizedTrees
+ */
+public class FindGeneralizedTree extends AbstractGeoGitOp<Optional<ObjectId>> {
+
+    private final ObjectDatabase objectDb;
+
+    private ObjectId treeId;
+
+    private double distance;
+
+    /**
+     * Constructs a new {@code FindGeneralizedTree} operation.
+     *
+     * @param objectDb the repository object database
+     */
+    @Inject
+    public FindGeneralizedTree(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
+    }
+
+    /**
+     * @param treeId the id of the feature type tree
+     * @return {@code this}
+     */
+    public FindGeneralizedTree setTreeId(ObjectId treeId) {
+        this.treeId = treeId;
+        return this;
+    }
+
+    /**
+     * @param distance the maximum distance the geometries can be simplified by, in the units of
+     *        the feature type's CRS
+     * @return {@code this}
+     */
+    public FindGeneralizedTree setDistance(double distance) {
+        this.distance = distance;
+        return this;
+    }
+
+    /**
+     * @return the id of the generalized tree, if any
+     */
+    @Override
+    public Optional<ObjectId> call() {
+        checkState(treeId != null, "tree id not set");
+        Double tolerance = UpdateGeneralizedTrees.tolerances(getCommandLocator()).floor(
+                Double.valueOf(distance));
+        if (tolerance == null) {
+            return Optional.absent();
+        }
+        Optional<Ref> indexRef = command(RefParse.class)
+                .setName(UpdateGeneralizedTrees.INDEX_REF).call();
+        if (!indexRef.isPresent()) {
+            return Optional.absent();
+        }
+        RevTreeBuilder index = new RevTreeBuilder(objectDb, objectDb.getTree(indexRef.get()
+                .getObjectId()));
+        Optional<Node> node = index.get(UpdateGeneralizedTrees.indexKey(treeId,
+                tolerance.doubleValue()));
+        if (!node.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(node.get().getObjectId());
+    }
+}
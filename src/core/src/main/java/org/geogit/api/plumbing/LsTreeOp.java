@@ -204,6 +204,11 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> implements
 
             final String path = ref.lastIndexOf(':') != -1 ? ref
                     .substring(ref.lastIndexOf(':') + 1) : "";
+            if (!path.isEmpty() && parentObjectId.isNull()) {
+                // a <tree-ish>:<path> ref, whose features default to the tree's feature type just
+                // like when the path is given alone
+                parentObjectId = treeMetadataId(ref.substring(0, ref.lastIndexOf(':')), path);
+            }
 
             DepthTreeIterator iter = new DepthTreeIterator(path, parentObjectId,
                     (RevTree) revObject.get(), getIndex().getDatabase(), iterStrategy);
@@ -222,4 +227,23 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> implements
     public Iterator<NodeRef> get() {
         return call();
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the metadata id of the tree at the given path of the given tree-ish, or
+     *         {@link ObjectId#NULL} if it can't be found
+     */
+    private ObjectId treeMetadataId(String treeish, String path) {
+        Optional<ObjectId> rootId = command(ResolveTreeish.class).setTreeish(treeish).call();
+        if (!rootId.isPresent() || rootId.get().isNull()) {
+            return ObjectId.NULL;
+        }
+        Optional<RevTree> root = command(RevObjectParse.class).setObjectId(rootId.get()).call(
+                RevTree.class);
+        if (!root.isPresent()) {
+            return ObjectId.NULL;
+        }
+        Optional<NodeRef> treeRef = command(FindTreeChild.class).setParent(root.get())
+                .setChildPath(path).setIndex(true).call();
+        return treeRef.isPresent() ? treeRef.get().getMetadataId() : ObjectId.NULL;
+    }
+}
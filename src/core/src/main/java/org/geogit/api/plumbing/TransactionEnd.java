@@ -5,12 +5,14 @@
 
 package org.geogit.api.plumbing;
 
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.SymRef;
 import org.geogit.api.porcelain.CheckoutOp;
@@ -23,6 +25,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 /**
@@ -104,6 +107,7 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
 
         if (!cancel) {
             ImmutableSet<Ref> changedRefs = getChangedRefs();
+            Map<ObjectId, ObjectId> updatedCommits = Maps.newLinkedHashMap();
             // Lock the repository
             try {
                 getRefDatabase().lock();
@@ -145,6 +149,8 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
                     }
                     command(UpdateRef.class).setName(ref.getName())
                             .setNewValue(updatedRef.getObjectId()).call();
+                    updatedCommits.put(updatedRef.getObjectId(), repoRef.isPresent() ? repoRef
+                            .get().getObjectId() : ObjectId.NULL);
 
                     if (currentBranch.equals(ref.getName())) {
                         // Update HEAD, WORK_HEAD and STAGE_HEAD
@@ -164,6 +170,11 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
                 getRefDatabase().unlock();
             }
 
+            for (Map.Entry<ObjectId, ObjectId> commits : updatedCommits.entrySet()) {
+                command(UpdateGeneralizedTrees.class).setOldCommit(commits.getValue())
+                        .setNewCommit(commits.getKey()).call();
+            }
+
         }
 
         // Erase old refs
@@ -0,0 +1,326 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.CommandLocator;
+import org.geogit.api.GeogitTransaction;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.data.FindFeatureTypeTrees;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Maintains simplified versions of the feature type trees of a root tree, at the tolerances
+ * configured through the {@value #TOLERANCES_CONFIG} config option, as a comma separated list of
+ * distances in the units of each feature type's CRS.
+ * <p>
+ * A generalized tree has the same nodes as the feature type tree it derives from, and the same
+ * bounds, but its nodes point to copies of the features with their geometries simplified with the
+ * given tolerance. Those are regular content addressed {@link RevFeature}s, features with no
+ * geometries to simplify are shared with the original tree. Generalized trees are not part of the
+ * versioned data, they're linked to the id of the tree they derive from by an index tree, pointed
+ * to by the {@value #INDEX_REF} ref, with a {@link #indexKey(ObjectId, double) node} per original
+ * tree and tolerance.
+ * <p>
+ * When the feature type tree at the same path in the {@link #setOldRoot(ObjectId) old root} was
+ * already generalized, the new generalized tree is built from it out of the differences between
+ * both, so the cost of keeping them up to date is proportional to the changes being committed.
+ * <p>
+ * It's run by the operations that move a branch to a new commit: {@code CommitOp} and the ones
+ * that create commits without it or fast-forward, like {@code MergeOp}, {@code PullOp},
+ * {@code RebaseOp} and {@code RevertOp}, with the previous branch head as the old root. Inside a
+ * transaction it does nothing, {@link TransactionEnd} runs it for the final branch heads.
+ *
+ * @see FindGeneralizedTree
+ */
+public class UpdateGeneralizedTrees extends AbstractGeoGitOp<Void> {
+
+    /**
+     * Config option with the comma separated list of generalization tolerances
+     */
+    public static final String TOLERANCES_CONFIG = "generalization.tolerances";
+
+    /**
+     * Ref pointing to the tree that indexes the generalized trees
+     */
+    public static final String INDEX_REF = "GENERALIZED_INDEX";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final ObjectDatabase objectDb;
+
+    private ObjectId oldRoot = ObjectId.NULL;
+
+    private ObjectId newRoot;
+
+    private ObjectId oldCommit;
+
+    private ObjectId newCommit;
+
+    /**
+     * Constructs a new {@code UpdateGeneralizedTrees} operation.
+     *
+     * @param objectDb the repository object database
+     */
+    @Inject
+    public UpdateGeneralizedTrees(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
+    }
+
+    /**
+     * @param oldRoot the id of a root tree whose feature type trees may already be generalized,
+     *        usually the one of the parent commit
+     * @return {@code this}
+     */
+    public UpdateGeneralizedTrees setOldRoot(ObjectId oldRoot) {
+        this.oldRoot = oldRoot;
+        return this;
+    }
+
+    /**
+     * @param newRoot the id of the root tree whose feature type trees to generalize
+     * @return {@code this}
+     */
+    public UpdateGeneralizedTrees setNewRoot(ObjectId newRoot) {
+        this.newRoot = newRoot;
+        return this;
+    }
+
+    /**
+     * @param oldCommit the commit whose root tree to use as the {@link #setOldRoot(ObjectId) old
+     *        root}, usually the previous head of the branch
+     * @return {@code this}
+     */
+    public UpdateGeneralizedTrees setOldCommit(ObjectId oldCommit) {
+        this.oldCommit = oldCommit;
+        return this;
+    }
+
+    /**
+     * @param newCommit the commit whose root tree to use as the {@link #setNewRoot(ObjectId) new
+     *        root}
+     * @return {@code this}
+     */
+    public UpdateGeneralizedTrees setNewCommit(ObjectId newCommit) {
+        this.newCommit = newCommit;
+        return this;
+    }
+
+    /**
+     * Generalizes the feature type trees of the new root tree that aren't already, if there's any
+     * tolerance configured.
+     *
+     * @return {@code null}
+     */
+    @Override
+    public Void call() {
+        checkState(newRoot != null || newCommit != null, "new root not set");
+        if (getCommandLocator() instanceof GeogitTransaction) {
+            // done by TransactionEnd, on the final branch trees
+            return null;
+        }
+        final SortedSet<Double> tolerances = tolerances(getCommandLocator());
+        if (newCommit != null) {
+            newRoot = rootTree(newCommit);
+        }
+        if (oldCommit != null) {
+            oldRoot = rootTree(oldCommit);
+        }
+        if (tolerances.isEmpty() || newRoot.isNull()) {
+            return null;
+        }
+        final Optional<Ref> indexRef = command(RefParse.class).setName(INDEX_REF).call();
+        final RevTree index = indexRef.isPresent() ? objectDb.getTree(indexRef.get()
+                .getObjectId()) : RevTree.EMPTY;
+        final RevTree oldRootTree = oldRoot.isNull() ? RevTree.EMPTY : objectDb.getTree(oldRoot);
+        final RevTreeBuilder indexBuilder = new RevTreeBuilder(objectDb, index);
+
+        boolean changed = false;
+        List<NodeRef> typeRefs = command(FindFeatureTypeTrees.class).setRootTreeRef(
+                newRoot.toString()).call();
+        for (NodeRef typeRef : typeRefs) {
+            if (getProgressListener().isCanceled()) {
+                break;
+            }
+            Optional<NodeRef> oldTypeRef = command(FindTreeChild.class).setParent(oldRootTree)
+                    .setChildPath(typeRef.path()).call();
+            for (Double tolerance : tolerances) {
+                final String key = indexKey(typeRef.objectId(), tolerance.doubleValue());
+                if (indexBuilder.get(key).isPresent()) {
+                    continue;
+                }
+                Optional<Node> previous = Optional.absent();
+                if (oldTypeRef.isPresent()) {
+                    previous = indexBuilder.get(indexKey(oldTypeRef.get().objectId(),
+                            tolerance.doubleValue()));
+                }
+                RevTree generalized = generalize(typeRef, oldTypeRef, previous,
+                        tolerance.doubleValue());
+                objectDb.put(generalized);
+                indexBuilder.put(Node.tree(key, generalized.getId(), ObjectId.NULL));
+                changed = true;
+            }
+        }
+        if (changed) {
+            RevTree newIndex = indexBuilder.build();
+            objectDb.put(newIndex);
+            command(UpdateRef.class).setName(INDEX_REF).setNewValue(newIndex.getId()).call();
+        }
+        return null;
+    }
+
+    private ObjectId rootTree(ObjectId commitId) {
+        if (commitId.isNull()) {
+            return ObjectId.NULL;
+        }
+        return command(ResolveTreeish.class).setTreeish(commitId).call().or(ObjectId.NULL);
+    }
+
+    private RevTree generalize(final NodeRef typeRef, final Optional<NodeRef> oldTypeRef,
+            final Optional<Node> previous, final double tolerance) {
+
+        final RevTree typeTree = objectDb.getTree(typeRef.objectId());
+        final RevTreeBuilder builder;
+        final Iterator<NodeRef> nodes;
+        if (previous.isPresent()) {
+            builder = new RevTreeBuilder(objectDb, objectDb.getTree(previous.get()
+                    .getObjectId()));
+            Iterator<DiffEntry> diffs = command(DiffTree.class)
+                    .setOldTree(oldTypeRef.get().objectId()).setNewTree(typeRef.objectId())
+                    .call();
+            List<NodeRef> changed = Lists.newArrayList();
+            while (diffs.hasNext()) {
+                DiffEntry diff = diffs.next();
+                if (diff.isDelete()) {
+                    builder.remove(diff.getOldObject().name());
+                } else {
+                    changed.add(diff.getNewObject());
+                }
+            }
+            nodes = changed.iterator();
+        } else {
+            builder = new RevTreeBuilder(objectDb);
+            nodes = new DepthTreeIterator(typeRef.path(), typeRef.getMetadataId(), typeTree,
+                    objectDb, DepthTreeIterator.Strategy.FEATURES_ONLY);
+        }
+
+        while (nodes.hasNext()) {
+            List<Node> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            List<ObjectId> ids = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE && nodes.hasNext(); i++) {
+                Node node = nodes.next().getNode();
+                batch.add(node);
+                ids.add(node.getObjectId());
+            }
+            Map<ObjectId, RevFeature> features = Maps.newHashMap();
+            Iterator<RevObject> objects = objectDb.getAll(ids);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                features.put(object.getId(), (RevFeature) object);
+            }
+            for (Node node : batch) {
+                RevFeature feature = features.get(node.getObjectId());
+                checkState(feature != null, "feature %s not found", node.getObjectId());
+                RevFeature simplified = simplify(feature, tolerance);
+                if (simplified != feature) {
+                    objectDb.put(simplified);
+                }
+                Envelope bounds = new Envelope();
+                node.expand(bounds);
+                builder.put(Node.create(node.getName(), simplified.getId(), node.getMetadataId()
+                        .or(ObjectId.NULL), TYPE.FEATURE, bounds));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the feature with its geometries simplified, or the same feature if it has nothing to
+     *         simplify. Polygons are simplified preserving their topology, so that they don't
+     *         collapse or get self intersecting rings at coarse tolerances.
+     */
+    static RevFeature simplify(final RevFeature feature, final double tolerance) {
+        ImmutableList<Optional<Object>> values = feature.getValues();
+        ImmutableList.Builder<Optional<Object>> simplified = ImmutableList.builder();
+        boolean changed = false;
+        for (Optional<Object> value : values) {
+            Object v = value.orNull();
+            if (v instanceof Polygonal) {
+                simplified.add(Optional.<Object> of(TopologyPreservingSimplifier.simplify(
+                        (Geometry) v, tolerance)));
+                changed = true;
+            } else if (v instanceof Geometry && !(v instanceof Point)
+                    && !(v instanceof MultiPoint)) {
+                simplified.add(Optional.<Object> of(DouglasPeuckerSimplifier.simplify(
+                        (Geometry) v, tolerance)));
+                changed = true;
+            } else {
+                simplified.add(value);
+            }
+        }
+        return changed ? RevFeature.build(simplified.build()) : feature;
+    }
+
+    /**
+     * @return the name of the node that links the tree with the given id to its generalized
+     *         version for the given tolerance in the index tree
+     */
+    public static String indexKey(final ObjectId treeId, final double tolerance) {
+        return treeId.toString() + "@" + tolerance;
+    }
+
+    /**
+     * @return the configured generalization tolerances, in ascending order
+     */
+    public static ImmutableSortedSet<Double> tolerances(final CommandLocator commandLocator) {
+        Optional<String> configured = commandLocator.command(ConfigGet.class)
+                .setName(TOLERANCES_CONFIG).call();
+        ImmutableSortedSet.Builder<Double> tolerances = ImmutableSortedSet.naturalOrder();
+        if (configured.isPresent()) {
+            for (String tolerance : Splitter.on(',').omitEmptyStrings().trimResults()
+                    .split(configured.get())) {
+                Double value = Double.valueOf(tolerance);
+                if (value.doubleValue() > 0) {
+                    tolerances.add(value);
+                }
+            }
+        }
+        return tolerances.build();
+    }
+}
@@ -26,6 +26,7 @@ import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree2;
@@ -385,6 +386,9 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
         checkState(treeId.isPresent());
         checkState(newTreeId.equals(treeId.get()));
 
+        command(UpdateGeneralizedTrees.class).setOldRoot(currentRootTreeId).setNewRoot(newTreeId)
+                .call();
+
         getProgressListener().progress(100f);
         getProgressListener().complete();
 
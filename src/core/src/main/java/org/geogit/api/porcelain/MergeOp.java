@@ -21,6 +21,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveBranchId;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.diff.DiffEntry;
@@ -342,6 +343,11 @@ public class MergeOp extends AbstractGeoGitOp<MergeOp.MergeReport> {
         }
 
         RevCommit mergeCommit = commit(fastForward);
+        if (fastForward) {
+            // otherwise done by CommitOp
+            command(UpdateGeneralizedTrees.class).setOldCommit(oursId)
+                    .setNewCommit(mergeCommit.getId()).call();
+        }
 
         MergeReport result = new MergeReport(mergeCommit, mergeScenario, oursId,
                 pairs);
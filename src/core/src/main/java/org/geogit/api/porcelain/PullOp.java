@@ -15,6 +15,7 @@ import org.geogit.api.Ref;
 import org.geogit.api.Remote;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.porcelain.MergeOp.MergeReport;
 
@@ -210,6 +211,8 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
                 if (destRef.get().getObjectId().equals(ObjectId.NULL)) {
                     command(UpdateRef.class).setName(destRef.get().getName())
                             .setNewValue(sourceRef.get().getObjectId()).call();
+                    command(UpdateGeneralizedTrees.class).setOldCommit(ObjectId.NULL)
+                            .setNewCommit(sourceRef.get().getObjectId()).call();
                 } else {
                     command(CheckoutOp.class).setSource(destinationref).call();
                     if (rebase) {
@@ -235,6 +238,8 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
                 Ref newRef = command(BranchCreateOp.class).setAutoCheckout(true)
                         .setName(destinationref)
                         .setSource(sourceRef.get().getObjectId().toString()).call();
+                command(UpdateGeneralizedTrees.class).setOldCommit(ObjectId.NULL)
+                        .setNewCommit(newRef.getObjectId()).call();
                 result.setNewRef(newRef);
             }
 
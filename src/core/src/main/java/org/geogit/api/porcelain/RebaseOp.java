@@ -25,6 +25,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree;
@@ -264,6 +265,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
                 command(UpdateSymRef.class).setName(Ref.HEAD).setNewValue(currentBranch).call();
                 getWorkTree().updateWorkHead(upstream.get());
                 getIndex().updateStageHead(upstream.get());
+                updateGeneralizedTrees(ObjectId.NULL);
                 getProgressListener().complete();
                 return true;
             }
@@ -287,6 +289,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
                 getWorkTree().updateWorkHead(upstream.get());
                 getIndex().updateStageHead(upstream.get());
+                updateGeneralizedTrees(headCommit.getId());
                 getProgressListener().complete();
                 return true;
             }
@@ -326,6 +329,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
                     throw new IllegalStateException("Cannot create squash commit info file");
                 }
                 applyCommit(squashCommit, true);
+                updateGeneralizedTrees(headCommit.getId());
                 return true;
             } else {
                 createRebaseCommitsInfoFiles(commitsToRebase);
@@ -346,6 +350,8 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
         if (squashFile.exists()) {
             squashFile.delete();
         }
+        Optional<Ref> origHead = command(RefParse.class).setName(Ref.ORIG_HEAD).call();
+        updateGeneralizedTrees(origHead.isPresent() ? origHead.get().getObjectId() : ObjectId.NULL);
         command(UpdateRef.class).setDelete(true).setName(Ref.ORIG_HEAD).call();
         branchFile.delete();
 
@@ -357,6 +363,17 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
     }
 
+    /**
+     * Updates the generalized trees of the rebased branch, the commits it's made of were written
+     * without {@link CommitOp}
+     * 
+     * @param originalHead the head of the branch before the rebase
+     */
+    private void updateGeneralizedTrees(ObjectId originalHead) {
+        ObjectId head = command(RefParse.class).setName(Ref.HEAD).call().get().getObjectId();
+        command(UpdateGeneralizedTrees.class).setOldCommit(originalHead).setNewCommit(head).call();
+    }
+
     private File getRebaseFolder() {
         URL dir = command(ResolveGeogitDir.class).call();
         File rebaseFolder = new File(dir.getFile(), "rebase-apply");
@@ -15,6 +15,7 @@ import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.merge.Conflict;
 import org.geogit.di.CanRunDuringConflict;
 import org.geogit.repository.WorkingTree;
+import org.geogit.repository.WorkingTreeSession;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -68,24 +69,33 @@ public class RemoveOp extends AbstractGeoGitOp<WorkingTree> {
             }
         }
 
-        // separate trees from features an delete accordingly
-        for (String pathToRemove : pathsToRemove) {
-            Optional<NodeRef> node = command(FindTreeChild.class)
-                    .setParent(getWorkTree().getTree()).setIndex(true).setChildPath(pathToRemove)
-                    .call();
-            switch (node.get().getType()) {
-            case TREE:
-                getWorkTree().delete(pathToRemove);
-                break;
-            case FEATURE:
-                String parentPath = NodeRef.parentPath(pathToRemove);
-                String name = node.get().name();
-                getWorkTree().delete(parentPath, name);
-                break;
-            default:
-                break;
+        // separate trees from features an delete accordingly. Features are deleted through a
+        // session so that removing many of them rewrites the working tree only once
+        WorkingTreeSession session = getWorkTree().startSession();
+        try {
+            for (String pathToRemove : pathsToRemove) {
+                Optional<NodeRef> node = command(FindTreeChild.class)
+                        .setParent(getWorkTree().getTree()).setIndex(true)
+                        .setChildPath(pathToRemove).call();
+                switch (node.get().getType()) {
+                case TREE:
+                    session.flush();
+                    getWorkTree().delete(pathToRemove);
+                    break;
+                case FEATURE:
+                    String parentPath = NodeRef.parentPath(pathToRemove);
+                    String name = node.get().name();
+                    session.delete(parentPath, name);
+                    break;
+                default:
+                    break;
+                }
             }
+        } finally {
+            session.close();
+        }
 
+        for (String pathToRemove : pathsToRemove) {
             final long numChanges = getWorkTree().countUnstaged(pathToRemove).getCount();
             Iterator<DiffEntry> unstaged = getWorkTree().getUnstaged(pathToRemove);
             getIndex().stage(getProgressListener(), unstaged, numChanges);
@@ -27,6 +27,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree;
@@ -215,6 +216,10 @@ public class RevertOp extends AbstractGeoGitOp<Boolean> {
             ret = applyNextCommit(true);
         } while (ret);
 
+        // the revert commits were written without CommitOp
+        Optional<Ref> origHead = command(RefParse.class).setName(Ref.ORIG_HEAD).call();
+        command(UpdateGeneralizedTrees.class).setOldCommit(origHead.get().getObjectId())
+                .setNewCommit(revertHead).call();
         command(UpdateRef.class).setDelete(true).setName(Ref.ORIG_HEAD).call();
 
         getProgressListener().complete();
@@ -4,7 +4,15 @@
  */
 package org.geogit.remote;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
@@ -15,15 +23,33 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.repository.Repository;
+import org.geogit.storage.OrderedTaskQueue;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.AbstractIterator;
 
 /**
  * An implementation of a {@link DiffEntry} iterator that filters entries based on a provided
  * {@link RepositoryFilter}.
+ * <p>
+ * Entries are read ahead from the source iterator and filtered concurrently on a shared pool of
+ * threads, then returned in the same order as the source. Filtering only loads a feature if its
+ * node bounds aren't enough to tell whether it matches the filter. The objects to
+ * {@link #processObject(RevObject) process} are handed to subclasses from the thread consuming
+ * this iterator, in order. Since {@link #trackingObject(ObjectId)} is called from the filtering
+ * threads, it must be safe to call concurrently, and it may not yet see the objects processed for
+ * the entries right before the current one.
  */
 public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
 
+    /**
+     * How many entries are filtered ahead of the one being returned
+     */
+    private static final int READ_AHEAD = 256;
+
+    private static final ExecutorService FILTER_EXECUTOR = OrderedTaskQueue.newWorkerPool(
+            "geogit-filter-%d", Runtime.getRuntime().availableProcessors());
+
     protected boolean filtered = false;
 
     private Iterator<DiffEntry> source;
@@ -32,6 +58,11 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
 
     private RepositoryFilter repoFilter;
 
+    private final OrderedTaskQueue<FilteredEntry> pending = new OrderedTaskQueue<FilteredEntry>(
+            FILTER_EXECUTOR, READ_AHEAD);
+
+    private final ConcurrentMap<ObjectId, RevObject> metadata;
+
     public final boolean wasFiltered() {
         return filtered;
     }
@@ -48,6 +79,7 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
         this.source = source;
         this.sourceRepo = sourceRepo;
         this.repoFilter = repoFilter;
+        this.metadata = new ConcurrentHashMap<ObjectId, RevObject>();
         filtered = false;
     }
 
@@ -55,71 +87,105 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
      * Compute the next {@link DiffEntry} that matches our {@link RepositoryFilter}.
      */
     protected DiffEntry computeNext() {
-        while (source.hasNext()) {
-            DiffEntry input = source.next();
-
-            NodeRef oldObject = filter(input.getOldObject());
-            NodeRef newObject;
-            if (oldObject != null) {
-                newObject = input.getNewObject();
-                if (newObject != null) {
-                    // we are tracking this object, but we still need to process the new object
-                    RevObject object = sourceRepo.command(RevObjectParse.class)
-                            .setObjectId(newObject.getNode().getObjectId()).call().get();
-
-                    RevObject metadata = null;
-                    if (newObject.getMetadataId() != ObjectId.NULL) {
-                        metadata = sourceRepo.command(RevObjectParse.class)
-                                .setObjectId(newObject.getMetadataId()).call().get();
+        while (true) {
+            while (!pending.isFull() && source.hasNext()) {
+                final DiffEntry input = source.next();
+                pending.submit(new Callable<FilteredEntry>() {
+                    @Override
+                    public FilteredEntry call() {
+                        return filter(input);
                     }
-                    processObject(object);
-                    processObject(metadata);
-                }
-            } else {
-                newObject = filter(input.getNewObject());
+                });
             }
-
-            if (oldObject == null && newObject == null) {
+            if (pending.isEmpty()) {
+                return endOfData();
+            }
+            FilteredEntry next = pending.take();
+            for (RevObject object : next.toProcess) {
+                processObject(object);
+            }
+            if (next.entry == null) {
                 filtered = true;
                 continue;
             }
+            return next.entry;
+        }
+    }
 
-            return new DiffEntry(oldObject, newObject);
+    /**
+     * Filters a single entry, called from the filtering threads.
+     */
+    private FilteredEntry filter(DiffEntry input) {
+        List<RevObject> toProcess = new ArrayList<RevObject>(4);
+
+        NodeRef oldObject = filter(input.getOldObject(), toProcess);
+        NodeRef newObject;
+        if (oldObject != null) {
+            newObject = input.getNewObject();
+            if (newObject != null) {
+                // we are tracking this object, but we still need to process the new object
+                toProcess.add(getObject(newObject.getNode().getObjectId()));
+                toProcess.add(getMetadata(newObject.getMetadataId()));
+            }
+        } else {
+            newObject = filter(input.getNewObject(), toProcess);
+        }
+
+        if (oldObject == null && newObject == null) {
+            return new FilteredEntry(null, toProcess);
         }
-        return endOfData();
+        return new FilteredEntry(new DiffEntry(oldObject, newObject), toProcess);
     }
 
-    private NodeRef filter(NodeRef node) {
+    private NodeRef filter(NodeRef node, List<RevObject> toProcess) {
         if (node == null) {
             return null;
         }
 
-        RevObject object = sourceRepo.command(RevObjectParse.class)
-                .setObjectId(node.getNode().getObjectId()).call().get();
-
-        RevObject metadata = null;
-        if (node.getMetadataId() != ObjectId.NULL) {
-            metadata = sourceRepo.command(RevObjectParse.class).setObjectId(node.getMetadataId())
-                    .call().get();
-        }
+        final ObjectId objectId = node.getNode().getObjectId();
         if (node.getType() == TYPE.FEATURE) {
-            if (trackingObject(object.getId())) {
+            if (trackingObject(objectId)) {
                 // We are already tracking this object, continue to do so
                 return node;
             }
-
-            RevFeatureType revFeatureType = (RevFeatureType) metadata;
-
-            if (!repoFilter.filterObject(revFeatureType, node.getParentPath(), object)) {
+            RevFeatureType revFeatureType = (RevFeatureType) getMetadata(node.getMetadataId());
+            final RevObject[] loaded = new RevObject[1];
+            Supplier<RevObject> feature = new Supplier<RevObject>() {
+                @Override
+                public RevObject get() {
+                    loaded[0] = getObject(objectId);
+                    return loaded[0];
+                }
+            };
+            if (!repoFilter.filterFeature(revFeatureType, node.getParentPath(), node.getNode(),
+                    feature)) {
                 return null;
             }
-
+            toProcess.add(loaded[0] == null ? getObject(objectId) : loaded[0]);
+        } else {
+            toProcess.add(getObject(objectId));
         }
-        processObject(object);
-        processObject(metadata);
+        toProcess.add(getMetadata(node.getMetadataId()));
         return node;
     }
 
+    private RevObject getObject(ObjectId id) {
+        return sourceRepo.command(RevObjectParse.class).setObjectId(id).call().get();
+    }
+
+    @Nullable
+    private RevObject getMetadata(ObjectId metadataId) {
+        if (metadataId.isNull()) {
+            return null;
+        }
+        RevObject type = metadata.get(metadataId);
+        if (type == null) {
+            type = getObject(metadataId);
+            metadata.putIfAbsent(metadataId, type);
+        }
+        return type;
+    }
+
     /**
      * An overridable method for hinting that the given object should be tracked, regardless of
      * whether or not it matches the filter.
@@ -141,4 +207,18 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
 
     }
 
+    /**
+     * The result of filtering an entry, {@code entry} is {@code null} if it was filtered out.
+     */
+    private static class FilteredEntry {
+
+        final DiffEntry entry;
+
+        final List<RevObject> toProcess;
+
+        FilteredEntry(@Nullable DiffEntry entry, List<RevObject> toProcess) {
+            this.entry = entry;
+            this.toProcess = toProcess;
+        }
+    }
 }
@@ -7,8 +7,7 @@ package org.geogit.remote;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.GeoGIT;
@@ -25,9 +24,12 @@ import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
 import org.geogit.api.porcelain.SynchronizationException;
 import org.geogit.repository.Repository;
-import org.geogit.storage.ObjectInserter;
+import org.geogit.storage.ObjectIdJournal;
+import org.geogit.storage.RawObjectTransfer;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -49,7 +51,13 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
 
     private File workingDirectory;
 
-    private List<ObjectId> touchedIds;
+    /**
+     * Config key to enable sharing objects through hard links with the remote when both
+     * repositories use a file based object database
+     */
+    public static final String HARD_LINKS_CONFIG_KEY = "transfer.hardlinks";
+
+    private ObjectIdJournal touchedIds;
 
     /**
      * Constructs a new {@code LocalRemoteRepo} with the given parameters.
@@ -140,7 +148,7 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
     @Override
     public void fetchNewData(Ref ref, Optional<Integer> fetchLimit) {
 
-        touchedIds = new LinkedList<ObjectId>();
+        touchedIds = new ObjectIdJournal();
 
         CommitTraverser traverser = getFetchTraverser(fetchLimit);
 
@@ -151,12 +159,10 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
             }
 
         } catch (Exception e) {
-            for (ObjectId oid : touchedIds) {
-                localRepository.getObjectDatabase().delete(oid);
-            }
+            localRepository.getObjectDatabase().deleteAll(touchedIds.iterator());
             Throwables.propagate(e);
         } finally {
-            touchedIds.clear();
+            touchedIds.close();
             touchedIds = null;
         }
     }
@@ -171,7 +177,7 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
     public void pushNewData(Ref ref, String refspec) throws SynchronizationException {
         Optional<Ref> remoteRef = remoteGeoGit.command(RefParse.class).setName(refspec).call();
         checkPush(ref, remoteRef);
-        touchedIds = new LinkedList<ObjectId>();
+        touchedIds = new ObjectIdJournal();
 
         CommitTraverser traverser = getPushTraverser(remoteRef);
 
@@ -196,12 +202,10 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
                 }
             }
         } catch (Exception e) {
-            for (ObjectId oid : touchedIds) {
-                remoteGeoGit.getRepository().getObjectDatabase().delete(oid);
-            }
+            remoteGeoGit.getRepository().getObjectDatabase().deleteAll(touchedIds.iterator());
             Throwables.propagate(e);
         } finally {
-            touchedIds.clear();
+            touchedIds.close();
             touchedIds = null;
         }
     }
@@ -216,6 +220,12 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
         remoteGeoGit.command(UpdateRef.class).setName(refspec).setDelete(true).call();
     }
 
+    /**
+     * Copies the given commit and all the objects it references that the destination repository
+     * doesn't have yet. Objects are copied in their stored form through a
+     * {@link RawObjectTransfer}, only trees are parsed in order to find their children. The commit
+     * itself is copied last, once everything it references is in place.
+     */
     protected void walkCommit(ObjectId commitId, boolean fetch) {
         Repository from = localRepository;
         Repository to = remoteGeoGit.getRepository();
@@ -223,68 +233,64 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
             from = to;
             to = localRepository;
         }
-        ObjectInserter objectInserter = to.newObjectInserter();
+        RawObjectTransfer transfer = new RawObjectTransfer(from.getObjectDatabase(),
+                to.getObjectDatabase());
+        transfer.setHardLinks(useHardLinks()).setJournal(touchedIds);
 
         Optional<RevObject> object = from.command(RevObjectParse.class).setObjectId(commitId)
                 .call();
         if (object.isPresent() && object.get().getType().equals(TYPE.COMMIT)) {
             RevCommit commit = (RevCommit) object.get();
-            walkTree(commit.getTreeId(), from, to, objectInserter);
+            walkTree(commit.getTreeId(), from, to, transfer);
+            transfer.flush();
 
-            objectInserter.insert(commit);
-            touchedIds.add(commitId);
+            transfer.add(commitId);
+            transfer.flush();
         }
     }
 
     private void walkTree(ObjectId treeId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
+            RawObjectTransfer transfer) {
         // See if we already have it
-        if (to.getObjectDatabase().exists(treeId)) {
+        if (transfer.isPending(treeId) || to.getObjectDatabase().exists(treeId)) {
             return;
         }
 
-        Optional<RevObject> object = from.command(RevObjectParse.class).setObjectId(treeId).call();
-        if (object.isPresent() && object.get().getType().equals(TYPE.TREE)) {
-            RevTree tree = (RevTree) object.get();
-
-            objectInserter.insert(tree);
-            touchedIds.add(treeId);
+        RevTree tree = from.getObjectDatabase().getIfPresent(treeId, RevTree.class);
+        if (tree != null) {
+            transfer.add(treeId);
             // walk subtrees
             if (tree.buckets().isPresent()) {
                 for (Bucket bucket : tree.buckets().get().values()) {
-                    walkTree(bucket.id(), from, to, objectInserter);
+                    walkTree(bucket.id(), from, to, transfer);
                 }
             } else {
                 // get new objects
                 for (Iterator<Node> children = tree.children(); children.hasNext();) {
                     Node ref = children.next();
-                    moveObject(ref.getObjectId(), from, to, objectInserter);
+                    if (TYPE.TREE.equals(ref.getType())) {
+                        walkTree(ref.getObjectId(), from, to, transfer);
+                    } else {
+                        transfer.add(ref.getObjectId());
+                    }
                     ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
                     if (!metadataId.isNull()) {
-                        moveObject(metadataId, from, to, objectInserter);
+                        transfer.add(metadataId);
                     }
                 }
             }
         }
     }
 
-    private void moveObject(ObjectId objectId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(objectId)) {
-            return;
-        }
-
-        Optional<RevObject> childObject = from.command(RevObjectParse.class).setObjectId(objectId)
-                .call();
-        if (childObject.isPresent()) {
-            RevObject revObject = childObject.get();
-            if (TYPE.TREE.equals(revObject.getType())) {
-                walkTree(objectId, from, to, objectInserter);
-            }
-            objectInserter.insert(revObject);
-            touchedIds.add(objectId);
-        }
+    /**
+     * @return whether objects may be shared with the remote through hard links instead of copied,
+     *         as set by the {@link #HARD_LINKS_CONFIG_KEY} config key of the local repository
+     */
+    private boolean useHardLinks() {
+        Optional<Map<String, String>> hardLinks = localRepository.command(ConfigOp.class)
+                .setAction(ConfigAction.CONFIG_GET).setName(HARD_LINKS_CONFIG_KEY).call();
+        return hardLinks.isPresent()
+                && Boolean.parseBoolean(hardLinks.get().get(HARD_LINKS_CONFIG_KEY));
     }
 
     /**
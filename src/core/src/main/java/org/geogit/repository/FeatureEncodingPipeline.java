@@ -0,0 +1,200 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.OrderedTaskQueue;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.util.ProgressListener;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Inserts a stream of features into a tree builder, spreading the expensive part of the work over
+ * several threads.
+ * <p>
+ * The calling thread reads the features from the source in batches and submits them to a shared
+ * pool of workers, never having more than a bounded number of batches in flight. Workers build the
+ * {@link RevFeature}s, which computes their ids, create their {@link Node}s, and
+ * {@link ObjectDatabase#encode serialize and compress} them. The calling thread then
+ * takes the encoded batches back in submission order, adding the nodes to the tree builder and
+ * storing the encoded objects, so the outcome is the same as inserting the features one by one.
+ * <p>
+ * Features handed out by the source must not be reused by it, since they're processed after the
+ * source has moved past them.
+ */
+class FeatureEncodingPipeline {
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService ENCODER_EXECUTOR = OrderedTaskQueue.newWorkerPool(
+            "geogit-encoder-%d", THREADS);
+
+    /**
+     * Number of features encoded by a single task
+     */
+    static final int BATCH_SIZE = 128;
+
+    /**
+     * Maximum number of batches being encoded or waiting to be stored
+     */
+    static final int MAX_PENDING_BATCHES = 2 * THREADS;
+
+    private final ObjectDatabase database;
+
+    private final ObjectId defaultMetadataId;
+
+    private final RevTreeBuilder treeBuilder;
+
+    private final Map<Name, ObjectId> revFeatureTypes = Maps.newHashMap();
+
+    /**
+     * @param database the database to store the features and their types in
+     * @param defaultMetadataId the metadata id of the tree the features are inserted into
+     * @param treeBuilder the builder to add the feature nodes to
+     */
+    FeatureEncodingPipeline(ObjectDatabase database, ObjectId defaultMetadataId,
+            RevTreeBuilder treeBuilder) {
+        this.database = database;
+        this.defaultMetadataId = defaultMetadataId;
+        this.treeBuilder = treeBuilder;
+    }
+
+    /**
+     * Inserts all the features, or until the listener is canceled.
+     *
+     * @param features the features to insert
+     * @param listener notified of progress, if {@code collectionSize} is given, and checked for
+     *        cancellation
+     * @param insertedTarget if provided, the nodes of the inserted features are added to it, in
+     *        the same order as the features
+     * @param collectionSize the number of features, if known
+     */
+    void insert(final Iterator<? extends Feature> features, final ProgressListener listener,
+            @Nullable final List<Node> insertedTarget, @Nullable final Integer collectionSize) {
+
+        final OrderedTaskQueue<EncodedBatch> pending = new OrderedTaskQueue<EncodedBatch>(
+                ENCODER_EXECUTOR, MAX_PENDING_BATCHES);
+        int count = 0;
+        try {
+            while (features.hasNext() && !listener.isCanceled()) {
+                List<Feature> batch = new ArrayList<Feature>(BATCH_SIZE);
+                List<ObjectId> metadataIds = new ArrayList<ObjectId>(BATCH_SIZE);
+                while (batch.size() < BATCH_SIZE && features.hasNext()) {
+                    Feature feature = features.next();
+                    batch.add(feature);
+                    metadataIds.add(metadataId(feature.getType()));
+                }
+                pending.submit(new EncodeTask(batch, metadataIds, pending));
+                if (pending.isFull()) {
+                    count = store(pending.take(), insertedTarget, count);
+                    progress(listener, count, collectionSize);
+                }
+            }
+            while (!pending.isEmpty() && !listener.isCanceled()) {
+                count = store(pending.take(), insertedTarget, count);
+                progress(listener, count, collectionSize);
+            }
+        } finally {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Resolves the metadata id for features of the given type, storing the type the first time
+     * it's found. Called on the reading thread only.
+     */
+    private ObjectId metadataId(FeatureType featureType) {
+        ObjectId revFeatureTypeId = revFeatureTypes.get(featureType.getName());
+        if (null == revFeatureTypeId) {
+            RevFeatureType newFeatureType = RevFeatureType.build(featureType);
+            revFeatureTypeId = newFeatureType.getId();
+            database.put(newFeatureType);
+            revFeatureTypes.put(featureType.getName(), revFeatureTypeId);
+        }
+        return defaultMetadataId.equals(revFeatureTypeId) ? ObjectId.NULL : revFeatureTypeId;
+    }
+
+    private int store(EncodedBatch batch, @Nullable List<Node> insertedTarget, int count) {
+        for (Node node : batch.nodes) {
+            treeBuilder.put(node);
+            if (insertedTarget != null) {
+                insertedTarget.add(node);
+            }
+        }
+        database.putAllEncoded(batch.encoded);
+        return count + batch.nodes.size();
+    }
+
+    private static void progress(ProgressListener listener, int count,
+            @Nullable Integer collectionSize) {
+        if (collectionSize != null && collectionSize.intValue() > 0) {
+            listener.progress((float) (count * 100) / collectionSize.intValue());
+        }
+    }
+
+    private static class EncodedBatch {
+
+        final List<Node> nodes;
+
+        final SortedMap<ObjectId, byte[]> encoded;
+
+        EncodedBatch(List<Node> nodes, SortedMap<ObjectId, byte[]> encoded) {
+            this.nodes = nodes;
+            this.encoded = encoded;
+        }
+    }
+
+    private class EncodeTask implements Callable<EncodedBatch> {
+
+        private final List<Feature> features;
+
+        private final List<ObjectId> metadataIds;
+
+        private final OrderedTaskQueue<EncodedBatch> queue;
+
+        EncodeTask(List<Feature> features, List<ObjectId> metadataIds,
+                OrderedTaskQueue<EncodedBatch> queue) {
+            this.features = features;
+            this.metadataIds = metadataIds;
+            this.queue = queue;
+        }
+
+        @Override
+        public EncodedBatch call() {
+            final RevFeatureBuilder builder = new RevFeatureBuilder();
+            List<Node> nodes = new ArrayList<Node>(features.size());
+            SortedMap<ObjectId, byte[]> encoded = Maps.newTreeMap();
+            for (int i = 0; i < features.size() && !queue.isCancelled(); i++) {
+                Feature feature = features.get(i);
+                RevFeature revFeature = builder.build(feature);
+                nodes.add(WorkingTree.createNode(metadataIds.get(i), feature, revFeature));
+                if (!encoded.containsKey(revFeature.getId())) {
+                    encoded.put(revFeature.getId(), database.encode(revFeature));
+                }
+            }
+            // a cancelled batch is incomplete, but it's discarded anyway
+            return new EncodedBatch(nodes, encoded);
+        }
+    }
+}
@@ -22,7 +22,6 @@ import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
-import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
@@ -147,6 +146,31 @@ public class WorkingTree {
         return Suppliers.memoize(supplier);
     }
 
+    /**
+     * Starts a session that buffers feature changes and applies them to this working tree in bulk,
+     * using the {@link WorkingTreeSession#DEFAULT_BUFFER_SIZE default buffer size}.
+     * <p>
+     * Prefer a session over the single feature {@link #insert(String, Feature)} and
+     * {@link #delete(String, String)} methods when changing many features one at a time.
+     * 
+     * @return a new session, that must be {@link WorkingTreeSession#close() closed} for its last
+     *         changes to be applied
+     */
+    public WorkingTreeSession startSession() {
+        return startSession(WorkingTreeSession.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Starts a session that buffers feature changes and applies them to this working tree in bulk.
+     * 
+     * @param bufferSize the number of buffered changes after which they're applied automatically
+     * @return a new session, that must be {@link WorkingTreeSession#close() closed} for its last
+     *         changes to be applied
+     */
+    public WorkingTreeSession startSession(final int bufferSize) {
+        return new WorkingTreeSession(this, indexDatabase, commandLocator, bufferSize);
+    }
+
     /**
      * Deletes a single feature from the working tree and updates the WORK_HEAD ref.
      * 
@@ -239,40 +263,55 @@ public class WorkingTree {
      * @param filter - currently unused
      * @param affectedFeatures features to remove
      * @throws Exception
+     * @see #delete(String, Iterator)
      */
     public void delete(final Name typeName, final Filter filter,
             final Iterator<Feature> affectedFeatures) throws Exception {
 
-        Optional<NodeRef> typeTreeRef = commandLocator.command(FindTreeChild.class).setIndex(true)
-                .setParent(getTree()).setChildPath(typeName.getLocalPart()).call();
+        Iterator<String> featureIds = Iterators.transform(affectedFeatures,
+                new Function<Feature, String>() {
+                    @Override
+                    public String apply(Feature feature) {
+                        return feature.getIdentifier().getID();
+                    }
+                });
+        delete(typeName.getLocalPart(), featureIds);
+    }
 
-        ObjectId parentMetadataId = null;
-        if (typeTreeRef.isPresent()) {
-            parentMetadataId = typeTreeRef.get().getMetadataId();
+    /**
+     * Deletes features of the same tree from the working tree in bulk and updates the WORK_HEAD
+     * ref.
+     * <p>
+     * The features are removed by name in a single {@link RevTreeBuilder} pass over the tree,
+     * which is then written back once, no matter how many they are. The features are not looked
+     * up one by one, nor decoded, and ids that don't exist in the tree are ignored.
+     * 
+     * @param treePath the path of the tree the features belong to
+     * @param featureIds the ids of the features to delete
+     * @return the number of features actually deleted
+     */
+    public long delete(final String treePath, final Iterator<String> featureIds) {
+        final RevTree workHead = getTree();
+        final Optional<NodeRef> treeRef = commandLocator.command(FindTreeChild.class)
+                .setIndex(true).setParent(workHead).setChildPath(treePath).call();
+        if (!treeRef.isPresent()) {
+            return 0L;
         }
-
-        RevTreeBuilder parentTree = commandLocator.command(FindOrCreateSubtree.class)
-                .setParent(Suppliers.ofInstance(Optional.of(getTree()))).setIndex(true)
-                .setChildPath(typeName.getLocalPart()).call().builder(indexDatabase);
-
-        String fid;
-        String featurePath;
-
-        while (affectedFeatures.hasNext()) {
-            fid = affectedFeatures.next().getIdentifier().getID();
-            featurePath = NodeRef.appendChild(typeName.getLocalPart(), fid);
-            Optional<Node> ref = findUnstaged(featurePath);
-            if (ref.isPresent()) {
-                parentTree.remove(ref.get().getName());
-            }
+        final RevTree tree = indexDatabase.getTree(treeRef.get().objectId());
+        final RevTreeBuilder builder = tree.builder(indexDatabase);
+        while (featureIds.hasNext()) {
+            builder.remove(featureIds.next());
         }
-
-        ObjectId newTree = commandLocator.command(WriteBack.class)
-                .setAncestor(getTree().builder(indexDatabase)).setMetadataId(parentMetadataId)
-                .setChildPath(typeName.getLocalPart()).setToIndex(true).setTree(parentTree.build())
+        final RevTree newTree = builder.build();
+        if (newTree.getId().equals(tree.getId())) {
+            return 0L;
+        }
+        ObjectId newWorkHead = commandLocator.command(WriteBack.class)
+                .setAncestor(workHead.builder(indexDatabase)).setChildPath(treePath)
+                .setToIndex(true).setMetadataId(treeRef.get().getMetadataId()).setTree(newTree)
                 .call();
-
-        updateWorkHead(newTree);
+        updateWorkHead(newWorkHead);
+        return tree.size() - newTree.size();
     }
 
     /**
@@ -319,6 +358,8 @@ public class WorkingTree {
             String featureName = NodeRef.nodeFromPath(featurePath);
             parentTree.remove(featureName);
         }
+        // write all the trees back onto the same root, and update WORK_HEAD once
+        final RevTreeBuilder root = currentWorkHead.builder(indexDatabase);
         ObjectId newTree = null;
         for (Map.Entry<String, RevTreeBuilder> entry : parents.entrySet()) {
             String path = entry.getKey();
@@ -332,9 +373,11 @@ public class WorkingTree {
             if (currentTreeRef.isPresent()) {
                 metadataId = currentTreeRef.get().getMetadataId();
             }
-            newTree = commandLocator.command(WriteBack.class).setAncestor(getTreeSupplier())
+            newTree = commandLocator.command(WriteBack.class).setAncestor(root)
                     .setChildPath(path).setToIndex(true).setTree(newTypeTree)
                     .setMetadataId(metadataId).call();
+        }
+        if (newTree != null) {
             updateWorkHead(newTree);
         }
     }
@@ -407,10 +450,7 @@ public class WorkingTree {
 
         updateWorkHead(newTree);
 
-        final String featurePath = NodeRef.appendChild(parentTreePath, node.getName());
-        Optional<NodeRef> featureRef = commandLocator.command(FindTreeChild.class).setIndex(true)
-                .setParent(getTree()).setChildPath(featurePath).call();
-        return featureRef.get().getNode();
+        return node;
     }
 
     /**
@@ -449,64 +489,21 @@ public class WorkingTree {
         }
 
         final ObjectId defaultMetadataId = treeRef.getMetadataId();
-        final Map<Name, ObjectId> revFeatureTypes = Maps.newHashMap();
 
         final RevTreeBuilder typeTreeBuilder = commandLocator.command(FindOrCreateSubtree.class)
                 .setIndex(true).setParent(Suppliers.ofInstance(Optional.of(getTree())))
                 .setChildPath(treePath).call().builder(indexDatabase);
 
-        Iterator<RevObject> objects = Iterators.transform(features,
-                new Function<Feature, RevObject>() {
-
-                    private RevFeatureBuilder builder = new RevFeatureBuilder();
-
-                    private int count;
-
-                    @Override
-                    public RevFeature apply(Feature feature) {
-                        final RevFeature revFeature = builder.build(feature);
-                        FeatureType featureType = feature.getType();
-                        ObjectId revFeatureTypeId = revFeatureTypes.get(featureType.getName());
-
-                        if (null == revFeatureTypeId) {
-                            RevFeatureType newFeatureType = RevFeatureType.build(featureType);
-                            revFeatureTypeId = newFeatureType.getId();
-                            indexDatabase.put(newFeatureType);
-                            revFeatureTypes.put(feature.getType().getName(), revFeatureTypeId);
-                        }
-
-                        ObjectId metadataId = defaultMetadataId.equals(revFeatureTypeId) ? ObjectId.NULL
-                                : revFeatureTypeId;
-                        Node node = createNode(metadataId, feature, revFeature);
-
-                        if (insertedTarget != null) {
-                            insertedTarget.add(node);
-                        }
-                        typeTreeBuilder.put(node);
-
-                        count++;
-                        if (collectionSize != null) {
-                            listener.progress((float) (count * 100) / collectionSize.intValue());
-                        }
-                        return revFeature;
-                    }
-
-                });
-
-        // System.err.println("\n inserting rev features...");
-        // Stopwatch sw = new Stopwatch().start();
         listener.started();
-        indexDatabase.putAll(objects);
+        new FeatureEncodingPipeline(indexDatabase, defaultMetadataId, typeTreeBuilder).insert(
+                features, listener, insertedTarget, collectionSize);
+        if (listener.isCanceled()) {
+            return;
+        }
         listener.complete();
-        // sw.stop();
-        // System.err.printf("\n%d features inserted in %s", collectionSize, sw);
 
-        // System.err.println("\nBuilding final tree...");
-        // sw.reset().start();
         RevTree newFeatureTree = typeTreeBuilder.build();
         indexDatabase.put(newFeatureTree);
-        // sw.stop();
-        // System.err.println("\nfinal tree built in " + sw);
 
         ObjectId newTree = commandLocator.command(WriteBack.class).setAncestor(getTreeSupplier())
                 .setChildPath(treePath).setMetadataId(treeRef.getMetadataId()).setToIndex(true)
@@ -515,7 +512,7 @@ public class WorkingTree {
         updateWorkHead(newTree);
     }
 
-    private Node createNode(final ObjectId metadataId, Feature feature, final RevFeature revFeature) {
+    static Node createNode(final ObjectId metadataId, Feature feature, final RevFeature revFeature) {
         final String name;
         final ObjectId oid;
         final Envelope env;
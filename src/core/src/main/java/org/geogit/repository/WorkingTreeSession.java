@@ -0,0 +1,266 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.CommandLocator;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.FindOrCreateSubtree;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.WriteBack;
+import org.geogit.storage.StagingDatabase;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.Name;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Accumulates feature inserts, updates and deletes against the {@link WorkingTree} and applies
+ * them in bulk, so that a large number of single feature changes result in a single
+ * {@link RevTreeBuilder} pass per modified tree and a single WORK_HEAD update, instead of
+ * {@link WriteBack writing back} the trees up to the root once per feature.
+ * <p>
+ * Changes are kept in memory until {@link #flush()} or {@link #close()} are called, or the number
+ * of buffered changes reaches the session's buffer size, in which case they're flushed
+ * automatically. Until then, the changes are not visible through the {@code WorkingTree}. Later
+ * changes to the same feature replace the earlier ones.
+ * <p>
+ * A session is meant to be used by a single thread.
+ *
+ * @see WorkingTree#startSession()
+ */
+public class WorkingTreeSession {
+
+    /**
+     * Default number of buffered changes after which they're flushed to the working tree
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 10 * 1000;
+
+    private final WorkingTree workingTree;
+
+    private final StagingDatabase indexDatabase;
+
+    private final CommandLocator commandLocator;
+
+    private final int bufferSize;
+
+    private final RevFeatureBuilder featureBuilder = new RevFeatureBuilder();
+
+    /**
+     * Per tree path state, in the order the paths were first changed
+     */
+    private final Map<String, PathState> paths = Maps.newLinkedHashMap();
+
+    private final List<RevFeature> pendingFeatures = Lists.newArrayList();
+
+    private int buffered;
+
+    private boolean closed;
+
+    WorkingTreeSession(WorkingTree workingTree, StagingDatabase indexDatabase,
+            CommandLocator commandLocator, int bufferSize) {
+        checkArgument(bufferSize > 0, "buffer size must be positive: %s", bufferSize);
+        this.workingTree = workingTree;
+        this.indexDatabase = indexDatabase;
+        this.commandLocator = commandLocator;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Inserts or replaces a feature. If there's no tree at {@code parentTreePath} it is created on
+     * flush, with the feature's type as its default feature type.
+     *
+     * @param parentTreePath path of the parent tree to insert the feature into
+     * @param feature the feature to insert
+     * @return the node the feature will have in the working tree
+     */
+    public Node insert(final String parentTreePath, final Feature feature) {
+        checkState(!closed, "session is closed");
+        checkNotNull(parentTreePath);
+        checkNotNull(feature);
+
+        final PathState state = state(parentTreePath, feature.getType());
+        final RevFeature revFeature = featureBuilder.build(feature);
+        final ObjectId featureTypeId = state.featureTypeId(feature.getType());
+        final ObjectId metadataId = featureTypeId.equals(state.defaultMetadataId) ? ObjectId.NULL
+                : featureTypeId;
+
+        Node node = WorkingTree.createNode(metadataId, feature, revFeature);
+        pendingFeatures.add(revFeature);
+        state.changes.put(node.getName(), node);
+        changed();
+        return node;
+    }
+
+    /**
+     * Deletes a feature. Deleting a feature that doesn't exist is not an error.
+     *
+     * @param parentTreePath path of the tree the feature belongs to
+     * @param featureId the id of the feature
+     */
+    public void delete(final String parentTreePath, final String featureId) {
+        checkState(!closed, "session is closed");
+        checkNotNull(parentTreePath);
+        checkNotNull(featureId);
+
+        PathState state = state(parentTreePath, null);
+        state.changes.put(featureId, null);
+        changed();
+    }
+
+    /**
+     * @return the number of changes buffered since the last flush
+     */
+    public int getBufferedCount() {
+        return buffered;
+    }
+
+    /**
+     * Applies the buffered changes to the working tree and updates the WORK_HEAD ref, if there's
+     * anything to apply.
+     */
+    public void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        indexDatabase.putAll(pendingFeatures.iterator());
+        pendingFeatures.clear();
+
+        final RevTreeBuilder root = workingTree.getTree().builder(indexDatabase);
+        ObjectId newWorkHead = null;
+        for (Map.Entry<String, PathState> entry : paths.entrySet()) {
+            final String treePath = entry.getKey();
+            final PathState state = entry.getValue();
+            if (state.changes.isEmpty()) {
+                continue;
+            }
+            // resolve against the root being built, a previous path may be an ancestor
+            final RevTree currentRoot = root.build();
+            Optional<NodeRef> treeRef = commandLocator.command(FindTreeChild.class)
+                    .setIndex(true).setParent(currentRoot).setChildPath(treePath).call();
+            if (!treeRef.isPresent() && !state.hasInserts()) {
+                state.changes.clear();
+                continue;// only deletes against a tree that doesn't exist
+            }
+            RevTreeBuilder treeBuilder = commandLocator.command(FindOrCreateSubtree.class)
+                    .setIndex(true).setParent(currentRoot).setChildPath(treePath).call()
+                    .builder(indexDatabase);
+            for (Map.Entry<String, Node> change : state.changes.entrySet()) {
+                Node node = change.getValue();
+                if (node == null) {
+                    treeBuilder.remove(change.getKey());
+                } else {
+                    treeBuilder.put(node);
+                }
+            }
+            state.changes.clear();
+
+            ObjectId treeMetadataId = treeRef.isPresent() ? treeRef.get().getMetadataId()
+                    : state.defaultMetadataId;
+            newWorkHead = commandLocator.command(WriteBack.class).setAncestor(root)
+                    .setChildPath(treePath).setToIndex(true).setMetadataId(treeMetadataId)
+                    .setTree(treeBuilder.build()).call();
+        }
+        buffered = 0;
+        if (newWorkHead != null) {
+            workingTree.updateWorkHead(newWorkHead);
+        }
+    }
+
+    /**
+     * Flushes the buffered changes and closes the session. Calling this method more than once has
+     * no effect.
+     */
+    public void close() {
+        if (!closed) {
+            flush();
+            closed = true;
+        }
+    }
+
+    private void changed() {
+        buffered++;
+        if (buffered >= bufferSize) {
+            flush();
+        }
+    }
+
+    private PathState state(final String treePath, @Nullable final FeatureType featureType) {
+        PathState state = paths.get(treePath);
+        if (state == null) {
+            Optional<NodeRef> treeRef = commandLocator.command(FindTreeChild.class)
+                    .setIndex(true).setParent(workingTree.getTree()).setChildPath(treePath)
+                    .call();
+            state = new PathState();
+            if (treeRef.isPresent()) {
+                state.defaultMetadataId = treeRef.get().getMetadataId();
+            }
+            paths.put(treePath, state);
+        }
+        if (state.defaultMetadataId == null && featureType != null) {
+            // the tree will be created on flush with this feature type as default
+            state.defaultMetadataId = state.featureTypeId(featureType);
+        }
+        return state;
+    }
+
+    /**
+     * The buffered changes to a single tree
+     */
+    private class PathState {
+
+        /**
+         * The metadata id of the tree, {@code null} if it doesn't exist and no feature was
+         * inserted into it yet
+         */
+        @Nullable
+        ObjectId defaultMetadataId;
+
+        final Map<Name, ObjectId> featureTypes = Maps.newHashMap();
+
+        /**
+         * Changes by feature id, a {@code null} value stands for a delete
+         */
+        final Map<String, Node> changes = Maps.newHashMap();
+
+        ObjectId featureTypeId(FeatureType featureType) {
+            ObjectId id = featureTypes.get(featureType.getName());
+            if (id == null) {
+                RevFeatureType revType = RevFeatureType.build(featureType);
+                id = revType.getId();
+                indexDatabase.put(revType);
+                featureTypes.put(featureType.getName(), id);
+            }
+            return id;
+        }
+
+        boolean hasInserts() {
+            for (Node node : changes.values()) {
+                if (node != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -4,12 +4,17 @@
  */
 package org.geogit.storage;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
@@ -24,6 +29,7 @@ import org.geogit.api.RevTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Ordering;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
@@ -147,6 +153,33 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         return object;
     }
 
+    /**
+     * Reads the stored form of all the objects through {@link #getAllStoredBytes(List)}, in id
+     * order, and then parses them.
+     */
+    @Override
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+        final List<ObjectId> sortedIds = Ordering.natural().sortedCopy(ids);
+        final SortedMap<ObjectId, byte[]> stored = getAllStoredBytes(sortedIds);
+        final ObjectReader<RevObject> reader = serializationFactory.createObjectReader();
+
+        List<RevObject> objects = new ArrayList<RevObject>(stored.size());
+        for (Map.Entry<ObjectId, byte[]> e : stored.entrySet()) {
+            InputStream raw;
+            try {
+                raw = new LZFInputStream(new ByteArrayInputStream(e.getValue()));
+            } catch (IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+            try {
+                objects.add(reader.read(e.getKey(), raw));
+            } finally {
+                Closeables.closeQuietly(raw);
+            }
+        }
+        return objects.iterator();
+    }
+
     @Override
     public RevTree getTree(ObjectId id) {
         return get(id, RevTree.class);
@@ -260,6 +293,23 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         }
     }
 
+    @Override
+    public byte[] encode(RevObject object) {
+        Preconditions.checkNotNull(object);
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        writeObject(object, rawOut);
+        return rawOut.toByteArray();
+    }
+
+    /**
+     * Stores the encoded objects through {@link #putAllStoredBytes(SortedMap)}, since encoded
+     * objects are in stored form.
+     */
+    @Override
+    public void putAllEncoded(SortedMap<ObjectId, byte[]> encodedObjects) {
+        putAllStoredBytes(encodedObjects);
+    }
+
     protected void writeObject(RevObject object, OutputStream target) {
 
         ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
@@ -286,6 +336,99 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
      */
     protected abstract boolean putInternal(ObjectId id, byte[] rawData);
 
+    /**
+     * Returns the subset of {@code sortedIds} that does not exist in this database, preserving
+     * their order.
+     * <p>
+     * This default implementation calls {@link #exists(ObjectId)} for each id; subclasses may
+     * override if they can take advantage of the ids being sorted.
+     * 
+     * @param sortedIds the ids to look for, in {@link ObjectId#compareTo natural order}
+     * @return the ids not found in this database
+     */
+    protected List<ObjectId> findMissing(List<ObjectId> sortedIds) {
+        List<ObjectId> missing = new ArrayList<ObjectId>(sortedIds.size());
+        for (ObjectId id : sortedIds) {
+            if (!exists(id)) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Returns the object as it is stored in this database (i.e. compressed), without parsing nor
+     * decompressing it.
+     * 
+     * @param id the id of the object to get
+     * @return the stored bytes of the object, or {@code null} if it doesn't exist
+     */
+    @Nullable
+    protected byte[] getStoredBytes(ObjectId id) {
+        InputStream in = getRawInternal(id, false);
+        if (null == in) {
+            return null;
+        }
+        try {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Returns the stored form of several objects, as {@link #getStoredBytes(ObjectId)} does for a
+     * single one.
+     * <p>
+     * This default implementation calls {@link #getStoredBytes(ObjectId)} for each id; subclasses
+     * may override if they can take advantage of the ids being sorted.
+     * 
+     * @param sortedIds the ids of the objects to get, in {@link ObjectId#compareTo natural order}
+     * @return the stored bytes of the objects found, by id
+     */
+    protected SortedMap<ObjectId, byte[]> getAllStoredBytes(List<ObjectId> sortedIds) {
+        SortedMap<ObjectId, byte[]> stored = new TreeMap<ObjectId, byte[]>();
+        for (ObjectId id : sortedIds) {
+            byte[] bytes = getStoredBytes(id);
+            if (bytes != null) {
+                stored.put(id, bytes);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Stores objects as returned by another database's {@link #getStoredBytes(ObjectId)}, that is,
+     * already serialized and compressed, <em>only if they do not exist</em> already.
+     * <p>
+     * This default implementation calls {@link #putInternal(ObjectId, byte[])} for each object;
+     * subclasses may override if appropriate.
+     * 
+     * @param storedObjects the objects to store, sorted by id
+     */
+    protected void putAllStoredBytes(SortedMap<ObjectId, byte[]> storedObjects) {
+        for (Map.Entry<ObjectId, byte[]> e : storedObjects.entrySet()) {
+            putInternal(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Shares the stored representation of the given object with the {@code target} database
+     * without copying it, if both databases support it (e.g. through a file system hard link).
+     * <p>
+     * This default implementation does nothing and returns {@code false}.
+     * 
+     * @param id the id of the object to share
+     * @param target the database to make the object available to
+     * @return {@code true} if the object was linked into {@code target}, {@code false} if it must
+     *         be copied instead
+     */
+    protected boolean linkTo(ObjectId id, AbstractObjectDatabase target) {
+        return false;
+    }
+
     /**
      * @return a newly constructed {@link ObjectInserter} for this database
      * @see org.geogit.storage.ObjectDatabase#newObjectInserter()
@@ -7,6 +7,7 @@ package org.geogit.storage;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SortedMap;
 
 import javax.annotation.Nullable;
 
@@ -97,6 +98,15 @@ public interface ObjectDatabase {
     <T extends RevObject> T getIfPresent(ObjectId id, Class<T> type)
             throws IllegalArgumentException;
 
+    /**
+     * Reads a batch of objects out of the database at once, which implementations may do more
+     * efficiently than reading them one by one. Ids of objects that are not found are ignored.
+     * 
+     * @param ids the ids of the objects to read
+     * @return the objects found, in no particular order
+     */
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids);
+
     /**
      * Shortcut for {@link #get(ObjectId, Class) get(id, RevTree.class)}
      */
@@ -156,6 +166,25 @@ public interface ObjectDatabase {
      */
     public void putAll(Iterator<? extends RevObject> objects);
 
+    /**
+     * Serializes and compresses an object in the form this database stores it, without storing
+     * it. Meant to do the encoding work ahead of time, possibly on several threads at once, and
+     * hand the results to {@link #putAllEncoded(SortedMap)}.
+     * <p>
+     * Implementations must allow this method to be called concurrently.
+     * 
+     * @param object the object to encode
+     * @return the encoded object
+     */
+    public byte[] encode(RevObject object);
+
+    /**
+     * Stores objects encoded by {@link #encode(RevObject)}, skipping the ones that already exist.
+     * 
+     * @param encodedObjects the encoded objects, by id
+     */
+    public void putAllEncoded(SortedMap<ObjectId, byte[]> encodedObjects);
+
     public void deleteAll(Iterator<ObjectId> ids);
 
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Closeables;
+
+/**
+ * An append-only record of {@link ObjectId}s, used to keep track of the objects written by a
+ * long running operation (e.g. a fetch or push) so that they can be rolled back if it fails.
+ * <p>
+ * The ids are stored in their raw 20 byte form in a temporary file, so the journal's memory
+ * footprint does not depend on the number of ids recorded. The file is created on the first call
+ * to {@link #append(ObjectId)} and deleted by {@link #close()}.
+ */
+public class ObjectIdJournal {
+
+    private File file;
+
+    private OutputStream out;
+
+    private long size;
+
+    private final byte[] buffer = new byte[ObjectId.NUM_BYTES];
+
+    /**
+     * Records the given id.
+     * 
+     * @param id the id to append to the journal
+     */
+    public void append(ObjectId id) {
+        Preconditions.checkNotNull(id);
+        try {
+            if (out == null) {
+                Preconditions.checkState(file == null, "journal is closed");
+                file = File.createTempFile("geogit-", ".journal");
+                file.deleteOnExit();
+                out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+            }
+            id.getRawValue(buffer);
+            out.write(buffer);
+            size++;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return the number of ids recorded so far
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the recorded ids in the order they were appended. Appending to the journal while
+     * iterating over the result is not supported.
+     */
+    public Iterator<ObjectId> iterator() {
+        if (size == 0) {
+            return Iterators.emptyIterator();
+        }
+        final DataInputStream in;
+        try {
+            out.flush();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    64 * 1024));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return new AbstractIterator<ObjectId>() {
+
+            private long read;
+
+            @Override
+            protected ObjectId computeNext() {
+                if (read == size) {
+                    Closeables.closeQuietly(in);
+                    return endOfData();
+                }
+                byte[] raw = new byte[ObjectId.NUM_BYTES];
+                try {
+                    in.readFully(raw);
+                } catch (EOFException e) {
+                    Closeables.closeQuietly(in);
+                    return endOfData();
+                } catch (IOException e) {
+                    Closeables.closeQuietly(in);
+                    throw Throwables.propagate(e);
+                }
+                read++;
+                return ObjectId.createNoClone(raw);
+            }
+        };
+    }
+
+    /**
+     * Discards the journal and its backing file.
+     */
+    public void close() {
+        Closeables.closeQuietly(out);
+        out = null;
+        if (file != null) {
+            file.delete();
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * A bounded queue of tasks run on a pool of worker threads, whose results are taken back in
+ * submission order.
+ * <p>
+ * Meant for pipelines where a single thread splits the work in chunks, hands them to the workers
+ * and consumes their results in order, never having more than a bounded number of chunks in flight
+ * so that the results don't pile up in memory. Instances are not thread safe, they shall only be
+ * used by the thread driving the pipeline.
+ * <p>
+ * Worker threads are never interrupted, since interrupting a thread while it does I/O on an object
+ * database may break the database for good (e.g. BerkeleyDB JE invalidates its whole environment).
+ * Instead, {@link #cancel()} discards the tasks that haven't started yet and waits for the running
+ * ones to finish. Tasks that work through several items should check {@link #isCancelled()}
+ * between them to finish early.
+ *
+ * @param <T> the type of the task results
+ */
+public class OrderedTaskQueue<T> {
+
+    private final ExecutorService executor;
+
+    private final int maxPending;
+
+    private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+
+    private volatile boolean cancelled;
+
+    /**
+     * Number of tasks running on the workers, guarded by {@code this}
+     */
+    private int running;
+
+    /**
+     * @param executor the pool of workers to run the tasks on
+     * @param maxPending the number of tasks in flight from which the queue {@link #isFull() is
+     *        full}
+     */
+    public OrderedTaskQueue(ExecutorService executor, int maxPending) {
+        checkArgument(maxPending > 0, "maxPending must be positive");
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Creates a pool of daemon worker threads to be shared by the queues of a kind of task.
+     *
+     * @param nameFormat the format of the thread names, e.g. {@code geogit-encoder-%d}
+     * @param threads the number of threads
+     */
+    public static ExecutorService newWorkerPool(String nameFormat, int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat).setDaemon(true).build());
+    }
+
+    /**
+     * Hands a task to the workers.
+     *
+     * @throws IllegalStateException if the queue was cancelled
+     */
+    public void submit(final Callable<T> task) {
+        checkState(!cancelled, "the queue was cancelled");
+        pending.add(executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                synchronized (OrderedTaskQueue.this) {
+                    if (cancelled) {
+                        return null;
+                    }
+                    running++;
+                }
+                try {
+                    return task.call();
+                } finally {
+                    synchronized (OrderedTaskQueue.this) {
+                        running--;
+                        OrderedTaskQueue.this.notifyAll();
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits for the oldest task in flight to finish and returns its result. If the task failed,
+     * the queue is cancelled and the task's exception rethrown.
+     *
+     * @throws IllegalStateException if the queue is empty
+     */
+    public T take() {
+        checkState(!pending.isEmpty(), "there are no tasks in flight");
+        Future<T> next = pending.removeFirst();
+        try {
+            return Uninterruptibles.getUninterruptibly(next);
+        } catch (ExecutionException e) {
+            cancel();
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return whether no more tasks shall be submitted until some results are taken
+     */
+    public boolean isFull() {
+        return pending.size() >= maxPending;
+    }
+
+    /**
+     * @return whether there are no tasks in flight
+     */
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return whether the queue was cancelled, to be checked by long running tasks
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Discards the tasks in flight, without interrupting the ones that are running, and waits for
+     * those to finish. Calling it more than once, or after all the results have been taken, has no
+     * effect besides preventing further submissions.
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+        }
+        for (Future<T> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+
+        boolean interrupted = false;
+        synchronized (this) {
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
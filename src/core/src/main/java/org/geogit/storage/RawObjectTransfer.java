@@ -0,0 +1,187 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+/**
+ * Copies objects between two {@link ObjectDatabase}s in their stored form, avoiding the cost of
+ * parsing, re-serializing and re-compressing them.
+ * <p>
+ * Objects are queued with {@link #add(ObjectId)} and transferred in batches sorted by id, with a
+ * single existence check per batch against the target database. When both databases are
+ * {@link AbstractObjectDatabase}s, the compressed bytes are moved as is, and may even be shared
+ * through {@link AbstractObjectDatabase#linkTo hard links} if {@link #setHardLinks(boolean)
+ * enabled} and supported by both backends. Otherwise the transfer falls back to
+ * {@link ObjectDatabase#getRaw(ObjectId)} and {@link ObjectDatabase#put(ObjectId, InputStream)}.
+ * <p>
+ * This class is not thread safe.
+ */
+public class RawObjectTransfer {
+
+    /**
+     * Default number of objects transferred at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final ObjectDatabase from;
+
+    private final ObjectDatabase to;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private boolean hardLinks;
+
+    @Nullable
+    private ObjectIdJournal journal;
+
+    private final TreeSet<ObjectId> pending = new TreeSet<ObjectId>();
+
+    private long transferred;
+
+    /**
+     * @param from the database to copy objects from
+     * @param to the database to copy objects to
+     */
+    public RawObjectTransfer(ObjectDatabase from, ObjectDatabase to) {
+        Preconditions.checkNotNull(from);
+        Preconditions.checkNotNull(to);
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param batchSize the maximum number of objects to queue before they are transferred
+     * @return {@code this}
+     */
+    public RawObjectTransfer setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param hardLinks whether to share objects through hard links instead of copying them, when
+     *        both databases support it
+     * @return {@code this}
+     */
+    public RawObjectTransfer setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+        return this;
+    }
+
+    /**
+     * @param journal where to record the ids of the objects actually written to the target
+     *        database, or {@code null}
+     * @return {@code this}
+     */
+    public RawObjectTransfer setJournal(@Nullable ObjectIdJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Queues the object with the given id for transfer, transferring the current batch if it's
+     * full. Objects that already exist in the target database are skipped.
+     * 
+     * @param id the id of the object to copy
+     */
+    public void add(ObjectId id) {
+        if (pending.add(id) && pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * @return {@code true} if the object with the given id is queued and hasn't been transferred
+     *         yet
+     */
+    public boolean isPending(ObjectId id) {
+        return pending.contains(id);
+    }
+
+    /**
+     * @return the number of objects written to the target database so far
+     */
+    public long getTransferredCount() {
+        return transferred;
+    }
+
+    /**
+     * Transfers all the queued objects.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ObjectId> sortedIds = new ArrayList<ObjectId>(pending);
+        pending.clear();
+
+        if (from instanceof AbstractObjectDatabase && to instanceof AbstractObjectDatabase) {
+            copyStored((AbstractObjectDatabase) from, (AbstractObjectDatabase) to, sortedIds);
+        } else {
+            copyRaw(sortedIds);
+        }
+    }
+
+    private void copyStored(AbstractObjectDatabase from, AbstractObjectDatabase to,
+            List<ObjectId> sortedIds) {
+
+        final List<ObjectId> missing = to.findMissing(sortedIds);
+
+        SortedMap<ObjectId, byte[]> stored = Maps.newTreeMap();
+        for (ObjectId id : missing) {
+            if (hardLinks && from.linkTo(id, to)) {
+                written(id);
+                continue;
+            }
+            byte[] bytes = from.getStoredBytes(id);
+            if (bytes != null) {
+                stored.put(id, bytes);
+            }
+        }
+        if (!stored.isEmpty()) {
+            to.putAllStoredBytes(stored);
+            for (ObjectId id : stored.keySet()) {
+                written(id);
+            }
+        }
+    }
+
+    private void copyRaw(List<ObjectId> sortedIds) {
+        for (ObjectId id : sortedIds) {
+            if (to.exists(id) || !from.exists(id)) {
+                continue;
+            }
+            InputStream raw = from.getRaw(id);
+            try {
+                if (to.put(id, raw)) {
+                    written(id);
+                }
+            } finally {
+                Closeables.closeQuietly(raw);
+            }
+        }
+    }
+
+    private void written(ObjectId id) {
+        transferred++;
+        if (journal != null) {
+            journal.append(id);
+        }
+    }
+}
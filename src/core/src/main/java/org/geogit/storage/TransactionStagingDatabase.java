@@ -5,6 +5,7 @@ import static org.geogit.api.Ref.append;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SortedMap;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -193,6 +194,14 @@ public class TransactionStagingDatabase implements StagingDatabase {
         return database.newObjectInserter();
     }
 
+    /**
+     * Pass through to the original {@link StagingDatabase}.
+     */
+    @Override
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+        return database.getAll(ids);
+    }
+
     /**
      * Pass through to the original {@link StagingDatabase}.
      */
@@ -217,6 +226,22 @@ public class TransactionStagingDatabase implements StagingDatabase {
         database.putAll(objects);
     }
 
+    /**
+     * Pass through to the original {@link StagingDatabase}.
+     */
+    @Override
+    public byte[] encode(RevObject object) {
+        return database.encode(object);
+    }
+
+    /**
+     * Pass through to the original {@link StagingDatabase}.
+     */
+    @Override
+    public void putAllEncoded(SortedMap<ObjectId, byte[]> encodedObjects) {
+        database.putAllEncoded(encodedObjects);
+    }
+
     /**
      * Pass through to {@link StagingDatabase}, replacing the namespace with the transaction
      * namespace.
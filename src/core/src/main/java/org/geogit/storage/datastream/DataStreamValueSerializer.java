@@ -2,6 +2,7 @@ package org.geogit.storage.datastream;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -473,4 +474,86 @@ public class DataStreamValueSerializer {
             throw new IllegalArgumentException("The specified type is not supported");
         }
     }
+
+    /**
+     * Skips over a value of the specified type in the provided data stream, without decoding it
+     * when its encoded length can be known up front.
+     * 
+     * @param type the type of the value to skip
+     * @param in the stream positioned at the start of the value
+     */
+    public static void skip(FieldType type, DataInput in) throws IOException {
+        switch (type) {
+        case NULL:
+            break;
+        case BOOLEAN:
+        case BYTE:
+            skipFully(in, 1);
+            break;
+        case SHORT:
+            skipFully(in, 2);
+            break;
+        case INTEGER:
+        case FLOAT:
+            skipFully(in, 4);
+            break;
+        case LONG:
+        case DOUBLE:
+        case DATETIME:
+        case DATE:
+        case TIME:
+            skipFully(in, 8);
+            break;
+        case TIMESTAMP:
+            skipFully(in, 12);
+            break;
+        case UUID:
+            skipFully(in, 16);
+            break;
+        case STRING:
+            skipFully(in, in.readUnsignedShort());
+            break;
+        case BYTE_ARRAY:
+        case BIG_INTEGER:
+        case POINT:
+        case LINESTRING:
+        case POLYGON:
+        case MULTIPOINT:
+        case MULTILINESTRING:
+        case MULTIPOLYGON:
+        case GEOMETRYCOLLECTION:
+        case GEOMETRY:
+            skipFully(in, in.readInt());
+            break;
+        case BIG_DECIMAL:
+            skipFully(in, 4);
+            skipFully(in, in.readInt());
+            break;
+        case SHORT_ARRAY:
+            skipFully(in, 2 * in.readInt());
+            break;
+        case INTEGER_ARRAY:
+        case FLOAT_ARRAY:
+            skipFully(in, 4 * in.readInt());
+            break;
+        case LONG_ARRAY:
+        case DOUBLE_ARRAY:
+            skipFully(in, 8 * in.readInt());
+            break;
+        case STRING_ARRAY:
+            for (int i = in.readInt(); i > 0; i--) {
+                skipFully(in, in.readUnsignedShort());
+            }
+            break;
+        default:
+            // consume it exactly the way read() does
+            read(type, in);
+        }
+    }
+
+    private static void skipFully(DataInput in, int len) throws IOException {
+        if (in.skipBytes(len) != len) {
+            throw new EOFException();
+        }
+    }
 }
@@ -4,10 +4,9 @@
  */
 package org.geogit.storage.datastream;
 
-import static org.geogit.storage.datastream.FormatCommon.readFeature;
+import static org.geogit.storage.datastream.FormatCommon.readLazyFeature;
 import static org.geogit.storage.datastream.FormatCommon.requireHeader;
 
-import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,10 +21,10 @@ public class FeatureReader implements ObjectReader<RevFeature> {
 
     @Override
     public RevFeature read(ObjectId id, InputStream rawData) throws IllegalArgumentException {
-        DataInput in = new DataInputStream(rawData);
+        DataInputStream in = new DataInputStream(rawData);
         try {
             requireHeader(in, "feature");
-            return readFeature(id, in);
+            return readLazyFeature(id, in);
         } catch (IOException e) {
             Throwables.propagate(e);
         }
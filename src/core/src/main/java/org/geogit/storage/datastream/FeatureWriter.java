@@ -22,6 +22,11 @@ public class FeatureWriter implements ObjectWriter<RevFeature> {
     public void write(RevFeature feature, OutputStream out) throws IOException {
         DataOutput data = new DataOutputStream(out);
         writeHeader(data, "feature");
+        if (feature instanceof LazyRevFeature) {
+            // still in its serialized form, no need to encode the values again
+            data.write(((LazyRevFeature) feature).buffer());
+            return;
+        }
         data.writeInt(feature.getValues().size());
         for (Optional<Object> field : feature.getValues()) {
             FieldType type = FieldType.forValue(field);
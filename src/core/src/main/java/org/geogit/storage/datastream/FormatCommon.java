@@ -7,6 +7,7 @@ package org.geogit.storage.datastream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,6 +46,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.io.ByteStreams;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -294,6 +296,18 @@ public class FormatCommon {
         return new RevFeature(id, builder.build());
     }
 
+    /**
+     * Reads a feature whose values are decoded lazily, on first access.
+     * 
+     * @param id the id of the feature
+     * @param in the stream, positioned after the header, to read the whole feature from
+     * @return a feature that keeps the serialized values and decodes them on demand
+     * @see LazyRevFeature
+     */
+    public static RevFeature readLazyFeature(ObjectId id, InputStream in) throws IOException {
+        return new LazyRevFeature(id, ByteStreams.toByteArray(in));
+    }
+
     public static RevFeatureType readFeatureType(ObjectId id, DataInput in) throws IOException {
         return readFeatureType(id, in, DEFAULT_FEATURETYPE_FACTORY);
     }
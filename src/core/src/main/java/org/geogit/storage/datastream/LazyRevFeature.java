@@ -0,0 +1,107 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A {@link RevFeature} that keeps its serialized form and decodes each value the first time it's
+ * asked for.
+ * <p>
+ * On construction the buffer is only scanned to build a table with the offset of each value,
+ * skipping over them without decoding, so that reading a feature costs little more than copying
+ * its bytes, and accessing a single value, say an integer attribute of a 60 attribute feature,
+ * doesn't pay for parsing the rest. Geometries, the most expensive values to decode, are only
+ * parsed from WKB when they're accessed.
+ * <p>
+ * Decoded values are cached, and instances are safe to share among threads.
+ */
+final class LazyRevFeature extends RevFeature {
+
+    /**
+     * The serialized values, as written by {@link FeatureWriter}, after the header
+     */
+    private final byte[] buffer;
+
+    /**
+     * Offset in {@link #buffer} of the type tag of each value
+     */
+    private final int[] offsets;
+
+    private final AtomicReferenceArray<Optional<Object>> decoded;
+
+    /**
+     * @param id the id of the feature
+     * @param buffer the serialized feature, starting at the value count
+     * @throws IOException if the buffer is truncated
+     */
+    LazyRevFeature(ObjectId id, byte[] buffer) throws IOException {
+        super(id);
+        this.buffer = buffer;
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(buffer);
+        final DataInputStream in = new DataInputStream(bytes);
+        final int count = in.readInt();
+        this.offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = buffer.length - bytes.available();
+            final FieldType fieldType = FieldType.valueOf(in.readByte());
+            DataStreamValueSerializer.skip(fieldType, in);
+        }
+        this.decoded = new AtomicReferenceArray<Optional<Object>>(count);
+    }
+
+    @Override
+    public Optional<Object> get(final int index) {
+        Optional<Object> value = decoded.get(index);
+        if (value == null) {
+            final ByteArrayDataInput in = ByteStreams.newDataInput(buffer, offsets[index]);
+            final FieldType fieldType = FieldType.valueOf(in.readByte());
+            try {
+                value = Optional.fromNullable(DataStreamValueSerializer.read(fieldType, in));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            // decoding twice on a race is harmless, keep the first one
+            if (!decoded.compareAndSet(index, null, value)) {
+                value = decoded.get(index);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the serialized values, not to be modified
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (int i = 0; i < offsets.length; i++) {
+            builder.add(get(i));
+        }
+        return builder.build();
+    }
+}
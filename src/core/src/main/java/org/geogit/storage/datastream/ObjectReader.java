@@ -6,13 +6,12 @@ package org.geogit.storage.datastream;
 
 import static org.geogit.storage.datastream.FormatCommon.NUL;
 import static org.geogit.storage.datastream.FormatCommon.readCommit;
-import static org.geogit.storage.datastream.FormatCommon.readFeature;
 import static org.geogit.storage.datastream.FormatCommon.readFeatureType;
+import static org.geogit.storage.datastream.FormatCommon.readLazyFeature;
 import static org.geogit.storage.datastream.FormatCommon.readTag;
 import static org.geogit.storage.datastream.FormatCommon.readToMarker;
 import static org.geogit.storage.datastream.FormatCommon.readTree;
 
-import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,7 +22,7 @@ import org.geogit.api.RevObject;
 public class ObjectReader implements org.geogit.storage.ObjectReader<RevObject> {
     @Override
     public RevObject read(ObjectId id, InputStream rawData) throws IllegalArgumentException {
-        DataInput in = new DataInputStream(rawData);
+        DataInputStream in = new DataInputStream(rawData);
         try {
             return readData(id, in);
         } catch (IOException e) {
@@ -31,14 +30,14 @@ public class ObjectReader implements org.geogit.storage.ObjectReader<RevObject>
         }
     }
 
-    private RevObject readData(ObjectId id, DataInput in) throws IOException {
+    private RevObject readData(ObjectId id, DataInputStream in) throws IOException {
         String header = readToMarker(in, NUL);
         if ("commit".equals(header))
             return readCommit(id, in);
         else if ("tree".equals(header))
             return readTree(id, in);
         else if ("feature".equals(header))
-            return readFeature(id, in);
+            return readLazyFeature(id, in);
         else if ("featuretype".equals(header))
             return readFeatureType(id, in);
         else if ("tag".equals(header))
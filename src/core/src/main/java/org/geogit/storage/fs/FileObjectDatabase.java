@@ -183,6 +183,28 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         return true;
     }
 
+    /**
+     * Hard links the object file into {@code target} if it's also a {@code FileObjectDatabase} and
+     * the file system supports it. Objects are immutable and never overwritten, so sharing the
+     * file between both databases is safe.
+     */
+    @Override
+    protected boolean linkTo(final ObjectId id, final AbstractObjectDatabase target) {
+        if (!(target instanceof FileObjectDatabase) || !HardLinks.isSupported()) {
+            return false;
+        }
+        final File source = filePath(id);
+        final File link = ((FileObjectDatabase) target).filePath(id);
+        if (link.exists()) {
+            return true;
+        }
+        final File parent = link.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new RuntimeException("Can't create " + parent.getAbsolutePath());
+        }
+        return HardLinks.link(source, link);
+    }
+
     /**
      * Deletes the object with the provided {@link ObjectId id} from the database.
      * 
@@ -247,7 +269,8 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     @Override
     public void deleteAll(Iterator<ObjectId> ids) {
-        throw new UnsupportedOperationException(
-                "This method is not yet implemented");        
+        while (ids.hasNext()) {
+            delete(ids.next());
+        }
     }
 }
@@ -0,0 +1,76 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Isolates the use of {@code java.nio.file} to create file system hard links, so that
+ * {@link FileObjectDatabase} can still be loaded on runtimes that lack it.
+ * <p>
+ * The module targets Java 6, so {@code Files.createLink} and {@code File.toPath} are looked up
+ * and called through reflection instead of being linked against.
+ */
+class HardLinks {
+
+    private static final Method TO_PATH;
+
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath;
+        Method createLink;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> filesClass = Class.forName("java.nio.file.Files");
+            toPath = File.class.getMethod("toPath");
+            createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+        } catch (ClassNotFoundException e) {
+            toPath = null;
+            createLink = null;
+        } catch (NoSuchMethodException e) {
+            toPath = null;
+            createLink = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
+
+    /**
+     * @return whether hard links can be created on this runtime
+     */
+    public static boolean isSupported() {
+        return CREATE_LINK != null;
+    }
+
+    /**
+     * Creates {@code link} as a hard link to {@code existing}.
+     * 
+     * @return {@code true} if the link was created, {@code false} if the file system doesn't
+     *         support it (e.g. the files are on different devices)
+     */
+    public static boolean link(File existing, File link) {
+        if (!isSupported()) {
+            return false;
+        }
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+            return true;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnsupportedOperationException || cause instanceof IOException) {
+                return false;
+            }
+            throw Throwables.propagate(cause);
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
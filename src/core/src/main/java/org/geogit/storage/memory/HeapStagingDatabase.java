@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,7 +30,9 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.inject.Inject;
 import com.ning.compress.lzf.LZFInputStream;
@@ -141,6 +144,23 @@ public class HeapStagingDatabase extends HeapObjectDatabse implements StagingDat
         return obj;
     }
 
+    /**
+     * Reads the objects found in this database first, and the missing ones from the repository
+     * database.
+     */
+    @Override
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+        List<RevObject> found = Lists.newArrayList(super.getAll(ids));
+        Set<ObjectId> missing = Sets.newHashSet(ids);
+        for (RevObject object : found) {
+            missing.remove(object.getId());
+        }
+        if (!missing.isEmpty()) {
+            Iterators.addAll(found, repositoryDb.getAll(missing));
+        }
+        return found.iterator();
+    }
+
     @Override
     public @Nullable
     RevObject getIfPresent(ObjectId id) {
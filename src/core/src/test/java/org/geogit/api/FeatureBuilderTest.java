@@ -1,9 +1,11 @@
 package org.geogit.api;
 
 import org.geogit.test.integration.RepositoryTestCase;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.junit.Test;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 public class FeatureBuilderTest extends RepositoryTestCase {
 
@@ -33,4 +35,21 @@ public class FeatureBuilderTest extends RepositoryTestCase {
         assertEquals(((SimpleFeature) test).getAttributes(),
                 ((SimpleFeature) test2).getAttributes());
     }
+
+    @Test
+    public void testRetypedFeatureBuilder() {
+        SimpleFeatureType targetType = SimpleFeatureTypeBuilder.retype(pointsType, new String[] {
+                "pp", "ip" });
+        FeatureBuilder builder = new FeatureBuilder(RevFeatureType.build(pointsType), targetType);
+        RevFeature point1 = new RevFeatureBuilder().build(points1);
+
+        SimpleFeature test = (SimpleFeature) builder.build(idP1, point1);
+
+        assertEquals(targetType, test.getType());
+        assertEquals(2, test.getAttributeCount());
+        assertEquals(((SimpleFeature) points1).getAttribute("pp"), test.getAttribute(0));
+        assertEquals(((SimpleFeature) points1).getAttribute("ip"), test.getAttribute(1));
+        assertEquals(((SimpleFeature) points1).getDefaultGeometry(), test.getDefaultGeometry());
+        assertNull(test.getAttribute("sp"));
+    }
 }
@@ -0,0 +1,92 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class RepositoryFilterTest extends RepositoryTestCase {
+
+    private RevFeatureType type;
+
+    private RevFeature feature;
+
+    private Node node;
+
+    private int decoded;
+
+    private Supplier<RevObject> supplier;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        type = RevFeatureType.build(pointsType);
+        feature = new RevFeatureBuilder().build(points1);
+        // points1 is POINT(1 1)
+        node = Node.create(idP1, feature.getId(), type.getId(), TYPE.FEATURE, new Envelope(1, 1,
+                1, 1));
+        decoded = 0;
+        supplier = new Supplier<RevObject>() {
+            @Override
+            public RevObject get() {
+                decoded++;
+                return feature;
+            }
+        };
+    }
+
+    private RepositoryFilter filter(String cql) {
+        RepositoryFilter filter = new RepositoryFilter();
+        filter.addFilter("default", "CQL", cql);
+        return filter;
+    }
+
+    @Test
+    public void testBoundsOutsideFilterAreRejectedWithoutDecoding() {
+        RepositoryFilter filter = filter("BBOX(pp, 5, 5, 10, 10)");
+        assertFalse(filter.filterFeature(type, pointsName, node, supplier));
+        assertEquals(0, decoded);
+    }
+
+    @Test
+    public void testBoundsInsideBoxAreAcceptedWithoutDecoding() {
+        RepositoryFilter filter = filter("BBOX(pp, 0, 0, 1.5, 1.5)");
+        assertTrue(filter.filterFeature(type, pointsName, node, supplier));
+        assertEquals(0, decoded);
+    }
+
+    @Test
+    public void testResidualFilterIsEvaluatedInsideBox() {
+        assertTrue(filter("BBOX(pp, 0, 0, 1.5, 1.5) AND sp = 'StringProp1_1'").filterFeature(
+                type, pointsName, node, supplier));
+        assertEquals(1, decoded);
+        assertFalse(filter("BBOX(pp, 0, 0, 1.5, 1.5) AND sp = 'residual'").filterFeature(type,
+                pointsName, node, supplier));
+        assertEquals(2, decoded);
+        assertFalse(filter("BBOX(pp, 5, 5, 10, 10) AND sp = 'StringProp1_1'").filterFeature(type,
+                pointsName, node, supplier));
+        assertEquals(2, decoded);
+    }
+
+    @Test
+    public void testNonSpatialFilterMatchesFilterObject() {
+        RepositoryFilter filter = filter("ip = 1000");
+        assertTrue(filter.filterFeature(type, pointsName, node, supplier));
+        assertTrue(filter.filterObject(type, pointsName, feature));
+        assertFalse(filter("ip = 1001").filterObject(type, pointsName, feature));
+    }
+
+    @Test
+    public void testResultsAreSharedBetweenFilters() {
+        String cql = "ip > 999 AND sp = 'StringProp1_1' AND ip < 1001";
+        assertTrue(filter(cql).filterFeature(type, pointsName, node, supplier));
+        assertEquals(1, decoded);
+        assertTrue(filter(cql).filterFeature(type, pointsName, node, supplier));
+        assertEquals(1, decoded);
+    }
+}
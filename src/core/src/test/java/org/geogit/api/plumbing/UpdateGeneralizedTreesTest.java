@@ -0,0 +1,166 @@
+package org.geogit.api.plumbing;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.MergeOp;
+import org.geogit.api.porcelain.RebaseOp;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class UpdateGeneralizedTreesTest extends RepositoryTestCase {
+
+    private Feature zigzag;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.getConfigDatabase().put("user.name", "groldan");
+        repo.getConfigDatabase().put("user.email", "groldan@opengeo.org");
+        repo.getConfigDatabase().put(UpdateGeneralizedTrees.TOLERANCES_CONFIG, "0.1, 1");
+        zigzag = feature(linesType, "Lines.zigzag", "zigzag", new Integer(10),
+                "LINESTRING(0 0, 1 0.01, 2 0, 3 0.01, 4 0)");
+    }
+
+    @Test
+    public void testGeneralizedOnCommit() throws Exception {
+        insertAndAdd(points1, zigzag);
+        geogit.command(CommitOp.class).call();
+
+        final ObjectId linesTree = treeId("HEAD:" + linesName);
+        assertFalse(generalized(linesTree, 0.05).isPresent());
+        Optional<ObjectId> fine = generalized(linesTree, 0.5);
+        assertTrue(fine.isPresent());
+        assertTrue(generalized(linesTree, 5).isPresent());
+
+        Map<String, ObjectId> lines = features(fine.get());
+        assertEquals(ImmutableSet.of("Lines.zigzag"), lines.keySet());
+        RevFeature simplified = geogit.getRepository().getObjectDatabase()
+                .getFeature(lines.get("Lines.zigzag"));
+        assertEquals(2, ((Geometry) simplified.getValues().get(2).get()).getNumPoints());
+
+        // features with nothing to simplify are shared with the original tree
+        final ObjectId pointsTree = treeId("HEAD:" + pointsName);
+        Map<String, ObjectId> points = features(generalized(pointsTree, 0.5).get());
+        assertEquals(features(pointsTree), points);
+    }
+
+    @Test
+    public void testGeneralizedIncrementally() throws Exception {
+        insertAndAdd(zigzag, lines2);
+        geogit.command(CommitOp.class).call();
+        ObjectId previous = generalized(treeId("HEAD:" + linesName), 0.5).get();
+
+        insertAndAdd(lines1);
+        deleteAndAdd(lines2);
+        geogit.command(CommitOp.class).call();
+
+        Map<String, ObjectId> lines = features(generalized(treeId("HEAD:" + linesName), 0.5)
+                .get());
+        assertEquals(ImmutableSet.of("Lines.zigzag", "Lines.1"), lines.keySet());
+        assertEquals(features(previous).get("Lines.zigzag"), lines.get("Lines.zigzag"));
+    }
+
+    @Test
+    public void testNoTolerancesConfigured() throws Exception {
+        repo.getConfigDatabase().remove(UpdateGeneralizedTrees.TOLERANCES_CONFIG);
+        insertAndAdd(zigzag);
+        geogit.command(CommitOp.class).call();
+
+        assertFalse(geogit.command(RefParse.class).setName(UpdateGeneralizedTrees.INDEX_REF)
+                .call().isPresent());
+    }
+
+    @Test
+    public void testGeneralizedOnFastForward() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        // a commit that wasn't generalized, as if it had been fetched
+        commitWithoutGeneralizing(zigzag);
+        Ref branch = geogit.command(RefParse.class).setName("branch1").call().get();
+        assertFalse(generalized(treeId("branch1:" + linesName), 0.5).isPresent());
+
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        geogit.command(MergeOp.class).addCommit(Suppliers.ofInstance(branch.getObjectId())).call();
+
+        assertTrue(generalized(treeId("HEAD:" + linesName), 0.5).isPresent());
+    }
+
+    @Test
+    public void testGeneralizedOnRebase() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        insertAndAdd(zigzag);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        commitWithoutGeneralizing(points2);
+        Ref master = geogit.command(RefParse.class).setName("master").call().get();
+        assertFalse(generalized(treeId("master:" + pointsName), 0.5).isPresent());
+
+        geogit.command(CheckoutOp.class).setSource("branch1").call();
+        geogit.command(RebaseOp.class).setUpstream(Suppliers.ofInstance(master.getObjectId()))
+                .call();
+
+        assertTrue(generalized(treeId("HEAD:" + pointsName), 0.5).isPresent());
+        assertTrue(generalized(treeId("HEAD:" + linesName), 0.5).isPresent());
+    }
+
+    @Test
+    public void testPolygonsKeepTheirTopology() throws Exception {
+        Geometry square = new WKTReader().read("POLYGON((0 0, 0 1, 1 1, 1 0, 0 0))");
+        RevFeature feature = RevFeature.build(ImmutableList.of(Optional.<Object> of(square)));
+
+        // plain Douglas-Peucker would collapse it into an empty polygon
+        RevFeature simplified = UpdateGeneralizedTrees.simplify(feature, 5);
+        Geometry polygon = (Geometry) simplified.getValues().get(0).get();
+        assertFalse(polygon.isEmpty());
+        assertTrue(polygon.isValid());
+    }
+
+    private void commitWithoutGeneralizing(Feature feature) throws Exception {
+        repo.getConfigDatabase().remove(UpdateGeneralizedTrees.TOLERANCES_CONFIG);
+        insertAndAdd(feature);
+        geogit.command(CommitOp.class).call();
+        repo.getConfigDatabase().put(UpdateGeneralizedTrees.TOLERANCES_CONFIG, "0.1, 1");
+    }
+
+    private ObjectId treeId(String refSpec) {
+        return geogit.command(RevParse.class).setRefSpec(refSpec).call().get();
+    }
+
+    private Optional<ObjectId> generalized(ObjectId treeId, double distance) {
+        return geogit.command(FindGeneralizedTree.class).setTreeId(treeId)
+                .setDistance(distance).call();
+    }
+
+    private Map<String, ObjectId> features(ObjectId treeId) {
+        RevTree tree = geogit.getRepository().getTree(treeId);
+        Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL, tree, geogit
+                .getRepository().getObjectDatabase(), DepthTreeIterator.Strategy.FEATURES_ONLY);
+        Map<String, ObjectId> features = Maps.newHashMap();
+        while (nodes.hasNext()) {
+            NodeRef node = nodes.next();
+            features.put(node.name(), node.objectId());
+        }
+        return features;
+    }
+}
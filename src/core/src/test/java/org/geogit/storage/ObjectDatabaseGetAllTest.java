@@ -0,0 +1,88 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geogit.storage.memory.HeapStagingDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ObjectDatabaseGetAllTest extends Assert {
+
+    private ObjectDatabase repositoryDb;
+
+    private HeapStagingDatabase stagingDb;
+
+    @Before
+    public void setUp() {
+        repositoryDb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        repositoryDb.open();
+        stagingDb = new HeapStagingDatabase(repositoryDb, new DataStreamSerializationFactory());
+        stagingDb.open();
+    }
+
+    @After
+    public void tearDown() {
+        stagingDb.close();
+        repositoryDb.close();
+    }
+
+    private RevTree tree(ObjectDatabase db, int size) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < size; i++) {
+            builder.put(Node.create("f" + i, ObjectId.forString("f" + size + "." + i),
+                    ObjectId.NULL, TYPE.FEATURE));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    private Set<RevObject> getAll(ObjectDatabase db, ObjectId... ids) {
+        return Sets.newHashSet(db.getAll(ImmutableList.copyOf(ids)));
+    }
+
+    @Test
+    public void testGetAll() {
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 1; i <= 5; i++) {
+            trees.add(tree(repositoryDb, i));
+        }
+        ObjectId missing = ObjectId.forString("missing");
+        Set<RevObject> found = getAll(repositoryDb, trees.get(3).getId(), missing,
+                trees.get(0).getId(), trees.get(4).getId());
+        assertEquals(ImmutableSet.of(trees.get(0), trees.get(3), trees.get(4)), found);
+
+        assertTrue(getAll(repositoryDb).isEmpty());
+        assertTrue(getAll(repositoryDb, missing).isEmpty());
+    }
+
+    @Test
+    public void testStagingDatabaseFallsBackToRepository() {
+        RevTree inRepository = tree(repositoryDb, 1);
+        RevTree staged = tree(stagingDb, 2);
+
+        Set<RevObject> found = getAll(stagingDb, inRepository.getId(), staged.getId(),
+                ObjectId.forString("missing"));
+        assertEquals(ImmutableSet.of(inRepository, staged), found);
+    }
+}
@@ -0,0 +1,42 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ObjectIdJournalTest extends Assert {
+
+    @Test
+    public void testEmpty() {
+        ObjectIdJournal journal = new ObjectIdJournal();
+        assertEquals(0, journal.size());
+        assertFalse(journal.iterator().hasNext());
+        journal.close();
+    }
+
+    @Test
+    public void testAppendAndIterate() {
+        ObjectIdJournal journal = new ObjectIdJournal();
+        List<ObjectId> expected = Lists.newArrayList();
+        for (int i = 0; i < 10000; i++) {
+            ObjectId id = ObjectId.forString("id" + i);
+            expected.add(id);
+            journal.append(id);
+        }
+        assertEquals(expected.size(), journal.size());
+        assertEquals(expected, ImmutableList.copyOf(journal.iterator()));
+        // can be iterated more than once
+        assertEquals(expected, ImmutableList.copyOf(journal.iterator()));
+        journal.close();
+        assertEquals(0, journal.size());
+    }
+}
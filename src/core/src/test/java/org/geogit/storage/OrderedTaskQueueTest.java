@@ -0,0 +1,118 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrderedTaskQueueTest extends Assert {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = OrderedTaskQueue.newWorkerPool("test-worker-%d", 4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsInSubmissionOrder() {
+        OrderedTaskQueue<Integer> queue = new OrderedTaskQueue<Integer>(executor, 3);
+        int next = 0;
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            queue.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    // make the first tasks of each round the slowest
+                    Thread.sleep(3 - value % 3);
+                    return value;
+                }
+            });
+            if (queue.isFull()) {
+                assertEquals(Integer.valueOf(next++), queue.take());
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(Integer.valueOf(next++), queue.take());
+        }
+        assertEquals(20, next);
+    }
+
+    @Test
+    public void testFailurePropagates() {
+        OrderedTaskQueue<Integer> queue = new OrderedTaskQueue<Integer>(executor, 3);
+        queue.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IllegalArgumentException("bad input");
+            }
+        });
+        try {
+            queue.take();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad input", e.getMessage());
+        }
+        assertTrue(queue.isCancelled());
+    }
+
+    @Test
+    public void testCancelWaitsForRunningTasksWithoutInterrupting() throws Exception {
+        final OrderedTaskQueue<Integer> queue = new OrderedTaskQueue<Integer>(executor, 16);
+        final CountDownLatch started = new CountDownLatch(4);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < 16; i++) {
+            queue.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    started.countDown();
+                    while (!queue.isCancelled()) {
+                        Thread.yield();
+                    }
+                    Thread.sleep(20);
+                    interrupted.set(Thread.currentThread().isInterrupted());
+                    finished.incrementAndGet();
+                    return null;
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.cancel();
+        // the four running tasks finished before cancel() returned, the others never started
+        assertEquals(4, finished.get());
+        assertFalse(interrupted.get());
+        assertTrue(queue.isEmpty());
+
+        Thread.sleep(50);
+        assertEquals(4, finished.get());
+        try {
+            queue.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return 0;
+                }
+            });
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+public class RawObjectTransferTest extends Assert {
+
+    private ObjectDatabase from;
+
+    private ObjectDatabase to;
+
+    private List<RevTree> trees;
+
+    @Before
+    public void setUp() {
+        from = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        from.open();
+        to = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        to.open();
+
+        trees = Lists.newArrayList();
+        for (int t = 0; t < 5; t++) {
+            RevTreeBuilder builder = new RevTreeBuilder(from);
+            for (int i = 0; i <= t; i++) {
+                builder.put(Node.create("f" + i, ObjectId.forString("f" + t + "." + i),
+                        ObjectId.NULL, TYPE.FEATURE));
+            }
+            RevTree tree = builder.build();
+            from.put(tree);
+            trees.add(tree);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        from.close();
+        to.close();
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        ObjectIdJournal journal = new ObjectIdJournal();
+        RawObjectTransfer transfer = new RawObjectTransfer(from, to).setBatchSize(2).setJournal(
+                journal);
+        for (RevTree tree : trees) {
+            transfer.add(tree.getId());
+        }
+        transfer.flush();
+
+        assertEquals(trees.size(), transfer.getTransferredCount());
+        assertEquals(trees.size(), journal.size());
+        for (RevTree tree : trees) {
+            assertEquals(tree, to.getTree(tree.getId()));
+            assertArrayEquals(ByteStreams.toByteArray(from.getRaw(tree.getId())),
+                    ByteStreams.toByteArray(to.getRaw(tree.getId())));
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testSkipsExistingAndMissing() {
+        to.put(trees.get(0));
+
+        ObjectIdJournal journal = new ObjectIdJournal();
+        RawObjectTransfer transfer = new RawObjectTransfer(from, to).setJournal(journal);
+        transfer.add(trees.get(0).getId());
+        transfer.add(trees.get(1).getId());
+        transfer.add(ObjectId.forString("not in source"));
+        assertTrue(transfer.isPending(trees.get(1).getId()));
+        transfer.flush();
+        assertFalse(transfer.isPending(trees.get(1).getId()));
+
+        assertEquals(1, transfer.getTransferredCount());
+        assertEquals(ImmutableSet.of(trees.get(1).getId()), ImmutableSet.copyOf(journal.iterator()));
+        assertTrue(to.exists(trees.get(1).getId()));
+        assertFalse(to.exists(ObjectId.forString("not in source")));
+        journal.close();
+    }
+}
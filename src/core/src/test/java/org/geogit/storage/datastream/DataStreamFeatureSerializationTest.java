@@ -4,12 +4,58 @@
  */
 package org.geogit.storage.datastream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevObject.TYPE;
 import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ObjectWriter;
 import org.geogit.storage.RevFeatureSerializationTest;
+import org.geotools.data.DataUtilities;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 public class DataStreamFeatureSerializationTest extends RevFeatureSerializationTest {
     @Override
     protected ObjectSerializingFactory getObjectSerializingFactory() {
         return new DataStreamSerializationFactory();
     }
+
+    @Test
+    public void testValuesAreDecodedOnAccess() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("LazyType",
+                "name:String,amount:java.math.BigDecimal,description:String,ratio:Double,"
+                        + "geom:LineString,nullValue:String,count:Integer");
+        RevFeature original = new RevFeatureBuilder().build(feature(type, "LazyType.1", "name",
+                new BigDecimal("1.89e21"), "a longer description", Double.valueOf(1.5),
+                "LINESTRING(0 0, 1 1, 2 2)", null, Integer.valueOf(5)));
+
+        byte[] data = write(original);
+        RevFeature read = factory.<RevFeature> createObjectReader(TYPE.FEATURE).read(
+                original.getId(), new ByteArrayInputStream(data));
+
+        assertTrue(read instanceof LazyRevFeature);
+        assertEquals(original.size(), read.size());
+        // random access, last values first
+        assertEquals(Integer.valueOf(5), read.get(6).get());
+        assertFalse(read.get(5).isPresent());
+        assertEquals(original.get(4).get(), read.get(4).get());
+        assertEquals("a longer description", read.get(2).get());
+        assertEquals(new BigDecimal("1.89e21"), read.get(1).get());
+        assertEquals("name", read.get(0).get());
+
+        // still in its serialized form, writing it back gives the same bytes
+        assertArrayEquals(data, write(read));
+        assertEquals(original.getId(), RevFeature.build(read.getValues()).getId());
+    }
+
+    private byte[] write(RevFeature feature) throws Exception {
+        ObjectWriter<RevFeature> writer = factory.<RevFeature> createObjectWriter(TYPE.FEATURE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.write(feature, output);
+        return output.toByteArray();
+    }
 }
@@ -50,6 +50,21 @@ public class LsTreeOpTest extends RepositoryTestCase {
         assertEquals(3, Iterators.size(iter));
     }
 
+    @Test
+    public void testTreeishPathListingMetadata() {
+        Iterator<NodeRef> path = geogit.command(LsTreeOp.class).setReference("Points").call();
+        Iterator<NodeRef> head = geogit.command(LsTreeOp.class).setReference("HEAD:Points")
+                .call();
+        while (path.hasNext()) {
+            NodeRef expected = path.next();
+            NodeRef actual = head.next();
+            assertEquals(expected.path(), actual.path());
+            assertFalse(expected.getMetadataId().isNull());
+            assertEquals(expected.getMetadataId(), actual.getMetadataId());
+        }
+        assertFalse(head.hasNext());
+    }
+
     @Test
     public void testHEADNonRecursiveRootListing() {
         Iterator<NodeRef> iter = geogit.command(LsTreeOp.class).setReference("HEAD").call();
@@ -14,11 +14,13 @@ import java.util.List;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.repository.WorkingTree;
+import org.geogit.repository.WorkingTreeSession;
 import org.geogit.test.integration.RepositoryTestCase;
 import org.geotools.util.NullProgressListener;
 import org.junit.Rule;
@@ -28,6 +30,7 @@ import org.opengis.feature.Feature;
 import org.opengis.feature.type.Name;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterators;
 
 /**
  *
@@ -156,6 +159,29 @@ public class WorkingTreeTest extends RepositoryTestCase {
         assertTrue(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
     }
 
+    @Test
+    public void testInsertLargeCollectionKeepsOrder() throws Exception {
+        List<Feature> featureList = new LinkedList<Feature>();
+        for (int i = 0; i < 2000; i++) {
+            featureList.add(feature(pointsType, "Points." + i, "StringProp1_" + i,
+                    Integer.valueOf(i), "POINT(" + i + " " + i + ")"));
+        }
+
+        List<Node> targetList = new LinkedList<Node>();
+        workTree.insert(pointsName, featureList.iterator(), LISTENER, targetList, 2000);
+
+        assertEquals(2000, targetList.size());
+        Iterator<Node> inserted = targetList.iterator();
+        for (Feature feature : featureList) {
+            Node node = inserted.next();
+            String fid = feature.getIdentifier().getID();
+            assertEquals(fid, node.getName());
+            assertEquals(node.getObjectId(), workTree.findUnstaged(appendChild(pointsName, fid))
+                    .get().getObjectId());
+            assertTrue(repo.getIndex().getDatabase().exists(node.getObjectId()));
+        }
+    }
+
     @Test
     public void testInsertDuplicateFeatures() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
@@ -352,6 +378,26 @@ public class WorkingTreeTest extends RepositoryTestCase {
         assertFalse(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
     }
 
+    @Test
+    public void testDeleteByIds() throws Exception {
+        workTree.insert(pointsName, points1);
+        workTree.insert(pointsName, points2);
+        workTree.insert(pointsName, points3);
+        workTree.insert(linesName, lines1);
+
+        long deleted = workTree.delete(pointsName,
+                Iterators.forArray(idP1, idP3, "nonexistent"));
+
+        assertEquals(2L, deleted);
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(linesName, idL1)).isPresent());
+
+        assertEquals(0L, workTree.delete(pointsName, Iterators.forArray(idP1)));
+        assertEquals(0L, workTree.delete("nonexistentTree", Iterators.forArray(idP2)));
+    }
+
     @Test
     public void testDeleteFeatureType() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
@@ -577,6 +623,69 @@ public class WorkingTreeTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testSessionBuffersChangesUntilClosed() throws Exception {
+        WorkingTreeSession session = workTree.startSession();
+        Node node = session.insert(pointsName, points1);
+        session.insert(pointsName, points2);
+        session.insert(linesName, lines1);
+        assertEquals(3, session.getBufferedCount());
+        assertFalse(findTreeChild(workTree.getTree(), pointsName).isPresent());
+
+        session.close();
+        assertEquals(0, session.getBufferedCount());
+        assertEquals(node.getObjectId(), workTree.findUnstaged(appendChild(pointsName, idP1))
+                .get().getObjectId());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(linesName, idL1)).isPresent());
+        assertEquals(RevFeatureType.build(pointsType).getId(),
+                findTreeChild(workTree.getTree(), pointsName).get().getMetadataId().orNull());
+    }
+
+    @Test
+    public void testSessionLastChangeWins() throws Exception {
+        workTree.insert(pointsName, points1);
+        workTree.insert(pointsName, points2);
+
+        WorkingTreeSession session = workTree.startSession();
+        session.insert(pointsName, points1_modified);
+        session.delete(pointsName, idP2);
+        session.insert(pointsName, points2);
+        session.insert(pointsName, points3);
+        session.delete(pointsName, idP3);
+        session.delete(pointsName, "nonexistent");
+        session.close();
+
+        ObjectId modifiedId = new RevFeatureBuilder().build(points1_modified).getId();
+        assertEquals(modifiedId, workTree.findUnstaged(appendChild(pointsName, idP1)).get()
+                .getObjectId());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
+    }
+
+    @Test
+    public void testSessionFlushesWhenBufferIsFull() throws Exception {
+        WorkingTreeSession session = workTree.startSession(2);
+        session.insert(pointsName, points1);
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        session.insert(pointsName, points2);
+        assertEquals(0, session.getBufferedCount());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+
+        session.delete(pointsName, idP1);
+        session.close();
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+    }
+
+    @Test
+    public void testSessionDeleteOnMissingTree() throws Exception {
+        WorkingTreeSession session = workTree.startSession();
+        session.delete(pointsName, idP1);
+        session.close();
+        assertFalse(findTreeChild(workTree.getTree(), pointsName).isPresent());
+    }
+
     private Optional<Node> findTreeChild(RevTree root, String pathRemove) {
         Optional<NodeRef> nodeRef = geogit.command(FindTreeChild.class).setParent(root)
                 .setChildPath(pathRemove).setIndex(true).call();
@@ -10,6 +10,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nullable;
 
@@ -17,12 +20,19 @@ import org.geogit.api.CommandLocator;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.data.FindFeatureTypeTrees;
+import org.geogit.api.plumbing.FindGeneralizedTree;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CheckoutOp;
@@ -44,10 +54,14 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * A GeoTools {@link DataStore} that serves and edits {@link SimpleFeature}s in a geogit repository.
@@ -79,6 +93,21 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     /** @see #setBranch(String) */
     private String branch;
 
+    /**
+     * Resolved feature type trees, keyed by the id the root ref pointed to when they were
+     * resolved.
+     * <p>
+     * Since the keys are the ids of immutable objects, entries never go stale: when a ref is
+     * updated, by this process or any other, it resolves to a new id and its types are resolved
+     * again, while concurrent requests for the same id share a single resolution.
+     */
+    private final Cache<ObjectId, ResolvedTypes> resolvedTypes = CacheBuilder.newBuilder()
+            .maximumSize(32).build();
+
+    /** @see #setQueryCacheSize(long) */
+    @Nullable
+    private volatile QueryCache queryCache;
+
     public GeoGitDataStore(GeoGIT geogit) {
         super();
         Preconditions.checkNotNull(geogit);
@@ -123,6 +152,33 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
         return getCheckedOutBranch();
     }
 
+    /**
+     * Enables caching the results of the queries run against the feature sources of this data
+     * store, or disables it if the argument is zero.
+     * <p>
+     * Results are keyed by the id of the feature type tree they were read from, so the cache never
+     * returns stale results; repeated queries against the same version of a layer, as issued when
+     * seeding tiles, are served out of memory instead of walking the tree and evaluating the filter
+     * again. Small results are kept as encoded features, bigger ones as the refs of the matching
+     * features, and the least recently used results are evicted when the size limit is exceeded.
+     * 
+     * @param maxBytes the approximate amount of memory the cached results may take, zero to
+     *        disable the cache
+     */
+    public void setQueryCacheSize(final long maxBytes) {
+        Preconditions.checkArgument(maxBytes >= 0, "negative cache size: %s", maxBytes);
+        this.queryCache = maxBytes == 0 ? null : new QueryCache(maxBytes);
+    }
+
+    /**
+     * @return the query result cache, or {@code null} if disabled
+     * @see #setQueryCacheSize(long)
+     */
+    @Nullable
+    QueryCache getQueryCache() {
+        return queryCache;
+    }
+
     public GeoGIT getGeogit() {
         return geogit;
     }
@@ -243,12 +299,104 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     }
 
     private List<NodeRef> findTypeRefs(@Nullable Transaction tx) {
+        Optional<ResolvedTypes> types = resolveTypes(tx);
+        if (!types.isPresent()) {
+            return ImmutableList.of();
+        }
+        return types.get().typeRefs;
+    }
 
+    /**
+     * Returns the tree of a feature type, as resolved by {@link #findTypeRef(Name, Transaction)}.
+     */
+    RevTree getTypeTree(final NodeRef typeRef, @Nullable final Transaction tx) {
+        final CommandLocator commandLocator = getCommandLocator(tx);
+        return resolveTypes(tx).get().get(typeRef.objectId(), RevTree.class, commandLocator);
+    }
+
+    /**
+     * Returns the generalized version of a feature type tree that best fits the given distance, if
+     * there's one.
+     * 
+     * @see FindGeneralizedTree
+     */
+    Optional<RevTree> getGeneralizedTree(final NodeRef typeRef, final double distance,
+            @Nullable final Transaction tx) {
+        final CommandLocator commandLocator = getCommandLocator(tx);
+        Optional<ObjectId> treeId = commandLocator.command(FindGeneralizedTree.class)
+                .setTreeId(typeRef.objectId()).setDistance(distance).call();
+        if (!treeId.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(resolveTypes(tx).get().get(treeId.get(), RevTree.class,
+                commandLocator));
+    }
+
+    /**
+     * Returns the native feature type of a feature type tree, as resolved by
+     * {@link #findTypeRef(Name, Transaction)}.
+     */
+    RevFeatureType getFeatureType(final NodeRef typeRef, @Nullable final Transaction tx) {
+        final CommandLocator commandLocator = getCommandLocator(tx);
+        return resolveTypes(tx).get().get(typeRef.getMetadataId(), RevFeatureType.class,
+                commandLocator);
+    }
+
+    /**
+     * @return the feature types of the tree the root ref currently points to, or absent if it
+     *         doesn't resolve to anything (e.g. an empty repository)
+     */
+    private Optional<ResolvedTypes> resolveTypes(@Nullable final Transaction tx) {
         final String rootRef = getRootRef(tx);
-        CommandLocator commandLocator = getCommandLocator(tx);
-        List<NodeRef> typeTrees = commandLocator.command(FindFeatureTypeTrees.class)
-                .setRootTreeRef(rootRef).call();
-        return typeTrees;
+        final CommandLocator commandLocator = getCommandLocator(tx);
+        final Optional<ObjectId> rootId = commandLocator.command(RevParse.class)
+                .setRefSpec(rootRef).call();
+        if (!rootId.isPresent() || rootId.get().isNull()) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(resolvedTypes.get(rootId.get(), new Callable<ResolvedTypes>() {
+                @Override
+                public ResolvedTypes call() {
+                    List<NodeRef> typeTrees = commandLocator.command(FindFeatureTypeTrees.class)
+                            .setRootTreeRef(rootId.get().toString()).call();
+                    return new ResolvedTypes(typeTrees);
+                }
+            }));
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * The feature type trees of a given root tree, plus the trees and feature types looked up
+     * through them so far
+     */
+    private static class ResolvedTypes {
+
+        final ImmutableList<NodeRef> typeRefs;
+
+        private final ConcurrentMap<ObjectId, RevObject> objects = Maps.newConcurrentMap();
+
+        ResolvedTypes(List<NodeRef> typeRefs) {
+            this.typeRefs = ImmutableList.copyOf(typeRefs);
+        }
+
+        <T extends RevObject> T get(final ObjectId id, final Class<T> type,
+                final CommandLocator commandLocator) {
+            RevObject object = objects.get(id);
+            if (object == null) {
+                Optional<T> parsed = commandLocator.command(RevObjectParse.class)
+                        .setObjectId(id).call(type);
+                Preconditions.checkState(parsed.isPresent(), "%s %s not found",
+                        type.getSimpleName(), id);
+                object = parsed.get();
+                objects.putIfAbsent(id, object);
+            }
+            return type.cast(object);
+        }
     }
 
     String getRootRef(@Nullable Transaction tx) {
@@ -62,6 +62,9 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
     public static final Param CREATE = new Param("create", Boolean.class,
             "Optional flag to enable creation of a new repository if it does not exist", false);
 
+    public static final Param QUERY_CACHE_SIZE = new Param("query_cache_size", Long.class,
+            "Optional size in bytes of the cache of query results, disabled if not set", false);
+
     @Override
     public String getDisplayName() {
         return DISPLAY_NAME;
@@ -74,7 +77,7 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
 
     @Override
     public Param[] getParametersInfo() {
-        return new Param[] { REPOSITORY, BRANCH, DEFAULT_NAMESPACE, CREATE };
+        return new Param[] { REPOSITORY, BRANCH, DEFAULT_NAMESPACE, CREATE, QUERY_CACHE_SIZE };
     }
 
     @Override
@@ -119,6 +122,9 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         @Nullable
         final Boolean create = (Boolean) CREATE.lookUp(params);
 
+        @Nullable
+        final Long queryCacheSize = (Long) QUERY_CACHE_SIZE.lookUp(params);
+
         if (create != null && create.booleanValue()) {
             if (!repositoryRoot.exists()) {
                 return createNewDataStore(params);
@@ -149,6 +155,9 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         if (branch != null) {
             store.setBranch(branch);
         }
+        if (queryCacheSize != null) {
+            store.setQueryCacheSize(queryCacheSize.longValue());
+        }
         return store;
     }
 
@@ -180,6 +189,10 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         if (defaultNamespace != null) {
             store.setNamespaceURI(defaultNamespace);
         }
+        Long queryCacheSize = (Long) QUERY_CACHE_SIZE.lookUp(params);
+        if (queryCacheSize != null) {
+            store.setQueryCacheSize(queryCacheSize.longValue());
+        }
         return store;
     }
 
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.NoSuchElementException;
 
 import org.geogit.repository.WorkingTree;
+import org.geogit.repository.WorkingTreeSession;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureWriter;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -18,13 +19,15 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import com.google.common.base.Preconditions;
 
 /**
- *
+ * A {@link FeatureWriter} over a working tree's feature type tree. Written and removed features
+ * are buffered in a {@link WorkingTreeSession} and applied to the working tree in bulk, at the
+ * latest when the writer is {@link #close() closed}.
  */
 class GeoGitFeatureWriter implements FeatureWriter<SimpleFeatureType, SimpleFeature> {
 
     private FeatureReader<SimpleFeatureType, SimpleFeature> reader;
 
-    private WorkingTree workingTree;
+    private WorkingTreeSession session;
 
     private SimpleFeature last;
 
@@ -34,7 +37,7 @@ class GeoGitFeatureWriter implements FeatureWriter<SimpleFeatureType, SimpleFeat
             String typePath, WorkingTree workingTree) {
         this.reader = reader;
         this.typePath = typePath;
-        this.workingTree = workingTree;
+        this.session = workingTree.startSession();
     }
 
     public static GeoGitFeatureWriter create(
@@ -70,19 +73,19 @@ class GeoGitFeatureWriter implements FeatureWriter<SimpleFeatureType, SimpleFeat
         Preconditions.checkState(last != null, "next() hasn't been called");
         String path = typePath;
         String featureId = last.getID();
-        workingTree.delete(path, featureId);
+        session.delete(path, featureId);
     }
 
     @Override
     public void write() throws IOException {
         Preconditions.checkState(last != null, "next() hasn't been called");
         String parentTreePath = typePath;
-        workingTree.insert(parentTreePath, last);
+        session.insert(parentTreePath, last);
     }
 
     @Override
     public void close() throws IOException {
-        //
+        session.close();
     }
 
     private static final class InfiniteFeatureReader implements
@@ -12,10 +12,15 @@ import static com.google.common.collect.Iterators.filter;
 import static com.google.common.collect.Iterators.transform;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -26,15 +31,16 @@ import org.geogit.api.CommandLocator;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
-import org.geogit.api.Ref;
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.FindTreeChild;
-import org.geogit.api.plumbing.LsTreeOp;
-import org.geogit.api.plumbing.LsTreeOp.Strategy;
-import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
 import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.OrderedTaskQueue;
 import org.geotools.data.FeatureReader;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.spatial.ReprojectingFilterVisitor;
@@ -56,8 +62,10 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -71,9 +79,20 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     private SimpleFeatureType schema;
 
+    private SimpleFeatureType resultSchema;
+
     private Stats stats;
 
-    private Iterator<SimpleFeature> features;
+    private Iterator<Fetched> features;
+
+    private FeatureFetcher fetcher;
+
+    /**
+     * Records the returned features for the query cache, {@code null} if the query is not cached
+     * or was served out of the cache
+     */
+    @Nullable
+    private QueryCache.Recorder recorder;
 
     @Nullable
     private Integer offset;
@@ -139,28 +158,41 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     /**
      * @param commandLocator
-     * @param schema
-     * @param maxFeatures
+     * @param schema the full schema of the features
+     * @param resultSchema the schema of the returned features, either {@code schema} or a subset
+     *        of its attributes, the filter is still evaluated against the full features
+     * @param origFilter
+     * @param typeRef the ref of the feature type tree
+     * @param typeTree the feature type tree {@code typeRef} points to
      * @param offset
-     * @param typeTree
-     * @param filter
-     * @param queryBounds
+     * @param maxFeatures
+     * @param cache the cache to serve the query out of, or to record its result in, if any
      */
     public GeogitFeatureReader(final CommandLocator commandLocator, final SimpleFeatureType schema,
-            final Filter origFilter, final String typeTreePath, @Nullable final String headRef,
-            @Nullable Integer offset, @Nullable Integer maxFeatures) {
+            final SimpleFeatureType resultSchema, final Filter origFilter, final NodeRef typeRef,
+            final RevTree typeTree, @Nullable Integer offset, @Nullable Integer maxFeatures,
+            @Nullable QueryCache cache) {
 
         this.schema = schema;
+        this.resultSchema = resultSchema;
         this.offset = offset;
         this.maxFeatures = maxFeatures;
 
-        final String branchRef = headRef == null ? Ref.WORK_HEAD : headRef;
-        final String typeTreeRefSpec = branchRef + ":" + typeTreePath;
-        final Optional<RevTree> parentTree = commandLocator.command(RevObjectParse.class)
-                .setRefSpec(typeTreeRefSpec).call(RevTree.class);
-
-        Preconditions.checkArgument(parentTree.isPresent(), "Feature type tree not found: %s",
-                typeTreeRefSpec);
+        final ObjectDatabase database = commandLocator.getIndex().getDatabase();
+
+        if (cache != null) {
+            QueryCache.Key key = new QueryCache.Key(typeTree.getId(), typeRef.getMetadataId(),
+                    origFilter, offset, maxFeatures);
+            QueryCache.Result cached = cache.get(key);
+            if (cached != null) {
+                // already filtered and paged
+                this.fetcher = new FeatureFetcher(database, schema, resultSchema,
+                        cached.refs.iterator(), Filter.INCLUDE, cached);
+                this.features = fetcher;
+                return;
+            }
+            this.recorder = cache.record(key);
+        }
 
         final Filter filter = reprojectFilter(origFilter);
         final Envelope queryBounds = getQueryBounds(filter);
@@ -185,29 +217,31 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
         if (filter instanceof Id) {
             final Function<FeatureId, NodeRef> idToRef;
-            idToRef = new FindFeatureRefFunction(commandLocator, parentTree.get());
+            idToRef = new FindFeatureRefFunction(commandLocator, typeTree);
             Iterator<FeatureId> featureIds = getSortedFidsInNaturalOrder((Id) filter);
             featureRefs = filter(transform(featureIds, idToRef), notNull());
         } else {
-            featureRefs = commandLocator.command(LsTreeOp.class)
-                    .setStrategy(Strategy.FEATURES_ONLY).setReference(typeTreeRefSpec)
-                    .setBoundsFilter(refBoundsFilter).call();
+            // the tree is already resolved, traverse it directly
+            DepthTreeIterator iterator = new DepthTreeIterator(typeRef.path(),
+                    typeRef.getMetadataId(), typeTree, database,
+                    DepthTreeIterator.Strategy.FEATURES_ONLY);
+            iterator.setBoundsFilter(refBoundsFilter);
+            featureRefs = iterator;
         }
 
         final boolean filterSupportedByRefs = Filter.INCLUDE.equals(filter)
                 || filter instanceof BBOX;
 
         if (filterSupportedByRefs) {
-            featureRefs = applyRefsOffsetLimit(featureRefs);
+            featureRefs = applyOffsetLimit(featureRefs);
         }
 
-        NodeRefToFeature refToFeature = new NodeRefToFeature(commandLocator, schema);
-        final Iterator<SimpleFeature> featuresUnfiltered = transform(featureRefs, refToFeature);
+        this.fetcher = new FeatureFetcher(database, schema, resultSchema, featureRefs, filter,
+                null);
 
-        FilterPredicate filterPredicate = new FilterPredicate(filter);
-        Iterator<SimpleFeature> featuresFiltered = filter(featuresUnfiltered, filterPredicate);
+        Iterator<Fetched> featuresFiltered = fetcher;
         if (!filterSupportedByRefs) {
-            featuresFiltered = applyFeaturesOffsetLimit(featuresFiltered);
+            featuresFiltered = applyOffsetLimit(featuresFiltered);
         }
         this.features = featuresFiltered;
     }
@@ -215,11 +249,14 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
     @SuppressWarnings("unchecked")
     @Override
     public T getFeatureType() {
-        return (T) schema;
+        return (T) resultSchema;
     }
 
     @Override
     public void close() throws IOException {
+        // the result is incomplete if it wasn't exhausted
+        recorder = null;
+        fetcher.cancel();
         if (stats != null) {
             LOGGER.info("geogit reader stats: " + stats.toString());
         }
@@ -227,13 +264,22 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     @Override
     public boolean hasNext() {
-        return features.hasNext();
+        final boolean hasNext = features.hasNext();
+        if (!hasNext && recorder != null) {
+            recorder.done();
+            recorder = null;
+        }
+        return hasNext;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public F next() {
-        return (F) features.next();
+        Fetched next = features.next();
+        if (recorder != null) {
+            recorder.add(next.ref, next.revFeature);
+        }
+        return (F) next.feature;
     }
 
     @Override
@@ -241,24 +287,14 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         throw new UnsupportedOperationException();
     }
 
-    private Iterator<SimpleFeature> applyFeaturesOffsetLimit(Iterator<SimpleFeature> features) {
-        if (offset != null) {
-            Iterators.advance(features, offset.intValue());
-        }
-        if (maxFeatures != null) {
-            features = Iterators.limit(features, maxFeatures.intValue());
-        }
-        return features;
-    }
-
-    private Iterator<NodeRef> applyRefsOffsetLimit(Iterator<NodeRef> featureRefs) {
+    private <T> Iterator<T> applyOffsetLimit(Iterator<T> iterator) {
         if (offset != null) {
-            Iterators.advance(featureRefs, offset.intValue());
+            Iterators.advance(iterator, offset.intValue());
         }
         if (maxFeatures != null) {
-            featureRefs = Iterators.limit(featureRefs, maxFeatures.intValue());
+            iterator = Iterators.limit(iterator, maxFeatures.intValue());
         }
-        return featureRefs;
+        return iterator;
     }
 
     private Iterator<FeatureId> getSortedFidsInNaturalOrder(Id filter) {
@@ -303,39 +339,211 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         }
     };
 
-    private static class NodeRefToFeature implements Function<NodeRef, SimpleFeature> {
+    /**
+     * A feature that matched the query, along with the ref and {@link RevFeature} it was built from
+     */
+    private static final class Fetched {
 
-        private RevObjectParse parseRevFeatureCommand;
+        final NodeRef ref;
 
-        private FeatureBuilder featureBuilder;
+        final RevFeature revFeature;
 
-        public NodeRefToFeature(CommandLocator commandLocator, SimpleFeatureType schema) {
-            this.featureBuilder = new FeatureBuilder(schema);
-            this.parseRevFeatureCommand = commandLocator.command(RevObjectParse.class);
-        }
+        final SimpleFeature feature;
 
-        @Override
-        public SimpleFeature apply(final NodeRef featureRef) {
-            Optional<RevFeature> revFeature = parseRevFeatureCommand.setObjectId(
-                    featureRef.objectId()).call(RevFeature.class);
-            Preconditions.checkState(revFeature.isPresent());
-
-            String id = featureRef.name();
-            Feature feature = featureBuilder.build(id, revFeature.get());
-            return (SimpleFeature) feature;
+        Fetched(NodeRef ref, RevFeature revFeature, SimpleFeature feature) {
+            this.ref = ref;
+            this.revFeature = revFeature;
+            this.feature = feature;
         }
-    };
+    }
 
-    private static final class FilterPredicate implements Predicate<SimpleFeature> {
-        private Filter filter;
+    /**
+     * Turns node refs into features, filtering them.
+     * <p>
+     * Refs are taken from the (single threaded) tree traversal in chunks. The {@link RevFeature}s
+     * of each chunk are read from the database in a single batch, or decoded out of a cached
+     * result, and turned into features on a shared pool of threads, a bounded number of chunks
+     * ahead of the consumer. Features are returned in the same order as their refs.
+     */
+    private static final class FeatureFetcher extends AbstractIterator<Fetched> {
+
+        private static final int THREADS = Math.max(2, Runtime.getRuntime()
+                .availableProcessors());
+
+        private static final ExecutorService FETCH_EXECUTOR = OrderedTaskQueue.newWorkerPool(
+                "geogit-reader-%d", THREADS);
+
+        /**
+         * Number of refs fetched and decoded by a single task
+         */
+        private static final int CHUNK_SIZE = 256;
 
-        public FilterPredicate(final Filter filter) {
+        /**
+         * Maximum number of chunks being fetched or waiting to be consumed, per reader
+         */
+        private static final int MAX_PENDING_CHUNKS = 2 * THREADS;
+
+        private final ObjectDatabase database;
+
+        private final FeatureBuilder featureBuilder;
+
+        /**
+         * Builds the returned features out of the same {@link RevFeature}s if only some of the
+         * properties were requested, {@code null} otherwise
+         */
+        @Nullable
+        private final FeatureBuilder resultBuilder;
+
+        private final Iterator<NodeRef> featureRefs;
+
+        private final Filter filter;
+
+        /**
+         * The cached result the refs come from, if any
+         */
+        @Nullable
+        private final QueryCache.Result cached;
+
+        private final OrderedTaskQueue<List<Fetched>> pending;
+
+        private Iterator<Fetched> current = Iterators.emptyIterator();
+
+        /**
+         * Index of the next ref to be fetched
+         */
+        private int position;
+
+        FeatureFetcher(ObjectDatabase database, SimpleFeatureType schema,
+                SimpleFeatureType resultSchema, Iterator<NodeRef> featureRefs, Filter filter,
+                @Nullable QueryCache.Result cached) {
+            this.database = database;
+            final RevFeatureType nativeType = RevFeatureType.build(schema);
+            this.featureBuilder = new FeatureBuilder(nativeType);
+            this.resultBuilder = schema.equals(resultSchema) ? null : new FeatureBuilder(
+                    nativeType, resultSchema);
+            this.featureRefs = featureRefs;
             this.filter = filter;
+            this.cached = cached;
+            this.pending = new OrderedTaskQueue<List<Fetched>>(FETCH_EXECUTOR, MAX_PENDING_CHUNKS);
         }
 
         @Override
-        public boolean apply(SimpleFeature feature) {
-            return filter.evaluate(feature);
+        protected Fetched computeNext() {
+            while (!current.hasNext()) {
+                if (pending.isCancelled()) {
+                    return endOfData();
+                }
+                fill();
+                if (pending.isEmpty()) {
+                    return endOfData();
+                }
+                current = pending.take().iterator();
+                fill();
+            }
+            return current.next();
+        }
+
+        private void fill() {
+            while (!pending.isFull() && featureRefs.hasNext()) {
+                List<NodeRef> chunk = new ArrayList<NodeRef>(CHUNK_SIZE);
+                while (chunk.size() < CHUNK_SIZE && featureRefs.hasNext()) {
+                    chunk.add(featureRefs.next());
+                }
+                pending.submit(new FetchTask(chunk, position));
+                position += chunk.size();
+            }
+        }
+
+        /**
+         * Cancels the chunks not consumed yet and stops the iteration, waiting for the chunks
+         * being fetched to give up, since they're not interrupted.
+         */
+        void cancel() {
+            pending.cancel();
+            current = Iterators.emptyIterator();
+        }
+
+        private class FetchTask implements Callable<List<Fetched>> {
+
+            private final List<NodeRef> refs;
+
+            /**
+             * The index of the first ref of the chunk
+             */
+            private final int start;
+
+            FetchTask(List<NodeRef> refs, int start) {
+                this.refs = refs;
+                this.start = start;
+            }
+
+            @Override
+            public List<Fetched> call() {
+                if (pending.isCancelled()) {
+                    return ImmutableList.of();
+                }
+                final List<RevFeature> revFeatures;
+                if (cached != null && cached.hasFeatures()) {
+                    revFeatures = decode();
+                } else {
+                    revFeatures = read();
+                }
+                if (pending.isCancelled()) {
+                    return ImmutableList.of();
+                }
+                final boolean include = Filter.INCLUDE.equals(filter);
+
+                List<Fetched> features = new ArrayList<Fetched>(refs.size());
+                for (int i = 0; i < refs.size() && !pending.isCancelled(); i++) {
+                    final NodeRef ref = refs.get(i);
+                    final RevFeature revFeature = revFeatures.get(i);
+                    SimpleFeature feature;
+                    if (include) {
+                        FeatureBuilder builder = resultBuilder == null ? featureBuilder
+                                : resultBuilder;
+                        feature = (SimpleFeature) builder.build(ref.name(), revFeature);
+                    } else {
+                        feature = (SimpleFeature) featureBuilder.build(ref.name(), revFeature);
+                        if (!filter.evaluate(feature)) {
+                            continue;
+                        }
+                        if (resultBuilder != null) {
+                            // shares the values the filter already decoded
+                            feature = (SimpleFeature) resultBuilder.build(ref.name(), revFeature);
+                        }
+                    }
+                    features.add(new Fetched(ref, revFeature, feature));
+                }
+                return features;
+            }
+
+            private List<RevFeature> read() {
+                List<ObjectId> ids = new ArrayList<ObjectId>(refs.size());
+                for (NodeRef ref : refs) {
+                    ids.add(ref.objectId());
+                }
+                Map<ObjectId, RevObject> objects = Maps.newHashMap();
+                for (Iterator<RevObject> it = database.getAll(ids); it.hasNext();) {
+                    RevObject object = it.next();
+                    objects.put(object.getId(), object);
+                }
+                List<RevFeature> revFeatures = new ArrayList<RevFeature>(refs.size());
+                for (NodeRef ref : refs) {
+                    RevObject revFeature = objects.get(ref.objectId());
+                    Preconditions.checkState(revFeature instanceof RevFeature,
+                            "Feature not found: %s", ref.objectId());
+                    revFeatures.add((RevFeature) revFeature);
+                }
+                return revFeatures;
+            }
+
+            private List<RevFeature> decode() {
+                List<RevFeature> revFeatures = new ArrayList<RevFeature>(refs.size());
+                for (int i = 0; i < refs.size(); i++) {
+                    revFeatures.add(cached.feature(start + i));
+                }
+                return revFeatures;
+            }
         }
     }
 
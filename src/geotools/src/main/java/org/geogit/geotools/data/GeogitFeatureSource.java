@@ -12,16 +12,16 @@ import javax.annotation.Nullable;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.NodeRef;
-import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
-import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.FindGeneralizedTree;
 import org.geogit.repository.WorkingTree;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.MaxFeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.ReTypeFeatureReader;
 import org.geotools.data.QueryCapabilities;
 import org.geotools.data.Transaction;
 import org.geotools.data.sort.SortedFeatureReader;
@@ -72,11 +72,15 @@ class GeogitFeatureSource extends ContentFeatureSource {
 
     /**
      * Adds the {@link Hints#FEATURE_DETACHED} hint to the supported hints so the renderer doesn't
-     * clone the geometries
+     * clone the geometries, and the {@link Hints#GEOMETRY_DISTANCE} and
+     * {@link Hints#GEOMETRY_GENERALIZATION} hints, served out of the
+     * {@link FindGeneralizedTree generalized trees} if there are any
      */
     @Override
     protected void addHints(Set<Hints.Key> hints) {
         hints.add(Hints.FEATURE_DETACHED);
+        hints.add(Hints.GEOMETRY_DISTANCE);
+        hints.add(Hints.GEOMETRY_GENERALIZATION);
     }
 
     @Override
@@ -89,9 +93,13 @@ class GeogitFeatureSource extends ContentFeatureSource {
         return true;
     }
 
+    /**
+     * @return {@code true}, features are built straight out of the requested properties, so the
+     *         values of the ones not requested are never decoded
+     */
     @Override
     protected boolean canRetype() {
-        return false;
+        return true;
     }
 
     @Override
@@ -259,11 +267,14 @@ class GeogitFeatureSource extends ContentFeatureSource {
         final Integer maxFeatures = query.getMaxFeatures() == Integer.MAX_VALUE ? null : query
                 .getMaxFeatures();
         final Filter filter = query.getFilter();
+        final SimpleFeatureType resultType = getResultType(query);
+        final Double distance = getGeneralizationDistance(query);
 
         if (naturalOrder) {
-            reader = getNativeReader(filter, startIndex, maxFeatures);
+            reader = getNativeReader(filter, startIndex, maxFeatures, resultType, distance);
         } else {
-            reader = getNativeReader(filter, null, null);
+            // sort on the full features, the sort properties may not be among the requested ones
+            reader = getNativeReader(filter, null, null, getSchema(), distance);
             // sorting
             reader = new SortedFeatureReader(DataUtilities.simple(reader), query);
             if (startIndex > 0) {
@@ -275,11 +286,44 @@ class GeogitFeatureSource extends ContentFeatureSource {
             if (maxFeatures != null && maxFeatures > 0) {
                 reader = new MaxFeatureReader<SimpleFeatureType, SimpleFeature>(reader, maxFeatures);
             }
+            if (resultType != getSchema()) {
+                reader = new ReTypeFeatureReader(reader, resultType, false);
+            }
         }
 
         return reader;
     }
 
+    /**
+     * @return the schema of the features returned for the query, a subset of the
+     *         {@link #getSchema() schema} if the query requests only some properties
+     */
+    private SimpleFeatureType getResultType(final Query query) {
+        final SimpleFeatureType schema = getSchema();
+        if (query.retrieveAllProperties()) {
+            return schema;
+        }
+        return SimpleFeatureTypeBuilder.retype(schema, query.getPropertyNames());
+    }
+
+    /**
+     * @return the distance geometries can be simplified by, as requested through the
+     *         {@link Hints#GEOMETRY_GENERALIZATION} or {@link Hints#GEOMETRY_DISTANCE} hints
+     */
+    @Nullable
+    private Double getGeneralizationDistance(final Query query) {
+        Hints hints = query.getHints();
+        if (hints == null) {
+            return null;
+        }
+        Object distance = hints.get(Hints.GEOMETRY_GENERALIZATION);
+        if (distance == null) {
+            distance = hints.get(Hints.GEOMETRY_DISTANCE);
+        }
+        return distance instanceof Number ? Double.valueOf(((Number) distance).doubleValue())
+                : null;
+    }
+
     private boolean isNaturalOrder(@Nullable SortBy[] sortBy) {
         if (sortBy == null || sortBy.length == 0
                 || (sortBy.length == 1 && SortBy.NATURAL_ORDER.equals(sortBy[0]))) {
@@ -290,20 +334,36 @@ class GeogitFeatureSource extends ContentFeatureSource {
 
     private GeogitFeatureReader<SimpleFeatureType, SimpleFeature> getNativeReader(Filter filter,
             @Nullable Integer offset, @Nullable Integer maxFeatures) {
+        return getNativeReader(filter, offset, maxFeatures, getSchema(), null);
+    }
+
+    /**
+     * @param distance if given, the features are read from the generalized version of the feature
+     *        type tree that best fits it, if any
+     */
+    private GeogitFeatureReader<SimpleFeatureType, SimpleFeature> getNativeReader(Filter filter,
+            @Nullable Integer offset, @Nullable Integer maxFeatures,
+            final SimpleFeatureType resultType, @Nullable final Double distance) {
 
         filter = (Filter) filter.accept(new SimplifyingFilterVisitor(), null);
 
         GeogitFeatureReader<SimpleFeatureType, SimpleFeature> nativeReader;
 
-        final String rootRef = getRootRef();
-        final String featureTypeTreePath = getTypeTreePath();
+        final NodeRef typeRef = getTypeRef();
+        RevTree typeTree = getTypeTree(typeRef);
+        if (distance != null) {
+            Optional<RevTree> generalized = getDataStore().getGeneralizedTree(typeRef,
+                    distance.doubleValue(), getTransaction());
+            typeTree = generalized.or(typeTree);
+        }
 
         final SimpleFeatureType schema = getSchema();
 
         final CommandLocator commandLocator = getCommandLocator();
 
         nativeReader = new GeogitFeatureReader<SimpleFeatureType, SimpleFeature>(commandLocator,
-                schema, filter, featureTypeTreePath, rootRef, offset, maxFeatures);
+                schema, resultType, filter, typeRef, typeTree, offset, maxFeatures, getDataStore()
+                        .getQueryCache());
 
         return nativeReader;
     }
@@ -333,19 +393,8 @@ class GeogitFeatureSource extends ContentFeatureSource {
     SimpleFeatureType getNativeType() {
 
         final NodeRef typeRef = getTypeRef();
-        final String treePath = typeRef.path();
-        final ObjectId metadataId = typeRef.getMetadataId();
-
-        CommandLocator commandLocator = getCommandLocator();
-        Optional<RevFeatureType> revType = commandLocator.command(RevObjectParse.class)
-                .setObjectId(metadataId).call(RevFeatureType.class);
-
-        if (!revType.isPresent()) {
-            throw new IllegalStateException(String.format("Feature type for tree %s not found",
-                    treePath));
-        }
-
-        SimpleFeatureType featureType = (SimpleFeatureType) revType.get().type();
+        RevFeatureType revType = getDataStore().getFeatureType(typeRef, getTransaction());
+        SimpleFeatureType featureType = (SimpleFeatureType) revType.type();
         return featureType;
     }
 
@@ -369,18 +418,11 @@ class GeogitFeatureSource extends ContentFeatureSource {
      * @return
      */
     RevTree getTypeTree() {
-        String refSpec = getRootRef() + ":" + getTypeTreePath();
-        CommandLocator commandLocator = getCommandLocator();
-        Optional<RevTree> ref = commandLocator.command(RevObjectParse.class).setRefSpec(refSpec)
-                .call(RevTree.class);
-        Preconditions.checkState(ref.isPresent(), "Ref %s not found on working tree", refSpec);
-        return ref.get();
+        return getTypeTree(getTypeRef());
     }
 
-    private String getRootRef() {
-        GeoGitDataStore dataStore = getDataStore();
-        Transaction transaction = getTransaction();
-        return dataStore.getRootRef(transaction);
+    private RevTree getTypeTree(NodeRef typeRef) {
+        return getDataStore().getTypeTree(typeRef, getTransaction());
     }
 
     /**
@@ -11,8 +11,8 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.geogit.api.Node;
-import org.geogit.api.NodeRef;
 import org.geogit.repository.WorkingTree;
+import org.geogit.repository.WorkingTreeSession;
 import org.geotools.data.EmptyFeatureReader;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureWriter;
@@ -39,6 +39,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
 import org.opengis.filter.identity.FeatureId;
 
 import com.google.common.base.Function;
@@ -333,13 +334,15 @@ class GeogitFeatureStore extends ContentFeatureStore {
 
         features = Iterators.transform(features, new SchemaInforcer(nativeSchema));
 
+        WorkingTreeSession session = workingTree.startSession();
         try {
-            NullProgressListener listener = new NullProgressListener();
-            Integer count = (Integer) null;
-            List<Node> target = (List<Node>) null;
-            workingTree.insert(path, features, listener, target, count);
+            while (features.hasNext()) {
+                session.insert(path, features.next());
+            }
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            session.close();
         }
     }
 
@@ -382,17 +385,35 @@ class GeogitFeatureStore extends ContentFeatureStore {
             return;
         }
 
-        Iterator<SimpleFeature> featureIterator = featureIterator(filter);
-        Iterator<String> affectedFeaturePaths = Iterators.transform(featureIterator,
-                new Function<SimpleFeature, String>() {
-
-                    @Override
-                    public String apply(SimpleFeature input) {
-                        String fid = input.getID();
-                        return NodeRef.appendChild(typeTreePath, fid);
-                    }
-                });
-        workingTree.delete(affectedFeaturePaths);
+        if (filter instanceof Id) {
+            // no need to read the features, their ids are all that's needed
+            Iterator<FeatureId> ids = Iterators.filter(((Id) filter).getIdentifiers().iterator(),
+                    FeatureId.class);
+            workingTree.delete(typeTreePath, Iterators.transform(ids,
+                    new Function<FeatureId, String>() {
+                        @Override
+                        public String apply(FeatureId id) {
+                            return id.getID();
+                        }
+                    }));
+            return;
+        }
+
+        // the filter is evaluated against the stored features, but only their ids are built
+        Query query = new Query(delegate.getSchema().getTypeName(), filter, Query.NO_NAMES);
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = getReader(query);
+        try {
+            Iterator<SimpleFeature> features = new FeatureReaderIterator<SimpleFeature>(reader);
+            workingTree.delete(typeTreePath, Iterators.transform(features,
+                    new Function<SimpleFeature, String>() {
+                        @Override
+                        public String apply(SimpleFeature feature) {
+                            return feature.getID();
+                        }
+                    }));
+        } finally {
+            reader.close();
+        }
     }
 
     /**
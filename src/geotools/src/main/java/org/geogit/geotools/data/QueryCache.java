@@ -0,0 +1,275 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.geotools.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.datastream.FeatureReader;
+import org.geogit.storage.datastream.FeatureWriter;
+import org.opengis.filter.Filter;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Caches the results of the queries run by {@link GeogitFeatureReader}, within a byte budget.
+ * <p>
+ * Feature type trees are immutable, so the features a query returns out of a tree only depend on
+ * the tree id, the native feature type, the (simplified) filter and the paging. A result is kept
+ * as the list of matching refs, in the order they were returned, and also as the encoded features
+ * when it has no more than {@link #MAX_FEATURES} features, so serving it again doesn't even need
+ * to hit the object database. Results are evicted in least recently used order once the budget
+ * is exceeded.
+ * <p>
+ * The requested properties are not part of the key, since the whole features are cached and the
+ * returned ones are built out of them.
+ */
+class QueryCache {
+
+    /**
+     * Results with more features than this are cached as refs only
+     */
+    static final int MAX_FEATURES = 1000;
+
+    /**
+     * Estimated memory used by a cached ref, besides its name
+     */
+    private static final int REF_OVERHEAD = 128;
+
+    private static final FeatureWriter FEATURE_WRITER = new FeatureWriter();
+
+    private static final FeatureReader FEATURE_READER = new FeatureReader();
+
+    private final Cache<Key, Result> results;
+
+    /**
+     * Results heavier than this are not cached, so that a single one can't flush all the others
+     */
+    private final long maxResultWeight;
+
+    /**
+     * @param maxBytes the approximate amount of memory the cached results may take
+     */
+    QueryCache(final long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "cache size must be positive: %s", maxBytes);
+        this.maxResultWeight = maxBytes / 8;
+        this.results = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Result>() {
+                    @Override
+                    public int weigh(Key key, Result result) {
+                        return (int) Math.min(Integer.MAX_VALUE, result.weight);
+                    }
+                }).build();
+    }
+
+    /**
+     * @return the cached result of the query, or {@code null} if it's not cached
+     */
+    @Nullable
+    Result get(final Key key) {
+        return results.getIfPresent(key);
+    }
+
+    /**
+     * @return a recorder for the result of the query, to be fed every returned feature and
+     *         {@link Recorder#done() completed} once the query is exhausted
+     */
+    Recorder record(final Key key) {
+        return new Recorder(key);
+    }
+
+    void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    long size() {
+        return results.size();
+    }
+
+    private static long weight(NodeRef ref) {
+        return REF_OVERHEAD + 2 * ref.name().length();
+    }
+
+    /**
+     * Identifies a query over a feature type tree
+     */
+    static final class Key {
+
+        private final ObjectId treeId;
+
+        private final ObjectId metadataId;
+
+        private final Filter filter;
+
+        @Nullable
+        private final Integer offset;
+
+        @Nullable
+        private final Integer maxFeatures;
+
+        /**
+         * @param treeId the id of the tree the features are read from
+         * @param metadataId the id of the native feature type of the tree
+         * @param filter the simplified query filter
+         * @param offset the query offset, if any
+         * @param maxFeatures the query limit, if any
+         */
+        Key(ObjectId treeId, ObjectId metadataId, Filter filter, @Nullable Integer offset,
+                @Nullable Integer maxFeatures) {
+            this.treeId = treeId;
+            this.metadataId = metadataId;
+            this.filter = filter;
+            this.offset = offset;
+            this.maxFeatures = maxFeatures;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return treeId.equals(k.treeId) && metadataId.equals(k.metadataId)
+                    && filter.equals(k.filter) && Objects.equal(offset, k.offset)
+                    && Objects.equal(maxFeatures, k.maxFeatures);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(treeId, metadataId, filter, offset, maxFeatures);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("tree", treeId).add("filter", filter)
+                    .add("offset", offset).add("maxFeatures", maxFeatures).toString();
+        }
+    }
+
+    /**
+     * The refs a query matched, and their features if there are few enough of them
+     */
+    static final class Result {
+
+        final ImmutableList<NodeRef> refs;
+
+        /**
+         * The encoded features of each ref, or {@code null} if the result is too big
+         */
+        @Nullable
+        private final ImmutableList<byte[]> features;
+
+        private final long weight;
+
+        private Result(ImmutableList<NodeRef> refs, @Nullable ImmutableList<byte[]> features,
+                long weight) {
+            this.refs = refs;
+            this.features = features;
+            this.weight = weight;
+        }
+
+        boolean hasFeatures() {
+            return features != null;
+        }
+
+        /**
+         * @return the feature of the ref at the given index, decoded lazily out of its bytes
+         */
+        RevFeature feature(final int index) {
+            Preconditions.checkState(features != null, "features are not cached");
+            ObjectId id = refs.get(index).objectId();
+            return FEATURE_READER.read(id, new ByteArrayInputStream(features.get(index)));
+        }
+    }
+
+    /**
+     * Collects the result of a query as its features are returned. Gives up as soon as the result
+     * gets too heavy to be cached.
+     */
+    class Recorder {
+
+        private final Key key;
+
+        private List<NodeRef> refs = Lists.newArrayList();
+
+        private List<RevFeature> features = Lists.newArrayList();
+
+        private long weight;
+
+        private Recorder(Key key) {
+            this.key = key;
+        }
+
+        void add(final NodeRef ref, final RevFeature feature) {
+            if (refs == null) {
+                return;
+            }
+            refs.add(ref);
+            weight += weight(ref);
+            if (features != null) {
+                if (features.size() < MAX_FEATURES) {
+                    features.add(feature);
+                } else {
+                    features = null;
+                }
+            }
+            if (weight > maxResultWeight) {
+                refs = null;
+                features = null;
+            }
+        }
+
+        /**
+         * Caches the recorded result, unless it was given up
+         */
+        void done() {
+            if (refs == null) {
+                return;
+            }
+            ImmutableList<byte[]> encoded = null;
+            if (features != null) {
+                ImmutableList.Builder<byte[]> builder = ImmutableList.builder();
+                long featuresWeight = 0;
+                for (RevFeature feature : features) {
+                    byte[] bytes = encode(feature);
+                    featuresWeight += bytes.length;
+                    builder.add(bytes);
+                }
+                if (weight + featuresWeight <= maxResultWeight) {
+                    encoded = builder.build();
+                    weight += featuresWeight;
+                }
+            }
+            results.put(key, new Result(ImmutableList.copyOf(refs), encoded, weight));
+            refs = null;
+            features = null;
+        }
+
+        private byte[] encode(RevFeature feature) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                FEATURE_WRITER.write(feature, out);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
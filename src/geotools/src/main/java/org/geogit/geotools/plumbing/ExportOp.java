@@ -6,7 +6,14 @@
 package org.geogit.geotools.plumbing;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -15,7 +22,6 @@ import org.geogit.api.FeatureBuilder;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
-import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
@@ -27,6 +33,7 @@ import org.geogit.api.plumbing.diff.DepthTreeIterator;
 import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.geotools.plumbing.GeoToolsOpException.StatusCode;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.OrderedTaskQueue;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.Transaction;
@@ -36,6 +43,7 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.util.ProgressListener;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -44,14 +52,46 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 /**
  * Internal operation for creating a FeatureCollection from a tree content.
- * 
+ * <p>
+ * The features are read and decoded on a shared pool of threads, in chunks of up to a tree
+ * bucket's size, and written to the feature store from the calling thread in the same order, in
+ * batches of {@link #setBatchSize(int) batchSize} features, committing every
+ * {@link #setCommitInterval(int) commitInterval} features. Progress and throughput are reported
+ * through the operation's progress listener. If the listener is canceled, the features added since
+ * the last commit are rolled back.
  */
 public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
 
+    /**
+     * Default number of features added to the feature store at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Default number of features after which the feature store transaction is committed
+     */
+    public static final int DEFAULT_COMMIT_INTERVAL = 100 * 1000;
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService DECODER_EXECUTOR = OrderedTaskQueue.newWorkerPool(
+            "geogit-export-%d", THREADS);
+
+    /**
+     * Number of nodes decoded by a single task
+     */
+    private static final int CHUNK_SIZE = RevTree.NORMALIZED_SIZE_LIMIT;
+
+    /**
+     * Maximum number of chunks being decoded or waiting to be written
+     */
+    private static final int MAX_PENDING_CHUNKS = 2 * THREADS;
+
     private String path;
 
     private Supplier<SimpleFeatureStore> featureStore;
@@ -74,6 +114,10 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
 
     private boolean alter;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+
     /**
      * Constructs a new export operation.
      */
@@ -87,7 +131,6 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
      * 
      * @return a FeatureCollection with the specified features
      */
-    @SuppressWarnings("deprecation")
     @Override
     public SimpleFeatureStore call() {
 
@@ -139,77 +182,42 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
         Preconditions.checkArgument(revObject.get().getType() == TYPE.TREE,
                 "%s did not resolve to a tree", refspec);
 
-        DepthTreeIterator iter = new DepthTreeIterator(treePath, parentMetadataId,
-                (RevTree) revObject.get(), database, Strategy.FEATURES_ONLY);
-
-        // Create a FeatureCollection
+        final RevTree typeTree = (RevTree) revObject.get();
+        DepthTreeIterator iter = new DepthTreeIterator(treePath, parentMetadataId, typeTree,
+                database, Strategy.FEATURES_ONLY);
 
         getProgressListener().started();
         getProgressListener().setDescription("Exporting " + path + "... ");
-        DefaultFeatureCollection features = new DefaultFeatureCollection();
 
         boolean featureTypeWasSpecified = featureTypeId != null;
         featureTypeId = featureTypeId == null ? parentMetadataId : featureTypeId;
-        FeatureBuilder featureBuilder = null;
-        // FeatureType featureType = null;
-        int i = 1;
-        while (iter.hasNext()) {
-            NodeRef nodeRef = iter.next();
-            if (nodeRef.getType() == TYPE.FEATURE) {
-                RevFeature revFeature = command(RevObjectParse.class)
-                        .setObjectId(nodeRef.objectId()).call(RevFeature.class).get();
-                if (!nodeRef.getMetadataId().equals(featureTypeId)) {
-                    // we skip features with a different feature type, but only if a featuretype was
-                    // specified. If alter is used, then we convert them
-                    if (!featureTypeWasSpecified) {
-                        throw new GeoToolsOpException(StatusCode.MIXED_FEATURE_TYPES);
-                    } else if (alter) {
-                        RevFeatureType revFeatureType = command(RevObjectParse.class)
-                                .setObjectId(featureTypeId).call(RevFeatureType.class).get();
-                        // featureType = revFeatureType.type();
-                        featureBuilder = new FeatureBuilder(revFeatureType);
-                        revFeature = new RevFeatureBuilder().build(alter(nodeRef, revFeatureType));
-                    } else {
-                        continue;
-                    }
-                }
-                if (featureBuilder == null) {
-                    RevFeatureType revFeatureType = command(RevObjectParse.class)
-                            .setObjectId(featureTypeId).call(RevFeatureType.class).get();
-                    // featureType = revFeatureType.type();
-                    featureBuilder = new FeatureBuilder(revFeatureType);
-                }
-                Feature feature = featureBuilder.build(nodeRef.getNode().getName(), revFeature);
-                feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
-                Optional<Feature> validFeature = function.apply(feature);
-                if (validFeature.isPresent()) {
-                    features.add((SimpleFeature) validFeature.get());
-                }
-                getProgressListener().progress((i * 100.f) / revTree.get().size());
-                i++;
-            }
-        }
-
-        if (featureBuilder == null) {
-            throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
-        }
+        final FeatureDecoder decoder = new FeatureDecoder(featureTypeId, featureTypeWasSpecified);
 
-        // add the feature collection to the feature store
+        // add the features to the feature store
         final Transaction transaction = new DefaultTransaction("create");
         try {
             fs.setTransaction(transaction);
             try {
-                fs.addFeatures(features);
+                export(iter, decoder, fs, transaction, typeTree.size());
+                if (getProgressListener().isCanceled()) {
+                    transaction.rollback();
+                    return fs;
+                }
+                if (decoder.matched.get() == 0) {
+                    throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
+                }
                 transaction.commit();
+            } catch (GeoToolsOpException e) {
+                transaction.rollback();
+                throw e;
             } catch (final Exception e) {
                 transaction.rollback();
-                throw new GeoToolsOpException(StatusCode.UNABLE_TO_ADD);
+                throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_ADD);
             } finally {
-                features = null;
                 transaction.close();
             }
         } catch (IOException e) {
-            throw new GeoToolsOpException(StatusCode.UNABLE_TO_ADD);
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_ADD);
         }
 
         getProgressListener().complete();
@@ -219,38 +227,257 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
     }
 
     /**
-     * Translates a feature pointed by a node from its original feature type to a given one, using
-     * values from those attributes that exist in both original and destination feature type. New
-     * attributes are populated with null values
+     * Streams the features through the decoding workers and into the feature store, in batches
+     * of {@link #setBatchSize(int) batchSize} features, committing the transaction every
+     * {@link #setCommitInterval(int) commitInterval} features. If the listener is canceled,
+     * the features not flushed yet are discarded.
+     */
+    private void export(final Iterator<NodeRef> nodes, final FeatureDecoder decoder,
+            final SimpleFeatureStore fs, final Transaction transaction, final long total)
+            throws IOException {
+
+        final ProgressListener listener = getProgressListener();
+        final OrderedTaskQueue<List<Feature>> pending = new OrderedTaskQueue<List<Feature>>(
+                DECODER_EXECUTOR, MAX_PENDING_CHUNKS);
+        final ExportBatch batch = new ExportBatch(fs, transaction, total);
+        try {
+            while (nodes.hasNext() && !listener.isCanceled()) {
+                List<NodeRef> chunk = new ArrayList<NodeRef>(CHUNK_SIZE);
+                while (chunk.size() < CHUNK_SIZE && nodes.hasNext()) {
+                    NodeRef nodeRef = nodes.next();
+                    if (nodeRef.getType() == TYPE.FEATURE) {
+                        chunk.add(nodeRef);
+                    }
+                }
+                pending.submit(new DecodeTask(decoder, chunk, pending));
+                if (pending.isFull()) {
+                    batch.addAll(pending.take());
+                }
+            }
+            while (!pending.isEmpty() && !listener.isCanceled()) {
+                batch.addAll(pending.take());
+            }
+            if (!listener.isCanceled()) {
+                batch.flush();
+            }
+        } finally {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Accumulates converted features and writes them to the feature store. Used by the calling
+     * thread only, which is also the one applying the conversion function, since it's not
+     * required to be thread safe.
+     */
+    private class ExportBatch {
+
+        private final SimpleFeatureStore fs;
+
+        private final Transaction transaction;
+
+        private final long total;
+
+        private final long startTime = System.currentTimeMillis();
+
+        private DefaultFeatureCollection features = new DefaultFeatureCollection();
+
+        private int size;
+
+        private long processed;
+
+        private long written;
+
+        private long uncommitted;
+
+        ExportBatch(SimpleFeatureStore fs, Transaction transaction, long total) {
+            this.fs = fs;
+            this.transaction = transaction;
+            this.total = total;
+        }
+
+        void addAll(List<Feature> decoded) throws IOException {
+            for (Feature feature : decoded) {
+                Optional<Feature> validFeature = function.apply(feature);
+                if (validFeature.isPresent()) {
+                    features.add((SimpleFeature) validFeature.get());
+                    size++;
+                    if (size >= batchSize) {
+                        flush();
+                    }
+                }
+            }
+            processed += decoded.size();
+            if (total > 0) {
+                getProgressListener().progress((processed * 100.f) / total);
+            }
+        }
+
+        void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            fs.addFeatures(features);
+            written += size;
+            uncommitted += size;
+            features = new DefaultFeatureCollection();
+            size = 0;
+            if (commitInterval > 0 && uncommitted >= commitInterval) {
+                transaction.commit();
+                uncommitted = 0;
+            }
+            long elapsedSeconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+            getProgressListener().setDescription(
+                    String.format("Exporting %s... %,d features (%,d features/s)", path, written,
+                            written / elapsedSeconds));
+        }
+    }
+
+    /**
+     * Turns the nodes of a chunk into features. The chunk's {@link RevFeature}s are read from the
+     * database in a single batch.
+     */
+    private class DecodeTask implements Callable<List<Feature>> {
+
+        private final FeatureDecoder decoder;
+
+        private final List<NodeRef> nodes;
+
+        private final OrderedTaskQueue<List<Feature>> queue;
+
+        DecodeTask(FeatureDecoder decoder, List<NodeRef> nodes,
+                OrderedTaskQueue<List<Feature>> queue) {
+            this.decoder = decoder;
+            this.nodes = nodes;
+            this.queue = queue;
+        }
+
+        @Override
+        public List<Feature> call() {
+            if (queue.isCancelled()) {
+                return ImmutableList.of();
+            }
+            List<ObjectId> ids = new ArrayList<ObjectId>(nodes.size());
+            for (NodeRef nodeRef : nodes) {
+                ids.add(nodeRef.objectId());
+            }
+            Map<ObjectId, RevFeature> revFeatures = Maps.newHashMap();
+            for (Iterator<RevObject> it = database.getAll(ids); it.hasNext();) {
+                RevObject object = it.next();
+                revFeatures.put(object.getId(), (RevFeature) object);
+            }
+            List<Feature> features = new ArrayList<Feature>(nodes.size());
+            for (NodeRef nodeRef : nodes) {
+                if (queue.isCancelled()) {
+                    break;
+                }
+                RevFeature revFeature = revFeatures.get(nodeRef.objectId());
+                Preconditions.checkState(revFeature != null, "Feature not found: %s",
+                        nodeRef.objectId());
+                Feature feature = decoder.decode(nodeRef, revFeature);
+                if (feature != null) {
+                    features.add(feature);
+                }
+            }
+            return features;
+        }
+    }
+
+    /**
+     * Builds the features to export, shared by all the decoding tasks of an export. Feature types
+     * and feature builders are cached by metadata id.
+     */
+    private class FeatureDecoder {
+
+        private final ObjectId featureTypeId;
+
+        private final boolean featureTypeWasSpecified;
+
+        private final ConcurrentMap<ObjectId, RevFeatureType> featureTypes = Maps
+                .newConcurrentMap();
+
+        private final ConcurrentMap<ObjectId, FeatureBuilder> featureBuilders = Maps
+                .newConcurrentMap();
+
+        /**
+         * Number of features that have the exported feature type, or were altered to it
+         */
+        final AtomicLong matched = new AtomicLong();
+
+        FeatureDecoder(ObjectId featureTypeId, boolean featureTypeWasSpecified) {
+            this.featureTypeId = featureTypeId;
+            this.featureTypeWasSpecified = featureTypeWasSpecified;
+        }
+
+        /**
+         * @return the feature to export, or {@code null} if the node is to be skipped
+         */
+        @Nullable
+        Feature decode(NodeRef nodeRef, RevFeature revFeature) {
+            if (!nodeRef.getMetadataId().equals(featureTypeId)) {
+                // we skip features with a different feature type, but only if a featuretype was
+                // specified. If alter is used, then we convert them
+                if (!featureTypeWasSpecified) {
+                    throw new GeoToolsOpException(StatusCode.MIXED_FEATURE_TYPES);
+                } else if (alter) {
+                    revFeature = alter(revFeature, featureType(nodeRef.getMetadataId()),
+                            featureType(featureTypeId));
+                } else {
+                    return null;
+                }
+            }
+            matched.incrementAndGet();
+            Feature feature = featureBuilder(featureTypeId).build(nodeRef.getNode().getName(),
+                    revFeature);
+            feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+            return feature;
+        }
+
+        private RevFeatureType featureType(ObjectId metadataId) {
+            RevFeatureType featureType = featureTypes.get(metadataId);
+            if (featureType == null) {
+                featureType = database.get(metadataId, RevFeatureType.class);
+                featureTypes.putIfAbsent(metadataId, featureType);
+            }
+            return featureType;
+        }
+
+        private FeatureBuilder featureBuilder(ObjectId metadataId) {
+            FeatureBuilder builder = featureBuilders.get(metadataId);
+            if (builder == null) {
+                builder = new FeatureBuilder(featureType(metadataId));
+                featureBuilders.putIfAbsent(metadataId, builder);
+            }
+            return builder;
+        }
+    }
+
+    /**
+     * Translates a feature from its original feature type to a given one, using values from those
+     * attributes that exist in both original and destination feature type. New attributes are
+     * populated with null values
      * 
-     * @param node The node that points to the feature. No checking is performed to ensure the node
-     *        points to a feature instead of other type
+     * @param oldFeature the feature to translate
+     * @param oldFeatureType the original feature type
      * @param featureType the destination feature type
-     * @return a feature with the passed feature type and data taken from the input feature
+     * @return a feature with the values of the destination feature type, taken from the input
+     *         feature
      */
-    private Feature alter(NodeRef node, RevFeatureType featureType) {
-        RevFeature oldFeature = command(RevObjectParse.class).setObjectId(node.objectId())
-                .call(RevFeature.class).get();
-        RevFeatureType oldFeatureType;
-        oldFeatureType = command(RevObjectParse.class).setObjectId(node.getMetadataId())
-                .call(RevFeatureType.class).get();
+    private static RevFeature alter(RevFeature oldFeature, RevFeatureType oldFeatureType,
+            RevFeatureType featureType) {
         ImmutableList<PropertyDescriptor> oldAttributes = oldFeatureType.sortedDescriptors();
         ImmutableList<PropertyDescriptor> newAttributes = featureType.sortedDescriptors();
-        ImmutableList<Optional<Object>> oldValues = oldFeature.getValues();
         List<Optional<Object>> newValues = Lists.newArrayList();
         for (int i = 0; i < newAttributes.size(); i++) {
             int idx = oldAttributes.indexOf(newAttributes.get(i));
             if (idx != -1) {
-                Optional<Object> oldValue = oldValues.get(idx);
+                Optional<Object> oldValue = oldFeature.get(idx);
                 newValues.add(oldValue);
             } else {
                 newValues.add(Optional.absent());
             }
         }
-        RevFeature newFeature = RevFeature.build(ImmutableList.copyOf(newValues));
-        FeatureBuilder featureBuilder = new FeatureBuilder(featureType);
-        Feature feature = featureBuilder.build(node.name(), newFeature);
-        return feature;
+        return RevFeature.build(ImmutableList.copyOf(newValues));
     }
 
     /**
@@ -322,6 +549,28 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
         return this;
     }
 
+    /**
+     * @param batchSize the number of features added to the feature store at once, defaults to
+     *        {@link #DEFAULT_BATCH_SIZE}
+     * @return {@code this}
+     */
+    public ExportOp setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batch size must be positive: %s", batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param commitInterval the number of features after which the feature store transaction is
+     *        committed, defaults to {@link #DEFAULT_COMMIT_INTERVAL}. A non positive value means
+     *        the transaction is committed only once, when all the features have been added
+     * @return {@code this}
+     */
+    public ExportOp setCommitInterval(int commitInterval) {
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
     /**
      * Sets the function to use for creating a valid Feature that has the FeatureType of the output
      * FeatureStore, based on the actual FeatureType of the Features to export.
@@ -5,6 +5,7 @@
 
 package org.geogit.geotools.plumbing;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -71,6 +72,16 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
      */
     private boolean alter;
 
+    /**
+     * If true, only the differences between the table and the existing tree are applied
+     */
+    private boolean incremental;
+
+    /**
+     * Attribute holding the last modification time of each feature, used by incremental imports
+     */
+    private String lastModifiedAttribute;
+
     /**
      * Constructs a new {@code ImportOp} operation.
      */
@@ -113,7 +124,16 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
             throw new GeoToolsOpException(StatusCode.ALTER_AND_ALL_DEFINED);
         }
 
-        if (alter || (all && destPath != null)) {
+        if (incremental && alter) {
+            throw new GeoToolsOpException(StatusCode.ALTER_AND_INCREMENTAL_DEFINED);
+        }
+
+        if (incremental && all && typeNames.size() > 1 && destPath != null
+                && !destPath.isEmpty()) {
+            throw new GeoToolsOpException(StatusCode.INCREMENTAL_AND_ALL_DEFINED);
+        }
+
+        if (alter || incremental || (all && destPath != null)) {
             overwrite = false;
         }
 
@@ -183,6 +203,20 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
                 }
             }
 
+            final String fidPrefix = featureType.getName().getLocalPart() + ".";
+
+            if (incremental) {
+                try {
+                    new IncrementalImport(getCommandLocator(), path, featureSource, fidPrefix,
+                            lastModifiedAttribute).call(taskProgress);
+                } catch (IOException e) {
+                    throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_GET_FEATURES);
+                } catch (Exception e) {
+                    throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+                }
+                continue;
+            }
+
             final SimpleFeatureIterator featureIterator = features.features();
             Iterator<Feature> iterator = new AbstractIterator<Feature>() {
                 @Override
@@ -193,7 +227,6 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
                     return featureIterator.next();
                 }
             };
-            final String fidPrefix = featureType.getName().getLocalPart() + ".";
             iterator = Iterators.transform(iterator, new FidReplacer(fidPrefix));
 
             Integer collectionSize = features.size();
@@ -334,6 +367,28 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
         return this;
     }
 
+    /**
+     * @param incremental if true, the table is compared against the features already in the
+     *        destination path and only the added, modified and deleted features are applied,
+     *        instead of importing all of them again. Can't be used together with alter.
+     * @return {@code this}
+     */
+    public ImportOp setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * @param lastModifiedAttribute the name of an attribute that holds the time each feature was
+     *        last modified. If set, an incremental import only reads in full the features modified
+     *        since the previous incremental import into the same tree.
+     * @return {@code this}
+     */
+    public ImportOp setLastModifiedAttribute(String lastModifiedAttribute) {
+        this.lastModifiedAttribute = lastModifiedAttribute;
+        return this;
+    }
+
     /**
      * 
      * @param destPath the path to import to to. If not provided, it will be taken from the feature
@@ -374,7 +429,7 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
     }
 
-    private static final class FidOverrideFeature extends DecoratingFeature {
+    static final class FidOverrideFeature extends DecoratingFeature {
 
         private String fid;
 
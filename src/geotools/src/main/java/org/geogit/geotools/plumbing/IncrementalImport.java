@@ -0,0 +1,325 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.geotools.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.CommandLocator;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.LsTreeOp;
+import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.ConfigOp.ConfigScope;
+import org.geogit.repository.WorkingTree;
+import org.geogit.repository.WorkingTreeSession;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.util.Converters;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.util.ProgressListener;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Imports a feature source into a tree that already holds a previous import of it, applying only
+ * the features that were added, modified or deleted since.
+ * <p>
+ * The nodes of the existing tree are joined by feature id against the source features, and a
+ * source feature is only written when it's new or when its {@link RevFeature} id, the hash of its
+ * attribute values, or its feature type differ from the stored ones. Tree nodes not matched by
+ * any source feature are deleted. Changes go through a {@link WorkingTreeSession}, so the cost of
+ * updating the tree is proportional to the number of changes. Only the names and object ids of the
+ * existing nodes are kept in memory while joining.
+ * <p>
+ * If a last modified attribute is given, the maximum value of that attribute in the source is
+ * recorded in the repository config after the import, keyed by the id of the resulting tree. A
+ * later import into that same tree only reads in full the features modified at or after that
+ * value, plus the feature ids, to find out the deleted ones. Then only the names of the existing
+ * nodes are kept in memory, and the nodes of the modified features are looked up one by one. If
+ * the tree was changed by other means in between, its id won't match and all the features are
+ * compared.
+ */
+class IncrementalImport {
+
+    private static final FilterFactory2 FILTER_FACTORY = CommonFactoryFinder
+            .getFilterFactory2(null);
+
+    private static final String CONFIG_SECTION = "import";
+
+    private final CommandLocator commandLocator;
+
+    private final String path;
+
+    private final SimpleFeatureSource featureSource;
+
+    private final String fidPrefix;
+
+    @Nullable
+    private final String lastModifiedAttribute;
+
+    /**
+     * @param commandLocator the command locator of the calling operation
+     * @param path the path of the tree to import into
+     * @param featureSource the features to import
+     * @param fidPrefix the prefix to remove from the source feature ids
+     * @param lastModifiedAttribute the name of an attribute holding the time the features were
+     *        last modified, or {@code null} if the source has none
+     */
+    IncrementalImport(CommandLocator commandLocator, String path,
+            SimpleFeatureSource featureSource, String fidPrefix,
+            @Nullable String lastModifiedAttribute) {
+        this.commandLocator = commandLocator;
+        this.path = path;
+        this.featureSource = featureSource;
+        this.fidPrefix = fidPrefix;
+        this.lastModifiedAttribute = lastModifiedAttribute;
+    }
+
+    /**
+     * Applies the changes in the feature source to the working tree.
+     *
+     * @param listener notified of progress
+     * @return the number of features added, modified or deleted
+     * @throws IOException if the features can't be read from the source
+     */
+    int call(final ProgressListener listener) throws IOException {
+        final WorkingTree workTree = commandLocator.getWorkingTree();
+        final SimpleFeatureType schema = featureSource.getSchema();
+        checkArgument(lastModifiedAttribute == null
+                || schema.getDescriptor(lastModifiedAttribute) != null,
+                "%s has no attribute named %s", schema.getTypeName(), lastModifiedAttribute);
+        final Optional<Object> watermark = lastModifiedAttribute == null ? Optional.absent()
+                : Optional.fromNullable(maxLastModified(schema));
+
+        Optional<NodeRef> treeRef = findTree();
+        if (!treeRef.isPresent()) {
+            treeRef = Optional.of(workTree.createTypeTree(path, schema));
+        }
+        final ObjectId featureTypeId = RevFeatureType.build(schema).getId();
+        final Optional<ObjectId> metadataId = featureTypeId.equals(treeRef.get()
+                .getMetadataId()) ? Optional.<ObjectId> absent() : Optional.of(featureTypeId);
+        final Optional<Object> since = since(treeRef.get().objectId(), schema);
+
+        final RevTree typeTree = commandLocator.getIndex().getDatabase()
+                .getTree(treeRef.get().objectId());
+        // the names of the existing nodes not matched yet, in last modified mode the object ids are
+        // only looked up for the modified features
+        final Map<String, ObjectId> existingIds;
+        final Set<String> existing;
+        if (since.isPresent()) {
+            existingIds = null;
+            existing = existingNames();
+        } else {
+            existingIds = existingIds(metadataId);
+            existing = existingIds.keySet();
+        }
+        final int total = existing.size();
+        final RevFeatureBuilder featureBuilder = new RevFeatureBuilder();
+        final WorkingTreeSession session = workTree.startSession();
+        int changes = 0;
+        try {
+            Filter filter = Filter.INCLUDE;
+            if (since.isPresent()) {
+                filter = FILTER_FACTORY.greaterOrEqual(
+                        FILTER_FACTORY.property(lastModifiedAttribute),
+                        FILTER_FACTORY.literal(since.get()));
+            }
+            SimpleFeatureIterator features = featureSource.getFeatures(filter).features();
+            int count = 0;
+            try {
+                while (features.hasNext() && !listener.isCanceled()) {
+                    SimpleFeature feature = features.next();
+                    String fid = fid(feature);
+                    ObjectId current = since.isPresent() ? currentId(typeTree, fid, metadataId)
+                            : existingIds.remove(fid);
+                    RevFeature revFeature = featureBuilder.build(feature);
+                    if (current == null || !current.equals(revFeature.getId())) {
+                        session.insert(path, new ImportOp.FidOverrideFeature(feature, fid));
+                        changes++;
+                    }
+                    count++;
+                    if (total > 0 && !since.isPresent()) {
+                        listener.progress((float) (Math.min(count, total) * 100) / total);
+                    }
+                }
+            } finally {
+                features.close();
+            }
+            if (since.isPresent()) {
+                // only the ids are needed to find the deleted features
+                Query query = new Query(schema.getTypeName(), Filter.INCLUDE,
+                        new String[] { lastModifiedAttribute });
+                SimpleFeatureIterator ids = featureSource.getFeatures(query).features();
+                try {
+                    while (ids.hasNext() && !listener.isCanceled()) {
+                        existing.remove(fid(ids.next()));
+                    }
+                } finally {
+                    ids.close();
+                }
+            }
+            if (listener.isCanceled()) {
+                return changes;
+            }
+            for (String deleted : existing) {
+                session.delete(path, deleted);
+                changes++;
+            }
+        } finally {
+            session.close();
+        }
+
+        if (watermark.isPresent()) {
+            recordWatermark(treeRef.get().objectId(), watermark.get());
+        }
+        listener.progress(100.f);
+        return changes;
+    }
+
+    private String fid(Feature feature) {
+        return ((SimpleFeature) feature).getID().substring(fidPrefix.length());
+    }
+
+    private Optional<NodeRef> findTree() {
+        return commandLocator.command(FindTreeChild.class).setIndex(true)
+                .setParent(commandLocator.getWorkingTree().getTree()).setChildPath(path).call();
+    }
+
+    private Iterator<NodeRef> existingNodes() {
+        return commandLocator.command(LsTreeOp.class).setReference(Ref.WORK_HEAD + ":" + path)
+                .setStrategy(Strategy.FEATURES_ONLY).call();
+    }
+
+    private Set<String> existingNames() {
+        Iterator<NodeRef> refs = existingNodes();
+        Set<String> names = Sets.newHashSet();
+        while (refs.hasNext()) {
+            names.add(refs.next().name());
+        }
+        return names;
+    }
+
+    private Map<String, ObjectId> existingIds(Optional<ObjectId> metadataId) {
+        Iterator<NodeRef> refs = existingNodes();
+        Map<String, ObjectId> ids = Maps.newHashMap();
+        while (refs.hasNext()) {
+            Node node = refs.next().getNode();
+            ids.put(node.getName(), comparableId(node, metadataId));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the object id of the node of the given feature in the type tree, as given by
+     *         {@link #comparableId}, or {@code null} if there's no such node
+     */
+    @Nullable
+    private ObjectId currentId(RevTree typeTree, String fid, Optional<ObjectId> metadataId) {
+        Optional<NodeRef> ref = commandLocator.command(FindTreeChild.class).setIndex(true)
+                .setParent(typeTree).setParentPath(path)
+                .setChildPath(NodeRef.appendChild(path, fid)).call();
+        return ref.isPresent() ? comparableId(ref.get().getNode(), metadataId) : null;
+    }
+
+    /**
+     * @return the node's object id, or the null id, which no feature has, if its metadata id isn't
+     *         the one the imported features shall have, so that the feature is written again
+     */
+    private static ObjectId comparableId(Node node, Optional<ObjectId> metadataId) {
+        return node.getMetadataId().equals(metadataId) ? node.getObjectId() : ObjectId.NULL;
+    }
+
+    /**
+     * @return the greatest last modified value in the source, computed before reading any feature
+     *         so that features modified during the import are read again by the next one
+     */
+    @Nullable
+    private Object maxLastModified(SimpleFeatureType schema) throws IOException {
+        MaxVisitor visitor = new MaxVisitor(lastModifiedAttribute, schema);
+        featureSource.getFeatures().accepts(visitor, null);
+        return visitor.getResult().getValue();
+    }
+
+    /**
+     * @return the last modified value recorded by a previous import that resulted in the tree with
+     *         the given id, if the same last modified attribute was used
+     */
+    private Optional<Object> since(ObjectId treeId, SimpleFeatureType schema) {
+        if (lastModifiedAttribute == null) {
+            return Optional.absent();
+        }
+        final String key = CONFIG_SECTION + "." + treeId;
+        Optional<String> attribute = commandLocator.command(ConfigGet.class)
+                .setName(key + ".attribute").call();
+        Optional<String> value = commandLocator.command(ConfigGet.class)
+                .setName(key + ".since").call();
+        if (!lastModifiedAttribute.equals(attribute.orNull()) || !value.isPresent()) {
+            return Optional.absent();
+        }
+        AttributeDescriptor descriptor = schema.getDescriptor(lastModifiedAttribute);
+        Class<?> binding = descriptor.getType().getBinding();
+        if (Date.class.isAssignableFrom(binding)) {
+            return Optional.<Object> of(new Timestamp(Long.parseLong(value.get())));
+        }
+        return Optional.fromNullable(Converters.convert(value.get(), binding));
+    }
+
+    private void recordWatermark(ObjectId previousTreeId, Object watermark) {
+        final ObjectId treeId = findTree().get().objectId();
+        if (!treeId.equals(previousTreeId)) {
+            configRemoveSection(CONFIG_SECTION + "." + previousTreeId);
+        }
+        final String key = CONFIG_SECTION + "." + treeId;
+        final String value = watermark instanceof Date ? String.valueOf(((Date) watermark)
+                .getTime()) : watermark.toString();
+        configSet(key + ".attribute", lastModifiedAttribute);
+        configSet(key + ".since", value);
+    }
+
+    private void configSet(String name, String value) {
+        commandLocator.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setScope(ConfigScope.LOCAL).setName(name).setValue(value).call();
+    }
+
+    private void configRemoveSection(String section) {
+        try {
+            commandLocator.command(ConfigOp.class).setAction(ConfigAction.CONFIG_REMOVE_SECTION)
+                    .setScope(ConfigScope.LOCAL).setName(section).call();
+        } catch (ConfigException e) {
+            // there was no previous watermark for it
+        }
+    }
+}
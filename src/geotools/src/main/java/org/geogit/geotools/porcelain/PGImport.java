@@ -61,6 +61,18 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
     @Parameter(names = { "-d", "--dest" }, description = "Path to import to")
     String destTable;
 
+    /**
+     * Only apply the differences with the features already in the destination path
+     */
+    @Parameter(names = { "--incremental" }, description = "Only apply the features added, modified or deleted since the table was last imported")
+    boolean incremental;
+
+    /**
+     * Column with the last modification time of each row, used by incremental imports
+     */
+    @Parameter(names = { "--last-modified" }, description = "Column with the last modification time of each row. Lets --incremental only read the rows modified since the last import")
+    String lastModified;
+
     /**
      * Executes the import command using the provided options.
      */
@@ -74,6 +86,7 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
 
             ProgressListener progressListener = cli.getProgressListener();
             cli.getGeogit().command(ImportOp.class).setAll(all).setTable(table).setAlter(alter)
+                    .setIncremental(incremental).setLastModifiedAttribute(lastModified)
                     .setDestinationPath(destTable).setOverwrite(!add).setDataStore(dataStore)
                     .setProgressListener(progressListener).call();
 
@@ -102,6 +115,12 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
             case ALTER_AND_ALL_DEFINED:
                 throw new CommandFailedException(
                         "Alter cannot be used with --all option and more than one table.", e);
+            case ALTER_AND_INCREMENTAL_DEFINED:
+                throw new CommandFailedException(
+                        "--alter and --incremental cannot be used together.", e);
+            case INCREMENTAL_AND_ALL_DEFINED:
+                throw new CommandFailedException(
+                        "--incremental cannot import more than one table into the same path.", e);
             default:
                 throw new CommandFailedException("Import failed with exception: "
                         + e.statusCode.name(), e);
@@ -23,6 +23,7 @@ import java.util.List;
 
 import org.geogit.api.NodeRef;
 import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.porcelain.BranchCreateOp;
@@ -214,6 +215,30 @@ public class GeoGitDataStoreTest extends RepositoryTestCase {
         geogit.command(CommitOp.class).call();
     }
 
+    @Test
+    public void testResolvedTypesFollowRefUpdates() throws Exception {
+        insertAndAdd(points1);
+        commit();
+
+        NodeRef typeRef = dataStore.findTypeRef(pointsTypeName, null);
+        RevTree typeTree = dataStore.getTypeTree(typeRef, null);
+        // resolved once per commit
+        assertSame(typeTree, dataStore.getTypeTree(dataStore.findTypeRef(pointsTypeName, null),
+                null));
+        assertEquals(pointsType, dataStore.getFeatureType(typeRef, null).type());
+
+        SimpleFeatureSource source = dataStore.getFeatureSource(pointsTypeName);
+        assertEquals(1, source.getCount(Query.ALL));
+
+        insertAndAdd(points2);
+        commit();
+
+        NodeRef newTypeRef = dataStore.findTypeRef(pointsTypeName, null);
+        assertFalse(typeRef.objectId().equals(newTypeRef.objectId()));
+        assertEquals(2, dataStore.getTypeTree(newTypeRef, null).size());
+        assertEquals(2, source.getCount(Query.ALL));
+    }
+
     @Test
     public void testGetSchemaProvidedNamespace() throws Exception {
         String namespace = "http://www.geogit.org/test";
@@ -358,6 +358,44 @@ public class GeoGitFeatureSourceTest extends RepositoryTestCase {
         }
     }
 
+    @Test
+    public void testQueryCache() throws Exception {
+        dataStore.setQueryCacheSize(1024 * 1024);
+        final QueryCache cache = dataStore.getQueryCache();
+
+        Filter filter = ECQL.toFilter("sp = 'StringProp2_3' OR ip = 2000");
+        Set<List<Object>> expected = ImmutableSet.of(((SimpleFeature) lines2).getAttributes(),
+                ((SimpleFeature) lines3).getAttributes());
+
+        assertEquals(expected, attributes(linesSource.getFeatures(new Query(linesName, filter))));
+        assertEquals(1, cache.size());
+        // served out of the cache
+        assertEquals(expected, attributes(linesSource.getFeatures(new Query(linesName, filter))));
+        assertEquals(1, cache.size());
+
+        Query paged = new Query(linesName, filter);
+        paged.setMaxFeatures(1);
+        assertEquals(1, toList(linesSource.getFeatures(paged)).size());
+        assertEquals(1, toList(linesSource.getFeatures(paged)).size());
+        assertEquals(2, cache.size());
+
+        // a new commit changes the tree id, so the cached results are not used anymore
+        deleteAndAdd(lines3);
+        geogit.command(CommitOp.class).setAuthor("yo", "yo@test.com")
+                .setCommitter("me", "me@test.com").setMessage("deleted lines3").call();
+        expected = ImmutableSet.of(((SimpleFeature) lines2).getAttributes());
+        assertEquals(expected, attributes(linesSource.getFeatures(new Query(linesName, filter))));
+        assertEquals(3, cache.size());
+    }
+
+    private Set<List<Object>> attributes(SimpleFeatureCollection collection) {
+        Set<List<Object>> attributes = Sets.newHashSet();
+        for (SimpleFeature f : toList(collection)) {
+            attributes.add(f.getAttributes());
+        }
+        return attributes;
+    }
+
     private List<SimpleFeature> toList(SimpleFeatureCollection collection) {
         List<SimpleFeature> features = Lists.newArrayList();
         SimpleFeatureIterator iterator = collection.features();
@@ -32,9 +32,11 @@ import org.geotools.data.Transaction;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.filter.text.ecql.ECQL;
 import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.FeatureId;
@@ -281,6 +283,30 @@ public class GeoGitFeatureStoreTest extends RepositoryTestCase {
         assertEquals(0, points.getFeatures(filter).size());
     }
 
+    @Test
+    public void testRemoveFeaturesByFilter() throws Exception {
+        insertAndAdd(points1, points2, points3);
+        geogit.command(CommitOp.class).call();
+
+        Filter filter = ECQL.toFilter("ip > 1000");
+        Transaction tx = new DefaultTransaction();
+        points.setTransaction(tx);
+        try {
+            points.removeFeatures(filter);
+            assertEquals(1, points.getFeatures().size());
+            tx.commit();
+        } catch (Exception e) {
+            tx.rollback();
+            throw e;
+        } finally {
+            tx.close();
+        }
+        points.setTransaction(Transaction.AUTO_COMMIT);
+        assertEquals(1, points.getFeatures().size());
+        assertEquals(1, points.getFeatures(ff.id(Collections.singleton(ff.featureId(idP1))))
+                .size());
+    }
+
     @Test
     public void testTransactionCommitMessage() throws Exception {
 
@@ -73,6 +73,23 @@ public class ExportOpTest extends RepositoryTestCase {
         assertTrue(collectionsAreEqual(features, points));
     }
 
+    @Test
+    public void testExportInBatches() throws Exception {
+        final int count = 50;
+        for (int i = 0; i < count; i++) {
+            insert(feature(pointsType, "Points." + i, "StringProp1_" + i, Integer.valueOf(i),
+                    "POINT(" + i + " " + i + ")"));
+        }
+        MemoryDataStore dataStore = new MemoryDataStore(pointsType);
+        final String typeName = dataStore.getTypeNames()[0];
+        SimpleFeatureStore featureStore = (SimpleFeatureStore) dataStore
+                .getFeatureSource(typeName);
+        geogit.command(ExportOp.class).setFeatureStore(featureStore).setPath(pointsName)
+                .setBatchSize(3).setCommitInterval(7).call();
+        featureStore = (SimpleFeatureStore) dataStore.getFeatureSource(typeName);
+        assertEquals(count, featureStore.getFeatures().size());
+    }
+
     @Test
     public void testExportingUsingFunction() throws Exception {
         // Testing export of points feature type into a simplified feature type that
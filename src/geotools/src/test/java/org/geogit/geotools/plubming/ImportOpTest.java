@@ -6,7 +6,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.TreeSet;
 
 import org.geogit.api.CommandLocator;
@@ -26,6 +29,9 @@ import org.geogit.geotools.plumbing.ImportOp;
 import org.geogit.geotools.porcelain.TestHelper;
 import org.geogit.repository.WorkingTree;
 import org.geogit.test.integration.RepositoryTestCase;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
@@ -35,9 +41,11 @@ import org.junit.rules.ExpectedException;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.FilterFactory2;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Coordinate;
@@ -46,6 +54,8 @@ import com.vividsolutions.jts.geom.Point;
 
 public class ImportOpTest extends RepositoryTestCase {
 
+    private static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
@@ -286,6 +296,108 @@ public class ImportOpTest extends RepositoryTestCase {
         assertEquals("table2", featureType.get().getName().getLocalPart());
     }
 
+    @Test
+    public void testIncrementalImport() throws Exception {
+        SimpleFeatureType type = incrementalType();
+        MemoryDataStore dataStore = new MemoryDataStore(type);
+        dataStore.addFeature(incrementalFeature(type, "1", "one", 1000));
+        dataStore.addFeature(incrementalFeature(type, "2", "two", 1000));
+        dataStore.addFeature(incrementalFeature(type, "3", "three", 1000));
+
+        ImportOp importOp = geogit.command(ImportOp.class);
+        importOp.setDataStore(dataStore).setTable("incremental").setIncremental(true);
+        importOp.call();
+        assertEquals(ImmutableSet.of("1", "2", "3"), featureNames("incremental"));
+        ObjectId unchanged = featureId("incremental/3");
+
+        // nothing changed, nothing written
+        RevTree tree = importOp.call();
+        assertEquals(tree, importOp.call());
+
+        dataStore.addFeature(incrementalFeature(type, "1", "one modified", 1000));
+        dataStore.addFeature(incrementalFeature(type, "4", "four", 1000));
+        ((SimpleFeatureStore) dataStore.getFeatureSource("incremental")).removeFeatures(ff
+                .id(Collections.singleton(ff.featureId("incremental.2"))));
+        importOp.call();
+
+        assertEquals(ImmutableSet.of("1", "3", "4"), featureNames("incremental"));
+        assertEquals(unchanged, featureId("incremental/3"));
+        Optional<RevFeature> modified = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:incremental/1").call(RevFeature.class);
+        assertEquals("one modified", modified.get().get(1).get());
+    }
+
+    @Test
+    public void testIncrementalImportWithLastModifiedAttribute() throws Exception {
+        SimpleFeatureType type = incrementalType();
+        MemoryDataStore dataStore = new MemoryDataStore(type);
+        dataStore.addFeature(incrementalFeature(type, "1", "one", 1000));
+        dataStore.addFeature(incrementalFeature(type, "2", "two", 1000));
+        dataStore.addFeature(incrementalFeature(type, "3", "three", 2000));
+
+        ImportOp importOp = geogit.command(ImportOp.class);
+        importOp.setDataStore(dataStore).setTable("incremental").setIncremental(true)
+                .setLastModifiedAttribute("modified");
+        importOp.call();
+        assertEquals(ImmutableSet.of("1", "2", "3"), featureNames("incremental"));
+        ObjectId stale = featureId("incremental/1");
+
+        // modified at the recorded watermark, gets imported
+        dataStore.addFeature(incrementalFeature(type, "3", "three modified", 2000));
+        // changed without updating its last modified time, gets skipped
+        dataStore.addFeature(incrementalFeature(type, "1", "one modified", 1000));
+        ((SimpleFeatureStore) dataStore.getFeatureSource("incremental")).removeFeatures(ff
+                .id(Collections.singleton(ff.featureId("incremental.2"))));
+        importOp.call();
+
+        assertEquals(ImmutableSet.of("1", "3"), featureNames("incremental"));
+        assertEquals(stale, featureId("incremental/1"));
+        Optional<RevFeature> modified = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:incremental/3").call(RevFeature.class);
+        assertEquals("three modified", modified.get().get(1).get());
+    }
+
+    @Test
+    public void testIncrementalAndAlter() throws Exception {
+        ImportOp importOp = geogit.command(ImportOp.class);
+        importOp.setDataStore(TestHelper.createTestFactory().createDataStore(null));
+        importOp.setTable("table1").setIncremental(true).setAlter(true);
+        exception.expect(GeoToolsOpException.class);
+        importOp.call();
+    }
+
+    private SimpleFeatureType incrementalType() throws Exception {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setCRS(CRS.decode("EPSG:4326"));
+        builder.add("geom", Point.class);
+        builder.add("label", String.class);
+        builder.add("modified", Date.class);
+        builder.setName("incremental");
+        return builder.buildFeatureType();
+    }
+
+    private SimpleFeature incrementalFeature(SimpleFeatureType type, String id, String label,
+            long modified) {
+        Point point = new GeometryFactory().createPoint(new Coordinate(0, 0));
+        return SimpleFeatureBuilder.build(type, new Object[] { point, label, new Date(modified) },
+                "incremental." + id);
+    }
+
+    private Set<String> featureNames(String path) {
+        Iterator<NodeRef> refs = geogit.command(LsTreeOp.class)
+                .setReference("WORK_HEAD:" + path).setStrategy(Strategy.FEATURES_ONLY).call();
+        Set<String> names = Sets.newHashSet();
+        while (refs.hasNext()) {
+            names.add(refs.next().name());
+        }
+        return names;
+    }
+
+    private ObjectId featureId(String path) {
+        return geogit.command(RevObjectParse.class).setRefSpec("WORK_HEAD:" + path).call().get()
+                .getId();
+    }
+
     @Test
     public void testDeleteException() throws Exception {
         WorkingTree workTree = mock(WorkingTree.class);
@@ -7,6 +7,7 @@ package org.geogit.osm.cli;
 
 import org.geogit.cli.CLICommandExtension;
 import org.geogit.osm.cli.commands.CreateOSMChangeset;
+import org.geogit.osm.cli.commands.OSMApplyDiff;
 import org.geogit.osm.cli.commands.OSMDownload;
 import org.geogit.osm.cli.commands.OSMExport;
 import org.geogit.osm.cli.commands.OSMExportPG;
@@ -34,6 +35,7 @@ public class OSMCommandProxy implements CLICommandExtension {
         commander.setProgramName("geogit osm");
         commander.addCommand("import-history", new OSMHistoryImport());
         commander.addCommand("import", new OSMImport());
+        commander.addCommand("apply-diff", new OSMApplyDiff());
         commander.addCommand("export", new OSMExport());
         commander.addCommand("download", new OSMDownload());
         commander.addCommand("create-changeset", new CreateOSMChangeset());
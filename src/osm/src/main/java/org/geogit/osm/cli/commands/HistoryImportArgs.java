@@ -31,12 +31,15 @@ public class HistoryImportArgs {
     @Parameter(names = "--saveto", description = "Directory where to save the changesets. Defaults to $TMP/changesets.osm")
     public File saveFolder;
 
-    @Parameter(names = { "--keep-files", "-k" }, description = "If specified, downloaded changeset files are kept in the --saveto folder")
+    @Parameter(names = { "--keep-files", "-k" }, description = "If specified, downloaded changeset files are kept in the --saveto folder once the import is complete. They're always kept until then, so resumed imports don't download them again")
     public boolean keepFiles = false;
 
-    @Parameter(names = { "--numthreads", "-t" }, description = "Number of threads to use to fetch changesets. Must be between 1 and 6")
+    @Parameter(names = { "--numthreads", "-t" }, description = "Number of threads to use to fetch and parse changesets")
     public int numThreads = 4;
 
+    @Parameter(names = "--prefetch", description = "Number of changesets to fetch ahead of the one being imported")
+    public int prefetch = 16;
+
     @Parameter(names = "--dev", description = "Use the development test api endpoint <http://api06.dev.openstreetmap.org/api/0.6>. NOTE: this is not the real osm history, but just for testing purposes. ")
     public boolean useTestApiEndpoint = false;
 
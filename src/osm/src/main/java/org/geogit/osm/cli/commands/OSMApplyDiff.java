@@ -0,0 +1,70 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.cli.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.RevCommit;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.CommandFailedException;
+import org.geogit.cli.GeogitCLI;
+import org.geogit.cli.RequiresRepository;
+import org.geogit.osm.internal.OSMApplyDiffOp;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * Applies OSM change files to the current branch, committing each of them
+ * 
+ * @see OSMApplyDiffOp
+ */
+@RequiresRepository
+@Parameters(commandNames = "apply-diff", commandDescription = "Apply OpenStreetMap change files (.osc) to the current branch, with a commit per file")
+public class OSMApplyDiff extends AbstractCommand implements CLICommand {
+
+    @Parameter(description = "<file>... the OSM change files to apply, in order", required = true)
+    public List<String> files = Lists.newArrayList();
+
+    @Parameter(names = { "--message", "-m" }, description = "Commit message, defaults to one naming the applied file")
+    public String message;
+
+    @Override
+    protected void runInternal(GeogitCLI cli) throws IOException {
+        checkParameter(!files.isEmpty(), "At least one file must be specified");
+        for (String file : files) {
+            checkParameter(new File(file).exists(), "File does not exist: " + file);
+        }
+
+        ConsoleReader console = cli.getConsole();
+        for (String file : files) {
+            console.print("Applying " + file + "...");
+            console.flush();
+            Optional<RevCommit> commit;
+            try {
+                commit = cli.getGeogit().command(OSMApplyDiffOp.class)
+                        .setDiffFile(new File(file)).setMessage(message)
+                        .setProgressListener(cli.getProgressListener()).call();
+            } catch (RuntimeException e) {
+                throw new CommandFailedException("Error applying " + file + ": "
+                        + e.getMessage(), e);
+            }
+            if (commit.isPresent()) {
+                console.println("committed " + commit.get().getId());
+            } else {
+                console.println("no changes.");
+            }
+        }
+    }
+
+}
@@ -10,9 +10,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -27,27 +25,36 @@ import javax.management.relation.Relation;
 
 import jline.console.ConsoleReader;
 
+import org.geogit.api.CommitBuilder;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
 import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
-import org.geogit.api.plumbing.ResolveTreeish;
-import org.geogit.api.plumbing.RevObjectParse;
-import org.geogit.api.porcelain.AddOp;
-import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.plumbing.WriteBack;
+import org.geogit.api.porcelain.ConfigGet;
 import org.geogit.cli.AbstractCommand;
 import org.geogit.cli.CLICommand;
 import org.geogit.cli.CommandFailedException;
 import org.geogit.cli.GeogitCLI;
 import org.geogit.cli.RequiresRepository;
+import org.geogit.osm.internal.FindNodeWays;
+import org.geogit.osm.internal.NodeLocationStore;
+import org.geogit.osm.internal.UpdateNodeWayIndex;
 import org.geogit.osm.internal.history.Change;
 import org.geogit.osm.internal.history.Changeset;
 import org.geogit.osm.internal.history.HistoryDownloader;
@@ -55,31 +62,31 @@ import org.geogit.osm.internal.history.Node;
 import org.geogit.osm.internal.history.Primitive;
 import org.geogit.osm.internal.history.Way;
 import org.geogit.repository.Repository;
-import org.geogit.repository.StagingArea;
-import org.geogit.repository.WorkingTree;
+import org.geogit.storage.ObjectDatabase;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.referencing.CRS;
-import org.geotools.util.NullProgressListener;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.util.ProgressListener;
 
 import com.beust.jcommander.Parameters;
 import com.beust.jcommander.ParametersDelegate;
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
@@ -109,8 +116,8 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     @Override
     protected void runInternal(GeogitCLI cli) throws IOException {
-        checkParameter(args.numThreads > 0 && args.numThreads < 7,
-                "numthreads must be between 1 and 6");
+        checkParameter(args.numThreads > 0, "numthreads must be positive");
+        checkParameter(args.prefetch > 0, "prefetch must be positive");
 
         ConsoleReader console = cli.getConsole();
 
@@ -135,14 +142,17 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         final File targetDir = resolveTargetDir();
         console.println("Downloading to " + targetDir.getAbsolutePath());
         console.println("Files will " + (args.keepFiles ? "" : " not ")
-                + "be kept on the download directory.");
+                + "be kept on the download directory once the import is complete.");
         console.flush();
 
         HistoryDownloader downloader;
         downloader = new HistoryDownloader(osmAPIUrl, targetDir, startIndex, endIndex, executor,
-                args.keepFiles);
+                args.prefetch);
         try {
             importOsmHistory(cli, console, downloader);
+            if (!args.keepFiles) {
+                downloader.clearCache();
+            }
         } finally {
             executor.shutdownNow();
             try {
@@ -187,71 +197,119 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     private void importOsmHistory(GeogitCLI cli, ConsoleReader console, HistoryDownloader downloader)
             throws IOException {
-        Optional<Changeset> set;
-
-        while ((set = downloader.fetchNextChangeset()).isPresent()) {
-            Changeset changeset = set.get();
-
-            String desc = "obtaining osm changeset " + changeset.getId() + "...";
-            console.print(desc);
-            console.flush();
+        // locations of the nodes changed so far, kept up to date across changesets
+        final NodeLocationStore nodeLocations = new NodeLocationStore();
+        try {
+            importOsmHistory(cli, console, downloader, nodeLocations);
+        } finally {
+            nodeLocations.close();
+        }
+    }
 
-            // ProgressListener listener = cli.getProgressListener();
-            // listener.dispose();
-            // listener.setCanceled(false);
-            // listener.progress(0f);
-            // listener.setDescription(desc);
-            // listener.started();
+    /**
+     * Applies each changeset straight onto the root tree of the previous commit and commits the
+     * result, without going through the working tree and the index, which are only updated to the
+     * last commit once done. The next changesets are downloaded and parsed while the current one
+     * is applied.
+     */
+    private void importOsmHistory(GeogitCLI cli, ConsoleReader console,
+            HistoryDownloader downloader, NodeLocationStore nodeLocations) throws IOException {
 
-            Iterator<Change> changes = changeset.getChanges().get();
-            console.print("applying...");
-            console.flush();
-            insertAndAddChanges(cli, changes);
-            // listener.progress(100f);
-            // listener.complete();
+        final GeoGIT geogit = cli.getGeogit();
+        final Repository repository = geogit.getRepository();
+        final SymRef head = getHead(geogit);
+        final String branch = head.getTarget();
+        ObjectId commitId = head.getObjectId();
+        RevTree root = RevTree.EMPTY;
+        if (!commitId.isNull()) {
+            root = repository.getTree(repository.getCommit(commitId).getTreeId());
+        }
+        final ObjectId headTreeId = root.getId();
+        if (!repository.getWorkingTree().getTree().getId().equals(headTreeId)
+                || !repository.getIndex().getTree().getId().equals(headTreeId)) {
+            throw new CommandFailedException(
+                    "The working tree and the index must be clean to import the OSM history");
+        }
 
-            commit(cli, changeset);
+        try {
+            Optional<Changeset> next;
+            while ((next = downloader.fetchNextChangeset()).isPresent()) {
+                Changeset changeset = next.get();
+                List<Change> changes = ImmutableList.copyOf(changeset.getChanges().get());
+
+                console.print("applying osm changeset " + changeset.getId() + "...");
+                console.flush();
+                RevTree newRoot = applyChanges(cli, root, changes, nodeLocations);
+
+                commitId = commit(cli, changeset, branch, commitId, root, newRoot);
+                updateNodeWayIndex(geogit, root, newRoot);
+                root = newRoot;
+            }
+        } finally {
+            if (!root.getId().equals(headTreeId)) {
+                repository.getIndex().updateStageHead(root.getId());
+                repository.getWorkingTree().updateWorkHead(root.getId());
+            }
         }
     }
 
     /**
      * @param cli
      * @param changeset
+     * @param branch the branch to commit to
+     * @param parentId the id of the commit to build upon, {@link ObjectId#NULL} if none
+     * @param oldRoot the root tree of the parent commit
+     * @param newRoot the root tree to commit
+     * @return the id of the new commit
      * @throws IOException
      */
-    private void commit(GeogitCLI cli, Changeset changeset) throws IOException {
+    private ObjectId commit(GeogitCLI cli, Changeset changeset, String branch, ObjectId parentId,
+            RevTree oldRoot, RevTree newRoot) throws IOException {
         ConsoleReader console = cli.getConsole();
         console.print("Committing changeset " + changeset.getId() + "...");
         console.flush();
 
         GeoGIT geogit = cli.getGeogit();
-        CommitOp command = geogit.command(CommitOp.class);
-        command.setAllowEmpty(true);
+        Platform platform = geogit.getPlatform();
         String message = "";
         if (changeset.getComment().isPresent()) {
             message = changeset.getComment().get() + "\nchangeset " + changeset.getId();
         } else {
             message = "changeset " + changeset.getId();
         }
-        command.setMessage(message);
-        command.setAuthor(changeset.getUserName(), null);
-        command.setAuthorTimestamp(changeset.getClosed());
-        command.setAuthorTimeZoneOffset(0);// osm timestamps are in GMT
-        ProgressListener listener = cli.getProgressListener();
-        listener.dispose();
-        listener.setCanceled(false);
-        listener.progress(0f);
-        listener.started();
-        command.setProgressListener(listener);
-        try {
-            command.call();
-            updateBranchChangeset(geogit, changeset.getId());
-            listener.complete();
-            console.println("done.");
-            console.flush();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+        final long committerTime = platform.currentTimeMillis();
+        CommitBuilder builder = new CommitBuilder(platform);
+        builder.setMessage(message);
+        builder.setAuthor(changeset.getUserName());
+        builder.setAuthorTimestamp(changeset.getClosed());
+        builder.setAuthorTimeZoneOffset(0);// osm timestamps are in GMT
+        builder.setCommitter(resolveConfig(geogit, "user.name"));
+        builder.setCommitterEmail(resolveConfig(geogit, "user.email"));
+        builder.setCommitterTimestamp(committerTime);
+        builder.setCommitterTimeZoneOffset(platform.timeZoneOffset(committerTime));
+        if (!parentId.isNull()) {
+            builder.setParentIds(ImmutableList.of(parentId));
         }
+        builder.setTreeId(newRoot.getId());
+        RevCommit commit = builder.build();
+
+        geogit.getRepository().getObjectDatabase().put(commit);
+        geogit.command(UpdateRef.class).setName(branch).setNewValue(commit.getId()).call();
+        geogit.command(UpdateGeneralizedTrees.class).setOldRoot(oldRoot.getId())
+                .setNewRoot(newRoot.getId()).call();
+        updateBranchChangeset(geogit, changeset.getId());
+        console.println("done.");
+        console.flush();
+        return commit.getId();
+    }
+
+    private String resolveConfig(GeoGIT geogit, String key) {
+        Optional<String> value = geogit.command(ConfigGet.class).setName(key).call();
+        if (!value.isPresent()) {
+            throw new CommandFailedException(key + " not found in config. "
+                    + "Use geogit config [--global] " + key + " <value> to configure it.");
+        }
+        return value.get();
     }
 
     /**
@@ -303,90 +361,221 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
     }
 
     /**
+     * Applies the changes onto the feature type trees of the given root, writing the features
+     * straight to the object database.
+     *
      * @param cli
-     * @param changes
+     * @param root the root tree of the previous commit
+     * @param changes the changes of a changeset
+     * @param nodeLocations the known node locations, kept up to date with the applied changes
+     * @return the new root tree
      * @throws IOException
      */
-    private void insertAndAddChanges(GeogitCLI cli, final Iterator<Change> changes)
-            throws IOException {
-        if (!changes.hasNext()) {
-            return;
-        }
-        final GeoGIT geogit = cli.getGeogit();
-        final Repository repository = geogit.getRepository();
-        final WorkingTree workTree = repository.getWorkingTree();
-
-        Map<Long, Coordinate> thisChangePointCache = new LinkedHashMap<Long, Coordinate>() {
-            /** serialVersionUID */
-            private static final long serialVersionUID = 1277795218777240552L;
+    private RevTree applyChanges(GeogitCLI cli, final RevTree root, final List<Change> changes,
+            final NodeLocationStore nodeLocations) throws IOException {
 
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Long, Coordinate> eldest) {
-                return size() == 10000;
-            }
-        };
+        final GeoGIT geogit = cli.getGeogit();
+        final ObjectDatabase objectDb = geogit.getRepository().getObjectDatabase();
+        final FindTreeChild findNode = geogit.command(FindTreeChild.class).setParent(root);
+        final RevFeatureBuilder featureBuilder = new RevFeatureBuilder();
+        final Map<String, TypeTree> typeTrees = Maps.newHashMap();
+        final Set<Long> movedNodes = Sets.newHashSet();
+        final Set<Long> changedWays = Sets.newHashSet();
 
         int cnt = 0;
-
-        Set<String> deletes = Sets.newHashSet();
-        Multimap<String, SimpleFeature> insertsByParent = HashMultimap.create();
-
-        while (changes.hasNext()) {
-            Change change = changes.next();
+        for (Change change : changes) {
             final String featurePath = featurePath(change);
             if (featurePath == null) {
                 continue;// ignores relations
             }
             cnt++;
             final String parentPath = NodeRef.parentPath(featurePath);
+            final String fid = NodeRef.nodeFromPath(featurePath);
+            TypeTree typeTree = typeTrees.get(parentPath);
+            if (typeTree == null) {
+                typeTree = new TypeTree(geogit, root, parentPath);
+                typeTrees.put(parentPath, typeTree);
+            }
+            if (change.getNode().isPresent() && !Change.Type.create.equals(change.getType())) {
+                movedNodes.add(Long.valueOf(change.getNode().get().getId()));
+            } else if (change.getWay().isPresent()) {
+                changedWays.add(Long.valueOf(change.getWay().get().getId()));
+            }
             if (Change.Type.delete.equals(change.getType())) {
-                deletes.add(featurePath);
+                typeTree.builder.remove(fid);
+                if (change.getNode().isPresent()) {
+                    nodeLocations.remove(change.getNode().get().getId());
+                }
             } else {
                 final Primitive primitive = change.getNode().isPresent() ? change.getNode().get()
                         : change.getWay().get();
-                final Geometry geom = parseGeometry(geogit, primitive, thisChangePointCache);
+                final Geometry geom = parseGeometry(objectDb, findNode, primitive, nodeLocations);
                 if (geom instanceof Point) {
-                    thisChangePointCache.put(Long.valueOf(primitive.getId()),
-                            ((Point) geom).getCoordinate());
+                    Coordinate coord = ((Point) geom).getCoordinate();
+                    nodeLocations.put(primitive.getId(), coord.x, coord.y);
                 }
 
-                SimpleFeature feature = toFeature(primitive, geom);
-                insertsByParent.put(parentPath, feature);
+                RevFeature feature = featureBuilder.build(toFeature(primitive, geom));
+                objectDb.put(feature);
+                Envelope bounds = geom == null ? null : geom.getEnvelopeInternal();
+                typeTree.builder.put(org.geogit.api.Node.create(fid, feature.getId(),
+                        typeTree.featureMetadataId, TYPE.FEATURE, bounds));
             }
         }
 
-        for (String parentPath : insertsByParent.keySet()) {
-            Collection<SimpleFeature> features = insertsByParent.get(parentPath);
-            if (features.isEmpty()) {
-                continue;
+        // ways that weren't changed, but some of their nodes were
+        Optional<NodeRef> wayTreeRef = geogit.command(FindTreeChild.class).setParent(root)
+                .setChildPath(WAY_TYPE_NAME).call();
+        if (!movedNodes.isEmpty() && wayTreeRef.isPresent()) {
+            Set<Long> ways = geogit.command(FindNodeWays.class)
+                    .setWayTree(wayTreeRef.get().objectId())
+                    .setMetadataId(wayTreeRef.get().getMetadataId()).setNodeIds(movedNodes)
+                    .call();
+            ways.removeAll(changedWays);
+            if (!ways.isEmpty()) {
+                TypeTree typeTree = typeTrees.get(WAY_TYPE_NAME);
+                if (typeTree == null) {
+                    typeTree = new TypeTree(geogit, root, WAY_TYPE_NAME);
+                    typeTrees.put(WAY_TYPE_NAME, typeTree);
+                }
+                for (Long wayId : ways) {
+                    rebuildWay(objectDb, findNode, typeTree, wayId, nodeLocations);
+                }
             }
-
-            Iterator<? extends Feature> iterator = features.iterator();
-            ProgressListener listener = new NullProgressListener();
-            List<org.geogit.api.Node> insertedTarget = null;
-            Integer collectionSize = Integer.valueOf(features.size());
-            workTree.insert(parentPath, iterator, listener, insertedTarget, collectionSize);
         }
-        if (!deletes.isEmpty()) {
-            workTree.delete(deletes.iterator());
+
+        // write all the trees back onto the same root
+        final RevTreeBuilder rootBuilder = root.builder(objectDb);
+        ObjectId newRootId = root.getId();
+        for (Map.Entry<String, TypeTree> entry : typeTrees.entrySet()) {
+            TypeTree typeTree = entry.getValue();
+            newRootId = geogit.command(WriteBack.class).setAncestor(rootBuilder)
+                    .setChildPath(entry.getKey()).setTree(typeTree.builder.build())
+                    .setMetadataId(typeTree.metadataId).call();
         }
+
         ConsoleReader console = cli.getConsole();
-        console.print("Applied " + cnt + " changes, staging...");
+        console.print("Applied " + cnt + " changes...");
         console.flush();
 
-        geogit.command(AddOp.class).call();
+        return newRootId.equals(root.getId()) ? root : objectDb.getTree(newRootId);
+    }
 
-        console.println("done.");
-        console.flush();
+    /**
+     * The builder for a feature type tree a changeset is being applied to
+     */
+    private static class TypeTree {
+
+        final RevTreeBuilder builder;
+
+        /**
+         * The default feature type of the tree
+         */
+        final ObjectId metadataId;
+
+        /**
+         * The feature type of the features inserted, {@link ObjectId#NULL} if it's the default one
+         */
+        final ObjectId featureMetadataId;
+
+        TypeTree(GeoGIT geogit, RevTree root, String path) {
+            final ObjectDatabase objectDb = geogit.getRepository().getObjectDatabase();
+            final RevFeatureType featureType = NODE_TYPE_NAME.equals(path) ? NODE_REV_TYPE
+                    : WAY_REV_TYPE;
+            Optional<NodeRef> treeRef = geogit.command(FindTreeChild.class).setParent(root)
+                    .setChildPath(path).call();
+            if (treeRef.isPresent()) {
+                builder = objectDb.getTree(treeRef.get().objectId()).builder(objectDb);
+                metadataId = treeRef.get().getMetadataId();
+            } else {
+                builder = new RevTreeBuilder(objectDb);
+                metadataId = featureType.getId();
+            }
+            featureMetadataId = featureType.getId().equals(metadataId) ? ObjectId.NULL
+                    : featureType.getId();
+            if (!objectDb.exists(featureType.getId())) {
+                objectDb.put(featureType);
+            }
+        }
     }
 
     /**
+     * Replaces the geometry of a way of the previous commit with one built out of the current
+     * location of its nodes. Ways imported before their node ids were recorded are left as they
+     * are.
+     */
+    private void rebuildWay(ObjectDatabase objectDb, FindTreeChild findNode, TypeTree typeTree,
+            Long wayId, NodeLocationStore nodeLocations) {
+        final String fid = String.valueOf(wayId);
+        Optional<NodeRef> wayRef = findNode.setChildPath(NodeRef.appendChild(WAY_TYPE_NAME, fid))
+                .call();
+        if (!wayRef.isPresent()) {
+            return;
+        }
+        final RevFeatureType featureType = objectDb.getFeatureType(wayRef.get().getMetadataId());
+        int nodesIndex = -1;
+        int geomIndex = -1;
+        List<PropertyDescriptor> descriptors = featureType.sortedDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            String name = descriptors.get(i).getName().getLocalPart();
+            if (name.equals("nodes")) {
+                nodesIndex = i;
+            } else if (name.equals("way")) {
+                geomIndex = i;
+            }
+        }
+        if (nodesIndex < 0 || geomIndex < 0) {
+            return;
+        }
+        RevFeature way = objectDb.getFeature(wayRef.get().objectId());
+        List<Optional<Object>> values = Lists.newArrayList(way.getValues());
+        if (!values.get(nodesIndex).isPresent()) {
+            return;
+        }
+        List<Long> nodes = Lists.newArrayList();
+        for (String nodeId : Splitter.on(';').omitEmptyStrings().split(
+                values.get(nodesIndex).get().toString())) {
+            nodes.add(Long.valueOf(nodeId));
+        }
+        Geometry geom = lineString(objectDb, findNode, Longs.toArray(nodes), nodeLocations);
+        if (geom == null) {
+            return;
+        }
+        values.set(geomIndex, Optional.<Object> of(geom));
+        RevFeature feature = RevFeature.build(ImmutableList.copyOf(values));
+        objectDb.put(feature);
+        typeTree.builder.put(org.geogit.api.Node.create(fid, feature.getId(), wayRef.get()
+                .getNode().getMetadataId().or(ObjectId.NULL), TYPE.FEATURE, geom
+                .getEnvelopeInternal()));
+    }
+
+    /**
+     * Indexes the ways of the new root by the nodes they reference, out of the index of the
+     * previous root, so the ways of the nodes changed by the next changeset can be found
+     */
+    private void updateNodeWayIndex(GeoGIT geogit, RevTree oldRoot, RevTree newRoot) {
+        Optional<NodeRef> newWays = geogit.command(FindTreeChild.class).setParent(newRoot)
+                .setChildPath(WAY_TYPE_NAME).call();
+        if (!newWays.isPresent()) {
+            return;
+        }
+        Optional<NodeRef> oldWays = geogit.command(FindTreeChild.class).setParent(oldRoot)
+                .setChildPath(WAY_TYPE_NAME).call();
+        geogit.command(UpdateNodeWayIndex.class)
+                .setOldWayTree(oldWays.isPresent() ? oldWays.get().objectId() : ObjectId.NULL)
+                .setWayTree(newWays.get().objectId())
+                .setMetadataId(newWays.get().getMetadataId()).call();
+    }
+
+    /**
+     * @param objectDb
+     * @param findNode finds the nodes in the root tree of the previous commit
      * @param primitive
-     * @param thisChangePointCache
+     * @param nodeLocations the known node locations, looked up in the repository if missing
      * @return
      */
-    private Geometry parseGeometry(GeoGIT geogit, Primitive primitive,
-            Map<Long, Coordinate> thisChangePointCache) {
+    private Geometry parseGeometry(ObjectDatabase objectDb, FindTreeChild findNode,
+            Primitive primitive, NodeLocationStore nodeLocations) {
 
         if (primitive instanceof Relation) {
             return null;
@@ -397,47 +586,33 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
             return location.orNull();
         }
 
-        final Way way = (Way) primitive;
-        final ImmutableList<Long> nodes = way.getNodes();
-
-        StagingArea index = geogit.getRepository().getIndex();
+        return lineString(objectDb, findNode, ((Way) primitive).getNodeIds(), nodeLocations);
+    }
 
+    /**
+     * @return the line string through the given nodes, or {@code null} if less than two of them
+     *         are known
+     */
+    @Nullable
+    private Geometry lineString(ObjectDatabase objectDb, FindTreeChild findNode,
+            long[] nodes, NodeLocationStore nodeLocations) {
         FeatureBuilder featureBuilder = new FeatureBuilder(NODE_REV_TYPE);
-        List<Coordinate> coordinates = Lists.newArrayList(nodes.size());
-        FindTreeChild findTreeChild = geogit.command(FindTreeChild.class);
-        findTreeChild.setIndex(true);
-        ObjectId rootTreeId = geogit.command(ResolveTreeish.class).setTreeish(Ref.HEAD).call()
-                .get();
-        if (!rootTreeId.isNull()) {
-            RevTree headTree = geogit.command(RevObjectParse.class).setObjectId(rootTreeId)
-                    .call(RevTree.class).get();
-            findTreeChild.setParent(headTree);
-        }
-        for (Long nodeId : nodes) {
-            Coordinate coord = thisChangePointCache.get(nodeId);
-            if (coord == null) {
+        List<Coordinate> coordinates = Lists.newArrayList(nodes.length);
+        for (long nodeId : nodes) {
+            Coordinate coord = new Coordinate();
+            if (!nodeLocations.get(nodeId, coord)) {
+                coord = null;
                 String fid = String.valueOf(nodeId);
                 String path = NodeRef.appendChild(NODE_TYPE_NAME, fid);
-                Optional<org.geogit.api.Node> ref = index.findStaged(path);
-                if (!ref.isPresent()) {
-                    Optional<NodeRef> nodeRef = findTreeChild.setChildPath(path).call();
-                    if (nodeRef.isPresent()) {
-                        ref = Optional.of(nodeRef.get().getNode());
-                    } else {
-                        ref = Optional.absent();
-                    }
-                }
-                if (ref.isPresent()) {
-                    org.geogit.api.Node nodeRef = ref.get();
-
-                    RevFeature revFeature = index.getDatabase().getFeature(nodeRef.getObjectId());
-                    String id = NodeRef.nodeFromPath(nodeRef.getName());
-                    Feature feature = featureBuilder.build(id, revFeature);
+                Optional<NodeRef> nodeRef = findNode.setChildPath(path).call();
+                if (nodeRef.isPresent()) {
+                    RevFeature revFeature = objectDb.getFeature(nodeRef.get().objectId());
+                    Feature feature = featureBuilder.build(fid, revFeature);
 
                     Point p = (Point) ((SimpleFeature) feature).getAttribute("location");
                     if (p != null) {
                         coord = p.getCoordinate();
-                        thisChangePointCache.put(Long.valueOf(nodeId), coord);
+                        nodeLocations.put(nodeId, coord.x, coord.y);
                     }
                 }
             }
@@ -491,7 +666,7 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     private synchronized static SimpleFeatureType wayType() {
         if (WayType == null) {
-            String typeSpec = "visible:Boolean,version:Integer,timestamp:java.lang.Long,tags:String,way:LineString:srid=4326";
+            String typeSpec = "visible:Boolean,version:Integer,timestamp:java.lang.Long,tags:String,nodes:String,way:LineString:srid=4326";
             try {
                 SimpleFeatureType type = DataUtilities.createType(NAMESPACE, NODE_TYPE_NAME,
                         typeSpec);
@@ -524,6 +699,7 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         if (feature instanceof Node) {
             builder.set("location", geom);
         } else if (feature instanceof Way) {
+            builder.set("nodes", Longs.join(";", ((Way) feature).getNodeIds()));
             builder.set("way", geom);
         } else {
             throw new IllegalArgumentException();
@@ -0,0 +1,120 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Looks up many children of a tree by name at once.
+ * <p>
+ * The names are grouped by the bucket they fall in at each level of the tree, and the buckets are
+ * visited in order, so each bucket tree on the way is read once for all the names it may hold,
+ * instead of walking the tree from its root once per name. The features found are then read with
+ * a single {@link ObjectDatabase#getAll(Iterable) batched read}.
+ */
+class BatchTreeLookup {
+
+    private final ObjectDatabase db;
+
+    private final NodePathStorageOrder order = new NodePathStorageOrder();
+
+    /**
+     * @param db the database the trees and features are read from
+     */
+    BatchTreeLookup(ObjectDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * @return the nodes of the direct children of the tree with the given names, by name, names
+     *         not found are left out
+     */
+    Map<String, Node> findNodes(RevTree tree, Collection<String> names) {
+        Map<String, Node> found = Maps.newHashMap();
+        if (!names.isEmpty()) {
+            findNodes(tree, Sets.newHashSet(names), 0, found);
+        }
+        return found;
+    }
+
+    /**
+     * @return the features of the direct children of the tree with the given names, by name, names
+     *         not found are left out
+     */
+    Map<String, RevFeature> findFeatures(RevTree tree, Collection<String> names) {
+        Map<String, Node> nodes = findNodes(tree, names);
+        Set<ObjectId> ids = Sets.newHashSet();
+        for (Node node : nodes.values()) {
+            ids.add(node.getObjectId());
+        }
+        Map<ObjectId, RevFeature> features = Maps.newHashMap();
+        Iterator<RevObject> objects = db.getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            features.put(object.getId(), (RevFeature) object);
+        }
+        Map<String, RevFeature> found = Maps.newHashMap();
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            RevFeature feature = features.get(entry.getValue().getObjectId());
+            if (feature != null) {
+                found.put(entry.getKey(), feature);
+            }
+        }
+        return found;
+    }
+
+    private void findNodes(RevTree tree, Set<String> names, int depth, Map<String, Node> found) {
+        if (tree.isEmpty()) {
+            return;
+        }
+        if (!tree.buckets().isPresent()) {
+            List<Node> children = Lists.newArrayList();
+            children.addAll(tree.trees().or(ImmutableList.<Node> of()));
+            children.addAll(tree.features().or(ImmutableList.<Node> of()));
+            for (Node child : children) {
+                if (names.contains(child.getName())) {
+                    found.put(child.getName(), child);
+                }
+            }
+            return;
+        }
+        Map<Integer, Set<String>> namesByBucket = Maps.newTreeMap();
+        for (String name : names) {
+            final Integer bucket = order.bucket(name, depth);
+            Set<String> bucketNames = namesByBucket.get(bucket);
+            if (bucketNames == null) {
+                bucketNames = Sets.newHashSet();
+                namesByBucket.put(bucket, bucketNames);
+            }
+            bucketNames.add(name);
+        }
+        ImmutableSortedMap<Integer, Bucket> buckets = tree.buckets().get();
+        for (Map.Entry<Integer, Set<String>> entry : namesByBucket.entrySet()) {
+            Bucket subtree = buckets.get(entry.getKey());
+            if (subtree != null) {
+                findNodes(db.getTree(subtree.id()), entry.getValue(), depth + 1, found);
+            }
+        }
+    }
+}
@@ -1,70 +1,221 @@
 package org.geogit.osm.internal;
 
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.geogit.repository.WorkingTree;
 import org.geotools.util.NullProgressListener;
-import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.util.ProgressListener;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
- * A buffer that wraps a multimap to store features, that flushes when a certain limit is reached.
- * Flushing means in this case inserting the features in the working tree.
- * 
+ * A buffer that stores features by tree path, and flushes them when their estimated size reaches a
+ * certain limit. Flushing means in this case inserting the features in the working tree.
+ *
  * The main purpose of this is to reduce the number of insert operations, while still supporting a
  * large amount of feature without causing an OOM error.
- * 
+ *
+ * Features are kept in the order they're added, and a feature added twice is inserted twice, so
+ * the last one wins. When the buffered features exceed the size limit, the largest paths are
+ * taken out until less than half the limit is left buffered, and handed to the flusher's own
+ * thread to be inserted, each with its own insert operation, while new features keep being
+ * buffered.
+ * There's at most one flush in flight: a flush waits for the previous one before starting, so at
+ * most about twice the size limit is held in memory.
+ *
+ * {@link #flushAll()} is the barrier: the working tree shall not be read for the flushed paths
+ * until it returns, since it's being written to in the background until then. It also rethrows
+ * the failure of a background flush, and stops the flusher's thread, so a flusher can't be used
+ * after it.
+ *
+ * Instances are not thread safe.
  */
 public class FeatureMapFlusher {
 
-    private static final int LIMIT = 100000;
+    /**
+     * The default limit for the estimated size of the buffered features, in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final int FEATURE_OVERHEAD = 96;
+
+    private static final int ATTRIBUTE_OVERHEAD = 16;
+
+    private static final int STRING_OVERHEAD = 40;
 
-    private HashMultimap<String, SimpleFeature> map;
+    private static final int GEOMETRY_OVERHEAD = 80;
 
-    private WorkingTree workTree;
+    private static final int COORDINATE_SIZE = 40;
 
-    private int count;
+    private final Map<String, Buffer> buffers = Maps.newLinkedHashMap();
+
+    private final WorkingTree workTree;
+
+    private final long maxBytes;
+
+    private long bytes;
+
+    private Future<?> pendingFlush;
+
+    /**
+     * A single thread, which dies when idle so that a flusher abandoned before {@link #flushAll()}
+     * doesn't keep it alive
+     */
+    private final ThreadPoolExecutor executor;
 
     public FeatureMapFlusher(WorkingTree workTree) {
+        this(workTree, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param workTree the working tree to insert the features into
+     * @param maxBytes the limit for the estimated size of the buffered features
+     */
+    public FeatureMapFlusher(WorkingTree workTree, long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "size limit must be positive: %s", maxBytes);
         this.workTree = workTree;
-        map = HashMultimap.create();
-        count = 0;
+        this.maxBytes = maxBytes;
+        this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                        .setNameFormat("osm-flusher-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
     }
 
+    /**
+     * Buffers a feature, and hands the largest paths to the background thread if the size limit is
+     * exceeded, waiting for the previous flush to finish first.
+     *
+     * @throws IllegalStateException if {@link #flushAll()} was called already
+     */
     public void put(String path, SimpleFeature feature) {
-        map.put(path, feature);
-        count++;
-        if (count > LIMIT) {
-            flushAll();
+        Preconditions.checkState(!executor.isShutdown(), "flushAll() was called already");
+        Buffer buffer = buffers.get(path);
+        if (buffer == null) {
+            buffer = new Buffer();
+            buffers.put(path, buffer);
+        }
+        final long size = estimateSize(feature);
+        buffer.features.add(feature);
+        buffer.bytes += size;
+        bytes += size;
+        if (bytes > maxBytes) {
+            flushLargest();
         }
+    }
+
+    /**
+     * Inserts the largest paths, until less than half the size limit is left buffered
+     */
+    private void flushLargest() {
+        Map<String, List<SimpleFeature>> batch = Maps.newLinkedHashMap();
+        while (bytes > maxBytes / 2) {
+            String largest = null;
+            long largestBytes = -1;
+            for (Map.Entry<String, Buffer> entry : buffers.entrySet()) {
+                if (entry.getValue().bytes > largestBytes) {
+                    largest = entry.getKey();
+                    largestBytes = entry.getValue().bytes;
+                }
+            }
+            batch.put(largest, buffers.remove(largest).features);
+            bytes -= largestBytes;
+        }
+        flush(batch);
+    }
+
+    private void flush(final Map<String, List<SimpleFeature>> batch) {
+        awaitPendingFlush();
+        pendingFlush = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, List<SimpleFeature>> entry : batch.entrySet()) {
+                    insert(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
 
+    private void insert(String path, List<SimpleFeature> features) {
+        ProgressListener listener = new NullProgressListener();
+        List<org.geogit.api.Node> insertedTarget = null;
+        Integer collectionSize = Integer.valueOf(features.size());
+        workTree.insert(path, features.iterator(), listener, insertedTarget, collectionSize);
     }
 
-    private void flush(String path) {
-        Set<SimpleFeature> features = map.get(path);
-        if (!features.isEmpty()) {
-            Iterator<? extends Feature> iterator = features.iterator();
-            ProgressListener listener = new NullProgressListener();
-            List<org.geogit.api.Node> insertedTarget = null;
-            Integer collectionSize = Integer.valueOf(features.size());
-            workTree.insert(path, iterator, listener, insertedTarget, collectionSize);
+    /**
+     * Waits for the flush in flight, if any, without interrupting it since it does I/O on the
+     * object database, and rethrows its failure.
+     */
+    private void awaitPendingFlush() {
+        if (pendingFlush == null) {
+            return;
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(pendingFlush);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            pendingFlush = null;
         }
     }
 
     /**
-     * Inserts all features currently stored in this object into the working tree.
+     * Inserts all features currently stored in this object into the working tree, and waits for
+     * all the flushes to be done, so the working tree can be read once it returns.
+     *
+     * @throws RuntimeException the failure of a flush, if any failed
      */
     public void flushAll() {
-        for (String key : map.keySet()) {
-            flush(key);
+        try {
+            if (!buffers.isEmpty()) {
+                Map<String, List<SimpleFeature>> batch = Maps.newLinkedHashMap();
+                for (Map.Entry<String, Buffer> entry : buffers.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue().features);
+                }
+                buffers.clear();
+                bytes = 0;
+                flush(batch);
+            }
+            awaitPendingFlush();
+        } finally {
+            executor.shutdown();
         }
-        count = 0;
-        map.clear();
     }
 
+    /**
+     * @return a rough estimate of the memory used by the feature, dominated by its geometries and
+     *         strings
+     */
+    static long estimateSize(SimpleFeature feature) {
+        long size = FEATURE_OVERHEAD;
+        for (Object value : feature.getAttributes()) {
+            size += ATTRIBUTE_OVERHEAD;
+            if (value instanceof Geometry) {
+                size += GEOMETRY_OVERHEAD + COORDINATE_SIZE * ((Geometry) value).getNumPoints();
+            } else if (value instanceof CharSequence) {
+                size += STRING_OVERHEAD + 2 * ((CharSequence) value).length();
+            }
+        }
+        return size;
+    }
+
+    private static class Buffer {
+
+        private final List<SimpleFeature> features = Lists.newArrayList();
+
+        private long bytes;
+    }
 }
@@ -0,0 +1,113 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Finds the ids of the ways in a way tree that reference any of the given nodes, through the
+ * {@link UpdateNodeWayIndex node to way index} of the tree, which is built first if needed.
+ *
+ * @see UpdateNodeWayIndex
+ */
+public class FindNodeWays extends AbstractGeoGitOp<Set<Long>> {
+
+    private final ObjectDatabase objectDb;
+
+    private ObjectId oldWayTree = ObjectId.NULL;
+
+    private ObjectId wayTree;
+
+    private ObjectId metadataId;
+
+    private Collection<Long> nodeIds;
+
+    /**
+     * Constructs a new {@code FindNodeWays} operation.
+     *
+     * @param objectDb the repository object database
+     */
+    @Inject
+    public FindNodeWays(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
+    }
+
+    /**
+     * @param oldWayTree the id of a way tree that may already be indexed, to build the index of
+     *        the way tree from if it's not indexed yet
+     * @return {@code this}
+     */
+    public FindNodeWays setOldWayTree(ObjectId oldWayTree) {
+        this.oldWayTree = oldWayTree;
+        return this;
+    }
+
+    /**
+     * @param wayTree the id of the way tree to search
+     * @return {@code this}
+     */
+    public FindNodeWays setWayTree(ObjectId wayTree) {
+        this.wayTree = wayTree;
+        return this;
+    }
+
+    /**
+     * @param metadataId the id of the default feature type of the way tree, the one of
+     *        {@link OSMUtils#wayType()} if not set
+     * @return {@code this}
+     */
+    public FindNodeWays setMetadataId(ObjectId metadataId) {
+        this.metadataId = metadataId;
+        return this;
+    }
+
+    /**
+     * @param nodeIds the ids of the nodes whose ways to find
+     * @return {@code this}
+     */
+    public FindNodeWays setNodeIds(Collection<Long> nodeIds) {
+        this.nodeIds = nodeIds;
+        return this;
+    }
+
+    /**
+     * @return the ids of the ways referencing any of the nodes
+     */
+    @Override
+    public Set<Long> call() {
+        checkState(wayTree != null, "way tree not set");
+        checkState(nodeIds != null, "node ids not set");
+        Set<Long> ways = Sets.newHashSet();
+        if (nodeIds.isEmpty()) {
+            return ways;
+        }
+        UpdateNodeWayIndex update = command(UpdateNodeWayIndex.class).setOldWayTree(oldWayTree)
+                .setWayTree(wayTree);
+        if (metadataId != null) {
+            update.setMetadataId(metadataId);
+        }
+        ObjectId indexId = update.call();
+        if (indexId.equals(RevTree.EMPTY.getId())) {
+            return ways;
+        }
+        RevTreeBuilder index = new RevTreeBuilder(objectDb, objectDb.getTree(indexId));
+        for (Long node : nodeIds) {
+            ways.addAll(UpdateNodeWayIndex.readEntry(objectDb, index.get(node.toString())));
+        }
+        return ways;
+    }
+}
@@ -56,8 +56,6 @@ public class MappingRule {
 
     private SimpleFeatureType featureType;
 
-    private SimpleFeatureBuilder featureBuilder;
-
     private Class<?> geometryType;
 
     private static GeometryFactory gf = new GeometryFactory();
@@ -84,7 +82,7 @@ public class MappingRule {
      * 
      * @return
      */
-    public SimpleFeatureType getFeatureType() {
+    public synchronized SimpleFeatureType getFeatureType() {
         if (featureType == null) {
             SimpleFeatureTypeBuilder fb = new SimpleFeatureTypeBuilder();
             fb.setName(name);
@@ -108,16 +106,14 @@ public class MappingRule {
                 fb.add("nodes", String.class);
             }
             featureType = fb.buildFeatureType();
-
-            featureBuilder = new SimpleFeatureBuilder(featureType);
-
         }
         return featureType;
 
     }
 
     /**
-     * Returns the feature resulting from transforming a given feature using this rule
+     * Returns the feature resulting from transforming a given feature using this rule. Can be
+     * called concurrently.
      * 
      * @param feature
      * @param tags
@@ -127,7 +123,9 @@ public class MappingRule {
         if (!canBeApplied(feature, tags)) {
             return Optional.absent();
         }
-        for (AttributeDescriptor attribute : getFeatureType().getAttributeDescriptors()) {
+        final SimpleFeatureType featureType = getFeatureType();
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
+        for (AttributeDescriptor attribute : featureType.getAttributeDescriptors()) {
             String attrName = attribute.getName().toString();
             Class<?> clazz = attribute.getType().getBinding();
             if (Geometry.class.isAssignableFrom(clazz)) {
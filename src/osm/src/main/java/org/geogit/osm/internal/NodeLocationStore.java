@@ -0,0 +1,240 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Stores the locations of OSM nodes by node id, so that the geometries of the ways that reference
+ * them can be built without looking the nodes up in the repository.
+ * <p>
+ * Locations are kept as a dense array of fixed point (1E-7 degrees, OSM's own precision)
+ * latitude/longitude int pairs indexed by node id, in a memory mapped temporary file. The file is
+ * mapped in fixed size segments as ids are stored, and it's sparse on the file systems that
+ * support it, so it only takes as much disk and memory as the id ranges actually used, and it
+ * spills to disk instead of growing the heap when the nodes don't fit in memory. Neither storing
+ * nor {@link #get(long, Coordinate) retrieving} a location allocates objects.
+ * <p>
+ * Negative ids, used for new entities that haven't been uploaded yet, are kept in memory.
+ * <p>
+ * Instances are not thread safe, and must be {@link #close() closed} to delete the temporary file.
+ */
+public class NodeLocationStore implements Closeable {
+
+    private static final double FIXED_POINT_SCALE = 1E7;
+
+    /**
+     * Added to the fixed point latitude so that stored values are never zero, which stands for an
+     * unknown location in the (zero filled) file
+     */
+    private static final int LAT_OFFSET = 1000 * 1000 * 1000;
+
+    private static final int BYTES_PER_NODE = 8;
+
+    /**
+     * Number of nodes per mapped segment, 8MB
+     */
+    private static final int NODES_PER_SEGMENT = 1 << 20;
+
+    private static final int SEGMENT_SHIFT = 20;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[16];
+
+    private final Map<Long, Coordinate> negativeIds = Maps.newHashMap();
+
+    private long size;
+
+    private boolean closed;
+
+    /**
+     * Creates a node location store backed by a temporary file
+     */
+    public NodeLocationStore() {
+        try {
+            this.file = File.createTempFile("geogit-osm-nodes", ".bin");
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            file.delete();
+            throw Throwables.propagate(e);
+        }
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Stores or replaces the location of a node.
+     */
+    public void put(final long nodeId, final double lon, final double lat) {
+        Preconditions.checkState(!closed, "store is closed");
+        if (nodeId < 0) {
+            negativeIds.put(Long.valueOf(nodeId), round(new Coordinate(lon, lat)));
+            return;
+        }
+        final MappedByteBuffer segment = segment(nodeId, true);
+        final int offset = offset(nodeId);
+        if (segment.getInt(offset) == 0) {
+            size++;
+        }
+        segment.putInt(offset, (int) Math.round(lat * FIXED_POINT_SCALE) + LAT_OFFSET);
+        segment.putInt(offset + 4, (int) Math.round(lon * FIXED_POINT_SCALE));
+    }
+
+    /**
+     * Forgets the location of a node, if it was stored.
+     */
+    public void remove(final long nodeId) {
+        Preconditions.checkState(!closed, "store is closed");
+        if (nodeId < 0) {
+            negativeIds.remove(Long.valueOf(nodeId));
+            return;
+        }
+        final MappedByteBuffer segment = segment(nodeId, false);
+        if (segment != null) {
+            final int offset = offset(nodeId);
+            if (segment.getInt(offset) != 0) {
+                size--;
+            }
+            segment.putInt(offset, 0);
+            segment.putInt(offset + 4, 0);
+        }
+    }
+
+    /**
+     * Retrieves the location of a node into the given coordinate.
+     *
+     * @param nodeId the id of the node
+     * @param target the coordinate to set the node location to, as x = longitude, y = latitude
+     * @return {@code true} if the node location is known, {@code false} otherwise, in which case
+     *         the coordinate is not modified
+     */
+    public boolean get(final long nodeId, final Coordinate target) {
+        Preconditions.checkState(!closed, "store is closed");
+        if (nodeId < 0) {
+            Coordinate coord = negativeIds.get(Long.valueOf(nodeId));
+            if (coord == null) {
+                return false;
+            }
+            target.setCoordinate(coord);
+            return true;
+        }
+        final MappedByteBuffer segment = segment(nodeId, false);
+        if (segment == null) {
+            return false;
+        }
+        final int offset = offset(nodeId);
+        final int lat = segment.getInt(offset);
+        if (lat == 0) {
+            return false;
+        }
+        target.y = (lat - LAT_OFFSET) / FIXED_POINT_SCALE;
+        target.x = segment.getInt(offset + 4) / FIXED_POINT_SCALE;
+        return true;
+    }
+
+    /**
+     * @return the location of the node, or {@code null} if it's not known
+     */
+    @Nullable
+    public Coordinate get(final long nodeId) {
+        Coordinate coord = new Coordinate();
+        return get(nodeId, coord) ? coord : null;
+    }
+
+    /**
+     * @return a copy of the coordinate rounded to the precision locations are stored with, as
+     *         they're returned by {@link #get(long)}
+     */
+    public static Coordinate round(final Coordinate coord) {
+        return new Coordinate(Math.round(coord.x * FIXED_POINT_SCALE) / FIXED_POINT_SCALE,
+                Math.round(coord.y * FIXED_POINT_SCALE) / FIXED_POINT_SCALE);
+    }
+
+    /**
+     * @return the number of node locations stored
+     */
+    public long size() {
+        return size + negativeIds.size();
+    }
+
+    /**
+     * Drops the mapped segments and deletes the temporary file.
+     * <p>
+     * There's no portable way of unmapping a file, the segments are only unmapped once garbage
+     * collected. On the platforms that don't allow deleting a mapped file (Windows), the temporary
+     * file is then deleted on exit instead.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments = null;
+        negativeIds.clear();
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static int offset(final long nodeId) {
+        return (int) (nodeId & (NODES_PER_SEGMENT - 1)) * BYTES_PER_NODE;
+    }
+
+    @Nullable
+    private MappedByteBuffer segment(final long nodeId, final boolean create) {
+        final long index = nodeId >>> SEGMENT_SHIFT;
+        Preconditions.checkArgument(index < Integer.MAX_VALUE, "node id too big: %s", nodeId);
+        final int segmentIndex = (int) index;
+        if (segmentIndex >= segments.length) {
+            if (!create) {
+                return null;
+            }
+            segments = Arrays.copyOf(segments, Math.max(segmentIndex + 1, 2 * segments.length));
+        }
+        MappedByteBuffer segment = segments[segmentIndex];
+        if (segment == null && create) {
+            final long position = index * NODES_PER_SEGMENT * BYTES_PER_NODE;
+            try {
+                segment = channel.map(MapMode.READ_WRITE, position, NODES_PER_SEGMENT
+                        * BYTES_PER_NODE);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            segments[segmentIndex] = segment;
+        }
+        return segment;
+    }
+}
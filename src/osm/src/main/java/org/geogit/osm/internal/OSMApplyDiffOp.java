@@ -0,0 +1,536 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.osm.internal.UpdateWayGeometries.fieldIndex;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateGeneralizedTrees;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.plumbing.WriteBack;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.storage.ObjectDatabase;
+import org.openstreetmap.osmosis.core.container.v0_6.ChangeContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.task.common.ChangeAction;
+import org.openstreetmap.osmosis.core.task.v0_6.ChangeSink;
+import org.openstreetmap.osmosis.xml.common.CompressionMethod;
+import org.openstreetmap.osmosis.xml.v0_6.XmlChangeReader;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Applies an OSM change file (.osc, as published by the OSM replication diffs) to the raw OSM data
+ * of the current branch, and commits the result.
+ * <p>
+ * The file is streamed and applied in batches straight onto the node and way trees of the HEAD
+ * commit, without going through the working tree and the index, so the cost is proportional to
+ * the number of changed entities rather than to the size of the repository:
+ * <ul>
+ * <li>the locations of the nodes referenced by the changed ways are taken from the nodes in the
+ * diff itself, or looked up in the node tree all at once for each batch;
+ * <li>the changes of each batch are applied to a tree builder per path;
+ * <li>ways that aren't in the diff but reference nodes moved or deleted by it are found through
+ * the {@link UpdateNodeWayIndex node to way index} and get their geometry rebuilt.
+ * </ul>
+ * The working tree and the index must be clean, they're updated to the new commit once done.
+ * Relations are not imported, as with {@link OSMImportOp}.
+ */
+public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<RevCommit>> {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final GeometryFactory GEOMF = new GeometryFactory();
+
+    private static final RevFeatureType NODE_TYPE = RevFeatureType.build(OSMUtils.nodeType());
+
+    private static final RevFeatureType WAY_TYPE = RevFeatureType.build(OSMUtils.wayType());
+
+    private static final int NODE_LOCATION_FIELD_INDEX = fieldIndex(NODE_TYPE, "location");
+
+    private static final int WAY_NODES_FIELD_INDEX = fieldIndex(WAY_TYPE, "nodes");
+
+    private static final int WAY_GEOMETRY_FIELD_INDEX = fieldIndex(WAY_TYPE, "way");
+
+    private final ObjectDatabase objectDb;
+
+    private final Platform platform;
+
+    private File diffFile;
+
+    private String message;
+
+    /**
+     * Constructs a new {@code OSMApplyDiffOp} operation.
+     *
+     * @param objectDb the repository object database
+     * @param platform the platform to get the commit time from
+     */
+    @Inject
+    public OSMApplyDiffOp(ObjectDatabase objectDb, Platform platform) {
+        this.objectDb = objectDb;
+        this.platform = platform;
+    }
+
+    /**
+     * @param diffFile the OSM change file to apply, optionally gzip or bzip2 compressed
+     * @return {@code this}
+     */
+    public OSMApplyDiffOp setDiffFile(File diffFile) {
+        this.diffFile = diffFile;
+        return this;
+    }
+
+    /**
+     * @param message the commit message, if not set the name of the diff file is used
+     * @return {@code this}
+     */
+    public OSMApplyDiffOp setMessage(@Nullable String message) {
+        this.message = message;
+        return this;
+    }
+
+    /**
+     * @return the commit with the applied changes, or absent if applying them didn't change
+     *         anything
+     */
+    @Override
+    public Optional<RevCommit> call() {
+        checkNotNull(diffFile, "diff file not set");
+        checkArgument(diffFile.exists(), "File does not exist: " + diffFile);
+
+        final Ref currentHead = command(RefParse.class).setName(Ref.HEAD).call().get();
+        checkState(currentHead instanceof SymRef, "Cannot run on a dettached HEAD");
+        final SymRef head = (SymRef) currentHead;
+        final ObjectId parentId = head.getObjectId();
+        final RevTree root = parentId.isNull() ? RevTree.EMPTY : objectDb.getTree(objectDb
+                .getCommit(parentId).getTreeId());
+        checkState(getWorkTree().getTree().getId().equals(root.getId())
+                && getIndex().getTree().getId().equals(root.getId()),
+                "The working tree and the index must be clean to apply an OSM diff");
+
+        final ApplyChangeSink sink = new ApplyChangeSink(root);
+        final XmlChangeReader reader = new XmlChangeReader(diffFile, true,
+                compression(diffFile));
+        reader.setChangeSink(sink);
+        reader.run();
+
+        final RevTree newRoot = sink.getNewRoot();
+        if (newRoot.getId().equals(root.getId())) {
+            return Optional.absent();
+        }
+        RevCommit commit = commit(head.getTarget(), parentId, newRoot);
+        command(UpdateGeneralizedTrees.class).setOldRoot(root.getId())
+                .setNewRoot(newRoot.getId()).call();
+        getIndex().updateStageHead(newRoot.getId());
+        getWorkTree().updateWorkHead(newRoot.getId());
+
+        Optional<NodeRef> oldWays = child(root, OSMUtils.WAY_TYPE_NAME);
+        Optional<NodeRef> newWays = child(newRoot, OSMUtils.WAY_TYPE_NAME);
+        if (newWays.isPresent()) {
+            // keeps the index of the next diff incremental
+            command(UpdateNodeWayIndex.class)
+                    .setOldWayTree(oldWays.isPresent() ? oldWays.get().objectId() : ObjectId.NULL)
+                    .setWayTree(newWays.get().objectId())
+                    .setMetadataId(newWays.get().getMetadataId()).call();
+        }
+        return Optional.of(commit);
+    }
+
+    private RevCommit commit(String branch, ObjectId parentId, RevTree newRoot) {
+        final long now = platform.currentTimeMillis();
+        CommitBuilder builder = new CommitBuilder(platform);
+        builder.setMessage(message == null ? "Applied OSM diff " + diffFile.getName() : message);
+        String committer = resolveConfig("user.name");
+        String committerEmail = resolveConfig("user.email");
+        builder.setAuthor(committer);
+        builder.setAuthorEmail(committerEmail);
+        builder.setAuthorTimestamp(now);
+        builder.setAuthorTimeZoneOffset(platform.timeZoneOffset(now));
+        builder.setCommitter(committer);
+        builder.setCommitterEmail(committerEmail);
+        builder.setCommitterTimestamp(now);
+        builder.setCommitterTimeZoneOffset(platform.timeZoneOffset(now));
+        if (!parentId.isNull()) {
+            builder.setParentIds(ImmutableList.of(parentId));
+        }
+        builder.setTreeId(newRoot.getId());
+        RevCommit commit = builder.build();
+        objectDb.put(commit);
+        command(UpdateRef.class).setName(branch).setNewValue(commit.getId()).call();
+        return commit;
+    }
+
+    private String resolveConfig(String key) {
+        Optional<String> value = command(ConfigGet.class).setName(key).call();
+        checkState(value.isPresent(), key + " not found in config");
+        return value.get();
+    }
+
+    private Optional<NodeRef> child(RevTree root, String path) {
+        return command(FindTreeChild.class).setParent(root).setChildPath(path).call();
+    }
+
+    private static CompressionMethod compression(File file) {
+        if (file.getName().endsWith(".gz")) {
+            return CompressionMethod.GZip;
+        } else if (file.getName().endsWith(".bz2")) {
+            return CompressionMethod.BZip2;
+        }
+        return CompressionMethod.None;
+    }
+
+    /**
+     * The builder of a tree of the root the diff is applied to
+     */
+    private class TypeTree {
+
+        final RevTree original;
+
+        final RevTreeBuilder builder;
+
+        /**
+         * The default feature type of the tree
+         */
+        final ObjectId metadataId;
+
+        /**
+         * The feature type of the features inserted, {@link ObjectId#NULL} if it's the default one
+         */
+        final ObjectId featureMetadataId;
+
+        TypeTree(RevTree root, String path, RevFeatureType featureType) {
+            Optional<NodeRef> treeRef = child(root, path);
+            if (treeRef.isPresent()) {
+                original = objectDb.getTree(treeRef.get().objectId());
+                metadataId = treeRef.get().getMetadataId();
+            } else {
+                original = RevTree.EMPTY;
+                metadataId = featureType.getId();
+            }
+            builder = original.builder(objectDb);
+            featureMetadataId = featureType.getId().equals(metadataId) ? ObjectId.NULL
+                    : featureType.getId();
+            if (!objectDb.exists(featureType.getId())) {
+                objectDb.put(featureType);
+            }
+        }
+
+        void put(String fid, RevFeature feature, @Nullable Envelope bounds) {
+            builder.put(org.geogit.api.Node.create(fid, feature.getId(), featureMetadataId,
+                    TYPE.FEATURE, bounds));
+        }
+    }
+
+    /**
+     * Applies the changes read from the diff file in batches
+     */
+    private class ApplyChangeSink implements ChangeSink {
+
+        private final RevTree root;
+
+        private final TypeTree nodes;
+
+        private final TypeTree ways;
+
+        private final BatchTreeLookup lookup = new BatchTreeLookup(objectDb);
+
+        private final EntityConverter converter = new EntityConverter();
+
+        private final RevFeatureBuilder featureBuilder = new RevFeatureBuilder();
+
+        /**
+         * The locations of the nodes created or modified by the diff, or looked up so far
+         */
+        private final NodeLocationStore nodeLocations = new NodeLocationStore();
+
+        private final Set<Long> deletedNodes = Sets.newHashSet();
+
+        /**
+         * The nodes moved or deleted by the diff, whose ways may need a new geometry
+         */
+        private final Set<Long> movedNodes = Sets.newHashSet();
+
+        private final Set<Long> changedWays = Sets.newHashSet();
+
+        private List<ChangeContainer> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+        private RevTree newRoot;
+
+        ApplyChangeSink(RevTree root) {
+            this.root = root;
+            this.nodes = new TypeTree(root, OSMUtils.NODE_TYPE_NAME, NODE_TYPE);
+            this.ways = new TypeTree(root, OSMUtils.WAY_TYPE_NAME, WAY_TYPE);
+        }
+
+        RevTree getNewRoot() {
+            checkState(newRoot != null, "diff not applied");
+            return newRoot;
+        }
+
+        @Override
+        public void initialize(Map<String, Object> metaData) {
+        }
+
+        @Override
+        public void process(ChangeContainer change) {
+            batch.add(change);
+            if (batch.size() >= BATCH_SIZE) {
+                applyBatch();
+            }
+        }
+
+        @Override
+        public void complete() {
+            applyBatch();
+            rebuildWaysOfMovedNodes();
+
+            // write both trees back onto the same root
+            final RevTreeBuilder rootBuilder = root.builder(objectDb);
+            ObjectId newRootId = writeBack(rootBuilder, OSMUtils.NODE_TYPE_NAME, nodes).or(
+                    root.getId());
+            newRootId = writeBack(rootBuilder, OSMUtils.WAY_TYPE_NAME, ways).or(newRootId);
+            newRoot = newRootId.equals(root.getId()) ? root : objectDb.getTree(newRootId);
+        }
+
+        /**
+         * @return the id of the new root, or absent if the tree didn't change
+         */
+        private Optional<ObjectId> writeBack(RevTreeBuilder rootBuilder, String path,
+                TypeTree typeTree) {
+            RevTree tree = typeTree.builder.build();
+            if (tree.getId().equals(typeTree.original.getId())) {
+                return Optional.absent();
+            }
+            return Optional.of(command(WriteBack.class).setAncestor(rootBuilder)
+                    .setChildPath(path).setTree(tree).setMetadataId(typeTree.metadataId).call());
+        }
+
+        @Override
+        public void release() {
+            nodeLocations.close();
+        }
+
+        private void applyBatch() {
+            // node locations first, so the ways in the batch see the nodes that precede them
+            Set<String> missingNodes = Sets.newHashSet();
+            Coordinate coord = new Coordinate();
+            for (ChangeContainer change : batch) {
+                Entity entity = change.getEntityContainer().getEntity();
+                if (entity instanceof Node) {
+                    Node node = (Node) entity;
+                    if (ChangeAction.Delete.equals(change.getAction())) {
+                        nodeLocations.remove(node.getId());
+                        deletedNodes.add(Long.valueOf(node.getId()));
+                    } else {
+                        nodeLocations.put(node.getId(), node.getLongitude(), node.getLatitude());
+                        deletedNodes.remove(Long.valueOf(node.getId()));
+                    }
+                } else if (entity instanceof Way
+                        && !ChangeAction.Delete.equals(change.getAction())) {
+                    for (WayNode wayNode : ((Way) entity).getWayNodes()) {
+                        long nodeId = wayNode.getNodeId();
+                        if (!nodeLocations.get(nodeId, coord)
+                                && !deletedNodes.contains(Long.valueOf(nodeId))) {
+                            missingNodes.add(String.valueOf(nodeId));
+                        }
+                    }
+                }
+            }
+            lookupLocations(missingNodes);
+
+            List<RevObject> features = Lists.newArrayListWithCapacity(batch.size());
+            for (ChangeContainer change : batch) {
+                Entity entity = change.getEntityContainer().getEntity();
+                final boolean delete = ChangeAction.Delete.equals(change.getAction());
+                final String fid = String.valueOf(entity.getId());
+                final TypeTree typeTree;
+                if (entity instanceof Node) {
+                    typeTree = nodes;
+                    if (!ChangeAction.Create.equals(change.getAction())) {
+                        movedNodes.add(Long.valueOf(entity.getId()));
+                    }
+                } else if (entity instanceof Way) {
+                    typeTree = ways;
+                    changedWays.add(Long.valueOf(entity.getId()));
+                } else {
+                    continue;// ignores relations
+                }
+                if (delete) {
+                    typeTree.builder.remove(fid);
+                    continue;
+                }
+                Geometry geom = geometry(entity);
+                if (geom == null) {
+                    // not enough known nodes, as OSMImportOp would, leave it out
+                    typeTree.builder.remove(fid);
+                    continue;
+                }
+                RevFeature feature = featureBuilder.build(converter.toFeature(entity, geom));
+                features.add(feature);
+                typeTree.put(fid, feature, geom.getEnvelopeInternal());
+            }
+            objectDb.putAll(features.iterator());
+            batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        }
+
+        /**
+         * Looks up the locations of the given nodes in the node tree the diff is applied to, and
+         * adds them to the known locations
+         */
+        private void lookupLocations(Set<String> nodeIds) {
+            Map<String, RevFeature> found = lookup.findFeatures(nodes.original, nodeIds);
+            for (Map.Entry<String, RevFeature> entry : found.entrySet()) {
+                Optional<Object> location = entry.getValue().getValues()
+                        .get(NODE_LOCATION_FIELD_INDEX);
+                if (location.isPresent()) {
+                    Coordinate c = ((Geometry) location.get()).getCoordinate();
+                    nodeLocations.put(Long.parseLong(entry.getKey()), c.x, c.y);
+                }
+            }
+        }
+
+        @Nullable
+        private Geometry geometry(Entity entity) {
+            if (entity instanceof Node) {
+                Node node = (Node) entity;
+                return GEOMF.createPoint(new Coordinate(node.getLongitude(), node.getLatitude()));
+            }
+            List<WayNode> wayNodes = ((Way) entity).getWayNodes();
+            List<Long> nodeIds = Lists.newArrayListWithCapacity(wayNodes.size());
+            for (WayNode wayNode : wayNodes) {
+                nodeIds.add(Long.valueOf(wayNode.getNodeId()));
+            }
+            return lineString(nodeIds);
+        }
+
+        /**
+         * @return the line string through the known locations of the given nodes, or
+         *         {@code null} if less than two of them are known
+         */
+        @Nullable
+        private Geometry lineString(List<Long> nodeIds) {
+            List<Coordinate> coords = Lists.newArrayListWithCapacity(nodeIds.size());
+            for (Long nodeId : nodeIds) {
+                Coordinate coord = new Coordinate();
+                if (nodeLocations.get(nodeId.longValue(), coord)) {
+                    coords.add(coord);
+                }
+            }
+            if (coords.size() < 2) {
+                return null;
+            }
+            return GEOMF.createLineString(coords.toArray(new Coordinate[coords.size()]));
+        }
+
+        /**
+         * Rebuilds the geometry of the ways that weren't in the diff but reference nodes that were
+         * moved or deleted by it
+         */
+        private void rebuildWaysOfMovedNodes() {
+            if (movedNodes.isEmpty() || ways.original.isEmpty()) {
+                return;
+            }
+            Set<Long> wayIds = command(FindNodeWays.class).setWayTree(ways.original.getId())
+                    .setMetadataId(ways.metadataId).setNodeIds(movedNodes).call();
+            wayIds.removeAll(changedWays);
+            Set<String> fids = Sets.newHashSet();
+            for (Long wayId : wayIds) {
+                fids.add(wayId.toString());
+            }
+            for (List<String> chunk : Iterables.partition(fids, BATCH_SIZE)) {
+                rebuildWays(chunk);
+            }
+        }
+
+        private void rebuildWays(List<String> fids) {
+            Map<String, org.geogit.api.Node> wayNodes = lookup.findNodes(ways.original, fids);
+            Map<String, RevFeature> wayFeatures = Maps.newHashMap();
+            Set<String> missingNodes = Sets.newHashSet();
+            Coordinate coord = new Coordinate();
+            for (Map.Entry<String, RevFeature> entry : lookup.findFeatures(ways.original, fids)
+                    .entrySet()) {
+                org.geogit.api.Node node = wayNodes.get(entry.getKey());
+                if (!node.getMetadataId().or(ways.metadataId).equals(WAY_TYPE.getId())) {
+                    continue;// not a way imported with OSMImportOp, may have no nodes
+                }
+                wayFeatures.put(entry.getKey(), entry.getValue());
+                for (Long nodeId : nodeIds(entry.getValue())) {
+                    if (!nodeLocations.get(nodeId.longValue(), coord)
+                            && !deletedNodes.contains(nodeId)) {
+                        missingNodes.add(nodeId.toString());
+                    }
+                }
+            }
+            lookupLocations(missingNodes);
+
+            List<RevObject> features = Lists.newArrayListWithCapacity(wayFeatures.size());
+            for (Map.Entry<String, RevFeature> entry : wayFeatures.entrySet()) {
+                Geometry geom = lineString(nodeIds(entry.getValue()));
+                if (geom == null) {
+                    continue;
+                }
+                List<Optional<Object>> values = Lists.newArrayList(entry.getValue().getValues());
+                values.set(WAY_GEOMETRY_FIELD_INDEX, Optional.<Object> of(geom));
+                RevFeature feature = RevFeature.build(ImmutableList.copyOf(values));
+                features.add(feature);
+                ways.put(entry.getKey(), feature, geom.getEnvelopeInternal());
+            }
+            objectDb.putAll(features.iterator());
+        }
+
+        private List<Long> nodeIds(RevFeature way) {
+            List<Long> nodeIds = Lists.newArrayList();
+            Optional<Object> value = way.getValues().get(WAY_NODES_FIELD_INDEX);
+            if (value.isPresent()) {
+                String ids = value.get().toString();
+                for (String id : Splitter.on(';').omitEmptyStrings().split(ids)) {
+                    nodeIds.add(Long.valueOf(id));
+                }
+            }
+            return nodeIds;
+        }
+    }
+}
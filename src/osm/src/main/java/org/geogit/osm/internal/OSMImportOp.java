@@ -10,18 +10,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.FindTreeChild;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
@@ -39,16 +47,18 @@ import org.openstreetmap.osmosis.xml.v0_6.XmlReader;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 
-import crosby.binary.osmosis.OsmosisReader;
-
 /**
  * Imports data from OSM, whether from a URL that represents an endpoint that supports the OSM
  * overpass api, or from a file with OSM data
@@ -56,6 +66,12 @@ import crosby.binary.osmosis.OsmosisReader;
  */
 public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
+    /**
+     * Marks the end of the batches handed to the inserter of a {@link ConvertAndImportSink}
+     */
+    private static final ConvertedBatch END_OF_INSERTS = new ConvertedBatch(-1,
+            ImmutableMultimap.<String, SimpleFeature> of());
+
     /**
      * The filter to use if calling the overpass API
      */
@@ -193,8 +209,17 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
         EntityConverter converter = new EntityConverter();
 
+        final ObjectId oldNodeTree = workingTreeChild(OSMUtils.NODE_TYPE_NAME);
+        final ObjectId oldWayTree = workingTreeChild(OSMUtils.WAY_TYPE_NAME);
+
         OSMDownloadReport report = parseDataFileAndInsert(file, converter);
 
+        if (add && !noRaw) {
+            // the ways that weren't imported again still have the geometry of the nodes they had
+            command(UpdateWayGeometries.class).setOldNodeTree(oldNodeTree)
+                    .setOldWayTree(oldWayTree).call();
+        }
+
         if (urlOrFilepath.startsWith("http") && !keepFile) {
             downloadFile.delete();
         }
@@ -203,6 +228,16 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
     }
 
+    /**
+     * @return the id of the tree at the given path in the working tree, or {@link ObjectId#NULL}
+     *         if there's no such tree
+     */
+    private ObjectId workingTreeChild(String path) {
+        Optional<NodeRef> ref = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(path).call();
+        return ref.isPresent() ? ref.get().objectId() : ObjectId.NULL;
+    }
+
     private OSMDownloadReport parseDataFileAndInsert(File file, final EntityConverter converter) {
 
         boolean pbf = false;
@@ -220,7 +255,7 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
         if (pbf) {
             try {
-                reader = new OsmosisReader(new FileInputStream(file));
+                reader = new ParallelPbfReader(new FileInputStream(file));
             } catch (FileNotFoundException e) {
                 // should not reach this, because we have already checked existence
                 throw new IllegalArgumentException("File does not exist: " + urlOrFilepath);
@@ -243,6 +278,9 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
             }
         }
 
+        if (sink.getFailure() != null) {
+            throw Throwables.propagate(sink.getFailure());
+        }
         if (sink.getCount() == 0) {
             throw new EmptyOSMDownloadException();
         }
@@ -255,11 +293,31 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
     /**
      * A sink that processes OSM entities by converting them to GeoGit features and inserting them
-     * into the repository working tree
-     * 
+     * into the repository working tree.
+     * <p>
+     * The work is split in three stages, so that parsing, converting and inserting run
+     * concurrently:
+     * <ul>
+     * <li>The entities are counted and their geometries built in the thread that feeds the sink, in
+     * the order they're read, since building a way geometry needs the locations of the nodes read
+     * before it.
+     * <li>The entities are then converted to features, and mapped if there's a mapping, in batches
+     * by a pool of converter threads.
+     * <li>The features are finally inserted into the working tree by a single inserter thread,
+     * grouped by tree path, in the order the batches were fed, so that the last version of an
+     * entity read is the one that ends up in the working tree.
+     * </ul>
+     * Each stage blocks when the next one falls behind, so that no more than a few batches are in
+     * memory at any time.
+     * <p>
+     * The feeding thread never reads the working tree while the inserter writes to it: the trees to
+     * replace are deleted before the first batch is handed out, and the nodes of the ways that
+     * weren't imported by this run are looked up in the working tree as it was before the import.
      */
     class ConvertAndImportSink implements Sink {
 
+        private static final int BATCH_SIZE = 1000;
+
         int count = 0;
 
         int unableToProcessCount = 0;
@@ -272,25 +330,64 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
         private FeatureMapFlusher insertsByParent;
 
-        Map<Long, Coordinate> pointCache;
+        /**
+         * The locations of the nodes imported so far, to build the way geometries
+         */
+        private final NodeLocationStore nodeLocations;
+
+        /**
+         * The working tree before the import, to look up the nodes of the ways that weren't
+         * imported by this run, or {@code null} if it's to be replaced by the imported features
+         */
+        @Nullable
+        private final RevTree existingTree;
 
         private boolean firstFeature = true;
 
+        private final ExecutorService converters;
+
+        /**
+         * Bounds the number of batches being converted or waiting to be inserted, permits are
+         * released by the inserter
+         */
+        private final Semaphore pendingBatches;
+
+        private final int maxPendingBatches;
+
+        private final BlockingQueue<ConvertedBatch> inserts;
+
+        /**
+         * Sequence number of the next batch to be submitted
+         */
+        private long nextBatch;
+
+        private final Thread inserter;
+
+        /**
+         * The first error thrown by a converter or the inserter
+         */
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        private ConvertTask batch = new ConvertTask();
+
         public ConvertAndImportSink(EntityConverter converter) {
             super();
             this.converter = converter;
             this.latestChangeset = 0;
             this.latestTimestamp = 0;
             this.insertsByParent = new FeatureMapFlusher(getWorkTree());
-            pointCache = new LinkedHashMap<Long, Coordinate>() {
-                /** serialVersionUID */
-                private static final long serialVersionUID = 1277795218777240552L;
-
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<Long, Coordinate> eldest) {
-                    return size() == 100000;
-                }
-            };
+            this.nodeLocations = new NodeLocationStore();
+            this.existingTree = add ? getWorkTree().getTree() : null;
+
+            final int threads = Runtime.getRuntime().availableProcessors();
+            this.maxPendingBatches = 2 * threads;
+            this.pendingBatches = new Semaphore(maxPendingBatches);
+            this.inserts = new ArrayBlockingQueue<ConvertedBatch>(threads);
+            this.converters = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("osm-import-converter-%d").setDaemon(true).build());
+            this.inserter = new Thread(new Inserter(), "osm-import-inserter");
+            this.inserter.setDaemon(true);
+            this.inserter.start();
         }
 
         public long getUnprocessedCount() {
@@ -301,7 +398,16 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
             return count;
         }
 
+        /**
+         * @return the error that stopped the import, if any
+         */
+        @Nullable
+        public Throwable getFailure() {
+            return failure.get();
+        }
+
         public void process(EntityContainer entityContainer) {
+            checkFailure();
             Entity entity = entityContainer.getEntity();
             latestChangeset = Math.max(latestChangeset, entity.getChangesetId());
             latestTimestamp = Math.max(latestTimestamp, entity.getTimestamp().getTime());
@@ -312,27 +418,164 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
             Geometry geom = parseGeometry(entity);
             getProgressListener().progress(count++);
             if (geom != null) {
-                Feature feature = converter.toFeature(entity, geom);
-                if (mapping != null) {
-                    Optional<MappedFeature> mapped = mapping.map(feature);
-                    if (mapped.isPresent()) {
-                        clean();
-                        insertsByParent.put(mapped.get().getPath(), (SimpleFeature) mapped.get()
-                                .getFeature());
-                    }
-                    if (!noRaw) {
-                        String path = feature.getType().getName().getLocalPart();
-                        clean();
-                        insertsByParent.put(path, (SimpleFeature) feature);
+                clean();
+                batch.add(entity, geom);
+                if (batch.size() >= BATCH_SIZE) {
+                    submitBatch();
+                }
+            }
+        }
+
+        private void submitBatch() {
+            ConvertTask task = batch;
+            task.sequence = nextBatch++;
+            batch = new ConvertTask();
+            try {
+                pendingBatches.acquire();
+            } catch (InterruptedException e) {
+                throw Throwables.propagate(e);
+            }
+            converters.execute(task);
+        }
+
+        private void checkFailure() {
+            Throwable error = failure.get();
+            if (error != null) {
+                throw Throwables.propagate(error);
+            }
+        }
+
+        private void fail(Throwable error) {
+            failure.compareAndSet(null, error);
+        }
+
+        /**
+         * Converts a batch of entities to features, mapping them if there's a mapping, and hands
+         * them to the inserter grouped by tree path
+         */
+        private class ConvertTask implements Runnable {
+
+            private final List<Entity> entities = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+            private final List<Geometry> geometries = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+            private long sequence;
+
+            void add(Entity entity, Geometry geom) {
+                entities.add(entity);
+                geometries.add(geom);
+            }
+
+            int size() {
+                return entities.size();
+            }
+
+            @Override
+            public void run() {
+                Multimap<String, SimpleFeature> features = ImmutableMultimap.of();
+                try {
+                    if (failure.get() == null) {
+                        features = convert();
                     }
-                } else {
+                } catch (Throwable e) {
+                    fail(e);
+                }
+                try {
+                    // handed over even if empty, so the inserter doesn't wait for it
+                    inserts.put(new ConvertedBatch(sequence, features));
+                } catch (InterruptedException e) {
+                    fail(e);
+                    pendingBatches.release();
+                }
+            }
+
+            private Multimap<String, SimpleFeature> convert() {
+                Multimap<String, SimpleFeature> features = ArrayListMultimap.create();
+                for (int i = 0; i < entities.size(); i++) {
+                    Feature feature = converter.toFeature(entities.get(i), geometries.get(i));
                     String path = feature.getType().getName().getLocalPart();
-                    clean();
-                    insertsByParent.put(path, (SimpleFeature) feature);
+                    if (mapping != null) {
+                        Optional<MappedFeature> mapped = mapping.map(feature);
+                        if (mapped.isPresent()) {
+                            features.put(mapped.get().getPath(), (SimpleFeature) mapped.get()
+                                    .getFeature());
+                        }
+                        if (!noRaw) {
+                            features.put(path, (SimpleFeature) feature);
+                        }
+                    } else {
+                        features.put(path, (SimpleFeature) feature);
+                    }
                 }
+                return features;
             }
         }
 
+        /**
+         * Inserts the converted batches in sequence order until it gets the
+         * {@link OSMImportOp#END_OF_INSERTS} marker, holding back the batches converted ahead of
+         * the next one to insert. Once an error happens it keeps draining the batches without
+         * inserting them, so the converters don't block.
+         */
+        private class Inserter implements Runnable {
+
+            private final Map<Long, Multimap<String, SimpleFeature>> heldBack = Maps.newHashMap();
+
+            private long nextSequence;
+
+            @Override
+            public void run() {
+                while (true) {
+                    ConvertedBatch converted;
+                    try {
+                        converted = inserts.take();
+                    } catch (InterruptedException e) {
+                        fail(e);
+                        return;
+                    }
+                    if (converted == END_OF_INSERTS) {
+                        break;
+                    }
+                    heldBack.put(converted.sequence, converted.features);
+                    Multimap<String, SimpleFeature> features;
+                    while ((features = heldBack.remove(nextSequence)) != null) {
+                        nextSequence++;
+                        insert(features);
+                        pendingBatches.release();
+                    }
+                    if (failure.get() != null) {
+                        // the batches held back won't be inserted, nor maybe the one they wait for
+                        pendingBatches.release(heldBack.size());
+                        heldBack.clear();
+                    }
+                }
+                if (failure.get() == null) {
+                    try {
+                        insertsByParent.flushAll();
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            }
+
+            private void insert(Multimap<String, SimpleFeature> features) {
+                if (failure.get() != null) {
+                    return;
+                }
+                try {
+                    for (Map.Entry<String, SimpleFeature> entry : features.entries()) {
+                        insertsByParent.put(entry.getKey(), entry.getValue());
+                    }
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+        }
+
+        /**
+         * Deletes the trees to be replaced by the imported features, once there's a feature to
+         * import. Called from the feeding thread before any batch is submitted.
+         */
         private void clean() {
             if (!add && firstFeature) {
                 getWorkTree().delete(OSMUtils.NODE_TYPE_NAME);
@@ -368,11 +611,40 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
             return latestChangeset != 0;
         }
 
+        /**
+         * Stops the converters and the inserter, if the import didn't complete, and releases the
+         * node locations.
+         */
         public void release() {
+            try {
+                if (inserter.isAlive()) {
+                    fail(new IllegalStateException("OSM import was aborted"));
+                    converters.shutdownNow();
+                    inserter.interrupt();
+                }
+                converters.shutdown();
+            } finally {
+                nodeLocations.close();
+            }
         }
 
+        /**
+         * Waits for the pending batches to be converted and inserted, and flushes the remaining
+         * features into the working tree.
+         */
         public void complete() {
-            insertsByParent.flushAll();
+            if (batch.size() > 0) {
+                submitBatch();
+            }
+            try {
+                pendingBatches.acquire(maxPendingBatches);
+                inserts.put(END_OF_INSERTS);
+                inserter.join();
+            } catch (InterruptedException e) {
+                throw Throwables.propagate(e);
+            }
+            pendingBatches.release(maxPendingBatches);
+            checkFailure();
         }
 
         public void initialize(Map<String, Object> map) {
@@ -396,23 +668,25 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
                 Node node = ((Node) entity);
                 Coordinate coord = new Coordinate(node.getLongitude(), node.getLatitude());
                 Point pt = GEOMF.createPoint(coord);
-                pointCache.put(Long.valueOf(node.getId()), coord);
+                nodeLocations.put(node.getId(), node.getLongitude(), node.getLatitude());
                 return pt;
             }
 
             final Way way = (Way) entity;
             final List<WayNode> nodes = way.getWayNodes();
 
-            List<Coordinate> coordinates = Lists.newArrayList();
+            List<Coordinate> coordinates = Lists.newArrayListWithCapacity(nodes.size());
             for (WayNode node : nodes) {
                 long nodeId = node.getNodeId();
-                Coordinate coord = pointCache.get(nodeId);
-                if (coord == null) {
+                Coordinate coord = new Coordinate();
+                if (!nodeLocations.get(nodeId, coord)) {
+                    // not imported by this run, it may already be in the repository
+                    coord = null;
                     String fid = String.valueOf(nodeId);
                     String path = NodeRef.appendChild(OSMUtils.NODE_TYPE_NAME, fid);
-                    Optional<org.geogit.api.Node> ref = getWorkTree().findUnstaged(path);
+                    Optional<NodeRef> ref = existingNode(path);
                     if (ref.isPresent()) {
-                        org.geogit.api.Node nodeRef = ref.get();
+                        org.geogit.api.Node nodeRef = ref.get().getNode();
                         RevFeature revFeature = getIndex().getDatabase().getFeature(
                                 nodeRef.getObjectId());
                         Point pt = null;
@@ -428,7 +702,7 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
                         if (pt != null) {
                             coord = pt.getCoordinate();
-                            pointCache.put(Long.valueOf(nodeId), coord);
+                            nodeLocations.put(nodeId, coord.x, coord.y);
                         }
                     }
                 }
@@ -443,6 +717,33 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMDownloadReport>> {
 
             return GEOMF.createLineString(coordinates.toArray(new Coordinate[coordinates.size()]));
         }
+
+        /**
+         * Looks up a node in the working tree as it was before the import, which the inserter
+         * doesn't modify
+         */
+        private Optional<NodeRef> existingNode(String path) {
+            if (existingTree == null) {
+                return Optional.absent();
+            }
+            return command(FindTreeChild.class).setIndex(true).setParent(existingTree)
+                    .setChildPath(path).call();
+        }
+    }
+
+    /**
+     * The features converted out of a batch of entities, grouped by tree path
+     */
+    private static class ConvertedBatch {
+
+        final long sequence;
+
+        final Multimap<String, SimpleFeature> features;
+
+        ConvertedBatch(long sequence, Multimap<String, SimpleFeature> features) {
+            this.sequence = sequence;
+            this.features = features;
+        }
     }
 
 }
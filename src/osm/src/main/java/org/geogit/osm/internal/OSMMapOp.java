@@ -8,6 +8,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -17,20 +18,36 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.RevParse;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.ConfigOp.ConfigScope;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.PropertyDescriptor;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Creates new data in a geogit repository, based on the current OSM data in the repository and a
@@ -38,9 +55,20 @@ import com.google.common.collect.Iterators;
  * 
  * The source data used is the working tree data in the "node" and "way" trees.
  * 
+ * Each run records the ids of the source trees it was computed from, along with the ids of the
+ * mapped trees it resulted in, in the repository config, keyed by a hash of the mapping. If the
+ * mapped trees haven't been modified since, the next run with the same mapping only maps the nodes
+ * and ways that changed between the recorded source trees and the current ones, deleting the
+ * mapped features of the entities that were deleted or no longer match the same rule. Ways
+ * referencing nodes that were moved or deleted are found through the {@link UpdateNodeWayIndex
+ * node to way index}, and re-mapped with their geometry rebuilt from the current nodes. Otherwise
+ * every node and way is mapped again.
+ * 
  */
 public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
 
+    private static final String CONFIG_SECTION = "osmmap";
+
     /**
      * The mapping to use
      */
@@ -62,6 +90,48 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
 
         checkNotNull(mapping);
 
+        final String key = CONFIG_SECTION + "." + hash(mapping);
+        final ObjectId nodeTree = workingTreeChild(OSMUtils.NODE_TYPE_NAME);
+        final ObjectId wayTree = workingTreeChild(OSMUtils.WAY_TYPE_NAME);
+        final Optional<String> previousNodeTree = command(ConfigGet.class).setName(key + ".node")
+                .call();
+        final Optional<String> previousWayTree = command(ConfigGet.class).setName(key + ".way")
+                .call();
+        final Optional<String> previousMappedTrees = command(ConfigGet.class)
+                .setName(key + ".trees").call();
+
+        FeatureMapFlusher insertsByParent = new FeatureMapFlusher(getWorkTree());
+        List<String> deletes = Lists.newArrayList();
+        ObjectId oldWayTree = ObjectId.NULL;
+        if (previousNodeTree.isPresent() && previousWayTree.isPresent()
+                && mappedTrees().equals(previousMappedTrees.orNull())) {
+            oldWayTree = ObjectId.valueOf(previousWayTree.get());
+            mapChanges(ObjectId.valueOf(previousNodeTree.get()), nodeTree, oldWayTree, wayTree,
+                    insertsByParent, deletes);
+        } else {
+            mapAll(insertsByParent);
+        }
+        // the barrier: the mapped trees are written to in the background until it returns, so the
+        // deletes and the reads below must come after it
+        insertsByParent.flushAll();
+        if (!deletes.isEmpty()) {
+            getWorkTree().delete(deletes.iterator());
+        }
+
+        if (mapping.canUseWays()) {
+            // so that the next run finds the ways of the changed nodes incrementally
+            command(UpdateNodeWayIndex.class).setOldWayTree(oldWayTree).setWayTree(wayTree)
+                    .call();
+        }
+        configSet(key + ".node", nodeTree.toString());
+        configSet(key + ".way", wayTree.toString());
+        configSet(key + ".trees", mappedTrees());
+
+        return getWorkTree().getTree();
+
+    }
+
+    private void mapAll(FeatureMapFlusher insertsByParent) {
         Iterator<Feature> nodes;
         if (mapping.canUseNodes()) {
             nodes = getFeatures("WORK_HEAD:node");
@@ -76,7 +146,6 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
         }
         Iterator<Feature> iterator = Iterators.concat(nodes, ways);
 
-        FeatureMapFlusher insertsByParent = new FeatureMapFlusher(getWorkTree());
         while (iterator.hasNext()) {
             Feature feature = iterator.next();
             Optional<MappedFeature> newFeature = mapping.map(feature);
@@ -86,10 +155,152 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
                 insertsByParent.put(path, sf);
             }
         }
-        insertsByParent.flushAll();
+    }
 
-        return getWorkTree().getTree();
+    /**
+     * Maps the nodes and ways that changed between the old and new source trees, and the ways
+     * referencing nodes that were moved or deleted
+     */
+    private void mapChanges(ObjectId oldNodeTree, ObjectId newNodeTree, ObjectId oldWayTree,
+            ObjectId newWayTree, FeatureMapFlusher insertsByParent, List<String> deletes) {
+
+        final SimpleFeatureType nodeType = OSMUtils.nodeType();
+        final SimpleFeatureType wayType = OSMUtils.wayType();
+        Set<Long> movedNodes = Sets.newHashSet();
+        if (!oldNodeTree.equals(newNodeTree)) {
+            Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(oldNodeTree)
+                    .setNewTree(newNodeTree).call();
+            while (diffs.hasNext()) {
+                DiffEntry diff = diffs.next();
+                Optional<Feature> oldNode = toFeature(diff.getOldObject(), nodeType);
+                Optional<Feature> newNode = toFeature(diff.getNewObject(), nodeType);
+                if (oldNode.isPresent()
+                        && (!newNode.isPresent() || !location(oldNode.get()).equals(
+                                location(newNode.get())))) {
+                    movedNodes.add(Long.valueOf(diff.oldName()));
+                }
+                if (mapping.canUseNodes()) {
+                    remap(oldNode, newNode, insertsByParent, deletes);
+                }
+            }
+        }
+        if (!mapping.canUseWays()) {
+            return;
+        }
+
+        final RevTree nodes = tree(newNodeTree);
+        Set<Long> affectedWays = command(FindNodeWays.class).setOldWayTree(oldWayTree)
+                .setWayTree(newWayTree).setNodeIds(movedNodes).call();
+        if (!oldWayTree.equals(newWayTree)) {
+            Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(oldWayTree)
+                    .setNewTree(newWayTree).call();
+            while (diffs.hasNext()) {
+                DiffEntry diff = diffs.next();
+                Optional<Feature> newWay = toFeature(diff.getNewObject(), wayType);
+                if (newWay.isPresent() && affectedWays.remove(Long.valueOf(diff.newName()))) {
+                    rebuildGeometry((SimpleFeature) newWay.get(), nodes);
+                }
+                remap(toFeature(diff.getOldObject(), wayType), newWay, insertsByParent, deletes);
+            }
+        }
+        // ways that didn't change themselves, but some of their nodes did
+        final RevTree ways = tree(newWayTree);
+        for (Long wayId : affectedWays) {
+            Optional<NodeRef> ref = command(FindTreeChild.class).setIndex(true).setParent(ways)
+                    .setChildPath(wayId.toString()).call();
+            Optional<Feature> way = toFeature(ref.orNull(), wayType);
+            if (way.isPresent()) {
+                rebuildGeometry((SimpleFeature) way.get(), nodes);
+                remap(way, way, insertsByParent, deletes);
+            }
+        }
+    }
+
+    /**
+     * Maps the new version of an entity, and deletes the feature mapped from the old version if
+     * the new one is not mapped to the same tree
+     */
+    private void remap(Optional<Feature> oldFeature, Optional<Feature> newFeature,
+            FeatureMapFlusher insertsByParent, List<String> deletes) {
+        Optional<MappedFeature> oldMapped = Optional.absent();
+        if (oldFeature.isPresent()) {
+            oldMapped = mapping.map(oldFeature.get());
+        }
+        Optional<MappedFeature> newMapped = Optional.absent();
+        if (newFeature.isPresent()) {
+            newMapped = mapping.map(newFeature.get());
+        }
+        if (oldMapped.isPresent()
+                && (!newMapped.isPresent() || !oldMapped.get().getPath()
+                        .equals(newMapped.get().getPath()))) {
+            deletes.add(NodeRef.appendChild(oldMapped.get().getPath(), oldFeature.get()
+                    .getIdentifier().getID()));
+        }
+        if (newMapped.isPresent()) {
+            insertsByParent.put(newMapped.get().getPath(), (SimpleFeature) newMapped.get()
+                    .getFeature());
+        }
+    }
 
+    /**
+     * Replaces the geometry of a way with one built from the current location of its nodes,
+     * leaving out the nodes that don't exist anymore
+     */
+    private void rebuildGeometry(SimpleFeature way, RevTree nodes) {
+        Object nodeIds = way.getAttribute("nodes");
+        if (nodeIds == null) {
+            return;
+        }
+        Geometry geom = UpdateWayGeometries.wayGeometry(getCommandLocator(), nodes,
+                nodeIds.toString());
+        if (geom != null) {
+            way.setDefaultGeometry(geom);
+        }
+    }
+
+    private RevTree tree(ObjectId treeId) {
+        if (treeId.isNull()) {
+            return RevTree.EMPTY;
+        }
+        return command(RevObjectParse.class).setObjectId(treeId).call(RevTree.class).get();
+    }
+
+    private static Coordinate location(Feature node) {
+        return ((Geometry) node.getDefaultGeometryProperty().getValue()).getCoordinate();
+    }
+
+    /**
+     * @return the id of the tree at the given path in the working tree, or {@link ObjectId#NULL}
+     *         if there's no such tree
+     */
+    private ObjectId workingTreeChild(String path) {
+        Optional<NodeRef> ref = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(path).call();
+        return ref.isPresent() ? ref.get().objectId() : ObjectId.NULL;
+    }
+
+    /**
+     * @return the ids of the trees the mapping rules map to, in the working tree, comma separated
+     */
+    private String mappedTrees() {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (MappingRule rule : mapping.getRules()) {
+            ids.add(workingTreeChild(rule.getName()));
+        }
+        return Joiner.on(',').join(ids);
+    }
+
+    private void configSet(String name, String value) {
+        command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setScope(ConfigScope.LOCAL)
+                .setName(name).setValue(value).call();
+    }
+
+    /**
+     * @return a hash of the JSON representation of the mapping, to tell mappings apart
+     */
+    private static String hash(Mapping mapping) {
+        Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+        return Hashing.sha1().hashString(gson.toJson(mapping), Charsets.UTF_8).toString();
     }
 
     private Iterator<Feature> getFeatures(String ref) {
@@ -107,28 +318,38 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
             @Override
             @Nullable
             public Feature apply(@Nullable NodeRef ref) {
-                RevFeature revFeature = command(RevObjectParse.class).setObjectId(ref.objectId())
-                        .call(RevFeature.class).get();
                 SimpleFeatureType featureType;
                 if (ref.path().startsWith(OSMUtils.NODE_TYPE_NAME)) {
                     featureType = OSMUtils.nodeType();
                 } else {
                     featureType = OSMUtils.wayType();
                 }
-                SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
-                RevFeatureType revFeatureType = RevFeatureType.build(featureType);
-                List<PropertyDescriptor> descriptors = revFeatureType.sortedDescriptors();
-                ImmutableList<Optional<Object>> values = revFeature.getValues();
-                for (int i = 0; i < descriptors.size(); i++) {
-                    PropertyDescriptor descriptor = descriptors.get(i);
-                    Optional<Object> value = values.get(i);
-                    featureBuilder.set(descriptor.getName(), value.orNull());
-                }
-                SimpleFeature feature = featureBuilder.buildFeature(ref.name());
-                return feature;
+                return toFeature(ref, featureType).get();
             }
 
         };
         return Iterators.transform(iterator, function);
     }
+
+    /**
+     * @return the feature the ref points to, absent if the ref is {@code null}
+     */
+    private Optional<Feature> toFeature(@Nullable NodeRef ref, SimpleFeatureType featureType) {
+        if (ref == null) {
+            return Optional.absent();
+        }
+        RevFeature revFeature = command(RevObjectParse.class).setObjectId(ref.objectId())
+                .call(RevFeature.class).get();
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
+        RevFeatureType revFeatureType = RevFeatureType.build(featureType);
+        List<PropertyDescriptor> descriptors = revFeatureType.sortedDescriptors();
+        ImmutableList<Optional<Object>> values = revFeature.getValues();
+        for (int i = 0; i < descriptors.size(); i++) {
+            PropertyDescriptor descriptor = descriptors.get(i);
+            Optional<Object> value = values.get(i);
+            featureBuilder.set(descriptor.getName(), value.orNull());
+        }
+        SimpleFeature feature = featureBuilder.buildFeature(ref.name());
+        return Optional.<Feature> of(feature);
+    }
 }
@@ -13,12 +13,15 @@ import java.util.Set;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
-import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.storage.StagingDatabase;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
@@ -30,8 +33,10 @@ import com.beust.jcommander.internal.Maps;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -50,6 +55,11 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
      * corresponding to the "way" and "node" types
      */
 
+    /**
+     * Number of mapped features whose raw features and way nodes are looked up at once
+     */
+    private static final int CHUNK_SIZE = 1000;
+
     private static final RevFeatureType nodeType = RevFeatureType.build(OSMUtils.nodeType());
 
     private static final RevFeatureType wayType = RevFeatureType.build(OSMUtils.wayType());
@@ -90,6 +100,11 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
 
     private static GeometryFactory gf = new GeometryFactory();
 
+    /**
+     * The locations of the nodes looked up or written during the operation
+     */
+    private NodeLocationStore nodeLocations;
+
     /**
      * Sets the path to take the mapped data from
      * 
@@ -120,51 +135,146 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
         Iterator<NodeRef> iter = command(LsTreeOp.class).setReference(path)
                 .setStrategy(Strategy.FEATURES_ONLY).call();
 
+        final ObjectId oldNodeTree = workingTreeChild(OSMUtils.NODE_TYPE_NAME);
+        final ObjectId oldWayTree = workingTreeChild(OSMUtils.WAY_TYPE_NAME);
+
         FeatureMapFlusher flusher = new FeatureMapFlusher(getWorkTree());
+        nodeLocations = new NodeLocationStore();
+        try {
+            unmapFeatures(iter, flusher, oldNodeTree, oldWayTree);
+        } finally {
+            nodeLocations.close();
+        }
+        // the barrier: the node and way trees are written to in the background until it returns
+        flusher.flushAll();
+
+        // the ways not in the mapped tree may reference some of the nodes moved
+        command(UpdateWayGeometries.class).setOldNodeTree(oldNodeTree)
+                .setOldWayTree(oldWayTree).call();
+        return getWorkTree().getTree();
+
+    }
+
+    private ObjectId workingTreeChild(String path) {
+        Optional<NodeRef> ref = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(path).call();
+        return ref.isPresent() ? ref.get().objectId() : ObjectId.NULL;
+    }
+
+    /**
+     * Unmaps the features in chunks. The mapped features of each chunk are read at once, and so
+     * are the raw features they correspond to and the nodes referenced by the ways among them that
+     * are not in {@link #nodeLocations} yet, with a single walk of the node and way trees.
+     * <p>
+     * The lookups go to the node and way trees as they were before unmapping, never to the working
+     * tree, which the flusher writes to in the background until its {@code flushAll()}.
+     */
+    private void unmapFeatures(Iterator<NodeRef> iter, FeatureMapFlusher flusher,
+            ObjectId nodeTreeId, ObjectId wayTreeId) {
+        final StagingDatabase db = getIndex().getDatabase();
+        final BatchTreeLookup lookup = new BatchTreeLookup(db);
+        final RevTree nodeTree = tree(db, nodeTreeId);
+        final RevTree wayTree = tree(db, wayTreeId);
+        final Map<ObjectId, RevFeatureType> featureTypes = Maps.newHashMap();
         while (iter.hasNext()) {
-            NodeRef node = iter.next();
-            RevFeature revFeature = command(RevObjectParse.class).setObjectId(node.objectId())
-                    .call(RevFeature.class).get();
-            RevFeatureType revFeatureType = command(RevObjectParse.class)
-                    .setObjectId(node.getMetadataId()).call(RevFeatureType.class).get();
-            List<PropertyDescriptor> descriptors = revFeatureType.sortedDescriptors();
-            ImmutableList<Optional<Object>> values = revFeature.getValues();
-            SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(
-                    (SimpleFeatureType) revFeatureType.type());
-            String id = null;
-            for (int i = 0; i < descriptors.size(); i++) {
-                PropertyDescriptor descriptor = descriptors.get(i);
-                if (descriptor.getName().getLocalPart().equals("id")) {
-                    id = values.get(i).get().toString();
+            List<NodeRef> chunk = Lists.newArrayList();
+            Set<ObjectId> ids = Sets.newHashSet();
+            for (int i = 0; i < CHUNK_SIZE && iter.hasNext(); i++) {
+                NodeRef node = iter.next();
+                chunk.add(node);
+                ids.add(node.objectId());
+            }
+            Map<ObjectId, RevFeature> revFeatures = Maps.newHashMap();
+            Iterator<RevObject> objects = db.getAll(ids);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                revFeatures.put(object.getId(), (RevFeature) object);
+            }
+
+            List<SimpleFeature> features = Lists.newArrayListWithCapacity(chunk.size());
+            Set<String> nodeIds = Sets.newHashSet();
+            Set<String> wayIds = Sets.newHashSet();
+            Coordinate coord = new Coordinate();
+            for (NodeRef node : chunk) {
+                RevFeatureType revFeatureType = featureTypes.get(node.getMetadataId());
+                if (revFeatureType == null) {
+                    revFeatureType = db.getFeatureType(node.getMetadataId());
+                    featureTypes.put(node.getMetadataId(), revFeatureType);
+                }
+                SimpleFeature feature = toFeature(revFeatures.get(node.objectId()),
+                        revFeatureType);
+                features.add(feature);
+                if (isNode(feature)) {
+                    nodeIds.add(feature.getID());
+                } else {
+                    wayIds.add(feature.getID());
+                    Object nodes = feature.getAttribute("nodes");
+                    if (nodes != null) {
+                        for (String nodeId : Splitter.on(';').omitEmptyStrings()
+                                .split(nodes.toString())) {
+                            if (!nodeLocations.get(Long.parseLong(nodeId), coord)) {
+                                nodeIds.add(nodeId);
+                            }
+                        }
+                    }
                 }
-                Optional<Object> value = values.get(i);
-                featureBuilder.set(descriptor.getName(), value.orNull());
             }
-            Preconditions.checkNotNull(id, "No 'id' attribute found");
-            SimpleFeature feature = featureBuilder.buildFeature(id);
-            unmapFeature(feature, flusher);
 
+            Map<String, RevFeature> rawNodes = lookup.findFeatures(nodeTree, nodeIds);
+            Map<String, RevFeature> rawWays = lookup.findFeatures(wayTree, wayIds);
+            for (Entry<String, RevFeature> entry : rawNodes.entrySet()) {
+                final long id = Long.parseLong(entry.getKey());
+                Optional<Object> location = entry.getValue().getValues()
+                        .get(NODE_LOCATION_FIELD_INDEX);
+                if (location.isPresent() && !nodeLocations.get(id, coord)) {
+                    Coordinate c = ((Geometry) location.get()).getCoordinate();
+                    nodeLocations.put(id, c.x, c.y);
+                }
+            }
+            for (SimpleFeature feature : features) {
+                if (isNode(feature)) {
+                    unmapNode(feature, Optional.fromNullable(rawNodes.get(feature.getID())),
+                            flusher);
+                } else {
+                    unmapWay(feature, Optional.fromNullable(rawWays.get(feature.getID())),
+                            flusher);
+                }
+            }
         }
-        flusher.flushAll();
-        return getWorkTree().getTree();
+    }
 
+    private SimpleFeature toFeature(RevFeature revFeature, RevFeatureType revFeatureType) {
+        List<PropertyDescriptor> descriptors = revFeatureType.sortedDescriptors();
+        ImmutableList<Optional<Object>> values = revFeature.getValues();
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(
+                (SimpleFeatureType) revFeatureType.type());
+        String id = null;
+        for (int i = 0; i < descriptors.size(); i++) {
+            PropertyDescriptor descriptor = descriptors.get(i);
+            if (descriptor.getName().getLocalPart().equals("id")) {
+                id = values.get(i).get().toString();
+            }
+            Optional<Object> value = values.get(i);
+            featureBuilder.set(descriptor.getName(), value.orNull());
+        }
+        Preconditions.checkNotNull(id, "No 'id' attribute found");
+        return featureBuilder.buildFeature(id);
     }
 
-    private void unmapFeature(SimpleFeature feature, FeatureMapFlusher mapFlusher) {
+    private static boolean isNode(SimpleFeature feature) {
         Class<?> clazz = feature.getDefaultGeometryProperty().getType().getBinding();
-        if (clazz.equals(Point.class)) {
-            unmapNode(feature, mapFlusher);
-        } else {
-            unmapWay(feature, mapFlusher);
-        }
+        return clazz.equals(Point.class);
+    }
+
+    private static RevTree tree(StagingDatabase db, ObjectId treeId) {
+        return treeId.isNull() ? RevTree.EMPTY : db.getTree(treeId);
     }
 
-    private void unmapNode(SimpleFeature feature, FeatureMapFlusher mapFlusher) {
+    private void unmapNode(SimpleFeature feature, Optional<RevFeature> rawFeature,
+            FeatureMapFlusher mapFlusher) {
         boolean modified = false;
         String id = feature.getID();
         SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(OSMUtils.nodeType());
-        Optional<RevFeature> rawFeature = command(RevObjectParse.class).setRefSpec(
-                "WORK_HEAD:" + OSMUtils.NODE_TYPE_NAME + "/" + id).call(RevFeature.class);
         Map<String, String> tagsMap = Maps.newHashMap();
         long timestamp = System.currentTimeMillis();
         int version = 1;
@@ -238,6 +348,8 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
         featureBuilder.set("version", version);
         featureBuilder.set("user", user);
         featureBuilder.set("visible", true);
+        Coordinate location = ((Geometry) feature.getDefaultGeometry()).getCoordinate();
+        nodeLocations.put(Long.parseLong(id), location.x, location.y);
         if (rawFeature.isPresent()) {
             // the feature has changed, so we cannot reuse some attributes.
             // We reconstruct the feature and insert it
@@ -273,16 +385,12 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
         if (nodesAttribute != null) {
             String[] nodeIds = nodesAttribute.toString().split(";");
             for (String nodeId : nodeIds) {
-                Optional<RevFeature> revFeature = command(RevObjectParse.class).setRefSpec(
-                        "WORK_HEAD:" + OSMUtils.NODE_TYPE_NAME + "/" + nodeId).call(
-                        RevFeature.class);
-                if (revFeature.isPresent()) {
-                    Optional<Object> location = revFeature.get().getValues()
-                            .get(NODE_LOCATION_FIELD_INDEX);
-                    if (location.isPresent()) {
-                        Coordinate coord = ((Geometry) location.get()).getCoordinate();
-                        nodeCoords.put(coord, Long.parseLong(nodeId));
-                    }
+                final long id = Long.parseLong(nodeId);
+                // resolved along with the rest of the chunk
+                Coordinate coord = nodeLocations.get(id);
+                if (coord != null) {
+                    // matched at the precision node locations are stored with
+                    nodeCoords.put(NodeLocationStore.round(coord), Long.valueOf(id));
                 }
             }
         }
@@ -290,8 +398,9 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
         Coordinate[] coords = ((Geometry) way.getDefaultGeometryProperty().getValue())
                 .getCoordinates();
         for (Coordinate coord : coords) {
-            if (nodeCoords.containsKey(coord)) {
-                nodes.add(nodeCoords.get(coord));
+            Long nodeId = nodeCoords.get(NodeLocationStore.round(coord));
+            if (nodeId != null) {
+                nodes.add(nodeId);
             } else {
                 nodes.add(createNodeForCoord(coord, flusher));
             }
@@ -317,15 +426,15 @@ public class OSMUnmapOp extends AbstractGeoGitOp<RevTree> {
         featureBuilder.set("user", null);
         featureBuilder.set("visible", true);
         flusher.put("node", featureBuilder.buildFeature(Long.toString(id)));
+        nodeLocations.put(id, coord.x, coord.y);
         return id;
     }
 
-    private void unmapWay(SimpleFeature feature, FeatureMapFlusher flusher) {
+    private void unmapWay(SimpleFeature feature, Optional<RevFeature> rawFeature,
+            FeatureMapFlusher flusher) {
         boolean modified = false;
         String id = feature.getID();
         SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(OSMUtils.wayType());
-        Optional<RevFeature> rawFeature = command(RevObjectParse.class).setRefSpec(
-                "WORK_HEAD:" + OSMUtils.WAY_TYPE_NAME + "/" + id).call(RevFeature.class);
         Map<String, String> tagsMap = Maps.newHashMap();
         long timestamp = System.currentTimeMillis();
         int version = 1;
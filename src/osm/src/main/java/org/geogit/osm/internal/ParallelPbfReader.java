@@ -0,0 +1,179 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.geogit.storage.OrderedTaskQueue;
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
+import org.openstreetmap.osmosis.osmbinary.file.BlockReaderAdapter;
+import org.openstreetmap.osmosis.osmbinary.file.FileBlock;
+import org.openstreetmap.osmosis.osmbinary.file.FileBlockPosition;
+
+import com.google.common.collect.Lists;
+
+import crosby.binary.osmosis.OsmosisBinaryParser;
+
+/**
+ * A PBF reader that decodes the file blocks in parallel, and passes the decoded entities to the
+ * sink in the same order as the blocks appear in the file, from the thread that runs the reader.
+ * <p>
+ * Blocks are read and inflated sequentially, then parsed into entities by a shared pool of decoder
+ * threads. At most {@link #MAX_PENDING_BLOCKS} blocks are being decoded or waiting to be passed to
+ * the sink at any time, so a slow sink stops the reading instead of the decoded entities piling up
+ * in memory.
+ */
+class ParallelPbfReader implements RunnableSource {
+
+    private static final int DECODER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final int MAX_PENDING_BLOCKS = 2 * DECODER_THREADS;
+
+    private static final ExecutorService DECODERS = OrderedTaskQueue.newWorkerPool(
+            "osm-pbf-decoder-%d", DECODER_THREADS);
+
+    private final InputStream input;
+
+    private Sink sink;
+
+    /**
+     * @param input the PBF stream, closed once it's read
+     */
+    public ParallelPbfReader(InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void run() {
+        final Map<String, Object> metadata = Collections.emptyMap();
+        sink.initialize(metadata);
+        final BlockDispatcher dispatcher = new BlockDispatcher();
+        try {
+            new BlockInputStream(input, dispatcher).process();
+            dispatcher.drain();
+            sink.complete();
+        } catch (IOException e) {
+            throw new OsmosisRuntimeException("Unable to process PBF stream", e);
+        } finally {
+            dispatcher.cancel();
+            try {
+                input.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            sink.release();
+        }
+    }
+
+    /**
+     * Hands each block read to the decoders, and the decoded entities to the sink, in order
+     */
+    private class BlockDispatcher implements BlockReaderAdapter {
+
+        private final OsmosisBinaryParser blockFilter = new OsmosisBinaryParser();
+
+        private final OrderedTaskQueue<List<EntityContainer>> pending;
+
+        BlockDispatcher() {
+            pending = new OrderedTaskQueue<List<EntityContainer>>(DECODERS, MAX_PENDING_BLOCKS);
+        }
+
+        @Override
+        public boolean skipBlock(FileBlockPosition block) {
+            return blockFilter.skipBlock(block);
+        }
+
+        @Override
+        public void handleBlock(final FileBlock block) {
+            if (pending.isFull()) {
+                process(pending.take());
+            }
+            pending.submit(new DecodeTask(block));
+        }
+
+        @Override
+        public void complete() {
+            // the sink is completed once the pending blocks are drained
+        }
+
+        /**
+         * Passes the entities of all the pending blocks to the sink, in order
+         */
+        void drain() {
+            while (!pending.isEmpty()) {
+                process(pending.take());
+            }
+        }
+
+        private void process(List<EntityContainer> entities) {
+            for (EntityContainer entity : entities) {
+                sink.process(entity);
+            }
+        }
+
+        /**
+         * Discards the pending blocks, waiting for the ones being decoded, which aren't
+         * interrupted
+         */
+        void cancel() {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Parses a block into entities, with a parser of its own since parsers keep the state of the
+     * block being parsed
+     */
+    private static class DecodeTask implements Callable<List<EntityContainer>> {
+
+        private final FileBlock block;
+
+        DecodeTask(FileBlock block) {
+            this.block = block;
+        }
+
+        @Override
+        public List<EntityContainer> call() {
+            final List<EntityContainer> entities = Lists.newArrayList();
+            OsmosisBinaryParser parser = new OsmosisBinaryParser();
+            parser.setSink(new Sink() {
+
+                @Override
+                public void initialize(Map<String, Object> metadata) {
+                }
+
+                @Override
+                public void process(EntityContainer entity) {
+                    entities.add(entity);
+                }
+
+                @Override
+                public void complete() {
+                }
+
+                @Override
+                public void release() {
+                }
+            });
+            parser.handleBlock(block);
+            return entities;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.StagingDatabase;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Maintains a reverse index of the ways in a way tree by the nodes they reference, so the ways
+ * affected by a change to some nodes can be found without decoding every way.
+ * <p>
+ * The index of a way tree is a tree with a node per OSM node referenced by any way, named after
+ * the node id, pointing to a feature with a single value: the ids of the ways that reference the
+ * node, sorted and separated by semicolons. Both are regular content addressed objects, so equal
+ * entries are shared between the indexes of different way trees. Indexes are not part of the
+ * versioned data, they're linked to the id of the way tree they derive from by an index tree,
+ * pointed to by the {@value #INDEX_REF} ref.
+ * <p>
+ * When the {@link #setOldWayTree(ObjectId) old way tree} was already indexed, the new index is
+ * built from its index out of the differences between both trees, so the cost of keeping it up to
+ * date is proportional to the changed ways: the entries of the nodes removed from a way, or from a
+ * removed way, drop the way id. The index of the old way tree is then superseded and unlinked, so
+ * only the indexes of the latest way trees are kept; indexing an older way tree again builds its
+ * index from scratch.
+ *
+ * @see FindNodeWays
+ */
+public class UpdateNodeWayIndex extends AbstractGeoGitOp<ObjectId> {
+
+    /**
+     * Ref pointing to the tree that indexes the node to way indexes by way tree id
+     */
+    public static final String INDEX_REF = "OSM_NODE_WAY_INDEX";
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Number of index entries changed in memory before they're written to the index tree
+     */
+    private static final int MAX_PENDING_CHANGES = 100 * 1000;
+
+    private static final RevFeatureType WAY_TYPE = RevFeatureType.build(OSMUtils.wayType());
+
+    private final ObjectDatabase objectDb;
+
+    private final StagingDatabase stagingDb;
+
+    private ObjectId oldWayTree = ObjectId.NULL;
+
+    private ObjectId wayTree;
+
+    private ObjectId metadataId = WAY_TYPE.getId();
+
+    /**
+     * Index of the nodes attribute by feature type id, -1 for types that don't have it
+     */
+    private final Map<ObjectId, Integer> nodesFieldIndexes = Maps.newHashMap();
+
+    /**
+     * Constructs a new {@code UpdateNodeWayIndex} operation.
+     *
+     * @param objectDb the repository object database, where the indexes are stored
+     * @param stagingDb the staging database, to read the ways from, whether they're committed or
+     *        not
+     */
+    @Inject
+    public UpdateNodeWayIndex(ObjectDatabase objectDb, StagingDatabase stagingDb) {
+        this.objectDb = objectDb;
+        this.stagingDb = stagingDb;
+    }
+
+    /**
+     * @param oldWayTree the id of a way tree that may already be indexed, usually the previous
+     *        version of the one to index
+     * @return {@code this}
+     */
+    public UpdateNodeWayIndex setOldWayTree(ObjectId oldWayTree) {
+        this.oldWayTree = oldWayTree;
+        return this;
+    }
+
+    /**
+     * @param wayTree the id of the way tree to index, {@link ObjectId#NULL} if there are no ways
+     * @return {@code this}
+     */
+    public UpdateNodeWayIndex setWayTree(ObjectId wayTree) {
+        this.wayTree = wayTree;
+        return this;
+    }
+
+    /**
+     * @param metadataId the id of the default feature type of the way tree, the one of
+     *        {@link OSMUtils#wayType()} if not set
+     * @return {@code this}
+     */
+    public UpdateNodeWayIndex setMetadataId(ObjectId metadataId) {
+        this.metadataId = metadataId;
+        return this;
+    }
+
+    /**
+     * Indexes the way tree, if it's not already.
+     *
+     * @return the id of the reverse index tree of the way tree
+     */
+    @Override
+    public ObjectId call() {
+        checkState(wayTree != null, "way tree not set");
+        if (wayTree.isNull() || wayTree.equals(RevTree.EMPTY.getId())) {
+            return RevTree.EMPTY.getId();
+        }
+        final Optional<Ref> indexRef = command(RefParse.class).setName(INDEX_REF).call();
+        final RevTree index = indexRef.isPresent() ? objectDb.getTree(indexRef.get()
+                .getObjectId()) : RevTree.EMPTY;
+        final RevTreeBuilder indexBuilder = new RevTreeBuilder(objectDb, index);
+        Optional<Node> existing = indexBuilder.get(wayTree.toString());
+        if (existing.isPresent()) {
+            return existing.get().getObjectId();
+        }
+
+        Optional<Node> previous = Optional.absent();
+        if (!oldWayTree.isNull()) {
+            previous = indexBuilder.get(oldWayTree.toString());
+        }
+        final RevTree reverseIndex = build(previous);
+        objectDb.put(reverseIndex);
+        if (previous.isPresent()) {
+            indexBuilder.remove(oldWayTree.toString());
+        }
+        indexBuilder.put(Node.tree(wayTree.toString(), reverseIndex.getId(), ObjectId.NULL));
+        RevTree newIndex = indexBuilder.build();
+        objectDb.put(newIndex);
+        command(UpdateRef.class).setName(INDEX_REF).setNewValue(newIndex.getId()).call();
+        return reverseIndex.getId();
+    }
+
+    private RevTree build(final Optional<Node> previous) {
+        final RevTreeBuilder builder;
+        final Iterator<DiffEntry> diffs;
+        if (previous.isPresent()) {
+            builder = new RevTreeBuilder(objectDb, objectDb.getTree(previous.get()
+                    .getObjectId()));
+            diffs = command(DiffTree.class).setOldTree(oldWayTree).setNewTree(wayTree).call();
+        } else {
+            builder = new RevTreeBuilder(objectDb);
+            RevTree tree = stagingDb.getTree(wayTree);
+            final Iterator<NodeRef> ways = new DepthTreeIterator(OSMUtils.WAY_TYPE_NAME,
+                    metadataId, tree, stagingDb, DepthTreeIterator.Strategy.FEATURES_ONLY);
+            diffs = new Iterator<DiffEntry>() {
+
+                @Override
+                public boolean hasNext() {
+                    return ways.hasNext();
+                }
+
+                @Override
+                public DiffEntry next() {
+                    return new DiffEntry(null, ways.next());
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        final Multimap<Long, Long> added = HashMultimap.create();
+        final Multimap<Long, Long> removed = HashMultimap.create();
+        while (diffs.hasNext()) {
+            List<DiffEntry> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            Set<ObjectId> ids = Sets.newHashSet();
+            for (int i = 0; i < BATCH_SIZE && diffs.hasNext(); i++) {
+                DiffEntry diff = diffs.next();
+                batch.add(diff);
+                if (diff.getOldObject() != null) {
+                    ids.add(diff.getOldObject().objectId());
+                }
+                if (diff.getNewObject() != null) {
+                    ids.add(diff.getNewObject().objectId());
+                }
+            }
+            Map<ObjectId, RevFeature> features = Maps.newHashMap();
+            Iterator<RevObject> objects = stagingDb.getAll(ids);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                features.put(object.getId(), (RevFeature) object);
+            }
+            for (DiffEntry diff : batch) {
+                Set<Long> oldNodes = wayNodes(diff.getOldObject(), features);
+                Set<Long> newNodes = wayNodes(diff.getNewObject(), features);
+                Long wayId = Long.valueOf(diff.newName() != null ? diff.newName() : diff
+                        .oldName());
+                for (Long node : Sets.difference(oldNodes, newNodes)) {
+                    removed.put(node, wayId);
+                }
+                for (Long node : Sets.difference(newNodes, oldNodes)) {
+                    added.put(node, wayId);
+                }
+            }
+            if (added.size() + removed.size() > MAX_PENDING_CHANGES) {
+                apply(builder, added, removed);
+            }
+        }
+        apply(builder, added, removed);
+        return builder.build();
+    }
+
+    /**
+     * Writes the pending changes to the index entries of the nodes they affect
+     */
+    private void apply(RevTreeBuilder builder, Multimap<Long, Long> added,
+            Multimap<Long, Long> removed) {
+        for (Long node : Sets.union(added.keySet(), removed.keySet())) {
+            final String key = node.toString();
+            SortedSet<Long> ways = readEntry(objectDb, builder.get(key));
+            ways.removeAll(removed.get(node));
+            ways.addAll(added.get(node));
+            if (ways.isEmpty()) {
+                builder.remove(key);
+            } else {
+                RevFeature entry = RevFeature.build(ImmutableList.of(Optional.<Object> of(Joiner
+                        .on(';').join(ways))));
+                objectDb.put(entry);
+                builder.put(Node.create(key, entry.getId(), ObjectId.NULL, TYPE.FEATURE));
+            }
+        }
+        added.clear();
+        removed.clear();
+    }
+
+    /**
+     * @return the ids of the ways in an index entry, empty if there's no entry
+     */
+    static SortedSet<Long> readEntry(ObjectDatabase objectDb, Optional<Node> entry) {
+        SortedSet<Long> ways = Sets.newTreeSet();
+        if (entry.isPresent()) {
+            RevFeature feature = objectDb.getFeature(entry.get().getObjectId());
+            for (String id : Splitter.on(';').split((String) feature.getValues().get(0).get())) {
+                ways.add(Long.valueOf(id));
+            }
+        }
+        return ways;
+    }
+
+    /**
+     * @return the ids of the nodes referenced by a way, empty if the way is {@code null} or its
+     *         feature type has no nodes attribute
+     */
+    private Set<Long> wayNodes(@Nullable NodeRef way, Map<ObjectId, RevFeature> features) {
+        if (way == null) {
+            return Collections.emptySet();
+        }
+        final int index = nodesFieldIndex(way.getMetadataId().isNull() ? metadataId : way
+                .getMetadataId());
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        RevFeature feature = features.get(way.objectId());
+        checkState(feature != null, "way feature %s not found", way.objectId());
+        Set<Long> nodes = Sets.newHashSet();
+        Optional<Object> value = feature.getValues().get(index);
+        if (value.isPresent()) {
+            for (String id : Splitter.on(';').omitEmptyStrings().split(value.get().toString())) {
+                nodes.add(Long.valueOf(id));
+            }
+        }
+        return nodes;
+    }
+
+    private int nodesFieldIndex(ObjectId featureTypeId) {
+        Integer index = nodesFieldIndexes.get(featureTypeId);
+        if (index == null) {
+            RevFeatureType featureType = featureTypeId.equals(WAY_TYPE.getId()) ? WAY_TYPE
+                    : stagingDb.getFeatureType(featureTypeId);
+            index = Integer.valueOf(-1);
+            List<PropertyDescriptor> descriptors = featureType.sortedDescriptors();
+            for (int i = 0; i < descriptors.size(); i++) {
+                if (descriptors.get(i).getName().getLocalPart().equals("nodes")) {
+                    index = Integer.valueOf(i);
+                }
+            }
+            nodesFieldIndexes.put(featureTypeId, index);
+        }
+        return index.intValue();
+    }
+}
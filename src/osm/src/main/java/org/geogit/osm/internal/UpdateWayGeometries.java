@@ -0,0 +1,207 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.CommandLocator;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Rebuilds the geometries of the ways in the working tree that reference nodes that were moved
+ * since a previous version of the node tree, without being modified themselves, so they don't keep
+ * the geometry they were imported with.
+ * <p>
+ * The moved nodes are found by comparing the old node tree with the current one, and the ways
+ * referencing them through the {@link UpdateNodeWayIndex node to way index} of the current way
+ * tree, so the cost is proportional to the changes instead of to the number of ways.
+ */
+public class UpdateWayGeometries extends AbstractGeoGitOp<Long> {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private static final RevFeatureType NODE_TYPE = RevFeatureType.build(OSMUtils.nodeType());
+
+    private static final RevFeatureType WAY_TYPE = RevFeatureType.build(OSMUtils.wayType());
+
+    private static final int NODE_LOCATION_FIELD_INDEX = fieldIndex(NODE_TYPE, "location");
+
+    private static final int WAY_NODES_FIELD_INDEX = fieldIndex(WAY_TYPE, "nodes");
+
+    private ObjectId oldNodeTree = ObjectId.NULL;
+
+    private ObjectId oldWayTree = ObjectId.NULL;
+
+    /**
+     * @param oldNodeTree the id of the node tree to find the moved nodes from
+     * @return {@code this}
+     */
+    public UpdateWayGeometries setOldNodeTree(ObjectId oldNodeTree) {
+        this.oldNodeTree = oldNodeTree;
+        return this;
+    }
+
+    /**
+     * @param oldWayTree the id of the way tree at the time of the old node tree, ways modified
+     *        since then are left as they are
+     * @return {@code this}
+     */
+    public UpdateWayGeometries setOldWayTree(ObjectId oldWayTree) {
+        this.oldWayTree = oldWayTree;
+        return this;
+    }
+
+    /**
+     * @return the number of ways whose geometry was rebuilt
+     */
+    @Override
+    public Long call() {
+        final ObjectId newNodeTree = workingTreeChild(OSMUtils.NODE_TYPE_NAME);
+        final ObjectId newWayTree = workingTreeChild(OSMUtils.WAY_TYPE_NAME);
+        if (oldNodeTree.isNull() || newWayTree.isNull() || oldNodeTree.equals(newNodeTree)) {
+            return Long.valueOf(0);
+        }
+
+        Set<Long> movedNodes = Sets.newHashSet();
+        Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(oldNodeTree)
+                .setNewTree(newNodeTree).call();
+        while (diffs.hasNext()) {
+            DiffEntry diff = diffs.next();
+            if (diff.isAdd()) {
+                continue;
+            }
+            if (diff.isDelete()
+                    || !location(diff.getOldObject()).equals(location(diff.getNewObject()))) {
+                movedNodes.add(Long.valueOf(diff.oldName()));
+            }
+        }
+        Set<Long> ways = command(FindNodeWays.class).setOldWayTree(oldWayTree)
+                .setWayTree(newWayTree).setNodeIds(movedNodes).call();
+
+        final RevTree nodes = tree(newNodeTree);
+        final RevTree newWays = tree(newWayTree);
+        final RevTree oldWays = tree(oldWayTree);
+        final SimpleFeatureType wayType = OSMUtils.wayType();
+        final List<PropertyDescriptor> descriptors = WAY_TYPE.sortedDescriptors();
+        FeatureMapFlusher flusher = new FeatureMapFlusher(getWorkTree());
+        long count = 0;
+        for (Long wayId : ways) {
+            final String fid = wayId.toString();
+            Optional<NodeRef> way = command(FindTreeChild.class).setIndex(true)
+                    .setParent(newWays).setChildPath(fid).call();
+            Optional<NodeRef> oldWay = command(FindTreeChild.class).setIndex(true)
+                    .setParent(oldWays).setChildPath(fid).call();
+            if (!way.isPresent() || !oldWay.isPresent()
+                    || !way.get().objectId().equals(oldWay.get().objectId())) {
+                // new or modified ways got their geometry from the current nodes already
+                continue;
+            }
+            RevFeature feature = command(RevObjectParse.class)
+                    .setObjectId(way.get().objectId()).call(RevFeature.class).get();
+            SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(wayType);
+            ImmutableList<Optional<Object>> values = feature.getValues();
+            for (int i = 0; i < descriptors.size(); i++) {
+                featureBuilder.set(descriptors.get(i).getName(), values.get(i).orNull());
+            }
+            Object nodeIds = values.get(WAY_NODES_FIELD_INDEX).orNull();
+            Geometry geom = nodeIds == null ? null : wayGeometry(getCommandLocator(), nodes,
+                    nodeIds.toString());
+            if (geom != null) {
+                featureBuilder.set("way", geom);
+                flusher.put(OSMUtils.WAY_TYPE_NAME, featureBuilder.buildFeature(fid));
+                count++;
+            }
+        }
+        flusher.flushAll();
+        return Long.valueOf(count);
+    }
+
+    /**
+     * Builds the geometry of a way out of the current location of its nodes, leaving out the nodes
+     * that don't exist.
+     *
+     * @param commandLocator the command locator to look the nodes up with
+     * @param nodes the node tree
+     * @param nodeIds the ids of the nodes of the way, separated by semicolons
+     * @return the line string, or {@code null} if less than two of the nodes exist
+     */
+    @Nullable
+    static Geometry wayGeometry(CommandLocator commandLocator, RevTree nodes, String nodeIds) {
+        List<Coordinate> coords = Lists.newArrayList();
+        for (String nodeId : Splitter.on(';').omitEmptyStrings().split(nodeIds)) {
+            Optional<NodeRef> ref = commandLocator.command(FindTreeChild.class).setIndex(true)
+                    .setParent(nodes).setChildPath(nodeId).call();
+            if (ref.isPresent()) {
+                RevFeature node = commandLocator.command(RevObjectParse.class)
+                        .setObjectId(ref.get().objectId()).call(RevFeature.class).get();
+                Optional<Object> location = node.getValues().get(NODE_LOCATION_FIELD_INDEX);
+                if (location.isPresent()) {
+                    coords.add(((Geometry) location.get()).getCoordinate());
+                }
+            }
+        }
+        if (coords.size() < 2) {
+            return null;
+        }
+        return GEOMETRY_FACTORY.createLineString(coords.toArray(new Coordinate[coords.size()]));
+    }
+
+    private Optional<Object> location(NodeRef node) {
+        RevFeature feature = command(RevObjectParse.class).setObjectId(node.objectId())
+                .call(RevFeature.class).get();
+        return feature.getValues().get(NODE_LOCATION_FIELD_INDEX);
+    }
+
+    private ObjectId workingTreeChild(String path) {
+        Optional<NodeRef> ref = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(path).call();
+        return ref.isPresent() ? ref.get().objectId() : ObjectId.NULL;
+    }
+
+    private RevTree tree(ObjectId treeId) {
+        if (treeId.isNull()) {
+            return RevTree.EMPTY;
+        }
+        return command(RevObjectParse.class).setObjectId(treeId).call(RevTree.class).get();
+    }
+
+    /**
+     * @return the index of the attribute with the given name in the sorted descriptors of the type
+     */
+    static int fieldIndex(RevFeatureType type, String name) {
+        List<PropertyDescriptor> descriptors = type.sortedDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            if (descriptors.get(i).getName().getLocalPart().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No " + name + " attribute in " + type);
+    }
+}
@@ -5,19 +5,15 @@
 
 package org.geogit.osm.internal.history;
 
-import static com.google.common.base.Optional.fromNullable;
 import static com.google.common.base.Preconditions.checkArgument;
-import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
-import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
-import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
-import static org.geogit.osm.internal.history.ParsingUtils.parseDateTime;
+import static org.geogit.osm.internal.history.OSMXmlReader.END_DOCUMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.END_ELEMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.START_ELEMENT;
 
 import java.io.InputStream;
 import java.util.Iterator;
 
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
@@ -58,6 +54,9 @@ import com.vividsolutions.jts.geom.Point;
  * </osmChange>
  * </code>
  * </pre>
+ * 
+ * The download is read with an {@link OSMXmlReader}, so the numeric attributes and timestamps of
+ * the primitives are parsed straight out of its buffer.
  */
 class ChangesetContentsScanner {
 
@@ -71,15 +70,12 @@ class ChangesetContentsScanner {
 
     public Iterator<Change> parse(InputStream changesetDownloadStream) throws XMLStreamException {
 
-        final XMLStreamReader reader;
-
-        reader = XMLInputFactory.newFactory().createXMLStreamReader(changesetDownloadStream,
-                "UTF-8");
+        final OSMXmlReader reader = new OSMXmlReader(changesetDownloadStream);
 
         // position reader at first change, if any
 
-        reader.nextTag();
-        reader.require(START_ELEMENT, null, "osmChange");
+        reader.next();
+        reader.require(START_ELEMENT, "osmChange");
 
         Iterator<Change> iterator = new AbstractIterator<Change>() {
 
@@ -104,7 +100,7 @@ class ChangesetContentsScanner {
         return iterator;
     }
 
-    private boolean findNextChange(XMLStreamReader reader) throws XMLStreamException {
+    private boolean findNextChange(OSMXmlReader reader) throws XMLStreamException {
         int eventType = reader.getEventType();
         do {
             if (eventType == START_ELEMENT) {
@@ -191,15 +187,15 @@ class ChangesetContentsScanner {
      * </code>
      * </pre>
      */
-    private Change parseChange(XMLStreamReader reader) throws XMLStreamException {
-        reader.require(START_ELEMENT, null, null);
+    private Change parseChange(OSMXmlReader reader) throws XMLStreamException {
+        reader.require(START_ELEMENT, null);
 
         final String changeName = reader.getLocalName();
         checkArgument(CHANGE_TAGS.contains(changeName));
 
         final Change.Type type = Change.Type.valueOf(reader.getLocalName());
-        reader.nextTag();
-        reader.require(START_ELEMENT, null, null);
+        reader.next();
+        reader.require(START_ELEMENT, null);
 
         final String primitiveName = reader.getLocalName();
 
@@ -207,44 +203,36 @@ class ChangesetContentsScanner {
 
         Primitive primitive = parsePrimitive(reader);
 
-        reader.require(END_ELEMENT, null, primitiveName);
-        reader.nextTag();
-        reader.require(END_ELEMENT, null, changeName);
+        reader.require(END_ELEMENT, primitiveName);
+        reader.next();
+        reader.require(END_ELEMENT, changeName);
 
         Change change = new Change(type, primitive);
         return change;
     }
 
-    Primitive parsePrimitive(XMLStreamReader reader) throws XMLStreamException {
+    Primitive parsePrimitive(OSMXmlReader reader) throws XMLStreamException {
 
-        reader.require(START_ELEMENT, null, null);
+        reader.require(START_ELEMENT, null);
         final String primitiveName = reader.getLocalName();
         checkArgument(PRIMITIVE_TAGS.contains(primitiveName));
 
         Primitive primitive = inferrPrimitive(reader);
 
-        primitive.setId(Long.valueOf(reader.getAttributeValue(null, "id")));
-        primitive.setVisible(Boolean.valueOf(reader.getAttributeValue(null, "visible")));
-        primitive.setTimestamp(parseDateTime(reader.getAttributeValue(null, "timestamp")));
-        primitive.setUserName(reader.getAttributeValue(null, "user"));
-
-        Long uid = Long.valueOf(fromNullable(reader.getAttributeValue(null, "uid")).or("-1"));
-        primitive.setUserId(uid);
-
-        Integer version = Integer.valueOf(fromNullable(reader.getAttributeValue(null, "version"))
-                .or("1"));
-        primitive.setVersion(version);
-
-        primitive.setChangesetId(Long.valueOf(reader.getAttributeValue(null, "changeset")));
+        primitive.setId(reader.getLongAttribute("id", -1));
+        primitive.setVisible(reader.getBooleanAttribute("visible", false));
+        primitive.setTimestamp(reader.getTimestampAttribute("timestamp"));
+        primitive.setUserName(reader.getAttribute("user"));
+        primitive.setUserId(reader.getLongAttribute("uid", -1));
+        primitive.setVersion(reader.getIntAttribute("version", 1));
+        primitive.setChangesetId(reader.getLongAttribute("changeset", -1));
 
         if (primitive instanceof Node) {
             Node node = (Node) primitive;
-            String lat = reader.getAttributeValue(null, "lat");
-            String lon = reader.getAttributeValue(null, "lon");
-            // may be null in case of a delete change
-            if (lat != null && lon != null) {
-                double x = Double.valueOf(lon);
-                double y = Double.valueOf(lat);
+            // may be missing in case of a delete change
+            if (reader.hasAttribute("lat") && reader.hasAttribute("lon")) {
+                double x = reader.getDoubleAttribute("lon", 0);
+                double y = reader.getDoubleAttribute("lat", 0);
                 Point location = GEOMFACT.createPoint(new Coordinate(x, y));
                 node.setLocation(location);
             }
@@ -257,7 +245,7 @@ class ChangesetContentsScanner {
             parseRelationContents(relation, reader);
         }
 
-        reader.require(END_ELEMENT, null, primitiveName);
+        reader.require(END_ELEMENT, primitiveName);
         return primitive;
     }
 
@@ -266,7 +254,7 @@ class ChangesetContentsScanner {
      * @param reader
      * @throws XMLStreamException
      */
-    private void parseNodeContents(Node node, XMLStreamReader reader) throws XMLStreamException {
+    private void parseNodeContents(Node node, OSMXmlReader reader) throws XMLStreamException {
         while (true) {
             int tag = reader.next();
 
@@ -279,14 +267,14 @@ class ChangesetContentsScanner {
                 String tagName = reader.getLocalName();
                 if ("tag".equals(tagName)) {
                     parseTag(node, reader);
-                    reader.require(END_ELEMENT, null, "tag");
+                    reader.require(END_ELEMENT, "tag");
                 }
             } else if (tag == END_DOCUMENT) {
                 throw new IllegalStateException("premature end of document");
             }
         }
 
-        reader.require(END_ELEMENT, null, "node");
+        reader.require(END_ELEMENT, "node");
     }
 
     /**
@@ -294,8 +282,8 @@ class ChangesetContentsScanner {
      * @param reader
      * @throws XMLStreamException
      */
-    private void parseWayContents(Way way, XMLStreamReader reader) throws XMLStreamException {
-        reader.require(START_ELEMENT, null, "way");
+    private void parseWayContents(Way way, OSMXmlReader reader) throws XMLStreamException {
+        reader.require(START_ELEMENT, "way");
         while (true) {
             int tag = reader.next();
 
@@ -308,11 +296,11 @@ class ChangesetContentsScanner {
                 String tagName = reader.getLocalName();
                 if ("tag".equals(tagName)) {
                     parseTag(way, reader);
-                    reader.require(END_ELEMENT, null, "tag");
+                    reader.require(END_ELEMENT, "tag");
                 } else if ("nd".equals(tagName)) {
-                    long nodeRef = Long.valueOf(reader.getAttributeValue(null, "ref"));
-                    reader.nextTag();
-                    reader.require(END_ELEMENT, null, "nd");
+                    long nodeRef = reader.getLongAttribute("ref", -1);
+                    reader.next();
+                    reader.require(END_ELEMENT, "nd");
                     way.addNode(nodeRef);
                 }
             } else if (tag == END_DOCUMENT) {
@@ -320,7 +308,7 @@ class ChangesetContentsScanner {
             }
         }
 
-        reader.require(END_ELEMENT, null, "way");
+        reader.require(END_ELEMENT, "way");
     }
 
     /**
@@ -328,9 +316,9 @@ class ChangesetContentsScanner {
      * @param reader
      * @throws XMLStreamException
      */
-    private void parseRelationContents(Relation relation, XMLStreamReader reader)
+    private void parseRelationContents(Relation relation, OSMXmlReader reader)
             throws XMLStreamException {
-        reader.require(START_ELEMENT, null, "relation");
+        reader.require(START_ELEMENT, "relation");
         while (true) {
             int tag = reader.next();
 
@@ -343,16 +331,16 @@ class ChangesetContentsScanner {
                 String tagName = reader.getLocalName();
                 if ("tag".equals(tagName)) {
                     parseTag(relation, reader);
-                    reader.require(END_ELEMENT, null, "tag");
+                    reader.require(END_ELEMENT, "tag");
                 } else if ("member".equals(tagName)) {
-                    String type = reader.getAttributeValue(null, "type");
-                    long ref = Long.valueOf(reader.getAttributeValue(null, "ref"));
-                    String role = reader.getAttributeValue(null, "role");
+                    String type = reader.getAttribute("type");
+                    long ref = reader.getLongAttribute("ref", -1);
+                    String role = reader.getAttribute("role");
                     if ("".equals(role)) {
                         role = null;
                     }
-                    reader.nextTag();
-                    reader.require(END_ELEMENT, null, "member");
+                    reader.next();
+                    reader.require(END_ELEMENT, "member");
 
                     Relation.Member member = new Relation.Member(type, ref, role);
                     relation.addMember(member);
@@ -362,23 +350,23 @@ class ChangesetContentsScanner {
             }
         }
 
-        reader.require(END_ELEMENT, null, "relation");
+        reader.require(END_ELEMENT, "relation");
     }
 
-    private void parseTag(Primitive primitive, XMLStreamReader reader) throws XMLStreamException {
-        reader.require(START_ELEMENT, null, "tag");
-        String key = reader.getAttributeValue(null, "k");
-        String value = reader.getAttributeValue(null, "v");
+    private void parseTag(Primitive primitive, OSMXmlReader reader) throws XMLStreamException {
+        reader.require(START_ELEMENT, "tag");
+        String key = reader.getAttribute("k");
+        String value = reader.getAttribute("v");
         primitive.getTags().put(key, value);
-        reader.nextTag();
-        reader.require(END_ELEMENT, null, "tag");
+        reader.next();
+        reader.require(END_ELEMENT, "tag");
     }
 
     /**
      * @param reader
      * @return
      */
-    private Primitive inferrPrimitive(XMLStreamReader reader) {
+    private Primitive inferrPrimitive(OSMXmlReader reader) {
         final String primitiveName = reader.getLocalName();
         if ("node".equals(primitiveName)) {
             return new Node();
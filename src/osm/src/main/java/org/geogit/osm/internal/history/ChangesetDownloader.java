@@ -18,13 +18,8 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.InflaterInputStream;
 
 import javax.annotation.Nullable;
@@ -32,177 +27,121 @@ import javax.annotation.Nullable;
 import org.opengis.util.ProgressListener;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
 /**
+ * Downloads changesets and their contents from the OSM API, or anything laid out the same way
+ * (e.g. a {@code file:} URL), to a local cache.
+ * <p>
+ * The cache keeps each downloaded document gzip compressed, under a directory per thousand
+ * changesets, named after the changeset id, so it can be found without listing the cache. The
+ * changesets the API has no document for are recorded as well, so once a changeset is in the
+ * cache, whether it exists or not, it's never requested again: re-runs and resumed imports read
+ * it from disk. Writes go through a temporary file, so an interrupted download doesn't leave a
+ * truncated document behind.
+ * <p>
+ * Downloads happen in the calling thread, concurrency is up to the caller.
  * 
  * @see ChangesetScanner
  * @see ChangesetContentsScanner
  */
 class ChangesetDownloader {
 
-    private final String osmAPIUrl;
+    private static final String MISSING_SUFFIX = ".missing";
 
-    private final ExecutorService executor;
+    private final String osmAPIUrl;
 
     private final File downloadFolder;
 
     /**
      * @param osmAPIUrl api url, e.g. {@code http://api.openstreetmap.org/api/0.6},
      *        {@code file:/path/to/downloaded/changesets}
-     * @param downloadFolder where to download the changeset xml contents to
+     * @param downloadFolder where to cache the changeset xml contents
      */
-    public ChangesetDownloader(String osmAPIUrl, File downloadFolder, ExecutorService executor) {
+    public ChangesetDownloader(String osmAPIUrl, File downloadFolder) {
 
         checkNotNull(osmAPIUrl);
         checkNotNull(downloadFolder);
-        checkNotNull(executor);
         checkArgument(downloadFolder.exists() && downloadFolder.isDirectory()
                 && downloadFolder.canWrite());
 
         this.downloadFolder = downloadFolder;
 
         this.osmAPIUrl = osmAPIUrl;
-        this.executor = executor;
     }
 
-    private class FetchChangeset implements Callable<Optional<File>> {
-        private long changeSetId;
-
-        /**
-         * @param changeSetId
-         */
-        public FetchChangeset(long changeSetId) {
-            this.changeSetId = changeSetId;
-        }
-
-        @Override
-        public Optional<File> call() throws Exception {
-            File changesetFile = changesetFile(changeSetId);
-            synchronized (changesetFile.getAbsolutePath().intern()) {
-                if (!changesetFile.exists()) {
-                    final String changesetUrl = changesetUrl(changeSetId);
-                    InputStream urlStream = null;
-                    try {
-                        urlStream = openStream(changesetUrl, null);
-                        copy(urlStream, changesetFile);
-                    } catch (FileNotFoundException e) {
-                        return Optional.absent();
-                    } finally {
-                        Closeables.closeQuietly(urlStream);
-                    }
-                }
-            }
-            return Optional.of(changesetFile);
-        }
-
+    /**
+     * @return the gzip compressed changeset document, downloading it if it's not in the cache
+     *         yet, or absent if the changeset doesn't exist
+     */
+    public Optional<File> fetchChangeset(long changesetId) throws IOException {
+        return fetch(changesetUrl(changesetId), changesetFile(changesetId));
     }
 
-    private static class FutureSupplier<T> implements Supplier<T> {
-
-        private Future<T> future;
-
-        /**
-         * @param future
-         */
-        public FutureSupplier(Future<T> future) {
-            this.future = future;
-        }
-
-        @Override
-        public T get() {
-            try {
-                return future.get(3, TimeUnit.MINUTES);
-            } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
-            } catch (ExecutionException e) {
-                throw Throwables.propagate(e.getCause());
-            } catch (TimeoutException e) {
-                System.err.println("****\n**** Timeout waiting for changeset");
-                throw Throwables.propagate(e);
-            }
-        }
-
+    /**
+     * @return the gzip compressed changeset contents document, downloading it if it's not in the
+     *         cache yet, or absent if the server has no contents for the changeset
+     */
+    public Optional<File> fetchChanges(long changesetId) throws IOException {
+        return fetch(changeUrl(changesetId), changesFile(changesetId));
     }
 
     /**
-     * @param changeSetId
-     * @return
-     * @throws IOException
+     * Removes the changeset and its contents from the cache
      */
-    public Supplier<Optional<File>> fetchChangeset(long changeSetId) {
-        File changesetFile = changesetFile(changeSetId);
-        synchronized (changesetFile.getAbsolutePath().intern()) {
-            if (changesetFile.exists()) {
-                return Suppliers.ofInstance(Optional.of(changesetFile));
-            }
+    public void clear(long changesetId) {
+        for (File file : new File[] { changesetFile(changesetId), changesFile(changesetId) }) {
+            file.delete();
+            missingMarker(file).delete();
+        }
+        File folder = changesetFile(changesetId).getParentFile();
+        String[] remaining = folder.list();
+        if (remaining != null && remaining.length == 0) {
+            folder.delete();
         }
-        final Future<Optional<File>> future = executor.submit(new FetchChangeset(changeSetId));
-        Supplier<Optional<File>> supplier = new FutureSupplier<Optional<File>>(future);
-        return supplier;
-    }
-
-    private File changesetFile(long changeSetId) {
-        return new File(downloadFolder, changeSetId + ".xml");
     }
 
-    private class FetchChanges implements Callable<Optional<File>> {
-
-        private long changesetId;
-
-        /**
-         * @param changesetId
-         */
-        public FetchChanges(long changesetId) {
-            this.changesetId = changesetId;
+    private Optional<File> fetch(String url, File file) throws IOException {
+        if (file.exists()) {
+            return Optional.of(file);
         }
-
-        @Override
-        public Optional<File> call() throws Exception {
-
-            File changesFile = changesFile(changesetId);
-            synchronized (changesFile.getAbsolutePath().intern()) {
-                if (!changesFile.exists()) {
-                    Files.createParentDirs(changesFile);
-                    String changeUrl = changeUrl(changesetId);
-                    InputStream stream = null;
-                    try {
-                        stream = openStream(changeUrl, null);
-                        copy(stream, changesFile);
-                    } catch (FileNotFoundException e) {
-                        return Optional.absent();
-                    } finally {
-                        Closeables.closeQuietly(stream);
-                    }
-                }
-            }
-            return Optional.of(changesFile);
+        File missing = missingMarker(file);
+        if (missing.exists()) {
+            return Optional.absent();
         }
+        Files.createParentDirs(file);
+        InputStream stream;
+        try {
+            stream = openStream(url, null);
+        } catch (FileNotFoundException e) {
+            Files.touch(missing);
+            return Optional.absent();
+        }
+        try {
+            copy(stream, file);
+        } finally {
+            Closeables.closeQuietly(stream);
+        }
+        return Optional.of(file);
     }
 
-    /**
-     * @param changesetId
-     * @return
-     */
-    public Supplier<Optional<File>> fetchChanges(long changesetId) {
-        File changesFile = changesFile(changesetId);
-        synchronized (changesFile.getAbsolutePath().intern()) {
-            if (changesFile.exists()) {
-                return Suppliers.ofInstance(Optional.of(changesFile));
-            }
-        }
-        final Future<Optional<File>> future = executor.submit(new FetchChanges(changesetId));
-        return new FutureSupplier<Optional<File>>(future);
+    private File changesetFile(long changesetId) {
+        return new File(cacheFolder(changesetId), changesetId + ".xml.gz");
     }
 
     private File changesFile(long changesetId) {
-        File parent = new File(downloadFolder, String.valueOf(changesetId));
-        return new File(parent, "download.xml");
+        return new File(cacheFolder(changesetId), changesetId + "-download.xml.gz");
+    }
+
+    private File cacheFolder(long changesetId) {
+        return new File(downloadFolder, String.valueOf(changesetId / 1000));
+    }
+
+    private static File missingMarker(File file) {
+        return new File(file.getParentFile(), file.getName() + MISSING_SUFFIX);
     }
 
     /**
@@ -333,19 +272,23 @@ class ChangesetDownloader {
         }
     }
 
-    private static void copy(final InputStream from, final File to) {
-        File tmp = new File(to.getAbsolutePath() + ".tmp");
+    /**
+     * Compresses the stream to a temporary file next to the target one, and renames it once
+     * complete
+     */
+    private static void copy(final InputStream from, final File to) throws IOException {
+        File tmp = File.createTempFile(to.getName(), ".tmp", to.getParentFile());
         try {
-            tmp.createNewFile();
-            OutputStream output = new FileOutputStream(tmp);
+            OutputStream output = new GZIPOutputStream(new FileOutputStream(tmp));
             try {
                 ByteStreams.copy(from, output);
-                output.flush();
             } finally {
                 output.close();
             }
-            tmp.renameTo(to);
-        } catch (Exception e) {
+            if (!tmp.renameTo(to) && !to.exists()) {
+                throw new IOException("Unable to rename " + tmp + " to " + to);
+            }
+        } finally {
             tmp.delete();
         }
     }
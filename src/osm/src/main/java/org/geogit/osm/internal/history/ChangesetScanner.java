@@ -5,16 +5,14 @@
 
 package org.geogit.osm.internal.history;
 
-import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
-import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
-import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.END_DOCUMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.END_ELEMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.START_ELEMENT;
 
 import java.io.InputStream;
 
 import javax.annotation.Nullable;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import com.google.common.base.Optional;
 import com.vividsolutions.jts.geom.Envelope;
@@ -38,9 +36,7 @@ class ChangesetScanner {
 
     public Optional<Changeset> parse(InputStream changesetStream) throws XMLStreamException {
 
-        XMLStreamReader reader;
-
-        reader = XMLInputFactory.newFactory().createXMLStreamReader(changesetStream, "UTF-8");
+        OSMXmlReader reader = new OSMXmlReader(changesetStream);
 
         Changeset changeset = parse(reader);
 
@@ -62,26 +58,21 @@ class ChangesetScanner {
      * </code>
      * </pre>
      */
-    private Changeset parse(XMLStreamReader reader) throws XMLStreamException {
-        reader.nextTag();
-        reader.require(START_ELEMENT, null, "osm");
-        reader.nextTag();
-        reader.require(START_ELEMENT, null, "changeset");
+    private Changeset parse(OSMXmlReader reader) throws XMLStreamException {
+        reader.next();
+        reader.require(START_ELEMENT, "osm");
+        reader.next();
+        reader.require(START_ELEMENT, "changeset");
 
         Changeset changeset = new Changeset();
-        changeset.setId(Long.valueOf(reader.getAttributeValue(null, "id")));
-        changeset.setUserName(reader.getAttributeValue(null, "user"));
-
-        String uid = reader.getAttributeValue(null, "uid");
-        if (uid != null) {
-            changeset.setUserId(Long.valueOf(uid));
+        changeset.setId(reader.getLongAttribute("id", -1));
+        changeset.setUserName(reader.getAttribute("user"));
+        if (reader.hasAttribute("uid")) {
+            changeset.setUserId(reader.getLongAttribute("uid", -1));
         }
-
-        changeset.setCreated(ParsingUtils.parseDateTime(reader
-                .getAttributeValue(null, "created_at")));
-        changeset
-                .setClosed(ParsingUtils.parseDateTime(reader.getAttributeValue(null, "closed_at")));
-        changeset.setOpen(Boolean.valueOf(reader.getAttributeValue(null, "open")));
+        changeset.setCreated(reader.getTimestampAttribute("created_at"));
+        changeset.setClosed(reader.getTimestampAttribute("closed_at"));
+        changeset.setOpen(reader.getBooleanAttribute("open", false));
         changeset.setWgs84Bounds(parseWGS84Bounds(reader));
 
         while (true) {
@@ -95,8 +86,8 @@ class ChangesetScanner {
             } else if (tag == START_ELEMENT) {
                 String tagName = reader.getLocalName();
                 if ("tag".equals(tagName)) {
-                    String key = reader.getAttributeValue(null, "k");
-                    String value = reader.getAttributeValue(null, "v");
+                    String key = reader.getAttribute("k");
+                    String value = reader.getAttribute("v");
                     if ("comment".equals(key)) {
                         changeset.setComment(value);
                     } else if (key != null && value != null) {
@@ -108,9 +99,9 @@ class ChangesetScanner {
             }
         }
 
-        reader.require(END_ELEMENT, null, "changeset");
-        reader.nextTag();
-        reader.require(END_ELEMENT, null, "osm");
+        reader.require(END_ELEMENT, "changeset");
+        reader.next();
+        reader.require(END_ELEMENT, "osm");
 
         return changeset;
     }
@@ -125,16 +116,16 @@ class ChangesetScanner {
      * </pre>
      */
     private static @Nullable
-    Envelope parseWGS84Bounds(XMLStreamReader reader) {
+    Envelope parseWGS84Bounds(OSMXmlReader reader) throws XMLStreamException {
 
-        String minLat = reader.getAttributeValue(null, "min_lat");
-        String minLon = reader.getAttributeValue(null, "min_lon");
-        String maxLat = reader.getAttributeValue(null, "max_lat");
-        String maxLon = reader.getAttributeValue(null, "max_lon");
-        if (minLat == null || minLon == null || maxLat == null || maxLon == null) {
+        if (!reader.hasAttribute("min_lat") || !reader.hasAttribute("min_lon")
+                || !reader.hasAttribute("max_lat") || !reader.hasAttribute("max_lon")) {
             return null;
         }
-
-        return ParsingUtils.parseWGS84Bounds(minLat, minLon, maxLat, maxLon);
+        double minx = reader.getDoubleAttribute("min_lon", 0);
+        double miny = reader.getDoubleAttribute("min_lat", 0);
+        double maxx = reader.getDoubleAttribute("max_lon", 0);
+        double maxy = reader.getDoubleAttribute("max_lat", 0);
+        return new Envelope(minx, maxx, miny, maxy);
     }
 }
@@ -10,272 +10,177 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.stream.XMLStreamException;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
-import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.Iterators;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closeables;
 
 /**
- *
+ * Fetches a range of changesets, in order, along with their contents.
+ * <p>
+ * Up to a window of changesets ahead of the last one returned are downloaded and parsed, contents
+ * included, by the tasks submitted to the executor, so by the time a changeset is asked for it's
+ * usually ready. Downloads go through the {@link ChangesetDownloader} cache, which is kept until
+ * {@link #clearCache()} is called, so fetching the same changesets again, e.g. when resuming an
+ * import, doesn't download them again.
  */
 public class HistoryDownloader {
 
-    private final long initialChangeset;
-
     private final long finalChangeset;
 
-    private long currChangeset;
+    private long nextChangeset;
+
+    private final int prefetchWindow;
 
     private final ChangesetDownloader downloader;
 
-    private boolean started;
+    private final ExecutorService executor;
+
+    private final long initialChangeset;
 
-    private final boolean preserveFiles;
+    /**
+     * The changesets being fetched, in changeset id order
+     */
+    private final LinkedList<Future<Optional<Changeset>>> pending = new LinkedList<Future<Optional<Changeset>>>();
 
     /**
      * @param osmAPIUrl api url, e.g. {@code http://api.openstreetmap.org/api/0.6},
      *        {@code file:/path/to/downloaded/changesets}
+     * @param downloadFolder where to cache the downloaded changesets
      * @param initialChangeset initial changeset id
      * @param finalChangeset final changeset id
-     * @param preserveFiles
+     * @param executor the executor to download and parse the changesets with
+     * @param prefetchWindow how many changesets to fetch ahead of the last one returned
      */
     public HistoryDownloader(final String osmAPIUrl, final File downloadFolder,
             long initialChangeset, long finalChangeset, ExecutorService executor,
-            boolean preserveFiles) {
+            int prefetchWindow) {
 
         checkArgument(initialChangeset > 0 && initialChangeset <= finalChangeset);
+        checkArgument(prefetchWindow > 0, "prefetch window must be positive");
 
         this.initialChangeset = initialChangeset;
         this.finalChangeset = finalChangeset;
-        this.preserveFiles = preserveFiles;
-        this.downloader = new ChangesetDownloader(osmAPIUrl, downloadFolder, executor);
-        currChangeset = this.initialChangeset;
+        this.executor = executor;
+        this.prefetchWindow = prefetchWindow;
+        this.downloader = new ChangesetDownloader(osmAPIUrl, downloadFolder);
+        nextChangeset = initialChangeset;
     }
 
-    private BlockingQueue<Supplier<Optional<Changeset>>> changesetsQueue = new ArrayBlockingQueue<Supplier<Optional<Changeset>>>(
-            100);
-
     /**
-    *
-    */
-    private class ChangeSetSupplier implements Supplier<Optional<Changeset>> {
-
-        private Supplier<Optional<File>> changesetFile;
+     * Downloads and parses a changeset and its contents
+     */
+    private class FetchChangeset implements Callable<Optional<Changeset>> {
 
-        private Supplier<Optional<File>> changesFile;
+        private final long changesetId;
 
-        /**
-         * @param changesetFile
-         * @param changesFile
-         */
-        public ChangeSetSupplier(Supplier<Optional<File>> changesetFile,
-                Supplier<Optional<File>> changesFile) {
-            this.changesetFile = changesetFile;
-            this.changesFile = changesFile;
+        FetchChangeset(long changesetId) {
+            this.changesetId = changesetId;
         }
 
         @Override
-        public Optional<Changeset> get() {
-            Optional<Changeset> changeset = parseChangeset(changesetFile);
-
+        public Optional<Changeset> call() throws Exception {
+            Optional<File> changesetFile = downloader.fetchChangeset(changesetId);
+            if (!changesetFile.isPresent()) {
+                return Optional.absent();
+            }
+            Optional<Changeset> changeset = parseChangeset(changesetFile.get());
             if (changeset.isPresent()) {
-                Changeset actual = changeset.get();
-                Supplier<Iterator<Change>> changes = new ChangesSupplier(changesFile);
-                actual.setChanges(changes);
+                final List<Change> changes = parseChanges(downloader.fetchChanges(changesetId));
+                changeset.get().setChanges(new Supplier<Iterator<Change>>() {
+                    @Override
+                    public Iterator<Change> get() {
+                        return changes.iterator();
+                    }
+                });
             }
             return changeset;
         }
     }
 
-    /**
-    *
-    */
-    private class ChangesSupplier implements Supplier<Iterator<Change>> {
-
-        private Supplier<Optional<File>> changesFile;
-
-        /**
-         * @param changesFile2
-         */
-        public ChangesSupplier(Supplier<Optional<File>> changesFile) {
-            this.changesFile = changesFile;
-        }
-
-        @Override
-        public Iterator<Change> get() {
-            return parseChanges(changesFile);
-        }
-
-    }
-
     /**
      * @return the next available changeset, or absent if reached the last one
-     * @throws IOException
-     * @throws InterruptedException
      */
     public Optional<Changeset> fetchNextChangeset() {
-        if (!started) {
-            started = true;
-            Thread runner = new Thread() {
-                @Override
-                public void run() {
-                    for (long changeset = initialChangeset; changeset <= finalChangeset; changeset++) {
-                        Supplier<Optional<File>> changesetFile = downloader
-                                .fetchChangeset(changeset);
-                        Supplier<Optional<File>> changesFile = downloader.fetchChanges(changeset);
-
-                        Supplier<Optional<Changeset>> supplier;
-                        supplier = new ChangeSetSupplier(changesetFile, changesFile);
-                        try {
-                            // put the element on the queue, blocking until space is available if
-                            // necessary
-                            changesetsQueue.put(supplier);
-                        } catch (InterruptedException e) {
-                            System.out.println(Thread.currentThread().getName()
-                                    + " interrupted. Exiting gracefully. "
-                                    + "No more changes will be queued.");
-                        }
-                    }
-                }
-            };
-            runner.setName("OSM History download consumer");
-            runner.setDaemon(true);
-            runner.start();
-        }
-
         Optional<Changeset> next = Optional.absent();
-
-        while (currChangeset <= finalChangeset && !next.isPresent()) {
-            Supplier<Optional<Changeset>> cs;
+        while (!next.isPresent()) {
+            prefetch();
+            if (pending.isEmpty()) {
+                break;
+            }
+            Future<Optional<Changeset>> future = pending.removeFirst();
+            prefetch();
             try {
-                cs = changesetsQueue.poll(30, TimeUnit.SECONDS);
-                if (cs == null) {
-                    String msg = "Waited for next changeset for 30 seconds, aborting";
-                    System.err.println(msg);
-                    throw new RuntimeException(msg);
-                }
+                next = future.get();
             } catch (InterruptedException e) {
                 throw Throwables.propagate(e);
-            }
-            currChangeset++;
-            try {
-                next = cs.get();
-            } catch (RuntimeException e) {
-                if (e.getCause() instanceof FileNotFoundException) {
-                    continue;
-                }
+            } catch (ExecutionException e) {
                 throw Throwables.propagate(e.getCause());
             }
         }
-
         return next;
     }
 
-    private Optional<Changeset> parseChangeset(Supplier<Optional<File>> file) {
-
-        Optional<File> changesetFile;
-        try {
-            changesetFile = file.get();
-        } catch (RuntimeException e) {
-            if (e.getCause() instanceof FileNotFoundException) {
-                Optional.absent();
-            }
-            throw Throwables.propagate(e.getCause());
+    /**
+     * Removes the changesets of the range this downloader fetches from the cache
+     */
+    public void clearCache() {
+        for (long changeset = initialChangeset; changeset <= finalChangeset; changeset++) {
+            downloader.clear(changeset);
         }
+    }
 
-        if (!changesetFile.isPresent()) {
-            Optional.absent();
+    /**
+     * Fills up the prefetch window
+     */
+    private void prefetch() {
+        while (pending.size() < prefetchWindow && nextChangeset <= finalChangeset) {
+            pending.add(executor.submit(new FetchChangeset(nextChangeset)));
+            nextChangeset++;
         }
-        Changeset changeset = null;
+    }
 
-        InputStream stream = null;
+    private Optional<Changeset> parseChangeset(File changesetFile) throws IOException {
+        InputStream stream = openStream(changesetFile);
         try {
-            final File actualFile = changesetFile.get();
-            stream = new BufferedInputStream(new FileInputStream(actualFile), 4096);
-            Optional<Changeset> cs;
-            try {
-                cs = new ChangesetScanner().parse(stream);
-            } catch (XMLStreamException e) {
-                throw Throwables.propagate(e);
-            }
-            if (cs.isPresent()) {
-                changeset = cs.get();
-                if (!preserveFiles) {
-                    actualFile.delete();
-                }
-            }
-        } catch (FileNotFoundException e) {
+            return new ChangesetScanner().parse(stream);
+        } catch (XMLStreamException e) {
             throw Throwables.propagate(e);
         } finally {
             Closeables.closeQuietly(stream);
         }
-
-        return Optional.fromNullable(changeset);
     }
 
-    private Iterator<Change> parseChanges(Supplier<Optional<File>> file) {
-
-        ChangesetContentsScanner scanner = new ChangesetContentsScanner();
-
-        final Optional<File> changesFile;
-        try {
-            changesFile = file.get();
-        } catch (RuntimeException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof FileNotFoundException) {
-                return Iterators.emptyIterator();
-            }
-            throw Throwables.propagate(e);
-        }
+    private List<Change> parseChanges(Optional<File> changesFile) throws IOException {
         if (!changesFile.isPresent()) {
-            return Iterators.emptyIterator();
+            return ImmutableList.of();
         }
-        final File actualFile = changesFile.get();
-        final InputStream stream = openStream(actualFile);
-        final Iterator<Change> changes;
+        InputStream stream = openStream(changesFile.get());
         try {
-            changes = scanner.parse(stream);
+            return ImmutableList.copyOf(new ChangesetContentsScanner().parse(stream));
         } catch (XMLStreamException e) {
             throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(stream);
         }
-
-        return new AbstractIterator<Change>() {
-            @Override
-            protected Change computeNext() {
-                if (!changes.hasNext()) {
-                    Closeables.closeQuietly(stream);
-                    if (!preserveFiles) {
-                        actualFile.delete();
-                        actualFile.getParentFile().delete();
-                    }
-                    return super.endOfData();
-                }
-                return changes.next();
-            }
-        };
     }
 
-    private InputStream openStream(File file) {
-        InputStream stream;
-        try {
-            stream = new BufferedInputStream(new FileInputStream(file), 4096);
-        } catch (FileNotFoundException e) {
-            throw Throwables.propagate(e);
-        }
-        return stream;
+    private InputStream openStream(File file) throws IOException {
+        return new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 4096), 4096);
     }
 
 }
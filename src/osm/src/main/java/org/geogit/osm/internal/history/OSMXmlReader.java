@@ -0,0 +1,683 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal.history;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A pull reader for the XML documents served by the OSM API, tailored to the changeset and
+ * changeset download documents.
+ * <p>
+ * Works straight on the UTF-8 bytes of the document, through a single buffer that's reused for
+ * the whole document. Only the element events are reported, text, comments, processing
+ * instructions and the document type declaration are skipped. Numeric, boolean and timestamp
+ * attributes are parsed out of the buffer without building intermediate Strings, element names
+ * known to the OSM schema are returned as constants, and short attribute values, like user names
+ * and tag keys, are taken from a cache of the last values read.
+ * <p>
+ * The attributes of the current element are only available until {@link #next()} is called
+ * again.
+ */
+class OSMXmlReader {
+
+    static final int START_ELEMENT = XMLStreamConstants.START_ELEMENT;
+
+    static final int END_ELEMENT = XMLStreamConstants.END_ELEMENT;
+
+    static final int END_DOCUMENT = XMLStreamConstants.END_DOCUMENT;
+
+    private static final String[] KNOWN_NAMES = { "osmChange", "create", "modify", "delete",
+            "node", "way", "relation", "nd", "tag", "member", "osm", "changeset" };
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final int MAX_CACHED_LENGTH = 32;
+
+    private static final int CACHE_SIZE = 512;
+
+    private final InputStream in;
+
+    private byte[] buffer;
+
+    private int pos;
+
+    private int limit;
+
+    private int eventType;
+
+    private String localName;
+
+    private boolean pendingEnd;
+
+    private int attributeCount;
+
+    private int[] attributeBounds = new int[4 * 16];
+
+    private final String[] stringCache = new String[CACHE_SIZE];
+
+    private final byte[] cachedDate = new byte[10];
+
+    private long cachedDateMillis = Long.MIN_VALUE;
+
+    OSMXmlReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    OSMXmlReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Advances to the next element event.
+     *
+     * @return {@link #START_ELEMENT}, {@link #END_ELEMENT} or {@link #END_DOCUMENT}
+     */
+    public int next() throws XMLStreamException {
+        if (pendingEnd) {
+            pendingEnd = false;
+            attributeCount = 0;
+            return eventType = END_ELEMENT;
+        }
+        attributeCount = 0;
+        while (true) {
+            if (!skipTo('<')) {
+                localName = null;
+                return eventType = END_DOCUMENT;
+            }
+            final int markup = byteAt(1);
+            if (markup == '?') {
+                skipPast("?>");
+            } else if (markup == '!') {
+                if (startsWith("<!--")) {
+                    skipPast("-->");
+                } else if (startsWith("<![CDATA[")) {
+                    skipPast("]]>");
+                } else {
+                    skipPast(">");
+                }
+            } else if (markup == '/') {
+                int end = endOfTag();
+                localName = name(pos + 2, nameEnd(pos + 2, end));
+                pos = end + 1;
+                return eventType = END_ELEMENT;
+            } else {
+                int end = endOfTag();
+                int attStart = nameEnd(pos + 1, end);
+                localName = name(pos + 1, attStart);
+                pendingEnd = buffer[end - 1] == '/';
+                parseAttributes(attStart, pendingEnd ? end - 1 : end);
+                pos = end + 1;
+                return eventType = START_ELEMENT;
+            }
+        }
+    }
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    /**
+     * @return the name of the current element, without namespace prefix
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @throws XMLStreamException if the current event is not of the given type, or is not for an
+     *         element named as given, when {@code localName} is not {@code null}
+     */
+    public void require(int type, @Nullable String localName) throws XMLStreamException {
+        if (eventType != type) {
+            throw new XMLStreamException("Expected event " + type + ", got " + eventType
+                    + (this.localName == null ? "" : " for " + this.localName));
+        }
+        if (localName != null && !localName.equals(this.localName)) {
+            throw new XMLStreamException("Expected element " + localName + ", got "
+                    + this.localName);
+        }
+    }
+
+    public boolean hasAttribute(String name) {
+        return attributeIndex(name) >= 0;
+    }
+
+    /**
+     * @return the value of the given attribute of the current element, or {@code null} if it has
+     *         no such attribute
+     */
+    @Nullable
+    public String getAttribute(String name) {
+        final int index = attributeIndex(name);
+        if (index < 0) {
+            return null;
+        }
+        return decode(attributeBounds[4 * index + 2], attributeBounds[4 * index + 3]);
+    }
+
+    public long getLongAttribute(String name, long defaultValue) throws XMLStreamException {
+        final int index = attributeIndex(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        final int start = attributeBounds[4 * index + 2];
+        final int end = attributeBounds[4 * index + 3];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            return parseLong(name, start, end);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return parseLong(name, start, end);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    public int getIntAttribute(String name, int defaultValue) throws XMLStreamException {
+        long value = getLongAttribute(name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new XMLStreamException("Invalid " + name + ": " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Decimal values with up to 15 significant digits and no exponent, as written for coordinates,
+     * are parsed without going through {@link Double#parseDouble(String)}, with the same result.
+     */
+    public double getDoubleAttribute(String name, double defaultValue) throws XMLStreamException {
+        final int index = attributeIndex(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        final int start = attributeBounds[4 * index + 2];
+        final int end = attributeBounds[4 * index + 3];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            final byte b = buffer[i];
+            if (b == '.' && scale < 0) {
+                scale = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || digits == 15) {
+                return parseDouble(name, start, end);
+            }
+            mantissa = mantissa * 10 + digit;
+            if (mantissa > 0) {
+                digits++;
+            }
+            if (scale >= 0) {
+                scale++;
+            }
+        }
+        if (i == start || (negative && i == start + 1) || scale == 0
+                || scale >= POWERS_OF_TEN.length) {
+            return parseDouble(name, start, end);
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return whether the given attribute is {@code true}, ignoring case, like
+     *         {@link Boolean#valueOf(String)}
+     */
+    public boolean getBooleanAttribute(String name, boolean defaultValue) {
+        final int index = attributeIndex(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        final int start = attributeBounds[4 * index + 2];
+        final int end = attributeBounds[4 * index + 3];
+        return end - start == 4 && (buffer[start] | 0x20) == 't'
+                && (buffer[start + 1] | 0x20) == 'r' && (buffer[start + 2] | 0x20) == 'u'
+                && (buffer[start + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * Parses a timestamp attribute to milliseconds since the epoch, like
+     * {@link ParsingUtils#parseDateTime(String)}.
+     * <p>
+     * Timestamps in the {@code yyyy-MM-ddTHH:mm:ssZ} form written by the OSM API are parsed
+     * straight from the buffer, and the start of the last day parsed is kept, since the elements
+     * of a changeset are usually all from the same day. Other forms are handed over to
+     * {@link ParsingUtils#parseDateTime(String)}.
+     */
+    public long getTimestampAttribute(String name) throws XMLStreamException {
+        final int index = attributeIndex(name);
+        if (index < 0) {
+            throw new XMLStreamException("Missing " + name + " attribute in " + localName);
+        }
+        final int start = attributeBounds[4 * index + 2];
+        final int end = attributeBounds[4 * index + 3];
+        final byte[] b = buffer;
+        if (end - start == 20 && b[start + 4] == '-' && b[start + 7] == '-'
+                && b[start + 10] == 'T' && b[start + 13] == ':' && b[start + 16] == ':'
+                && b[start + 19] == 'Z') {
+            int hours = digits(start + 11, 2);
+            int minutes = digits(start + 14, 2);
+            int seconds = digits(start + 17, 2);
+            long dayMillis = dayMillis(start);
+            if (dayMillis != Long.MIN_VALUE && hours >= 0 && hours < 24 && minutes >= 0
+                    && minutes < 60 && seconds >= 0 && seconds < 60) {
+                return dayMillis + ((hours * 60L + minutes) * 60 + seconds) * 1000;
+            }
+        }
+        String value = decode(start, end);
+        try {
+            return ParsingUtils.parseDateTime(value);
+        } catch (IllegalArgumentException e) {
+            throw new XMLStreamException("Invalid " + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * @return the epoch milliseconds of the start of the {@code yyyy-MM-dd} day at the given
+     *         offset, or {@code Long.MIN_VALUE} if it's not a valid date
+     */
+    private long dayMillis(final int start) {
+        boolean cached = cachedDateMillis != Long.MIN_VALUE;
+        for (int i = 0; cached && i < cachedDate.length; i++) {
+            cached = cachedDate[i] == buffer[start + i];
+        }
+        if (cached) {
+            return cachedDateMillis;
+        }
+        int year = digits(start, 4);
+        int month = digits(start + 5, 2);
+        int day = digits(start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return Long.MIN_VALUE;
+        }
+        // days since the epoch of a proleptic Gregorian date, counting years from March so the
+        // leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        System.arraycopy(buffer, start, cachedDate, 0, cachedDate.length);
+        cachedDateMillis = days * DAY_MILLIS;
+        return cachedDateMillis;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * @return the value of the given number of decimal digits at the given offset, or {@code -1}
+     *         if there's something else than digits there
+     */
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private long parseLong(String name, int start, int end) throws XMLStreamException {
+        String value = decode(start, end);
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid " + name + ": " + value, e);
+        }
+    }
+
+    private double parseDouble(String name, int start, int end) throws XMLStreamException {
+        String value = decode(start, end);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid " + name + ": " + value, e);
+        }
+    }
+
+    private int attributeIndex(String name) {
+        final int length = name.length();
+        for (int a = 0; a < attributeCount; a++) {
+            int start = attributeBounds[4 * a];
+            if (attributeBounds[4 * a + 1] - start != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && buffer[start + i] == name.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return a;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records the name and value bounds of the attributes in the given range of the start tag
+     */
+    private void parseAttributes(int start, final int end) throws XMLStreamException {
+        final byte[] b = buffer;
+        int i = start;
+        while (true) {
+            while (i < end && isWhitespace(b[i])) {
+                i++;
+            }
+            if (i == end) {
+                return;
+            }
+            final int nameStart = i;
+            while (i < end && b[i] != '=' && !isWhitespace(b[i])) {
+                i++;
+            }
+            final int nameEnd = i;
+            while (i < end && isWhitespace(b[i])) {
+                i++;
+            }
+            if (i == end || b[i] != '=') {
+                throw malformed("expected '=' after attribute name");
+            }
+            i++;
+            while (i < end && isWhitespace(b[i])) {
+                i++;
+            }
+            if (i == end || (b[i] != '"' && b[i] != '\'')) {
+                throw malformed("expected quoted attribute value");
+            }
+            final byte quote = b[i++];
+            final int valueStart = i;
+            while (i < end && b[i] != quote) {
+                i++;
+            }
+            if (i == end) {
+                throw malformed("unterminated attribute value");
+            }
+            if (4 * attributeCount == attributeBounds.length) {
+                attributeBounds = Arrays.copyOf(attributeBounds, 2 * attributeBounds.length);
+            }
+            final int offset = 4 * attributeCount++;
+            attributeBounds[offset] = nameStart;
+            attributeBounds[offset + 1] = nameEnd;
+            attributeBounds[offset + 2] = valueStart;
+            attributeBounds[offset + 3] = i;
+            i++;
+        }
+    }
+
+    /**
+     * @return the end of the name starting at the given offset
+     */
+    private int nameEnd(int start, int end) {
+        int i = start;
+        while (i < end && buffer[i] != '/' && !isWhitespace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private String name(int start, int end) throws XMLStreamException {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ':') {
+                start = i + 1;
+            }
+        }
+        if (start == end) {
+            throw malformed("missing element name");
+        }
+        final int length = end - start;
+        for (String known : KNOWN_NAMES) {
+            if (known.length() == length) {
+                int i = 0;
+                while (i < length && buffer[start + i] == known.charAt(i)) {
+                    i++;
+                }
+                if (i == length) {
+                    return known;
+                }
+            }
+        }
+        return new String(buffer, start, length, Charsets.UTF_8);
+    }
+
+    /**
+     * Decodes an attribute value, resolving entity and character references and normalizing
+     * white space as mandated by the XML spec
+     */
+    private String decode(final int start, final int end) {
+        boolean plain = true;
+        boolean ascii = true;
+        for (int i = start; i < end && plain; i++) {
+            final byte b = buffer[i];
+            plain = b != '&' && b != '\t' && b != '\n' && b != '\r';
+            ascii &= b >= 0;
+        }
+        if (!plain) {
+            return decodeReferences(start, end);
+        }
+        final int length = end - start;
+        if (!ascii || length > MAX_CACHED_LENGTH) {
+            return new String(buffer, start, length, Charsets.UTF_8);
+        }
+        int hash = length;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        final int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        String cached = stringCache[slot];
+        if (cached != null && cached.length() == length) {
+            int i = 0;
+            while (i < length && buffer[start + i] == cached.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return cached;
+            }
+        }
+        cached = new String(buffer, start, length, Charsets.US_ASCII);
+        stringCache[slot] = cached;
+        return cached;
+    }
+
+    private String decodeReferences(final int start, final int end) {
+        String raw = new String(buffer, start, end - start, Charsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                sb.append(' ');
+                continue;
+            }
+            int semicolon = c == '&' ? raw.indexOf(';', i) : -1;
+            if (semicolon < 0) {
+                sb.append(c);
+                continue;
+            }
+            String entity = raw.substring(i + 1, semicolon);
+            if (entity.equals("amp")) {
+                sb.append('&');
+            } else if (entity.equals("lt")) {
+                sb.append('<');
+            } else if (entity.equals("gt")) {
+                sb.append('>');
+            } else if (entity.equals("quot")) {
+                sb.append('"');
+            } else if (entity.equals("apos")) {
+                sb.append('\'');
+            } else if (entity.startsWith("#x")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            } else {
+                sb.append(c);
+                continue;
+            }
+            i = semicolon;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * @return the offset of the {@code >} closing the tag at the current position, reading more
+     *         of the document as needed
+     */
+    private int endOfTag() throws XMLStreamException {
+        byte quote = 0;
+        for (int offset = 1;; offset++) {
+            final int b = byteAt(offset);
+            if (b < 0) {
+                throw malformed("unterminated tag");
+            }
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = (byte) b;
+            } else if (b == '>') {
+                return pos + offset;
+            }
+        }
+    }
+
+    /**
+     * Moves the current position to the next occurrence of the given character
+     *
+     * @return {@code false} if the end of the document was reached first
+     */
+    private boolean skipTo(char c) throws XMLStreamException {
+        while (true) {
+            while (pos < limit) {
+                if (buffer[pos] == c) {
+                    return true;
+                }
+                pos++;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private void skipPast(String terminator) throws XMLStreamException {
+        final int length = terminator.length();
+        for (int offset = 1;; offset++) {
+            if (byteAt(offset + length - 1) < 0) {
+                throw malformed("expected " + terminator);
+            }
+            int i = 0;
+            while (i < length && buffer[pos + offset + i] == terminator.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                pos += offset + length;
+                return;
+            }
+        }
+    }
+
+    private boolean startsWith(String prefix) throws XMLStreamException {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (byteAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the byte at the given offset from the current position, or {@code -1} if the
+     *         document ends before
+     */
+    private int byteAt(int offset) throws XMLStreamException {
+        while (pos + offset >= limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return buffer[pos + offset] & 0xFF;
+    }
+
+    /**
+     * Reads more of the document into the buffer, moving the bytes from the current position on to
+     * its start first, and growing it if it's full
+     *
+     * @return {@code false} if the end of the document was reached
+     */
+    private boolean fill() throws XMLStreamException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        try {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read <= 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private XMLStreamException malformed(String message) {
+        return new XMLStreamException("Malformed document, " + message
+                + (localName == null ? "" : " after element " + localName));
+    }
+}
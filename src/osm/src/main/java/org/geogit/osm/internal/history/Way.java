@@ -5,38 +5,50 @@
 
 package org.geogit.osm.internal.history;
 
-import java.util.List;
+import java.util.Arrays;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 
 /**
  *
  */
 public class Way extends Primitive {
 
-    private List<Long> nodes;
+    private long[] nodes;
+
+    private int nodeCount;
 
     public Way() {
         super();
-        this.nodes = Lists.newLinkedList();
+        this.nodes = new long[16];
     }
 
     /**
      * @param nodeRef
      */
     void addNode(long nodeRef) {
-        nodes.add(Long.valueOf(nodeRef));
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+        }
+        nodes[nodeCount++] = nodeRef;
+    }
+
+    /**
+     * @return the ids of the nodes of the way, in order
+     */
+    public long[] getNodeIds() {
+        return Arrays.copyOf(nodes, nodeCount);
     }
 
     public ImmutableList<Long> getNodes() {
-        return ImmutableList.copyOf(nodes);
+        return ImmutableList.copyOf(Longs.asList(getNodeIds()));
     }
 
     @Override
     public String toString() {
-        return new StringBuilder(super.toString()).append(",nodes:").append(nodes).append(']')
-                .toString();
+        return new StringBuilder(super.toString()).append(",nodes:")
+                .append(Arrays.toString(getNodeIds())).append(']').toString();
     }
 
 }
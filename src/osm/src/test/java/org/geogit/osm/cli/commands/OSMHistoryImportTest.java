@@ -17,6 +17,7 @@ import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.TestPlatform;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.api.porcelain.DiffOp;
@@ -101,4 +102,16 @@ public class OSMHistoryImportTest extends Assert {
         assertTrue(actual.toString(), CRS.equalsIgnoreMetadata(expected, actual));
     }
 
+    @Test
+    public void testWorkingTreeMatchesLastCommit() throws Exception {
+        cli.execute("config", "user.name", "Gabriel Roldan");
+        cli.execute("config", "user.email", "groldan@opengeo.org");
+        cli.execute("osm", "import-history", fakeOsmApiUrl, "--to", "9");
+
+        GeoGIT geogit = cli.getGeogit();
+        assertTrue(geogit.getRepository().getWorkingTree().isClean());
+        assertTrue(geogit.getRepository().getIndex().isClean());
+        assertTrue(geogit.command(RevParse.class).setRefSpec("HEAD:node").call().isPresent());
+    }
+
 }
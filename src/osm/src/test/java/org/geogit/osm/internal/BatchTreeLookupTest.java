@@ -0,0 +1,83 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class BatchTreeLookupTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    private RevTree createTree(ObjectDatabase db, int size) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < size; i++) {
+            RevFeature feature = RevFeature.build(ImmutableList.of(Optional.<Object> of(Integer
+                    .valueOf(i))));
+            db.put(feature);
+            builder.put(Node.create(String.valueOf(i), feature.getId(), ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    @Test
+    public void testFindFeaturesInLeafTree() throws Exception {
+        ObjectDatabase db = geogit.getRepository().getObjectDatabase();
+        RevTree tree = createTree(db, 10);
+        assertFalse(tree.buckets().isPresent());
+
+        Map<String, RevFeature> found = new BatchTreeLookup(db).findFeatures(tree,
+                ImmutableList.of("1", "5", "42"));
+        assertEquals(2, found.size());
+        assertEquals(Integer.valueOf(1), found.get("1").getValues().get(0).get());
+        assertEquals(Integer.valueOf(5), found.get("5").getValues().get(0).get());
+    }
+
+    @Test
+    public void testFindFeaturesInBucketedTree() throws Exception {
+        ObjectDatabase db = geogit.getRepository().getObjectDatabase();
+        RevTree tree = createTree(db, 5 * RevTree.NORMALIZED_SIZE_LIMIT);
+        assertTrue(tree.buckets().isPresent());
+
+        List<String> names = Lists.newArrayList();
+        for (int i = 0; i < tree.size(); i += 7) {
+            names.add(String.valueOf(i));
+        }
+        names.add("-1");
+        Map<String, RevFeature> found = new BatchTreeLookup(db).findFeatures(tree, names);
+        assertEquals(names.size() - 1, found.size());
+        for (String name : names.subList(0, names.size() - 1)) {
+            assertEquals(Integer.valueOf(name), found.get(name).getValues().get(0).get());
+        }
+    }
+
+    @Test
+    public void testFindNodesInEmptyTree() throws Exception {
+        ObjectDatabase db = geogit.getRepository().getObjectDatabase();
+        Map<String, Node> found = new BatchTreeLookup(db).findNodes(RevTree.EMPTY,
+                ImmutableList.of("1"));
+        assertTrue(found.isEmpty());
+    }
+}
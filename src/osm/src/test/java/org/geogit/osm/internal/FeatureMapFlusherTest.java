@@ -0,0 +1,85 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal;
+
+import org.geogit.api.Node;
+import org.geogit.api.RevFeature;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.repository.WorkingTree;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.google.common.base.Optional;
+
+public class FeatureMapFlusherTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    @Test
+    public void testFlushesWithinSizeLimit() throws Exception {
+        WorkingTree workTree = geogit.getRepository().getWorkingTree();
+        SimpleFeature sample = (SimpleFeature) feature(pointsType, "Points.0", "StringProp", 0,
+                "POINT(0 0)");
+        // room for about ten features, so it flushes several times while buffering
+        FeatureMapFlusher flusher = new FeatureMapFlusher(workTree,
+                10 * FeatureMapFlusher.estimateSize(sample));
+        for (int i = 0; i < 100; i++) {
+            flusher.put(pointsName, (SimpleFeature) feature(pointsType, "Points." + i,
+                    "StringProp", i, "POINT(" + i + " 0)"));
+            flusher.put(linesName, (SimpleFeature) feature(linesType, "Lines." + i, "StringProp",
+                    i, "LINESTRING(" + i + " 0, " + i + " 1)"));
+        }
+        flusher.flushAll();
+
+        assertEquals(100, workTree.countUnstaged(pointsName).getCount());
+        assertEquals(100, workTree.countUnstaged(linesName).getCount());
+    }
+
+    @Test
+    public void testFlushAllIsTheBarrier() throws Exception {
+        WorkingTree workTree = geogit.getRepository().getWorkingTree();
+        SimpleFeature sample = (SimpleFeature) feature(pointsType, "Points.0", "StringProp", 0,
+                "POINT(0 0)");
+        FeatureMapFlusher flusher = new FeatureMapFlusher(workTree,
+                10 * FeatureMapFlusher.estimateSize(sample));
+        for (int i = 0; i < 11; i++) {
+            flusher.put(pointsName, (SimpleFeature) feature(pointsType, "Points." + i,
+                    "StringProp", i, "POINT(" + i + " 0)"));
+        }
+        // exceeding the limit started a background flush, which flushAll() waits for
+        flusher.flushAll();
+        assertEquals(11, workTree.countUnstaged(pointsName).getCount());
+        assertTrue(workTree.findUnstaged(pointsName + "/Points.0").isPresent());
+
+        try {
+            flusher.put(pointsName, sample);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void testLastFeatureWins() throws Exception {
+        WorkingTree workTree = geogit.getRepository().getWorkingTree();
+        FeatureMapFlusher flusher = new FeatureMapFlusher(workTree);
+        flusher.put(pointsName, (SimpleFeature) feature(pointsType, "Points.1", "first", 1,
+                "POINT(1 1)"));
+        flusher.put(pointsName, (SimpleFeature) feature(pointsType, "Points.1", "second", 1,
+                "POINT(1 1)"));
+        flusher.flushAll();
+
+        assertEquals(1, workTree.countUnstaged(pointsName).getCount());
+        Optional<Node> node = workTree.findUnstaged(pointsName + "/Points.1");
+        assertTrue(node.isPresent());
+        RevFeature feature = geogit.command(RevObjectParse.class)
+                .setObjectId(node.get().getObjectId()).call(RevFeature.class).get();
+        assertEquals("second", feature.getValues().get(0).get());
+    }
+}
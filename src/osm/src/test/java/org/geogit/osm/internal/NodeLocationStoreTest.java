@@ -0,0 +1,78 @@
+package org.geogit.osm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class NodeLocationStoreTest {
+
+    private NodeLocationStore store;
+
+    @Before
+    public void setUp() {
+        store = new NodeLocationStore();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        store.put(1, -58.3816775, -34.6037389);
+        store.put(5000000000L, 2.1, 41.4);
+        store.put(-3, 10, 20);
+        assertEquals(3, store.size());
+
+        assertEquals(new Coordinate(-58.3816775, -34.6037389), store.get(1));
+        assertEquals(new Coordinate(2.1, 41.4), store.get(5000000000L));
+        assertEquals(new Coordinate(10, 20), store.get(-3));
+
+        Coordinate target = new Coordinate();
+        assertTrue(store.get(1, target));
+        assertEquals(-34.6037389, target.y, 0);
+    }
+
+    @Test
+    public void testUnknown() {
+        store.put(1, 0, 0);
+        assertNull(store.get(2));
+        assertNull(store.get(-2));
+        assertNull(store.get(100000000L));
+        Coordinate target = new Coordinate(5, 5);
+        assertFalse(store.get(2, target));
+        assertEquals(new Coordinate(5, 5), target);
+
+        // zero is a valid location
+        assertEquals(new Coordinate(0, 0), store.get(1));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        store.put(7, 1, 1);
+        store.put(7, 2, -90);
+        assertEquals(1, store.size());
+        assertEquals(new Coordinate(2, -90), store.get(7));
+
+        store.remove(7);
+        store.remove(8);
+        assertNull(store.get(7));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testRound() {
+        store.put(1, 1.123456789, 2.987654321);
+        Coordinate rounded = NodeLocationStore.round(new Coordinate(1.123456789, 2.987654321));
+        assertEquals(rounded, store.get(1));
+        assertEquals(1.1234568, rounded.x, 0);
+    }
+}
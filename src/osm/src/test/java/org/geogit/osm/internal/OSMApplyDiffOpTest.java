@@ -0,0 +1,105 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal;
+
+import java.io.File;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.porcelain.AddOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class OSMApplyDiffOpTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.getConfigDatabase().put("user.name", "groldan");
+        repo.getConfigDatabase().put("user.email", "groldan@opengeo.org");
+    }
+
+    private void importAndCommit(String resource) throws Exception {
+        File file = new File(getClass().getResource(resource).getFile());
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).setMessage("import " + resource).call();
+    }
+
+    private Optional<RevFeature> feature(String path) {
+        return geogit.command(RevObjectParse.class).setRefSpec("HEAD:" + path)
+                .call(RevFeature.class);
+    }
+
+    private Geometry geometry(RevFeature feature) {
+        for (Optional<Object> value : feature.getValues()) {
+            if (value.orNull() instanceof Geometry) {
+                return (Geometry) value.get();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testApplyDiff() throws Exception {
+        importAndCommit("ways.xml");
+        final ObjectId previousHead = repo.getHead().get().getObjectId();
+
+        File diff = new File(getClass().getResource("ways_diff.osc").getFile());
+        Optional<RevCommit> commit = geogit.command(OSMApplyDiffOp.class).setDiffFile(diff)
+                .call();
+        assertTrue(commit.isPresent());
+        assertEquals(commit.get().getId(), repo.getHead().get().getObjectId());
+        assertEquals(previousHead, commit.get().getParentIds().get(0));
+        assertEquals("Applied OSM diff ways_diff.osc", commit.get().getMessage());
+
+        // the working tree and the index are on the new commit
+        ObjectId treeId = commit.get().getTreeId();
+        assertEquals(treeId, repo.getWorkingTree().getTree().getId());
+        assertEquals(treeId, repo.getIndex().getTree().getId());
+
+        // modified node
+        Geometry node = geometry(feature("node/345117525").get());
+        assertEquals(new Coordinate(7.19, 50.74), node.getCoordinate());
+
+        // way not in the diff, with a node moved by it
+        Geometry way = geometry(feature("way/31045880").get());
+        assertEquals(4, way.getNumPoints());
+        assertEquals(new Coordinate(7.19, 50.74), way.getCoordinates()[0]);
+
+        // created way, with a created node and one already in the repository
+        Geometry created = geometry(feature("way/230000002").get());
+        assertEquals(2, created.getNumPoints());
+        assertEquals(new Coordinate(7.1925, 50.7397), created.getCoordinates()[0]);
+        assertEquals(new Coordinate(7.1923127, 50.7396946), created.getCoordinates()[1]);
+        assertTrue(feature("node/2300000001").isPresent());
+
+        // deleted way
+        assertFalse(feature("way/51502277").isPresent());
+    }
+
+    @Test
+    public void testDirtyWorkingTree() throws Exception {
+        importAndCommit("ways.xml");
+        File file = new File(getClass().getResource("moved_node.xml").getFile());
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).setAdd(true)
+                .call();
+
+        File diff = new File(getClass().getResource("ways_diff.osc").getFile());
+        try {
+            geogit.command(OSMApplyDiffOp.class).setDiffFile(diff).call();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("must be clean"));
+        }
+    }
+}
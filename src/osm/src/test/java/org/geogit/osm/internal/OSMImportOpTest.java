@@ -23,6 +23,8 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
 
 public class OSMImportOpTest extends RepositoryTestCase {
     @Rule
@@ -48,6 +50,21 @@ public class OSMImportOpTest extends RepositoryTestCase {
         assertTrue(unstaged > 0);
     }
 
+    @Test
+    public void testImportReport() throws Exception {
+        String filename = getClass().getResource("ways.xml").getFile();
+        File file = new File(filename);
+        Optional<OSMDownloadReport> report = geogit.command(OSMImportOp.class)
+                .setDataSource(file.getAbsolutePath()).call();
+        assertTrue(report.isPresent());
+        assertEquals(30, report.get().getCount());
+        assertEquals(0, report.get().getUnpprocessedCount());
+        assertEquals(14220478, report.get().getLatestChangeset());
+        assertEquals(26, geogit.getRepository().getWorkingTree().countUnstaged("node")
+                .getCount());
+        assertEquals(4, geogit.getRepository().getWorkingTree().countUnstaged("way").getCount());
+    }
+
     @Test
     public void testImportAdd() throws Exception {
         // import two files, using the add option, so the nodes imported by the first one are not
@@ -65,6 +82,30 @@ public class OSMImportOpTest extends RepositoryTestCase {
         assertEquals(4, unstaged);
     }
 
+    @Test
+    public void testImportAddUpdatesWaysOfMovedNodes() throws Exception {
+        String filename = getClass().getResource("ways.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        // moves the first node of way 31045880, which is not in the file
+        filename = getClass().getResource("moved_node.xml").getFile();
+        file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).setAdd(true).call();
+
+        RevFeature way = geogit.command(RevObjectParse.class).setRefSpec("WORK_HEAD:way/31045880")
+                .call(RevFeature.class).get();
+        Geometry geom = null;
+        for (Optional<Object> value : way.getValues()) {
+            if (value.orNull() instanceof Geometry) {
+                geom = (Geometry) value.get();
+            }
+        }
+        assertNotNull(geom);
+        assertEquals(4, geom.getNumPoints());
+        assertEquals(new Coordinate(7.19, 50.74), geom.getCoordinates()[0]);
+        assertEquals(new Coordinate(7.1923127, 50.7396946), geom.getCoordinates()[1]);
+    }
+
     @Test
     public void testImportWithMapping() throws Exception {
         String filename = getClass().getResource("ways.xml").getFile();
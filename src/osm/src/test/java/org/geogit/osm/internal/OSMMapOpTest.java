@@ -18,16 +18,20 @@ import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.repository.WorkingTree;
 import org.geogit.storage.FieldType;
 import org.geogit.test.integration.RepositoryTestCase;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.PropertyDescriptor;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 public class OSMMapOpTest extends RepositoryTestCase {
     @Rule
@@ -250,4 +254,66 @@ public class OSMMapOpTest extends RepositoryTestCase {
         assertEquals(4, mapped);
     }
 
+    @Test
+    public void testIncrementalMappingOfDeletedNode() throws Exception {
+        String filename = OSMImportOp.class.getResource("nodes.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        WorkingTree workTree = geogit.getRepository().getWorkingTree();
+
+        Map<String, AttributeDefinition> fields = Maps.newHashMap();
+        Map<String, List<String>> mappings = Maps.newHashMap();
+        mappings.put("highway", Lists.newArrayList("bus_stop"));
+        fields.put("geom", new AttributeDefinition("geom", FieldType.POINT));
+        fields.put("name", new AttributeDefinition("name", FieldType.STRING));
+        MappingRule mappingRule = new MappingRule("busstops", mappings, fields);
+        Mapping mapping = new Mapping(Lists.newArrayList(mappingRule));
+        geogit.command(OSMMapOp.class).setMapping(mapping).call();
+        assertEquals(2, workTree.countUnstaged("busstops").getCount());
+
+        // delete the source node and map again, the mapped feature goes away with it
+        workTree.delete("node", "507464799");
+        geogit.command(OSMMapOp.class).setMapping(mapping).call();
+        assertEquals(1, workTree.countUnstaged("busstops").getCount());
+        assertFalse(workTree.findUnstaged("busstops/507464799").isPresent());
+    }
+
+    @Test
+    public void testIncrementalMappingOfMovedNode() throws Exception {
+        String filename = OSMImportOp.class.getResource("ways.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        WorkingTree workTree = geogit.getRepository().getWorkingTree();
+
+        Map<String, AttributeDefinition> fields = Maps.newHashMap();
+        Map<String, List<String>> mappings = Maps.newHashMap();
+        mappings.put("oneway", Lists.newArrayList("yes"));
+        fields.put("geom", new AttributeDefinition("geom", FieldType.LINESTRING));
+        fields.put("lit", new AttributeDefinition("lit", FieldType.STRING));
+        MappingRule mappingRule = new MappingRule("onewaystreets", mappings, fields);
+        Mapping mapping = new Mapping(Lists.newArrayList(mappingRule));
+        geogit.command(OSMMapOp.class).setMapping(mapping).call();
+        assertEquals(1, workTree.countUnstaged("onewaystreets").getCount());
+
+        // move the first node of the mapped way, the way itself is not modified
+        SimpleFeatureType nodeType = OSMUtils.nodeType();
+        RevFeature node = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:node/345117525").call(RevFeature.class).get();
+        List<PropertyDescriptor> descriptors = RevFeatureType.build(nodeType)
+                .sortedDescriptors();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(nodeType);
+        for (int i = 0; i < descriptors.size(); i++) {
+            fb.set(descriptors.get(i).getName(), node.getValues().get(i).orNull());
+        }
+        fb.set("location", new GeometryFactory().createPoint(new Coordinate(7.19, 50.74)));
+        workTree.insert(OSMUtils.NODE_TYPE_NAME, fb.buildFeature("345117525"));
+
+        geogit.command(OSMMapOp.class).setMapping(mapping).call();
+        assertEquals(1, workTree.countUnstaged("onewaystreets").getCount());
+        RevFeature mapped = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:onewaystreets/31045880").call(RevFeature.class).get();
+        String wkt = "LINESTRING (7.19 50.74, 7.1923127 50.7396946, 7.1923444 50.7397419, 7.1924199 50.7397781)";
+        assertEquals(wkt, mapped.getValues().get(2).get().toString());
+    }
+
 }
@@ -0,0 +1,79 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal;
+
+import java.io.File;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.porcelain.AddOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class UpdateNodeWayIndexTest extends RepositoryTestCase {
+
+    private static final Long WAY = Long.valueOf(31045880);
+
+    private static final Long KEPT_NODE = Long.valueOf(345117526);
+
+    private static final Long DROPPED_NODE = Long.valueOf(1300224327);
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.getConfigDatabase().put("user.name", "groldan");
+        repo.getConfigDatabase().put("user.email", "groldan@opengeo.org");
+    }
+
+    private void importFile(String resource, boolean add) throws Exception {
+        File file = new File(getClass().getResource(resource).getFile());
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).setAdd(add)
+                .call();
+    }
+
+    private ObjectId wayTree(String treeish) {
+        return geogit.command(RevObjectParse.class).setRefSpec(treeish + ":way")
+                .call(RevTree.class).get().getId();
+    }
+
+    private Set<Long> findWays(ObjectId oldWayTree, ObjectId wayTree, Long node) {
+        return geogit.command(FindNodeWays.class).setOldWayTree(oldWayTree).setWayTree(wayTree)
+                .setNodeIds(ImmutableList.of(node)).call();
+    }
+
+    @Test
+    public void testWayDropsNode() throws Exception {
+        importFile("ways.xml", false);
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).setMessage("import ways.xml").call();
+        final ObjectId oldWays = wayTree("HEAD");
+        assertTrue(findWays(ObjectId.NULL, oldWays, DROPPED_NODE).contains(WAY));
+
+        importFile("way_drops_node.xml", true);
+        final ObjectId newWays = wayTree("WORK_HEAD");
+        assertFalse(oldWays.equals(newWays));
+
+        assertFalse(findWays(oldWays, newWays, DROPPED_NODE).contains(WAY));
+        assertTrue(findWays(oldWays, newWays, KEPT_NODE).contains(WAY));
+
+        // the superseded index of the old way tree is no longer linked
+        Optional<Ref> indexRef = geogit.command(RefParse.class)
+                .setName(UpdateNodeWayIndex.INDEX_REF).call();
+        assertTrue(indexRef.isPresent());
+        RevTreeBuilder index = new RevTreeBuilder(repo.getObjectDatabase(), repo
+                .getObjectDatabase().getTree(indexRef.get().getObjectId()));
+        assertFalse(index.get(oldWays.toString()).isPresent());
+        assertTrue(index.get(newWays.toString()).isPresent());
+    }
+}
@@ -16,9 +16,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import javax.annotation.Nullable;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import org.geogit.osm.internal.history.Relation.Member;
 import org.junit.Assert;
@@ -107,6 +105,8 @@ public class ChangesetContentsScannerTest extends Assert {
                 ImmutableMap.of("type", "road"));
 
         assertEquals(ImmutableList.of(1082500L, 1082501L, 1082502L, 1082503L), way.getNodes());
+        assertArrayEquals(new long[] { 1082500L, 1082501L, 1082502L, 1082503L },
+                way.getNodeIds());
     }
 
     @Test
@@ -157,10 +157,10 @@ public class ChangesetContentsScannerTest extends Assert {
         }
     }
 
-    private XMLStreamReader reader(String node) throws Exception {
+    private OSMXmlReader reader(String node) throws Exception {
         ByteArrayInputStream in = new ByteArrayInputStream(node.getBytes("UTF-8"));
-        XMLStreamReader reader = XMLInputFactory.newFactory().createXMLStreamReader(in);
-        reader.nextTag();
+        OSMXmlReader reader = new OSMXmlReader(in);
+        reader.next();
         return reader;
     }
 
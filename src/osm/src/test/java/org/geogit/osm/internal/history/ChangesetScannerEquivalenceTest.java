@@ -0,0 +1,109 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Checks that the changeset scanners read the same out of every OSM document among the test
+ * resources as the StAX based scanners they replaced.
+ */
+public class ChangesetScannerEquivalenceTest extends Assert {
+
+    @Test
+    public void testSameOutputOnAllFixtures() throws Exception {
+        File root = new File(getClass().getResource("/org/geogit/osm").toURI());
+        List<File> documents = Lists.newArrayList();
+        collect(root, documents);
+
+        int downloads = 0;
+        int changesets = 0;
+        for (File document : documents) {
+            byte[] contents = Files.toByteArray(document);
+            String text = new String(contents, Charsets.UTF_8);
+            if (text.contains("<osmChange")) {
+                assertSameChanges(document.getPath(), contents);
+                downloads++;
+            } else if (text.contains("<changeset ")) {
+                assertSameChangeset(document.getPath(), contents);
+                changesets++;
+            }
+        }
+        assertTrue(downloads > 0);
+        assertTrue(changesets > 0);
+    }
+
+    private void collect(File file, List<File> documents) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                collect(child, documents);
+            }
+        } else if (file.getName().endsWith(".xml") || file.getName().endsWith(".osc")) {
+            documents.add(file);
+        }
+    }
+
+    private void assertSameChanges(String document, byte[] contents) throws Exception {
+        Iterator<Change> expected = new StaxChangesetContentsScanner()
+                .parse(new ByteArrayInputStream(contents));
+        Iterator<Change> actual = new ChangesetContentsScanner().parse(new ByteArrayInputStream(
+                contents));
+        int index = 0;
+        while (expected.hasNext()) {
+            String message = document + ", change " + index++;
+            assertTrue(message, actual.hasNext());
+            Change expectedChange = expected.next();
+            Change actualChange = actual.next();
+            assertEquals(message, expectedChange.getType(), actualChange.getType());
+            assertSamePrimitive(message, expectedChange.getNode(), actualChange.getNode());
+            assertSamePrimitive(message, expectedChange.getWay(), actualChange.getWay());
+            assertSamePrimitive(message, expectedChange.getRelation(), actualChange.getRelation());
+        }
+        assertFalse(document, actual.hasNext());
+    }
+
+    private void assertSamePrimitive(String message, Optional<? extends Primitive> expected,
+            Optional<? extends Primitive> actual) {
+        assertEquals(message, expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            // includes the location of nodes, the node ids of ways and the members of relations
+            assertEquals(message, expected.get().toString(), actual.get().toString());
+            assertEquals(message, expected.get().getTags(), actual.get().getTags());
+        }
+    }
+
+    private void assertSameChangeset(String document, byte[] contents) throws Exception {
+        Optional<Changeset> expected = new StaxChangesetScanner().parse(new ByteArrayInputStream(
+                contents));
+        Optional<Changeset> actual = new ChangesetScanner().parse(new ByteArrayInputStream(
+                contents));
+        assertEquals(document, expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            Changeset e = expected.get();
+            Changeset a = actual.get();
+            assertEquals(document, e.getId(), a.getId());
+            assertEquals(document, e.getUserName(), a.getUserName());
+            assertEquals(document, e.getUserId(), a.getUserId());
+            assertEquals(document, e.getCreated(), a.getCreated());
+            assertEquals(document, e.getClosed(), a.getClosed());
+            assertEquals(document, e.isOpen(), a.isOpen());
+            assertEquals(document, e.getWgs84Bounds(), a.getWgs84Bounds());
+            assertEquals(document, e.getComment(), a.getComment());
+            assertEquals(document, e.getTags(), a.getTags());
+        }
+    }
+}
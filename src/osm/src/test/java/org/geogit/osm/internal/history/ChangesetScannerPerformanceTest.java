@@ -0,0 +1,111 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.text.NumberFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Times the parsing of the recorded changeset fixtures by the changeset scanners, against the
+ * StAX based scanners they replaced.
+ */
+public class ChangesetScannerPerformanceTest extends Assert {
+
+    private List<byte[]> downloads;
+
+    private List<byte[]> changesets;
+
+    @Ignore
+    @Test
+    public void testParse() throws Exception {
+        downloads = Lists.newArrayList();
+        changesets = Lists.newArrayList();
+        for (String changeset : new String[] { "1100", "1624", "1864" }) {
+            downloads.add(load(changeset + "/download.xml"));
+            changesets.add(load(changeset + ".xml"));
+        }
+        for (int i = 1; i <= 10; i++) {
+            downloads.add(load("01_10/changeset/" + i + "/download.xml"));
+            changesets.add(load("01_10/changeset/" + i + ".xml"));
+        }
+
+        System.err.println("############### Warming up....");
+        benchmark(1000);
+        System.err.println("############### Warm up done.");
+
+        benchmark(1000);
+        benchmark(1000 * 10);
+    }
+
+    private byte[] load(String resource) throws Exception {
+        InputStream in = getClass().getResourceAsStream(resource);
+        assertNotNull(resource, in);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void benchmark(int runs) throws Exception {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        System.err.println("***********\nParsing " + downloads.size() + " changesets "
+                + numberFormat.format(runs) + " times...");
+
+        Stopwatch sw = new Stopwatch().start();
+        int changes = 0;
+        for (int i = 0; i < runs; i++) {
+            for (byte[] download : downloads) {
+                changes += count(new ChangesetContentsScanner().parse(new ByteArrayInputStream(
+                        download)));
+            }
+            for (byte[] changeset : changesets) {
+                assertTrue(new ChangesetScanner().parse(new ByteArrayInputStream(changeset))
+                        .isPresent());
+            }
+        }
+        sw.stop();
+        System.err.println("Scanners parsed " + numberFormat.format(changes) + " changes in "
+                + sw.toString());
+
+        sw.reset().start();
+        changes = 0;
+        for (int i = 0; i < runs; i++) {
+            for (byte[] download : downloads) {
+                changes += count(new StaxChangesetContentsScanner()
+                        .parse(new ByteArrayInputStream(download)));
+            }
+            for (byte[] changeset : changesets) {
+                assertTrue(new StaxChangesetScanner().parse(new ByteArrayInputStream(changeset))
+                        .isPresent());
+            }
+        }
+        sw.stop();
+        System.err.println("StAX scanners parsed " + numberFormat.format(changes)
+                + " changes in " + sw.toString());
+    }
+
+    private int count(Iterator<Change> changes) {
+        int count = 0;
+        while (changes.hasNext()) {
+            changes.next();
+            count++;
+        }
+        return count;
+    }
+}
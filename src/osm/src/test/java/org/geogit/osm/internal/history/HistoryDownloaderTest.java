@@ -49,7 +49,7 @@ public class HistoryDownloaderTest extends Assert {
 
         executor = Executors.newFixedThreadPool(6);
         localResourcesDownloader = new HistoryDownloader(osmAPIUrl, downloadFolder,
-                initialChangeset, finalChangeset, executor, false);
+                initialChangeset, finalChangeset, executor, 4);
     }
 
     @Test
@@ -104,6 +104,48 @@ public class HistoryDownloaderTest extends Assert {
         assertTrue(list.get(3).getWay().isPresent());
     }
 
+    @Test
+    public void testCachedChangesetsNotDownloadedAgain() throws Exception {
+        List<Changeset> changesets = fetchAll(localResourcesDownloader);
+        assertEquals(10, changesets.size());
+
+        // nothing to download from, everything has to come from the cache
+        String missingAPIUrl = new File(tempFolder.getRoot(), "missing").toURI().toString();
+        HistoryDownloader cachedDownloader = new HistoryDownloader(missingAPIUrl, downloadFolder,
+                1, 10, executor, 2);
+        List<Changeset> cached = fetchAll(cachedDownloader);
+        assertEquals(10, cached.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(changesets.get(i).getId(), cached.get(i).getId());
+            assertEquals(Lists.newArrayList(changesets.get(i).getChanges().get()).size(), Lists
+                    .newArrayList(cached.get(i).getChanges().get()).size());
+        }
+
+        cachedDownloader.clearCache();
+        assertEquals(0, downloadFolder.list().length);
+        assertFalse(cachedDownloader.fetchNextChangeset().isPresent());
+    }
+
+    @Test
+    public void testMissingChangesetsSkipped() throws Exception {
+        String osmAPIUrl = getClass().getResource("01_10").toExternalForm();
+        HistoryDownloader downloader = new HistoryDownloader(osmAPIUrl, downloadFolder, 9, 12,
+                executor, 1);
+        List<Changeset> changesets = fetchAll(downloader);
+        assertEquals(2, changesets.size());
+        assertEquals(9, changesets.get(0).getId());
+        assertEquals(10, changesets.get(1).getId());
+    }
+
+    private List<Changeset> fetchAll(HistoryDownloader downloader) {
+        List<Changeset> changesets = Lists.newArrayList();
+        Optional<Changeset> next;
+        while ((next = downloader.fetchNextChangeset()).isPresent()) {
+            changesets.add(next.get());
+        }
+        return changesets;
+    }
+
     @Ignore
     @Test
     public void testFetchFailingChangesetsOnline() throws Exception {
@@ -113,7 +155,7 @@ public class HistoryDownloaderTest extends Assert {
         long finalChangeset = 750;
 
         HistoryDownloader onlineDownloader = new HistoryDownloader(osmAPIUrl, downloadFolder,
-                initialChangeset, finalChangeset, executor, false);
+                initialChangeset, finalChangeset, executor, 4);
 
         Optional<Changeset> next = onlineDownloader.fetchNextChangeset();
         assertTrue(next.isPresent());
@@ -144,7 +186,7 @@ public class HistoryDownloaderTest extends Assert {
         long finalChangeset = 30;
 
         HistoryDownloader onlineDownloader = new HistoryDownloader(osmAPIUrl, downloadFolder,
-                initialChangeset, finalChangeset, executor, false);
+                initialChangeset, finalChangeset, executor, 4);
 
         Optional<Changeset> next;
         List<Changeset> changesets = Lists.newArrayList();
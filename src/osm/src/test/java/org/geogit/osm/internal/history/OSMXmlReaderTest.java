@@ -0,0 +1,154 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.internal.history;
+
+import static org.geogit.osm.internal.history.OSMXmlReader.END_DOCUMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.END_ELEMENT;
+import static org.geogit.osm.internal.history.OSMXmlReader.START_ELEMENT;
+import static org.geogit.osm.internal.history.ParsingUtils.parseDateTime;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class OSMXmlReaderTest extends Assert {
+
+    private OSMXmlReader reader(String xml, int bufferSize) throws Exception {
+        return new OSMXmlReader(new ByteArrayInputStream(xml.getBytes("UTF-8")), bufferSize);
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"//
+                + "<!-- a comment with a <tag> in it -->\n"//
+                + "<osmChange version=\"0.6\">\n"//
+                + "  <create><way id=\"1\"><nd ref=\"2\"/><nd ref=\"3\" /></way></create>\n"//
+                + "</osmChange>\n";
+        // a buffer smaller than a single tag makes sure it's grown and refilled as needed
+        OSMXmlReader reader = reader(xml, 4);
+
+        assertEquals(START_ELEMENT, reader.next());
+        assertEquals("osmChange", reader.getLocalName());
+        assertEquals("0.6", reader.getAttribute("version"));
+        assertEquals(START_ELEMENT, reader.next());
+        assertEquals("create", reader.getLocalName());
+        assertEquals(START_ELEMENT, reader.next());
+        assertEquals("way", reader.getLocalName());
+        assertEquals(1L, reader.getLongAttribute("id", -1));
+
+        assertEquals(START_ELEMENT, reader.next());
+        assertEquals("nd", reader.getLocalName());
+        assertEquals(2L, reader.getLongAttribute("ref", -1));
+        assertEquals(END_ELEMENT, reader.next());
+        assertEquals("nd", reader.getLocalName());
+        assertFalse(reader.hasAttribute("ref"));
+
+        assertEquals(START_ELEMENT, reader.next());
+        assertEquals(3L, reader.getLongAttribute("ref", -1));
+        assertEquals(END_ELEMENT, reader.next());
+
+        assertEquals(END_ELEMENT, reader.next());
+        assertEquals("way", reader.getLocalName());
+        assertEquals(END_ELEMENT, reader.next());
+        assertEquals("create", reader.getLocalName());
+        assertEquals(END_ELEMENT, reader.next());
+        assertEquals("osmChange", reader.getLocalName());
+        assertEquals(END_DOCUMENT, reader.next());
+        assertEquals(END_DOCUMENT, reader.next());
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        String xml = "<node id='-12' lat=\"48.4056473\" lon=\"-4.4621888\" visible=\"TRUE\" "
+                + "user=\"J&#xfc;rgen &amp; co\" v=\"a &gt; b\" k=\"\u00e1rbol\" "
+                + "version=\"x\" big=\"123456789012345678901\"/>";
+        OSMXmlReader reader = reader(xml, 16);
+        reader.next();
+
+        assertEquals(-12L, reader.getLongAttribute("id", 0));
+        assertEquals(Double.parseDouble("48.4056473"), reader.getDoubleAttribute("lat", 0), 0);
+        assertEquals(Double.parseDouble("-4.4621888"), reader.getDoubleAttribute("lon", 0), 0);
+        assertTrue(reader.getBooleanAttribute("visible", false));
+        assertEquals("J\u00fcrgen & co", reader.getAttribute("user"));
+        assertEquals("a > b", reader.getAttribute("v"));
+        assertEquals("\u00e1rbol", reader.getAttribute("k"));
+        assertEquals(1.23456789012345678901E20, reader.getDoubleAttribute("big", 0), 0);
+
+        assertNull(reader.getAttribute("uid"));
+        assertEquals(-1L, reader.getLongAttribute("uid", -1));
+        assertEquals(7, reader.getIntAttribute("changeset", 7));
+        assertFalse(reader.getBooleanAttribute("open", false));
+        try {
+            reader.getIntAttribute("version", 1);
+            fail("expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+        try {
+            reader.getLongAttribute("big", 1);
+            fail("expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("big"));
+        }
+    }
+
+    @Test
+    public void testDoubleAttributes() throws Exception {
+        String[] values = { "0", "-0.0", "180", "-179.9999999", "0.0000001", ".5", "1.",
+                "12345678901234567890.5", "1e3", "0.1234567890123456789" };
+        StringBuilder xml = new StringBuilder("<bounds");
+        for (int i = 0; i < values.length; i++) {
+            xml.append(" v").append(i).append("=\"").append(values[i]).append('"');
+        }
+        OSMXmlReader reader = reader(xml.append("/>").toString(), 8192);
+        reader.next();
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Double.parseDouble(values[i]),
+                    reader.getDoubleAttribute("v" + i, Double.NaN), 0);
+        }
+    }
+
+    @Test
+    public void testTimestampAttributes() throws Exception {
+        String[] values = { "2009-11-21T09:05:57Z", "2009-11-21T23:59:59Z", "2012-02-29T00:00:00Z",
+                "1970-01-01T00:00:00Z", "1969-12-31T23:59:59Z", "2009-11-21T09:05:57.250Z",
+                "2009-11-21T10:05:57+01:00" };
+        StringBuilder xml = new StringBuilder("<node");
+        for (int i = 0; i < values.length; i++) {
+            xml.append(" t").append(i).append("=\"").append(values[i]).append('"');
+        }
+        OSMXmlReader reader = reader(xml.append("/>").toString(), 8192);
+        reader.next();
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], parseDateTime(values[i]),
+                    reader.getTimestampAttribute("t" + i));
+        }
+        try {
+            reader.getTimestampAttribute("timestamp");
+            fail("expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("timestamp"));
+        }
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        OSMXmlReader reader = reader("<osm><node id=\"1", 8192);
+        assertEquals(START_ELEMENT, reader.next());
+        try {
+            reader.next();
+            fail("expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("unterminated"));
+        }
+    }
+}
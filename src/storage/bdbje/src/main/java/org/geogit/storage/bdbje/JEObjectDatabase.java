@@ -16,6 +16,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -222,6 +225,99 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         return SUCCESS == status;
     }
 
+    /**
+     * Overrides to look up all the ids with a single cursor, taking advantage of them being sorted
+     * the same way as the database keys.
+     */
+    @Override
+    protected List<ObjectId> findMissing(final List<ObjectId> sortedIds) {
+        List<ObjectId> missing = new ArrayList<ObjectId>();
+
+        final DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);// do not retrieve data
+
+        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Cursor cursor = objectDb.openCursor(transaction, CursorConfig.READ_UNCOMMITTED);
+        try {
+            DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
+            for (ObjectId id : sortedIds) {
+                // copy id to key object without allocating new byte[]
+                id.getRawValue(key.getData());
+                OperationStatus status = cursor.getSearchKey(key, data,
+                        LockMode.READ_UNCOMMITTED);
+                if (!SUCCESS.equals(status)) {
+                    missing.add(id);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return missing;
+    }
+
+    /**
+     * Overrides to read all the objects through a single cursor, taking advantage of the ids being
+     * sorted the same way as the database keys.
+     */
+    @Override
+    protected SortedMap<ObjectId, byte[]> getAllStoredBytes(final List<ObjectId> sortedIds) {
+        SortedMap<ObjectId, byte[]> stored = new TreeMap<ObjectId, byte[]>();
+
+        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Cursor cursor = objectDb.openCursor(transaction, CursorConfig.READ_UNCOMMITTED);
+        try {
+            DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
+            DatabaseEntry data = new DatabaseEntry();
+            for (ObjectId id : sortedIds) {
+                id.getRawValue(key.getData());
+                OperationStatus status = cursor.getSearchKey(key, data,
+                        LockMode.READ_UNCOMMITTED);
+                if (SUCCESS.equals(status)) {
+                    stored.put(id, data.getData());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+
+    /**
+     * Overrides to insert all the objects through a single cursor and transaction, as
+     * {@link BulkInsert} does for parsed objects.
+     */
+    @Override
+    protected void putAllStoredBytes(final SortedMap<ObjectId, byte[]> storedObjects) {
+        final boolean transactional = objectDb.getConfig().getTransactional();
+        Transaction transaction = null;
+        boolean handleTx = false;
+        if (transactional) {
+            transaction = txn.getTransaction();
+            handleTx = transaction == null;
+            if (handleTx) {
+                transaction = txn.beginTransaction(TransactionConfig.DEFAULT);
+            }
+        }
+        Cursor cursor = objectDb.openCursor(transaction, CursorConfig.READ_UNCOMMITTED);
+        try {
+            DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
+            for (Map.Entry<ObjectId, byte[]> e : storedObjects.entrySet()) {
+                e.getKey().getRawValue(key.getData());
+                cursor.putNoOverwrite(key, new DatabaseEntry(e.getValue()));
+            }
+            cursor.close();
+            if (handleTx) {
+                txn.commitTransaction();
+            }
+        } catch (RuntimeException e) {
+            cursor.close();
+            if (handleTx) {
+                txn.abortTransaction();
+            }
+            throw e;
+        }
+    }
+
     @Override
     protected InputStream getRawInternal(final ObjectId id, final boolean failIfNotFound) {
         Preconditions.checkNotNull(id, "id");
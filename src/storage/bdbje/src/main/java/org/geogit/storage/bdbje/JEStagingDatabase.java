@@ -14,6 +14,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
 
 import javax.annotation.Nullable;
 
@@ -37,7 +38,9 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 import com.google.inject.Inject;
@@ -189,6 +192,23 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return obj;
     }
 
+    /**
+     * Reads the objects found in this database first, and the missing ones from the repository
+     * database.
+     */
+    @Override
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+        List<RevObject> found = Lists.newArrayList(stagingDb.getAll(ids));
+        Set<ObjectId> missing = Sets.newHashSet(ids);
+        for (RevObject object : found) {
+            missing.remove(object.getId());
+        }
+        if (!missing.isEmpty()) {
+            Iterators.addAll(found, repositoryDb.getAll(missing));
+        }
+        return found.iterator();
+    }
+
     @Override
     @Nullable
     public RevObject getIfPresent(ObjectId id) {
@@ -230,6 +250,16 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         stagingDb.putAll(objects);
     }
 
+    @Override
+    public byte[] encode(RevObject object) {
+        return stagingDb.encode(object);
+    }
+
+    @Override
+    public void putAllEncoded(SortedMap<ObjectId, byte[]> encodedObjects) {
+        stagingDb.putAllEncoded(encodedObjects);
+    }
+
     @Override
     public boolean put(ObjectId objectId, InputStream raw) {
         return stagingDb.put(objectId, raw);
@@ -4,6 +4,8 @@ import java.util.UUID;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.GeogitTransaction;
+import org.geotools.util.NullProgressListener;
+import org.opengis.util.ProgressListener;
 
 /**
  * An abstract command that allows WebAPICommands to support long transactions.
@@ -13,6 +15,8 @@ public abstract class AbstractWebAPICommand implements WebAPICommand {
 
     private UUID transactionId = null;
 
+    private ProgressListener progressListener = new NullProgressListener();
+
     /**
      * Accessor for the transactionId
      * 
@@ -33,6 +37,24 @@ public abstract class AbstractWebAPICommand implements WebAPICommand {
         }
     }
 
+    /**
+     * Accessor for the progressListener
+     * 
+     * @return the listener long running operations report their progress to
+     */
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * Mutator for the progressListener
+     * 
+     * @param progressListener - the listener long running operations report their progress to
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
     /**
      * This function either builds a GeoGitTransaction to run commands off of if there is a
      * transactionId to build off of or the GeoGit commandLocator otherwise.
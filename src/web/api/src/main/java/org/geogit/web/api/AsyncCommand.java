@@ -0,0 +1,247 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.GeoGIT;
+import org.geotools.util.NullProgressListener;
+
+/**
+ * A web API command submitted to the {@link AsyncCommandExecutor}, holding its status, progress and
+ * eventually its response so that clients can poll for them.
+ *
+ * @see AsyncCommandExecutor
+ */
+public class AsyncCommand {
+
+    /**
+     * The states a task goes through. {@code FINISHED}, {@code FAILED} and {@code CANCELLED} are
+     * final.
+     */
+    public enum Status {
+        WAITING, RUNNING, FINISHED, FAILED, CANCELLED;
+    }
+
+    private final String id;
+
+    private final String commandName;
+
+    private final String repositoryKey;
+
+    private final int priority;
+
+    private final long sequence;
+
+    private final AbstractWebAPICommand command;
+
+    private final GeoGIT geogit;
+
+    private final TaskProgressListener progress;
+
+    private volatile Status status;
+
+    private volatile CommandResponse result;
+
+    private volatile String errorMessage;
+
+    private volatile long finishedAt;
+
+    AsyncCommand(String commandName, AbstractWebAPICommand command, GeoGIT geogit,
+            String repositoryKey, int priority, long sequence) {
+        this.id = UUID.randomUUID().toString();
+        this.commandName = commandName;
+        this.command = command;
+        this.geogit = geogit;
+        this.repositoryKey = repositoryKey;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.status = Status.WAITING;
+        this.progress = new TaskProgressListener();
+        command.setProgressListener(progress);
+    }
+
+    /**
+     * @return the id clients use to refer to this task
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the name of the web API command being run
+     */
+    public String getCommandName() {
+        return commandName;
+    }
+
+    /**
+     * @return the priority of the task, higher priorities are started first
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the current status of the task
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return {@code true} if the task reached one of its final states
+     */
+    public boolean isDone() {
+        Status s = status;
+        return s == Status.FINISHED || s == Status.FAILED || s == Status.CANCELLED;
+    }
+
+    /**
+     * @return the last progress reported by the command, in the range 0-100
+     */
+    public float getProgress() {
+        return progress.getProgress();
+    }
+
+    /**
+     * @return the last description of the current step reported by the command, or {@code null}
+     */
+    @Nullable
+    public String getDescription() {
+        return progress.getDescription();
+    }
+
+    /**
+     * @return the response of the command once {@link Status#FINISHED}, {@code null} otherwise
+     */
+    @Nullable
+    public CommandResponse getResult() {
+        return result;
+    }
+
+    /**
+     * @return the error message if the task {@link Status#FAILED}, {@code null} otherwise
+     */
+    @Nullable
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Asks the command to stop. Commands only check for cancellation at safe points through their
+     * progress listener, so a running task might still finish normally.
+     */
+    void cancel() {
+        progress.setCanceled(true);
+        if (status == Status.WAITING) {
+            finish(Status.CANCELLED);
+        }
+    }
+
+    /**
+     * Runs the command on the calling thread, recording its response or failure.
+     */
+    void run() {
+        if (progress.isCanceled()) {
+            finish(Status.CANCELLED);
+            return;
+        }
+        status = Status.RUNNING;
+        try {
+            CommandContext context = new CommandContext() {
+                @Override
+                public GeoGIT getGeoGIT() {
+                    return geogit;
+                }
+
+                @Override
+                public void setResponseContent(CommandResponse responseContent) {
+                    result = responseContent;
+                }
+            };
+            command.run(context);
+            if (result != null && !progress.isCanceled()) {
+                // do the work of lazily computed responses here rather than when it's fetched
+                result = RecordedResponse.record(result);
+            }
+            finish(progress.isCanceled() ? Status.CANCELLED : Status.FINISHED);
+        } catch (Exception e) {
+            errorMessage = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+            finish(Status.FAILED);
+        }
+    }
+
+    private void finish(Status finalStatus) {
+        finishedAt = System.currentTimeMillis();
+        status = finalStatus;
+    }
+
+    /**
+     * Keeps track of the progress and cancellation request of the running command.
+     */
+    private static class TaskProgressListener extends NullProgressListener {
+
+        private volatile float progress;
+
+        private volatile String description;
+
+        private volatile boolean canceled;
+
+        @Override
+        public void started() {
+            progress = 0f;
+        }
+
+        @Override
+        public void progress(float percent) {
+            progress = percent;
+        }
+
+        @Override
+        public float getProgress() {
+            return progress;
+        }
+
+        @Override
+        public void complete() {
+            progress = 100f;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public void setDescription(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public void setCanceled(boolean stop) {
+            canceled = stop;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geogit.api.GeoGIT;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs long running web API commands (fetch, pull, merge, commit, etc.) in the background so that
+ * the request that submits them returns right away with a task id clients can poll for progress,
+ * the final response, or to cancel the task.
+ * <p>
+ * Tasks wait in a bounded priority queue (higher priority first, then submission order) and are
+ * started on a fixed pool of threads, never running more than {@link #getMaxPerRepository()} tasks
+ * against the same repository at once. Finished tasks are kept until their result is retrieved or
+ * for {@link #FINISHED_TASK_TTL} milliseconds, whichever happens first.
+ * <p>
+ * Tasks belong to the repository they were submitted against, and can only be looked up, listed
+ * and cancelled through that same repository.
+ * <p>
+ * The shared instance is created on first use and owns its threads, so whatever embeds the web API
+ * shall call {@link #shutdown()} when it stops, or its threads would keep it from being unloaded.
+ */
+public class AsyncCommandExecutor {
+
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime()
+            .availableProcessors());
+
+    public static final int DEFAULT_MAX_PER_REPOSITORY = 1;
+
+    public static final int DEFAULT_MAX_WAITING = 100;
+
+    public static final long FINISHED_TASK_TTL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * How long {@link #shutdown()} waits for the running tasks to stop, in milliseconds
+     */
+    public static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static AsyncCommandExecutor instance;
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    private final int maxPerRepository;
+
+    private final int maxWaiting;
+
+    private final long finishedTaskTtl;
+
+    private final PriorityQueue<AsyncCommand> waiting;
+
+    private final Map<String, Integer> runningPerRepository;
+
+    private final Map<String, AsyncCommand> tasks;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private int running;
+
+    AsyncCommandExecutor(int threads, int maxPerRepository, int maxWaiting, long finishedTaskTtl) {
+        this.threads = threads;
+        this.maxPerRepository = maxPerRepository;
+        this.maxWaiting = maxWaiting;
+        this.finishedTaskTtl = finishedTaskTtl;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("geogit-web-task-%d").setDaemon(true).build());
+        this.waiting = new PriorityQueue<AsyncCommand>(11, new Comparator<AsyncCommand>() {
+            @Override
+            public int compare(AsyncCommand o1, AsyncCommand o2) {
+                if (o1.getPriority() != o2.getPriority()) {
+                    return o1.getPriority() > o2.getPriority() ? -1 : 1;
+                }
+                return o1.getSequence() < o2.getSequence() ? -1
+                        : (o1.getSequence() == o2.getSequence() ? 0 : 1);
+            }
+        });
+        this.runningPerRepository = new HashMap<String, Integer>();
+        this.tasks = new LinkedHashMap<String, AsyncCommand>();
+    }
+
+    /**
+     * @return the singleton instance of the {@code AsyncCommandExecutor}
+     */
+    public static synchronized AsyncCommandExecutor get() {
+        if (instance == null) {
+            instance = new AsyncCommandExecutor(DEFAULT_THREADS, DEFAULT_MAX_PER_REPOSITORY,
+                    DEFAULT_MAX_WAITING, FINISHED_TASK_TTL);
+        }
+        return instance;
+    }
+
+    /**
+     * Shuts the singleton instance down, if it was created: the waiting tasks are cancelled, the
+     * running ones are asked to stop and given {@link #SHUTDOWN_TIMEOUT} to do so, and the threads
+     * are released. A later {@link #get()} creates a new instance.
+     * <p>
+     * Meant to be called when the application embedding the web API stops.
+     */
+    public static void shutdown() {
+        AsyncCommandExecutor stopped;
+        synchronized (AsyncCommandExecutor.class) {
+            stopped = instance;
+            instance = null;
+        }
+        if (stopped != null) {
+            stopped.stop(SHUTDOWN_TIMEOUT);
+        }
+    }
+
+    /**
+     * Cancels all the tasks, and waits up to the given time for the running ones to stop. The
+     * threads are never interrupted, since commands may be doing I/O on the repository.
+     *
+     * @param timeout how long to wait for the running tasks, in milliseconds
+     * @return whether all the tasks stopped in time
+     */
+    boolean stop(long timeout) {
+        synchronized (this) {
+            for (AsyncCommand task : tasks.values()) {
+                if (!task.isDone()) {
+                    task.cancel();
+                }
+            }
+            waiting.clear();
+            executor.shutdown();
+        }
+        try {
+            return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the maximum number of tasks running at the same time against a single repository
+     */
+    public int getMaxPerRepository() {
+        return maxPerRepository;
+    }
+
+    /**
+     * Queues a command to be run in the background.
+     *
+     * @param commandName the name of the web API command, for reporting purposes
+     * @param command the command to run
+     * @param geogit the repository to run the command against
+     * @param priority the task's priority, higher values are started first
+     * @return the submitted task
+     * @throws CommandSpecException if there are already too many tasks waiting to be run
+     * @throws IllegalStateException if the executor was shut down
+     */
+    public synchronized AsyncCommand submit(String commandName, AbstractWebAPICommand command,
+            GeoGIT geogit, int priority) throws CommandSpecException {
+        Preconditions.checkState(!executor.isShutdown(), "The executor was shut down");
+        purgeExpired();
+        if (waiting.size() >= maxWaiting) {
+            throw new CommandSpecException("Too many tasks waiting to be run, try again later.");
+        }
+        String repositoryKey = repositoryKey(geogit);
+        AsyncCommand task = new AsyncCommand(commandName, command, geogit, repositoryKey,
+                priority, sequence.incrementAndGet());
+        tasks.put(task.getId(), task);
+        waiting.add(task);
+        dispatch();
+        return task;
+    }
+
+    /**
+     * @param geogit the repository the task was submitted against
+     * @param taskId the id of the task
+     * @return the task with the given id, if it's still known and belongs to the given repository
+     */
+    public synchronized Optional<AsyncCommand> getTask(GeoGIT geogit, String taskId) {
+        purgeExpired();
+        return find(geogit, taskId);
+    }
+
+    /**
+     * @param geogit the repository the tasks were submitted against
+     * @return all the tasks known to this executor for the given repository, in submission order
+     */
+    public synchronized List<AsyncCommand> getTasks(GeoGIT geogit) {
+        purgeExpired();
+        final String repositoryKey = repositoryKey(geogit);
+        List<AsyncCommand> repositoryTasks = new ArrayList<AsyncCommand>();
+        for (AsyncCommand task : tasks.values()) {
+            if (repositoryKey.equals(task.getRepositoryKey())) {
+                repositoryTasks.add(task);
+            }
+        }
+        return repositoryTasks;
+    }
+
+    /**
+     * Cancels a task. Waiting tasks are removed from the queue, running ones are asked to stop
+     * through their progress listener.
+     *
+     * @param geogit the repository the task was submitted against
+     * @param taskId the id of the task
+     * @return the cancelled task, if it's still known and belongs to the given repository
+     */
+    public synchronized Optional<AsyncCommand> cancel(GeoGIT geogit, String taskId) {
+        Optional<AsyncCommand> task = find(geogit, taskId);
+        if (task.isPresent() && !task.get().isDone()) {
+            waiting.remove(task.get());
+            task.get().cancel();
+        }
+        return task;
+    }
+
+    /**
+     * Forgets about a finished task, usually after its result has been handed to the client.
+     *
+     * @param geogit the repository the task was submitted against
+     * @param taskId the id of the task
+     */
+    public synchronized void remove(GeoGIT geogit, String taskId) {
+        Optional<AsyncCommand> task = find(geogit, taskId);
+        if (task.isPresent() && task.get().isDone()) {
+            tasks.remove(taskId);
+        }
+    }
+
+    private Optional<AsyncCommand> find(GeoGIT geogit, String taskId) {
+        AsyncCommand task = tasks.get(taskId);
+        if (task == null || !repositoryKey(geogit).equals(task.getRepositoryKey())) {
+            return Optional.absent();
+        }
+        return Optional.of(task);
+    }
+
+    private static String repositoryKey(GeoGIT geogit) {
+        return geogit.getPlatform().pwd().getAbsolutePath();
+    }
+
+    /**
+     * Starts as many waiting tasks as there are free threads for, in priority order, skipping the
+     * ones whose repository is already running as many tasks as allowed. Tasks are only handed to
+     * the thread pool when a thread is free so that they keep waiting in priority order.
+     */
+    private synchronized void dispatch() {
+        List<AsyncCommand> blocked = new ArrayList<AsyncCommand>();
+        AsyncCommand next;
+        while (running < threads && (next = waiting.poll()) != null) {
+            final String key = next.getRepositoryKey();
+            Integer repoRunning = runningPerRepository.get(key);
+            if (repoRunning != null && repoRunning.intValue() >= maxPerRepository) {
+                blocked.add(next);
+                continue;
+            }
+            runningPerRepository.put(key, repoRunning == null ? 1 : repoRunning.intValue() + 1);
+            running++;
+            final AsyncCommand task = next;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        finished(task);
+                    }
+                }
+            });
+        }
+        waiting.addAll(blocked);
+    }
+
+    private synchronized void finished(AsyncCommand task) {
+        final String key = task.getRepositoryKey();
+        int repoRunning = runningPerRepository.get(key).intValue() - 1;
+        if (repoRunning == 0) {
+            runningPerRepository.remove(key);
+        } else {
+            runningPerRepository.put(key, repoRunning);
+        }
+        running--;
+        dispatch();
+    }
+
+    private void purgeExpired() {
+        final long expired = System.currentTimeMillis() - finishedTaskTtl;
+        for (Iterator<AsyncCommand> it = tasks.values().iterator(); it.hasNext();) {
+            AsyncCommand task = it.next();
+            if (task.isDone() && task.getFinishedAt() < expired) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * Computes the HTTP caching validators and lifetimes of the responses served by the web API.
+ * <p>
+ * Objects are content-addressed and can never change, so they are served with their id as a strong
+ * entity tag and a {@link #IMMUTABLE} cache lifetime. Command responses that depend on refs are
+ * only valid as long as the refs keep pointing to the same objects, so their entity tag is computed
+ * from the {@link CommandResponse#getResolvedIds() ids they resolved to} and the request, and they
+ * get a {@link #SHORT_LIVED short} cache lifetime.
+ * <p>
+ * This class doesn't depend on any HTTP framework, the web applications are responsible of setting
+ * the headers and answering conditional requests.
+ */
+public final class CachePolicy {
+
+    /**
+     * Cache lifetime of immutable objects in seconds, one year as recommended by RFC 2616 for
+     * responses that never expire
+     */
+    public static final int IMMUTABLE_MAX_AGE = 365 * 24 * 60 * 60;
+
+    /**
+     * Cache lifetime of ref dependent responses in seconds
+     */
+    public static final int SHORT_LIVED_MAX_AGE = 10;
+
+    /**
+     * {@code Cache-Control} header value for content-addressed objects
+     */
+    public static final String IMMUTABLE = "public, max-age=" + IMMUTABLE_MAX_AGE + ", immutable";
+
+    /**
+     * {@code Cache-Control} header value for responses that depend on refs
+     */
+    public static final String SHORT_LIVED = "public, max-age=" + SHORT_LIVED_MAX_AGE;
+
+    private CachePolicy() {
+        // static utility class
+    }
+
+    /**
+     * @return the opaque (unquoted) strong entity tag for the object with the given id
+     */
+    public static String objectTag(ObjectId id) {
+        return id.toString();
+    }
+
+    /**
+     * Computes the opaque (unquoted) strong entity tag for a command response.
+     * 
+     * @param command the name of the command
+     * @param query the request query string, as it affects the response contents
+     * @param mediaType the response media type
+     * @param resolvedIds the ids the command resolved its refs to
+     * @return the entity tag
+     */
+    public static String responseTag(String command, String query, String mediaType,
+            List<ObjectId> resolvedIds) {
+        StringBuilder sb = new StringBuilder(command).append('?').append(query).append('|')
+                .append(mediaType);
+        for (ObjectId id : resolvedIds) {
+            sb.append('|').append(id);
+        }
+        return ObjectId.forString(sb.toString()).toString();
+    }
+
+    /**
+     * Evaluates an {@code If-None-Match} condition.
+     * 
+     * @param noneMatch the opaque tags of the {@code If-None-Match} request header, {@code *}
+     *        matching any tag. Weak tags are given without their {@code W/} prefix, they match
+     *        the same as strong ones since {@code If-None-Match} uses the weak comparison
+     * @param tag the opaque tag of the current representation
+     * @return {@code true} if the client already has the representation and a
+     *         {@code 304 Not Modified} response shall be returned
+     */
+    public static boolean isNotModified(Iterable<String> noneMatch, String tag) {
+        for (String t : noneMatch) {
+            if ("*".equals(t) || tag.equals(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates an {@code If-None-Match} condition before the representation has been looked up,
+     * only matching the exact tag. As per RFC 7232, {@code *} only matches if a current
+     * representation exists, so it's left for {@link #isNotModified} to evaluate once it has been
+     * found.
+     * 
+     * @param noneMatch the opaque tags of the {@code If-None-Match} request header
+     * @param tag the opaque tag of the requested representation
+     * @return {@code true} if the client already has the representation and a
+     *         {@code 304 Not Modified} response shall be returned
+     */
+    public static boolean isTagMatched(Iterable<String> noneMatch, String tag) {
+        for (String t : noneMatch) {
+            if (tag.equals(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 import org.geogit.api.ObjectId;
 import org.geogit.web.api.commands.AddWebOp;
+import org.geogit.web.api.commands.AsyncWebOp;
 import org.geogit.web.api.commands.BeginTransaction;
 import org.geogit.web.api.commands.BranchWebOp;
 import org.geogit.web.api.commands.CheckoutWebOp;
@@ -23,6 +24,7 @@ import org.geogit.web.api.commands.RemoteWebOp;
 import org.geogit.web.api.commands.RemoveWebOp;
 import org.geogit.web.api.commands.Status;
 import org.geogit.web.api.commands.TagWebOp;
+import org.geogit.web.api.commands.TaskWebOp;
 import org.geogit.web.api.commands.UpdateRefWeb;
 import org.geogit.web.api.commands.VersionWebOp;
 
@@ -87,10 +89,21 @@ public class CommandBuilder {
             command = buildRemove(options);
         } else if ("version".equalsIgnoreCase(commandName)) {
             command = buildVersion(options);
+        } else if ("task".equalsIgnoreCase(commandName)) {
+            command = buildTask(options);
         } else {
             throw new CommandSpecException("'" + commandName + "' is not a geogit command");
         }
 
+        if (Boolean.valueOf(options.getFirstValue("async", "false"))) {
+            if (command instanceof TaskWebOp) {
+                throw new CommandSpecException("The task command can't be run asynchronously");
+            }
+            AsyncWebOp async = new AsyncWebOp(commandName, command);
+            async.setPriority(parseInt(options, "priority", 0));
+            command = async;
+        }
+
         command.setTransactionId(options.getFirstValue("transactionId", null));
 
         return command;
@@ -149,6 +162,7 @@ public class CommandBuilder {
         command.setElementsPerPage(parseInt(options, "show", 30));
         command.setFirstParentOnly(Boolean.valueOf(options
                 .getFirstValue("firstParentOnly", "false")));
+        command.setNext(options.getFirstValue("next", null));
         return command;
     }
 
@@ -180,6 +194,9 @@ public class CommandBuilder {
         lsTree.setRecursive(Boolean.valueOf(options.getFirstValue("recursive", "false")));
         lsTree.setVerbose(Boolean.valueOf(options.getFirstValue("verbose", "false")));
         lsTree.setRefList(Arrays.asList(options.getValuesArray("path")));
+        lsTree.setPage(parseInt(options, "page", 0));
+        lsTree.setElementsPerPage(parseInt(options, "show", null));
+        lsTree.setNext(options.getFirstValue("next", null));
         return lsTree;
     }
 
@@ -212,6 +229,7 @@ public class CommandBuilder {
                 "showGeometryChanges", "false")));
         command.setPage(parseInt(options, "page", 0));
         command.setElementsPerPage(parseInt(options, "show", 30));
+        command.setNext(options.getFirstValue("next", null));
         return command;
     }
 
@@ -429,4 +447,18 @@ public class CommandBuilder {
         command.setRecursive(Boolean.valueOf(options.getFirstValue("recursive", "false")));
         return command;
     }
+
+    /**
+     * Builds the {@link TaskWebOp} command.
+     * 
+     * @param options the parameter set
+     * @return the built command
+     */
+    static TaskWebOp buildTask(ParameterSet options) {
+        TaskWebOp command = new TaskWebOp();
+        command.setTaskId(options.getFirstValue("taskId", null));
+        command.setCancel(Boolean.valueOf(options.getFirstValue("cancel", "false")));
+        command.setResult(Boolean.valueOf(options.getFirstValue("result", "false")));
+        return command;
+    }
 }
@@ -1,10 +1,40 @@
 package org.geogit.web.api;
 
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.ImmutableList;
+
 /**
  * Provides a base abstract response implementation for Web API commands.
  */
 public abstract class CommandResponse {
 
+    private List<ObjectId> resolvedIds = ImmutableList.of();
+
+    /**
+     * Marks this response as fully determined by the request and the given object ids, usually the
+     * commits or trees the requested refs resolved to. Such responses can be cached for a short
+     * time and revalidated by the clients.
+     * 
+     * @param ids the ids the command resolved the requested refs to
+     * @return {@code this}
+     * @see CachePolicy
+     */
+    public CommandResponse setResolvedIds(ObjectId... ids) {
+        this.resolvedIds = ImmutableList.copyOf(ids);
+        return this;
+    }
+
+    /**
+     * @return the ids this response was computed from, or an empty list if the response can't be
+     *         cached
+     */
+    public List<ObjectId> getResolvedIds() {
+        return resolvedIds;
+    }
+
     /**
      * Write the command response to the provided {@link ResponseWriter}.
      * 
@@ -0,0 +1,97 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An opaque token handed to clients of paged responses to get the next page. Besides the position
+ * of the next page it records the ids the command's refs resolved to when the first page was
+ * requested, so that following pages come from the same snapshot even if the refs moved in
+ * between.
+ * <p>
+ * The encoded form is URL safe so it can be sent back as is in the {@code next} parameter.
+ */
+public final class ContinuationToken {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int offset;
+
+    private final ImmutableList<ObjectId> ids;
+
+    /**
+     * @param offset the number of entries to skip to get to the next page
+     * @param ids the ids the command's refs resolved to
+     */
+    public ContinuationToken(int offset, List<ObjectId> ids) {
+        this.offset = offset;
+        this.ids = ImmutableList.copyOf(ids);
+    }
+
+    /**
+     * @return the number of entries to skip to get to the next page
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the ids the command's refs resolved to when the first page was requested
+     */
+    public ImmutableList<ObjectId> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return the URL safe string representation of this token
+     */
+    public String encode() {
+        String plain = offset + ":" + Joiner.on(',').join(ids);
+        String base64 = DatatypeConverter.printBase64Binary(plain.getBytes(UTF8));
+        return base64.replace('+', '-').replace('/', '_').replace("=", "");
+    }
+
+    /**
+     * Parses a token created by {@link #encode()}.
+     *
+     * @param token the encoded token
+     * @param expectedIds the number of ids the command stores in its tokens
+     * @return the decoded token
+     * @throws CommandSpecException if the token is not valid
+     */
+    public static ContinuationToken decode(String token, int expectedIds)
+            throws CommandSpecException {
+        try {
+            String base64 = token.replace('-', '+').replace('_', '/');
+            while (base64.length() % 4 != 0) {
+                base64 += "=";
+            }
+            String plain = new String(DatatypeConverter.parseBase64Binary(base64), UTF8);
+            int sep = plain.indexOf(':');
+            int offset = Integer.parseInt(plain.substring(0, sep));
+            ImmutableList.Builder<ObjectId> ids = ImmutableList.builder();
+            for (String id : Splitter.on(',').omitEmptyStrings().split(plain.substring(sep + 1))) {
+                ids.add(ObjectId.valueOf(id));
+            }
+            ContinuationToken decoded = new ContinuationToken(offset, ids.build());
+            if (offset < 0 || decoded.ids.size() != expectedIds) {
+                throw new IllegalArgumentException();
+            }
+            return decoded;
+        } catch (RuntimeException e) {
+            throw new CommandSpecException("Invalid continuation token: '" + token + "'");
+        }
+    }
+}
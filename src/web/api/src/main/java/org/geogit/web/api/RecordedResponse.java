@@ -0,0 +1,287 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * A {@link CommandResponse} written ahead of time. Many responses only compute their contents while
+ * being written, e.g. by walking the log or diff iterators the command set up, so an
+ * {@link AsyncCommand} records the writer calls of its command's response on the task thread, and
+ * the request fetching the result just replays them, in whatever format it asked for.
+ */
+class RecordedResponse extends CommandResponse {
+
+    /**
+     * A recorded writer call
+     */
+    private static abstract class Event {
+
+        abstract void replay(ResponseStreamWriter out) throws XMLStreamException;
+    }
+
+    private final List<Event> events;
+
+    private RecordedResponse(List<Event> events) {
+        this.events = events;
+    }
+
+    /**
+     * Writes the given response to memory.
+     *
+     * @param response the response to record
+     * @return a response that writes the same as the given one
+     * @throws Exception if writing the response failed
+     */
+    static RecordedResponse record(CommandResponse response) throws Exception {
+        Recorder recorder = new Recorder();
+        response.write(new ResponseWriter(recorder));
+        RecordedResponse recorded = new RecordedResponse(recorder.events);
+        List<ObjectId> ids = response.getResolvedIds();
+        recorded.setResolvedIds(ids.toArray(new ObjectId[ids.size()]));
+        return recorded;
+    }
+
+    @Override
+    public void write(ResponseWriter out) throws Exception {
+        ResponseStreamWriter writer = out.getWriter();
+        for (Event event : events) {
+            event.replay(writer);
+        }
+    }
+
+    /**
+     * Records the calls that produce output, the namespace related ones are ignored like the JSON
+     * writers do.
+     */
+    private static class Recorder implements ResponseStreamWriter {
+
+        private final List<Event> events = new ArrayList<Event>();
+
+        @Override
+        public void writeStartArray(final String name) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeStartArray(name);
+                }
+            });
+        }
+
+        @Override
+        public void writeEndArray() {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeEndArray();
+                }
+            });
+        }
+
+        @Override
+        public void writeStartDocument() {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeStartDocument();
+                }
+            });
+        }
+
+        @Override
+        public void writeStartDocument(String version) {
+            writeStartDocument();
+        }
+
+        @Override
+        public void writeStartDocument(String encoding, String version) {
+            writeStartDocument();
+        }
+
+        @Override
+        public void writeEndDocument() {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeEndDocument();
+                }
+            });
+        }
+
+        @Override
+        public void writeStartElement(final String localName) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeStartElement(localName);
+                }
+            });
+        }
+
+        @Override
+        public void writeStartElement(String namespaceURI, String localName) {
+            writeStartElement(localName);
+        }
+
+        @Override
+        public void writeStartElement(String prefix, String localName, String namespaceURI) {
+            writeStartElement(localName);
+        }
+
+        @Override
+        public void writeEmptyElement(final String localName) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeEmptyElement(localName);
+                }
+            });
+        }
+
+        @Override
+        public void writeEmptyElement(String namespaceURI, String localName) {
+            writeEmptyElement(localName);
+        }
+
+        @Override
+        public void writeEmptyElement(String prefix, String localName, String namespaceURI) {
+            writeEmptyElement(localName);
+        }
+
+        @Override
+        public void writeEndElement() {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeEndElement();
+                }
+            });
+        }
+
+        @Override
+        public void writeAttribute(final String localName, final String value) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeAttribute(localName, value);
+                }
+            });
+        }
+
+        @Override
+        public void writeAttribute(String prefix, String namespaceURI, String localName,
+                String value) {
+            writeAttribute(localName, value);
+        }
+
+        @Override
+        public void writeAttribute(String namespaceURI, String localName, String value) {
+            writeAttribute(localName, value);
+        }
+
+        @Override
+        public void writeCharacters(final String text) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeCharacters(text);
+                }
+            });
+        }
+
+        @Override
+        public void writeCharacters(char[] text, int start, int len) {
+            writeCharacters(new String(text, start, len));
+        }
+
+        @Override
+        public void writeCData(final String data) {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.writeCData(data);
+                }
+            });
+        }
+
+        @Override
+        public void writeComment(String data) {
+        }
+
+        @Override
+        public void writeProcessingInstruction(String target) {
+        }
+
+        @Override
+        public void writeProcessingInstruction(String target, String data) {
+        }
+
+        @Override
+        public void writeDTD(String dtd) {
+        }
+
+        @Override
+        public void writeEntityRef(String name) {
+        }
+
+        @Override
+        public void writeNamespace(String prefix, String namespaceURI) {
+        }
+
+        @Override
+        public void writeDefaultNamespace(String namespaceURI) {
+        }
+
+        @Override
+        public String getPrefix(String uri) {
+            return null;
+        }
+
+        @Override
+        public void setPrefix(String prefix, String uri) {
+        }
+
+        @Override
+        public void setDefaultNamespace(String uri) {
+        }
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context) {
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            throw new IllegalArgumentException("Property " + name + " not supported");
+        }
+
+        /**
+         * Records the flush, so that the replayed response is flushed at the same points.
+         */
+        @Override
+        public void flush() {
+            events.add(new Event() {
+                @Override
+                void replay(ResponseStreamWriter out) throws XMLStreamException {
+                    out.flush();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+/**
+ * A {@link CommandSpecException} for requests about something that doesn't exist, which the web
+ * applications answer with a {@code 404 Not Found} status.
+ */
+@SuppressWarnings("serial")
+public class ResourceNotFoundException extends CommandSpecException {
+
+    /**
+     * Constructs a new {code ResourceNotFoundException} with the given message.
+     * 
+     * @param message the message
+     */
+    public ResourceNotFoundException(String message) {
+        super(message);
+    }
+
+}
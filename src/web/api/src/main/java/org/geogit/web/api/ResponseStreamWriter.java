@@ -0,0 +1,43 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The stream a {@link ResponseWriter} writes to. On top of the XML events, it's told where lists
+ * of repeated elements start and end, for the formats that can't tell a single element from a list
+ * without looking ahead, and it's flushed regularly so that clients start receiving large
+ * responses while they're still being produced.
+ * 
+ * @see StreamingJSONWriter
+ * @see ForwardingResponseStreamWriter
+ */
+public interface ResponseStreamWriter extends XMLStreamWriter {
+
+    /**
+     * Starts a list of repeated elements, which lasts until the matching {@link #writeEndArray()}.
+     * 
+     * @param name the name of the repeated elements
+     * @throws XMLStreamException
+     */
+    public void writeStartArray(String name) throws XMLStreamException;
+
+    /**
+     * Ends the list started by the last {@link #writeStartArray(String)} call.
+     * 
+     * @throws XMLStreamException
+     */
+    public void writeEndArray() throws XMLStreamException;
+
+    /**
+     * Sends everything written so far to the client, as far as the format allows it.
+     * 
+     * @throws XMLStreamException
+     */
+    @Override
+    public void flush() throws XMLStreamException;
+}
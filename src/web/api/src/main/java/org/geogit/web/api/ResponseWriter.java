@@ -10,9 +10,7 @@ import java.util.UUID;
 
 import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
-import org.codehaus.jettison.AbstractXMLStreamWriter;
 import org.geogit.api.CommandLocator;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.FeatureInfo;
@@ -63,25 +61,27 @@ import com.google.common.collect.Iterators;
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
- * Provides a wrapper for writing common GeoGit objects to a provided {@link XMLStreamWriter}.
+ * Provides a wrapper for writing common GeoGit objects to a provided {@link ResponseStreamWriter}.
  */
 public class ResponseWriter {
 
-    protected final XMLStreamWriter out;
+    /**
+     * How many list items are written between flushes of the underlying stream, so that clients
+     * start receiving large responses while they're still being produced
+     */
+    public static final int FLUSH_INTERVAL = 100;
+
+    protected final ResponseStreamWriter out;
+
+    private int itemsWritten;
 
     /**
-     * Constructs a new {code ResponseWriter} with the given {@link XMLStreamWriter}.
+     * Constructs a new {code ResponseWriter} with the given {@link ResponseStreamWriter}.
      * 
      * @param out the output stream to write to
      */
-    public ResponseWriter(XMLStreamWriter out) {
+    public ResponseWriter(ResponseStreamWriter out) {
         this.out = out;
-        if (out instanceof AbstractXMLStreamWriter) {
-            configureJSONOutput((AbstractXMLStreamWriter) out);
-        }
-    }
-
-    private void configureJSONOutput(AbstractXMLStreamWriter out) {
     }
 
     /**
@@ -146,9 +146,54 @@ public class ResponseWriter {
     }
 
     /**
-     * @return the {@link XMLStreamWriter} for this instance
+     * Starts a list of elements with the given name. Formats that can't tell a single element from
+     * a list without it, like the streaming JSON one, write the elements up to the matching
+     * {@link #endArray()} as a list.
+     * 
+     * @param name the name of the elements in the list
+     * @throws XMLStreamException
+     * @see ResponseStreamWriter#writeStartArray(String)
+     */
+    public void startArray(String name) throws XMLStreamException {
+        out.writeStartArray(name);
+    }
+
+    /**
+     * Ends the list started by the last call to {@link #startArray(String)}.
+     * 
+     * @throws XMLStreamException
+     */
+    public void endArray() throws XMLStreamException {
+        out.writeEndArray();
+    }
+
+    /**
+     * Called after each list item is written, flushes the stream every {@link #FLUSH_INTERVAL}
+     * items.
+     * 
+     * @throws XMLStreamException
+     */
+    private void itemWritten() throws XMLStreamException {
+        if (++itemsWritten % FLUSH_INTERVAL == 0) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes an opaque token clients can send back to get the next page of a paged response.
+     * 
+     * @param token the continuation token
+     * @throws XMLStreamException
+     * @see ContinuationToken
      */
-    public XMLStreamWriter getWriter() {
+    public void writeContinuation(ContinuationToken token) throws XMLStreamException {
+        writeElement("next", token.encode());
+    }
+
+    /**
+     * @return the {@link ResponseStreamWriter} for this instance
+     */
+    public ResponseStreamWriter getWriter() {
         return out;
     }
 
@@ -200,6 +245,7 @@ public class ResponseWriter {
         if (length < 0) {
             length = Integer.MAX_VALUE;
         }
+        startArray("unmerged");
         for (int i = 0; i < length && entries.hasNext(); i++) {
             Conflict entry = entries.next();
             out.writeStartElement("unmerged");
@@ -209,7 +255,9 @@ public class ResponseWriter {
             writeElement("theirs", entry.getTheirs().toString());
             writeElement("ancestor", entry.getAncestor().toString());
             out.writeEndElement();
+            itemWritten();
         }
+        endArray();
     }
 
     @SuppressWarnings("rawtypes")
@@ -226,15 +274,17 @@ public class ResponseWriter {
      * @param start the change number to start writing from
      * @param length the number of changes to write
      * @param entries an iterator for the DiffEntries to write
+     * @return {@code true} if there are more entries after the ones written
      * @throws XMLStreamException
      */
-    public void writeDiffEntries(String name, int start, int length, Iterator<DiffEntry> entries)
-            throws XMLStreamException {
+    public boolean writeDiffEntries(String name, int start, int length,
+            Iterator<DiffEntry> entries) throws XMLStreamException {
         advance(entries, start);
         if (length < 0) {
             length = Integer.MAX_VALUE;
         }
         int counter = 0;
+        startArray(name);
         while (entries.hasNext() && counter < length) {
             DiffEntry entry = entries.next();
             out.writeStartElement(name);
@@ -258,11 +308,15 @@ public class ResponseWriter {
                 writeElement("oldObjectId", oldObject.objectId().toString());
             }
             out.writeEndElement();
+            itemWritten();
             counter++;
         }
+        endArray();
         if (entries.hasNext()) {
             writeElement("nextPage", "true");
+            return true;
         }
+        return false;
     }
 
     /**
@@ -271,13 +325,29 @@ public class ResponseWriter {
      * @param entries an iterator for the RevCommits to write
      * @param page the page number to write
      * @param elementsPerPage the number of commits per page
+     * @return {@code true} if there are more commits after the ones written
+     * @throws XMLStreamException
+     */
+    public boolean writeCommits(Iterator<RevCommit> entries, int page, int elementsPerPage)
+            throws XMLStreamException {
+        return writeCommitRange(entries, page * elementsPerPage, elementsPerPage);
+    }
+
+    /**
+     * Writes a set of {@link RevCommit}s to the stream, starting at the given offset.
+     * 
+     * @param entries an iterator for the RevCommits to write
+     * @param start the number of commits to skip
+     * @param length the maximum number of commits to write
+     * @return {@code true} if there are more commits after the ones written
      * @throws XMLStreamException
      */
-    public void writeCommits(Iterator<RevCommit> entries, int page, int elementsPerPage)
+    public boolean writeCommitRange(Iterator<RevCommit> entries, int start, int length)
             throws XMLStreamException {
-        advance(entries, page * elementsPerPage);
+        advance(entries, start);
         int counter = 0;
-        while (entries.hasNext() && counter < elementsPerPage) {
+        startArray("commit");
+        while (entries.hasNext() && counter < length) {
             RevCommit entry = entries.next();
             out.writeStartElement("commit");
             writeElement("id", entry.getId().toString());
@@ -285,9 +355,11 @@ public class ResponseWriter {
 
             ImmutableList<ObjectId> parentIds = entry.getParentIds();
             out.writeStartElement("parents");
+            startArray("id");
             for (ObjectId parentId : parentIds) {
                 writeElement("id", parentId.toString());
             }
+            endArray();
             out.writeEndElement();
 
             writePerson("author", entry.getAuthor());
@@ -300,11 +372,15 @@ public class ResponseWriter {
             out.writeEndElement();
 
             out.writeEndElement();
+            itemWritten();
             counter++;
         }
+        endArray();
         if (entries.hasNext()) {
             writeElement("nextPage", "true");
+            return true;
         }
+        return false;
     }
 
     /**
@@ -360,8 +436,28 @@ public class ResponseWriter {
      */
     public void writeLsTreeResponse(Iterator<NodeRef> iter, boolean verbose)
             throws XMLStreamException {
+        writeLsTreeResponse(iter, verbose, 0, -1);
+    }
 
-        while (iter.hasNext()) {
+    /**
+     * Writes a page of the response for the {@link LsTree} command to the stream.
+     * 
+     * @param iter the iterator of {@link NodeRefs}
+     * @param verbose if true, more detailed information about each node will be provided
+     * @param start the number of nodes to skip
+     * @param length the maximum number of nodes to write, or a negative number for all of them
+     * @return {@code true} if there are more nodes after the ones written
+     * @throws XMLStreamException
+     */
+    public boolean writeLsTreeResponse(Iterator<NodeRef> iter, boolean verbose, int start,
+            int length) throws XMLStreamException {
+        advance(iter, start);
+        if (length < 0) {
+            length = Integer.MAX_VALUE;
+        }
+        int counter = 0;
+        startArray("node");
+        while (iter.hasNext() && counter < length) {
             NodeRef node = iter.next();
             out.writeStartElement("node");
             writeElement("path", node.path());
@@ -371,8 +467,15 @@ public class ResponseWriter {
                 writeElement("objectId", node.objectId().toString());
             }
             out.writeEndElement();
+            itemWritten();
+            counter++;
         }
-
+        endArray();
+        if (iter.hasNext()) {
+            writeElement("nextPage", "true");
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -428,14 +531,17 @@ public class ResponseWriter {
             throws XMLStreamException {
 
         out.writeStartElement("Local");
+        startArray("Branch");
         for (Ref branch : localBranches) {
             out.writeStartElement("Branch");
             writeElement("name", branch.localName());
             out.writeEndElement();
         }
+        endArray();
         out.writeEndElement();
 
         out.writeStartElement("Remote");
+        startArray("Branch");
         for (Ref branch : remoteBranches) {
             if (!(branch instanceof SymRef)) {
                 out.writeStartElement("Branch");
@@ -444,6 +550,7 @@ public class ResponseWriter {
                 out.writeEndElement();
             }
         }
+        endArray();
         out.writeEndElement();
 
     }
@@ -455,11 +562,13 @@ public class ResponseWriter {
      * @throws XMLStreamException
      */
     public void writeRemoteListResponse(List<Remote> remotes) throws XMLStreamException {
+        startArray("Remote");
         for (Remote remote : remotes) {
             out.writeStartElement("Remote");
             writeElement("name", remote.getName());
             out.writeEndElement();
         }
+        endArray();
     }
 
     /**
@@ -469,19 +578,23 @@ public class ResponseWriter {
      * @throws XMLStreamException
      */
     public void writeTagListResponse(List<RevTag> tags) throws XMLStreamException {
+        startArray("Tag");
         for (RevTag tag : tags) {
             out.writeStartElement("Tag");
             writeElement("name", tag.getName());
             out.writeEndElement();
         }
+        endArray();
     }
 
     public void writeFetchResponse(FetchResult result) throws XMLStreamException {
         out.writeStartElement("Fetch");
         if (result.getChangedRefs().entrySet().size() > 0) {
+            startArray("Remote");
             for (Entry<String, List<ChangedRef>> entry : result.getChangedRefs().entrySet()) {
                 out.writeStartElement("Remote");
                 writeElement("remoteName", entry.getKey());
+                startArray("Branch");
                 for (ChangedRef ref : entry.getValue()) {
                     out.writeStartElement("Branch");
 
@@ -498,8 +611,10 @@ public class ResponseWriter {
                     }
                     out.writeEndElement();
                 }
+                endArray();
                 out.writeEndElement();
             }
+            endArray();
         }
         out.writeEndElement();
     }
@@ -549,6 +664,7 @@ public class ResponseWriter {
             throws XMLStreamException {
         Set<Entry<PropertyDescriptor, AttributeDiff>> entries = diffs.entrySet();
         Iterator<Entry<PropertyDescriptor, AttributeDiff>> iter = entries.iterator();
+        startArray("diff");
         while (iter.hasNext()) {
             Entry<PropertyDescriptor, AttributeDiff> entry = iter.next();
             out.writeStartElement("diff");
@@ -565,6 +681,7 @@ public class ResponseWriter {
             }
             out.writeEndElement();
         }
+        endArray();
     }
 
     /**
@@ -572,72 +689,94 @@ public class ResponseWriter {
      * 
      * @param geogit - a CommandLocator to call commands from
      * @param diff - a DiffEntry iterator to build the response from
+     * @return {@code true} if there are more changes after the ones written
      * @throws XMLStreamException
      */
-    public void writeGeometryChanges(final CommandLocator geogit, Iterator<DiffEntry> diff, int page,
-            int elementsPerPage) throws XMLStreamException {
+    public boolean writeGeometryChanges(final CommandLocator geogit, Iterator<DiffEntry> diff,
+            int page, int elementsPerPage) throws XMLStreamException {
+        return writeGeometryChangeRange(geogit, diff, page * elementsPerPage, elementsPerPage) >= 0;
+    }
 
-        advance(diff, page * elementsPerPage);
+    /**
+     * Writes the response for a set of diffs while also supplying the geometry, starting at the
+     * given offset.
+     * 
+     * @param geogit - a CommandLocator to call commands from
+     * @param diff - a DiffEntry iterator to build the response from
+     * @param start - the number of diffs to skip
+     * @param length - the maximum number of changes to write, or 0 for all of them
+     * @return the number of diffs to skip to continue after the ones written, which is not the
+     *         same as {@code start + length} since diffs without a geometry are not written, or
+     *         {@code -1} if there are no more diffs
+     * @throws XMLStreamException
+     */
+    public int writeGeometryChangeRange(final CommandLocator geogit, Iterator<DiffEntry> diff,
+            int start, int length) throws XMLStreamException {
+        final int elementsPerPage = length;
+        advance(diff, start);
         int counter = 0;
-
-        Iterator<GeometryChange> changeIterator = Iterators.transform(diff,
-                new Function<DiffEntry, GeometryChange>() {
-                    @Override
-                    public GeometryChange apply(DiffEntry input) {
-                        Optional<RevObject> feature = Optional.absent();
-                        Optional<RevObject> type = Optional.absent();
-                        String path = null;
-                        String crsCode = null;
-                        GeometryChange change = null;
-                        if (input.changeType() == ChangeType.ADDED
-                                || input.changeType() == ChangeType.MODIFIED) {
-                            feature = geogit.command(RevObjectParse.class)
-                                    .setObjectId(input.newObjectId()).call();
-                            type = geogit.command(RevObjectParse.class)
-                                    .setObjectId(input.getNewObject().getMetadataId()).call();
-                            path = input.getNewObject().path();
-
-                        } else if (input.changeType() == ChangeType.REMOVED) {
-                            feature = geogit.command(RevObjectParse.class)
-                                    .setObjectId(input.oldObjectId()).call();
-                            type = geogit.command(RevObjectParse.class)
-                                    .setObjectId(input.getOldObject().getMetadataId()).call();
-                            path = input.getOldObject().path();
-                        }
-                        if (feature.isPresent() && feature.get() instanceof RevFeature
-                                && type.isPresent() && type.get() instanceof RevFeatureType) {
-                            RevFeatureType featureType = (RevFeatureType) type.get();
-                            Collection<PropertyDescriptor> attribs = featureType.type()
-                                    .getDescriptors();
-
-                            for (PropertyDescriptor attrib : attribs) {
-                                PropertyType attrType = attrib.getType();
-                                GtEntityType entityType = GtEntityType.fromBinding(attrType
-                                        .getBinding());
-                                if (entityType.isGeometry() && attrType instanceof GeometryType) {
-                                    GeometryType gt = (GeometryType) attrType;
-                                    CoordinateReferenceSystem crs = gt
-                                            .getCoordinateReferenceSystem();
-                                    if (crs != null) {
-                                        crsCode = CRS.toSRS(crs);
-                                    }
-                                    break;
-                                }
+        int consumed = 0;
+
+        Function<DiffEntry, GeometryChange> toGeometryChange;
+        toGeometryChange = new Function<DiffEntry, GeometryChange>() {
+            @Override
+            public GeometryChange apply(DiffEntry input) {
+                Optional<RevObject> feature = Optional.absent();
+                Optional<RevObject> type = Optional.absent();
+                String path = null;
+                String crsCode = null;
+                GeometryChange change = null;
+                if (input.changeType() == ChangeType.ADDED
+                        || input.changeType() == ChangeType.MODIFIED) {
+                    feature = geogit.command(RevObjectParse.class)
+                            .setObjectId(input.newObjectId()).call();
+                    type = geogit.command(RevObjectParse.class)
+                            .setObjectId(input.getNewObject().getMetadataId()).call();
+                    path = input.getNewObject().path();
+
+                } else if (input.changeType() == ChangeType.REMOVED) {
+                    feature = geogit.command(RevObjectParse.class)
+                            .setObjectId(input.oldObjectId()).call();
+                    type = geogit.command(RevObjectParse.class)
+                            .setObjectId(input.getOldObject().getMetadataId()).call();
+                    path = input.getOldObject().path();
+                }
+                if (feature.isPresent() && feature.get() instanceof RevFeature
+                        && type.isPresent() && type.get() instanceof RevFeatureType) {
+                    RevFeatureType featureType = (RevFeatureType) type.get();
+                    Collection<PropertyDescriptor> attribs = featureType.type()
+                            .getDescriptors();
+
+                    for (PropertyDescriptor attrib : attribs) {
+                        PropertyType attrType = attrib.getType();
+                        GtEntityType entityType = GtEntityType.fromBinding(attrType
+                                .getBinding());
+                        if (entityType.isGeometry() && attrType instanceof GeometryType) {
+                            GeometryType gt = (GeometryType) attrType;
+                            CoordinateReferenceSystem crs = gt
+                                    .getCoordinateReferenceSystem();
+                            if (crs != null) {
+                                crsCode = CRS.toSRS(crs);
                             }
-
-                            RevFeature revFeature = (RevFeature) feature.get();
-                            FeatureBuilder builder = new FeatureBuilder(featureType);
-                            GeogitSimpleFeature simpleFeature = (GeogitSimpleFeature) builder
-                                    .build(revFeature.getId().toString(), revFeature);
-                            change = new GeometryChange(simpleFeature, input.changeType(), path,
-                                    crsCode);
+                            break;
                         }
-                        return change;
                     }
-                });
 
-        while (changeIterator.hasNext() && (elementsPerPage == 0 || counter < elementsPerPage)) {
-            GeometryChange next = changeIterator.next();
+                    RevFeature revFeature = (RevFeature) feature.get();
+                    FeatureBuilder builder = new FeatureBuilder(featureType);
+                    GeogitSimpleFeature simpleFeature = (GeogitSimpleFeature) builder
+                            .build(revFeature.getId().toString(), revFeature);
+                    change = new GeometryChange(simpleFeature, input.changeType(), path,
+                            crsCode);
+                }
+                return change;
+            }
+        };
+
+        startArray("Feature");
+        while (diff.hasNext() && (elementsPerPage == 0 || counter < elementsPerPage)) {
+            GeometryChange next = toGeometryChange.apply(diff.next());
+            consumed++;
             if (next != null) {
                 GeogitSimpleFeature feature = next.getFeature();
                 ChangeType change = next.getChangeType();
@@ -655,12 +794,16 @@ public class ResponseWriter {
                     writeElement("crs", next.getCRS());
                 }
                 out.writeEndElement();
+                itemWritten();
                 counter++;
             }
         }
-        if (changeIterator.hasNext()) {
+        endArray();
+        if (diff.hasNext()) {
             writeElement("nextPage", "true");
+            return start + consumed;
         }
+        return -1;
     }
 
     /**
@@ -762,6 +905,7 @@ public class ResponseWriter {
                     }
                 });
 
+        startArray("Feature");
         while (conflictIterator.hasNext()) {
             GeometryConflict next = conflictIterator.next();
             if (next != null) {
@@ -775,8 +919,10 @@ public class ResponseWriter {
                     writeElement("crs", next.getCRS());
                 }
                 out.writeEndElement();
+                itemWritten();
             }
         }
+        endArray();
     }
 
     /**
@@ -823,6 +969,7 @@ public class ResponseWriter {
                     }
                 });
 
+        startArray("Feature");
         while (changeIterator.hasNext()) {
             GeometryChange next = changeIterator.next();
             if (next != null) {
@@ -841,8 +988,10 @@ public class ResponseWriter {
                     writeElement("crs", next.getCRS());
                 }
                 out.writeEndElement();
+                itemWritten();
             }
         }
+        endArray();
     }
 
     /**
@@ -883,6 +1032,42 @@ public class ResponseWriter {
         out.writeEndElement();
     }
 
+    /**
+     * Writes the status and progress of a background task.
+     * 
+     * @param task - the task to describe
+     * @throws XMLStreamException
+     */
+    public void writeTask(AsyncCommand task) throws XMLStreamException {
+        out.writeStartElement("Task");
+        writeElement("id", task.getId());
+        writeElement("command", task.getCommandName());
+        writeElement("status", task.getStatus().toString());
+        writeElement("priority", Integer.toString(task.getPriority()));
+        writeElement("progress", Float.toString(task.getProgress()));
+        if (task.getDescription() != null) {
+            writeElement("description", task.getDescription());
+        }
+        if (task.getErrorMessage() != null) {
+            writeElement("error", task.getErrorMessage());
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Writes the status and progress of several background tasks.
+     * 
+     * @param tasks - the tasks to describe
+     * @throws XMLStreamException
+     */
+    public void writeTasks(List<AsyncCommand> tasks) throws XMLStreamException {
+        startArray("Task");
+        for (AsyncCommand task : tasks) {
+            writeTask(task);
+        }
+        endArray();
+    }
+
     private class GeometryChange {
         private GeogitSimpleFeature feature;
 
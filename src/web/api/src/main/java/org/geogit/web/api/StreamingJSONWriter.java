@@ -0,0 +1,397 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A {@link ResponseStreamWriter} that writes compact JSON as the events come in, instead of
+ * building the whole document in memory before writing it like Jettison's mapped writer does, so
+ * that the first bytes of large responses reach the client as soon as they're produced.
+ * <p>
+ * Elements map to object members. An element with only text becomes a string member, or a boolean
+ * for {@code true} and {@code false}. An element with child elements becomes a nested object.
+ * Attributes become members prefixed with {@code @}. Since the writer can't look ahead, repeated
+ * elements must be enclosed in {@link #writeStartArray(String)} / {@link #writeEndArray()} calls,
+ * as {@link ResponseWriter#startArray(String)} does, and consecutive arrays with the same name are
+ * merged into a single one. Namespaces, comments and processing instructions are ignored.
+ */
+public class StreamingJSONWriter implements ResponseStreamWriter {
+
+    private static class Frame {
+
+        final String name;
+
+        final boolean array;
+
+        boolean opened;
+
+        boolean hasMembers;
+
+        StringBuilder text;
+
+        Frame(String name, boolean array) {
+            this.name = name;
+            this.array = array;
+            this.opened = array;
+        }
+    }
+
+    private final Writer out;
+
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+
+    /**
+     * An array whose closing bracket is held back in case the next event starts an array with the
+     * same name, see {@link #writeStartArray(String)}
+     */
+    private Frame pendingArray;
+
+    /**
+     * Constructs a new {@code StreamingJSONWriter} over the given writer.
+     *
+     * @param out the writer to write the JSON document to
+     */
+    public StreamingJSONWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts an array of repeated elements. The elements written until the matching
+     * {@link #writeEndArray()} become the array's values, and their names are ignored.
+     *
+     * @param name the name of the member holding the array, usually the name of the repeated
+     *        elements
+     * @throws XMLStreamException
+     */
+    @Override
+    public void writeStartArray(String name) throws XMLStreamException {
+        if (pendingArray != null && pendingArray.name.equals(name)) {
+            stack.push(pendingArray);
+            pendingArray = null;
+            return;
+        }
+        Frame parent = beginMember();
+        writeKey(parent, name);
+        write('[');
+        stack.push(new Frame(name, true));
+    }
+
+    /**
+     * Ends the array started with the last {@link #writeStartArray(String)} call.
+     *
+     * @throws XMLStreamException
+     */
+    @Override
+    public void writeEndArray() throws XMLStreamException {
+        closePendingArray();
+        Frame frame = stack.pop();
+        if (!frame.array) {
+            throw new XMLStreamException("Unbalanced array end inside element " + frame.name);
+        }
+        pendingArray = frame;
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        closePendingArray();
+        Frame root = new Frame(null, false);
+        root.opened = true;
+        stack.push(root);
+        write('{');
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        closePendingArray();
+        while (stack.size() > 1) {
+            if (stack.peek().array) {
+                writeEndArray();
+                closePendingArray();
+            } else {
+                writeEndElement();
+            }
+        }
+        if (!stack.isEmpty()) {
+            stack.pop();
+            write('}');
+        }
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        Frame parent = beginMember();
+        writeKey(parent, localName);
+        stack.push(new Frame(localName, false));
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI)
+            throws XMLStreamException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeStartElement(localName);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI)
+            throws XMLStreamException {
+        writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        closePendingArray();
+        Frame frame = stack.pop();
+        if (frame.array) {
+            throw new XMLStreamException("Unbalanced element end inside array " + frame.name);
+        }
+        if (frame.opened) {
+            write('}');
+        } else {
+            writeValue(frame.text == null ? "" : frame.text.toString());
+        }
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        Frame parent = beginMember();
+        writeKey(parent, "@" + localName);
+        writeValue(value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        closePendingArray();
+        Frame frame = stack.peek();
+        if (frame != null && !frame.opened) {
+            if (frame.text == null) {
+                frame.text = new StringBuilder(text);
+            } else {
+                frame.text.append(text);
+            }
+        }
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property " + name + " not supported");
+    }
+
+    /**
+     * Flushes the underlying writer, so that everything written so far is sent to the client.
+     */
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Does nothing, closing the underlying writer is up to its owner.
+     */
+    @Override
+    public void close() throws XMLStreamException {
+    }
+
+    /**
+     * Prepares the current frame to receive a new member or array value, turning it into an object
+     * if it didn't have any children yet.
+     */
+    private Frame beginMember() throws XMLStreamException {
+        closePendingArray();
+        Frame parent = stack.peek();
+        if (parent == null) {
+            throw new XMLStreamException("No document started");
+        }
+        if (!parent.opened) {
+            write('{');
+            parent.opened = true;
+        }
+        if (parent.hasMembers) {
+            write(',');
+        }
+        parent.hasMembers = true;
+        return parent;
+    }
+
+    private void writeKey(Frame parent, String name) throws XMLStreamException {
+        if (!parent.array) {
+            writeString(name);
+            write(':');
+        }
+    }
+
+    private void closePendingArray() throws XMLStreamException {
+        if (pendingArray != null) {
+            pendingArray = null;
+            write(']');
+        }
+    }
+
+    private void writeValue(String value) throws XMLStreamException {
+        if ("true".equals(value) || "false".equals(value)) {
+            write(value);
+        } else {
+            writeString(value);
+        }
+    }
+
+    private void writeString(String value) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                    sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+        write(sb.toString());
+    }
+
+    private void write(char c) throws XMLStreamException {
+        try {
+            out.write(c);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private void write(String s) throws XMLStreamException {
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+}
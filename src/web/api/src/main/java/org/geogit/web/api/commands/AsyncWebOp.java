@@ -0,0 +1,82 @@
+package org.geogit.web.api.commands;
+
+import org.geogit.web.api.AbstractWebAPICommand;
+import org.geogit.web.api.AsyncCommand;
+import org.geogit.web.api.AsyncCommandExecutor;
+import org.geogit.web.api.CommandContext;
+import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.CommandSpecException;
+import org.geogit.web.api.ResponseWriter;
+
+/**
+ * Submits another web API command to the {@link AsyncCommandExecutor} and responds right away with
+ * the id of the background task, which can then be polled through the {@link TaskWebOp task}
+ * command.
+ * <p>
+ * The background task writes the command's response too, so the work of commands whose response is
+ * computed while it's written, like walking the history for {@code log}, is also done before the
+ * result is fetched.
+ */
+
+public class AsyncWebOp extends AbstractWebAPICommand {
+
+    private final String commandName;
+
+    private final AbstractWebAPICommand command;
+
+    private int priority;
+
+    /**
+     * Constructs a new {@code AsyncWebOp} for the given command.
+     * 
+     * @param commandName - the name of the command to run in the background
+     * @param command - the command to run in the background
+     */
+    public AsyncWebOp(String commandName, AbstractWebAPICommand command) {
+        this.commandName = commandName;
+        this.command = command;
+    }
+
+    /**
+     * Mutator for the priority variable
+     * 
+     * @param priority - the priority of the task, higher priorities are run first
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Mutator for the transactionId, applied to the wrapped command
+     * 
+     * @param transactionId - the transaction id to run the command off of
+     */
+    @Override
+    public void setTransactionId(String transactionId) {
+        super.setTransactionId(transactionId);
+        command.setTransactionId(transactionId);
+    }
+
+    /**
+     * Runs the command and builds the appropriate response
+     * 
+     * @param context - the context to use for this command
+     * 
+     * @throws CommandSpecException
+     */
+    @Override
+    public void run(CommandContext context) {
+        final AsyncCommand task = AsyncCommandExecutor.get().submit(commandName, command,
+                context.getGeoGIT(), priority);
+
+        context.setResponseContent(new CommandResponse() {
+            @Override
+            public void write(ResponseWriter out) throws Exception {
+                out.start();
+                out.writeTask(task);
+                out.finish();
+            }
+        });
+    }
+
+}
@@ -83,8 +83,12 @@ public class Commit extends AbstractWebAPICommand {
         try {
             commit = geogit.command(CommitOp.class)
                     .setAuthor(authorName.orNull(), authorEmail.orNull()).setMessage(message)
-                    .setAllowEmpty(true).setAll(all).call();
-            assert commit != null;
+                    .setAllowEmpty(true).setAll(all).setProgressListener(getProgressListener())
+                    .call();
+            if (commit == null) {
+                // only happens if the progress listener was cancelled
+                context.setResponseContent(CommandResponse.warning("Commit was cancelled"));
+            }
         } catch (NothingToCommitException noChanges) {
             context.setResponseContent(CommandResponse.warning("Nothing to commit"));
             commit = null;
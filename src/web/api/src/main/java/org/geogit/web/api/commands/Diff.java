@@ -3,14 +3,21 @@ package org.geogit.web.api.commands;
 import java.util.Iterator;
 
 import org.geogit.api.CommandLocator;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.porcelain.DiffOp;
 import org.geogit.web.api.AbstractWebAPICommand;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
 import org.geogit.web.api.CommandSpecException;
+import org.geogit.web.api.ContinuationToken;
 import org.geogit.web.api.ResponseWriter;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
 /**
  * Interface for the Diff operation in GeoGit.
  * 
@@ -30,6 +37,8 @@ public class Diff extends AbstractWebAPICommand {
 
     private int elementsPerPage;
 
+    private String next;
+
     /**
      * Mutator for the oldRefSpec variable
      * 
@@ -84,6 +93,16 @@ public class Diff extends AbstractWebAPICommand {
         this.elementsPerPage = elementsPerPage;
     }
 
+    /**
+     * Mutator for the next variable
+     * 
+     * @param next - the continuation token returned with the previous page, or {@code null} for
+     *        the first page
+     */
+    public void setNext(String next) {
+        this.next = next;
+    }
+
     /**
      * Runs the command and builds the appropriate response
      * 
@@ -96,23 +115,60 @@ public class Diff extends AbstractWebAPICommand {
         if (oldRefSpec == null || oldRefSpec.trim().isEmpty()) {
             throw new CommandSpecException("No old ref spec");
         }
+        if (elementsPerPage <= 0) {
+            throw new CommandSpecException("The number of changes to show must be positive");
+        }
 
         final CommandLocator geogit = this.getCommandLocator(context);
 
-        final Iterator<DiffEntry> diff = geogit.command(DiffOp.class).setOldVersion(oldRefSpec)
-                .setNewVersion(newRefSpec).setFilter(pathFilter).call();
+        // resolve both versions so that following pages diff the same snapshots, the working tree
+        // being pinned to the tree it points to when no new version is given
+        final ObjectId oldId;
+        final ObjectId newId;
+        final int start;
+        if (next != null) {
+            ContinuationToken token = ContinuationToken.decode(next, 2);
+            oldId = token.getIds().get(0);
+            newId = token.getIds().get(1);
+            start = token.getOffset();
+        } else {
+            oldId = resolve(geogit, oldRefSpec);
+            newId = newRefSpec == null ? geogit.command(RevParse.class)
+                    .setRefSpec(Ref.WORK_HEAD).call().or(ObjectId.NULL) : resolve(geogit,
+                    newRefSpec);
+            start = page * elementsPerPage;
+        }
+
+        final Iterator<DiffEntry> diff = geogit.command(DiffOp.class).setOldVersion(oldId)
+                .setNewVersion(newId.toString())
+                .setFilter(pathFilter).call();
 
         context.setResponseContent(new CommandResponse() {
             @Override
             public void write(ResponseWriter out) throws Exception {
                 out.start();
+                int nextOffset;
                 if (showGeometryChanges) {
-                    out.writeGeometryChanges(geogit, diff, page, elementsPerPage);
+                    nextOffset = out.writeGeometryChangeRange(geogit, diff, start,
+                            elementsPerPage);
                 } else {
-                    out.writeDiffEntries("diff", page * elementsPerPage, elementsPerPage, diff);
+                    boolean more = out.writeDiffEntries("diff", start, elementsPerPage, diff);
+                    nextOffset = more ? start + elementsPerPage : -1;
+                }
+                if (nextOffset >= 0) {
+                    out.writeContinuation(new ContinuationToken(nextOffset, ImmutableList.of(
+                            oldId, newId)));
                 }
                 out.finish();
             }
         });
     }
+
+    private ObjectId resolve(CommandLocator geogit, String refSpec) {
+        Optional<ObjectId> id = geogit.command(RevParse.class).setRefSpec(refSpec).call();
+        if (!id.isPresent()) {
+            throw new CommandSpecException("Couldn't resolve '" + refSpec + "'");
+        }
+        return id.get();
+    }
 }
@@ -66,7 +66,8 @@ public class FetchWebOp extends AbstractWebAPICommand {
         command.addRemote(remote);
 
         try {
-            final FetchResult result = command.setAll(fetchAll).setPrune(prune).call();
+            final FetchResult result = command.setAll(fetchAll).setPrune(prune)
+                    .setProgressListener(getProgressListener()).call();
             context.setResponseContent(new CommandResponse() {
                 @Override
                 public void write(ResponseWriter out) throws Exception {
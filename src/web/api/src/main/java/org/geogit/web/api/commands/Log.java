@@ -5,16 +5,19 @@ import java.util.List;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.web.api.AbstractWebAPICommand;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.ContinuationToken;
 import org.geogit.web.api.ResponseWriter;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 
 /**
  * Interface for the Log operation in GeoGit.
@@ -39,6 +42,8 @@ public class Log extends AbstractWebAPICommand {
 
     boolean firstParentOnly;
 
+    String next;
+
     /**
      * Mutator for the limit variable
      * 
@@ -111,6 +116,16 @@ public class Log extends AbstractWebAPICommand {
         this.firstParentOnly = firstParentOnly;
     }
 
+    /**
+     * Mutator for the next variable
+     * 
+     * @param next - the continuation token returned with the previous page, or {@code null} for
+     *        the first page
+     */
+    public void setNext(String next) {
+        this.next = next;
+    }
+
     /**
      * Runs the command and builds the appropriate response
      * 
@@ -131,17 +146,31 @@ public class Log extends AbstractWebAPICommand {
             op.setLimit(limit.intValue());
         }
 
-        if (this.since != null) {
-            Optional<ObjectId> since;
+        // a continuation token pins the history to the commits of the first page
+        final Optional<ContinuationToken> token = next == null ? Optional
+                .<ContinuationToken> absent() : Optional.of(ContinuationToken.decode(next, 2));
+
+        Optional<ObjectId> since = Optional.absent();
+        if (token.isPresent()) {
+            if (!token.get().getIds().get(1).isNull()) {
+                since = Optional.of(token.get().getIds().get(1));
+                op.setSince(since.get());
+            }
+        } else if (this.since != null) {
             since = geogit.command(RevParse.class).setRefSpec(this.since).call();
             Preconditions.checkArgument(since.isPresent(), "Object not found '%s'", this.since);
             op.setSince(since.get());
         }
-        if (this.until != null) {
-            Optional<ObjectId> until;
+        final Optional<ObjectId> until;
+        if (token.isPresent()) {
+            until = Optional.of(token.get().getIds().get(0));
+            op.setUntil(until.get());
+        } else if (this.until != null) {
             until = geogit.command(RevParse.class).setRefSpec(this.until).call();
             Preconditions.checkArgument(until.isPresent(), "Object not found '%s'", this.until);
             op.setUntil(until.get());
+        } else {
+            until = geogit.command(RevParse.class).setRefSpec(Ref.HEAD).call();
         }
         if (paths != null && !paths.isEmpty()) {
             for (String path : paths) {
@@ -150,14 +179,28 @@ public class Log extends AbstractWebAPICommand {
         }
 
         final Iterator<RevCommit> log = op.call();
-        context.setResponseContent(new CommandResponse() {
+        final int start = token.isPresent() ? token.get().getOffset() : page * elementsPerPage;
+        final ImmutableList<ObjectId> snapshot = until.isPresent() ? ImmutableList.of(until.get(),
+                since.or(ObjectId.NULL)) : ImmutableList.<ObjectId> of();
+        CommandResponse response = new CommandResponse() {
             @Override
             public void write(ResponseWriter out) throws Exception {
                 out.start();
-                out.writeCommits(log, page, elementsPerPage);
+                if (out.writeCommitRange(log, start, elementsPerPage) && !snapshot.isEmpty()) {
+                    out.writeContinuation(new ContinuationToken(start + elementsPerPage, snapshot));
+                }
                 out.finish();
             }
-        });
+        };
+        // the history is fully determined by the commits the refs resolved to
+        if (until.isPresent()) {
+            if (since.isPresent()) {
+                response.setResolvedIds(since.get(), until.get());
+            } else {
+                response.setResolvedIds(until.get());
+            }
+        }
+        context.setResponseContent(response);
 
     }
 }
@@ -5,12 +5,19 @@ import java.util.List;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
 import org.geogit.api.plumbing.LsTreeOp;
+import org.geogit.api.plumbing.RevParse;
 import org.geogit.web.api.AbstractWebAPICommand;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.ContinuationToken;
 import org.geogit.web.api.ResponseWriter;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
 /**
  * Interface for the Ls-Tree operation in GeoGit
  * 
@@ -28,6 +35,12 @@ public class LsTree extends AbstractWebAPICommand {
 
     List<String> refList;
 
+    int page;
+
+    Integer elementsPerPage;
+
+    String next;
+
     /**
      * Mutator for the includeTrees variable
      * 
@@ -73,6 +86,35 @@ public class LsTree extends AbstractWebAPICommand {
         this.refList = refList;
     }
 
+    /**
+     * Mutator for the page variable
+     * 
+     * @param page - the page number to build the response
+     */
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    /**
+     * Mutator for the elementsPerPage variable
+     * 
+     * @param elementsPerPage - the number of nodes to display per page, or {@code null} to list
+     *        all of them
+     */
+    public void setElementsPerPage(Integer elementsPerPage) {
+        this.elementsPerPage = elementsPerPage;
+    }
+
+    /**
+     * Mutator for the next variable
+     * 
+     * @param next - the continuation token returned with the previous page, or {@code null} for
+     *        the first page
+     */
+    public void setNext(String next) {
+        this.next = next;
+    }
+
     /**
      * Runs the command and builds the appropriate response
      * 
@@ -101,18 +143,53 @@ public class LsTree extends AbstractWebAPICommand {
 
         final CommandLocator geogit = this.getCommandLocator(context);
 
+        // the listing is fully determined by what the tree-ish part of the ref resolves to, the
+        // working tree for a bare path
+        String treeish = ref == null ? Ref.WORK_HEAD : ref;
+        String path = null;
+        if (treeish.lastIndexOf(':') != -1) {
+            path = treeish.substring(treeish.lastIndexOf(':') + 1);
+            treeish = treeish.substring(0, treeish.lastIndexOf(':'));
+        } else if (!geogit.command(RevParse.class).setRefSpec(treeish).call().isPresent()) {
+            path = treeish;
+            treeish = Ref.WORK_HEAD;
+        }
+        final Optional<ObjectId> resolved = geogit.command(RevParse.class).setRefSpec(treeish)
+                .call();
+
+        // a continuation token pins the listing to the snapshot of the first page
+        final ObjectId snapshot;
+        final int start;
+        if (next != null) {
+            ContinuationToken token = ContinuationToken.decode(next, 1);
+            snapshot = token.getIds().get(0);
+            start = token.getOffset();
+            ref = path == null ? snapshot.toString() : snapshot.toString() + ":" + path;
+        } else {
+            snapshot = resolved.or(ObjectId.NULL);
+            start = elementsPerPage == null ? 0 : page * elementsPerPage.intValue();
+        }
+        final int length = elementsPerPage == null ? -1 : elementsPerPage.intValue();
+
         final Iterator<NodeRef> iter = geogit.command(LsTreeOp.class).setReference(ref)
                 .setStrategy(lsStrategy).call();
 
-        context.setResponseContent(new CommandResponse() {
+        CommandResponse response = new CommandResponse() {
 
             @Override
             public void write(ResponseWriter out) throws Exception {
                 out.start(true);
-                out.writeLsTreeResponse(iter, verbose);
+                if (out.writeLsTreeResponse(iter, verbose, start, length)) {
+                    out.writeContinuation(new ContinuationToken(start + length, ImmutableList
+                            .of(snapshot)));
+                }
                 out.finish();
             }
-        });
+        };
+        if (!snapshot.isNull()) {
+            response.setResolvedIds(snapshot);
+        }
+        context.setResponseContent(response);
 
     }
 
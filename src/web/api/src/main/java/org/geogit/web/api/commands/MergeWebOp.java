@@ -95,6 +95,7 @@ public class MergeWebOp extends AbstractWebAPICommand {
 
         MergeOp merge = transaction.command(MergeOp.class);
         merge.setAuthor(authorName.orNull(), authorEmail.orNull());
+        merge.setProgressListener(getProgressListener());
 
         final Optional<ObjectId> oid = transaction.command(RevParse.class).setRefSpec(commit)
                 .call();
@@ -2,6 +2,7 @@ package org.geogit.web.api.commands;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.Ref;
+import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.web.api.AbstractWebAPICommand;
 import org.geogit.web.api.CommandContext;
@@ -56,7 +57,7 @@ public class RefParseWeb extends AbstractWebAPICommand {
 
         if (ref.isPresent()) {
             final Ref newRef = ref.get();
-            context.setResponseContent(new CommandResponse() {
+            CommandResponse response = new CommandResponse() {
 
                 @Override
                 public void write(ResponseWriter out) throws Exception {
@@ -64,7 +65,12 @@ public class RefParseWeb extends AbstractWebAPICommand {
                     out.writeRefParseResponse(newRef);
                     out.finish();
                 }
-            });
+            };
+            // symbolic refs also depend on their target's name, don't let them be cached
+            if (!(newRef instanceof SymRef)) {
+                response.setResolvedIds(newRef.getObjectId());
+            }
+            context.setResponseContent(response);
         } else {
             context.setResponseContent(new CommandResponse() {
 
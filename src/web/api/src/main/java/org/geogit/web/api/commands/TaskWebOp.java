@@ -0,0 +1,112 @@
+package org.geogit.web.api.commands;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.web.api.AbstractWebAPICommand;
+import org.geogit.web.api.AsyncCommand;
+import org.geogit.web.api.AsyncCommandExecutor;
+import org.geogit.web.api.CommandContext;
+import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.CommandSpecException;
+import org.geogit.web.api.ResourceNotFoundException;
+import org.geogit.web.api.ResponseWriter;
+
+import com.google.common.base.Optional;
+
+/**
+ * Reports the status and progress of the commands run in the background by the
+ * {@link AsyncCommandExecutor}, hands out their responses once finished, and cancels them.
+ * <p>
+ * Only the tasks submitted against the repository of the request are visible.
+ */
+
+public class TaskWebOp extends AbstractWebAPICommand {
+
+    private String taskId;
+
+    private boolean cancel;
+
+    private boolean result;
+
+    /**
+     * Mutator for the taskId variable
+     * 
+     * @param taskId - the id of the task, or {@code null} to list all the tasks of the repository
+     */
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    /**
+     * Mutator for the cancel variable
+     * 
+     * @param cancel - true to cancel the task
+     */
+    public void setCancel(boolean cancel) {
+        this.cancel = cancel;
+    }
+
+    /**
+     * Mutator for the result variable
+     * 
+     * @param result - true to get the response of the command if it finished, after which the task
+     *        is forgotten
+     */
+    public void setResult(boolean result) {
+        this.result = result;
+    }
+
+    /**
+     * Runs the command and builds the appropriate response
+     * 
+     * @param context - the context to use for this command
+     * 
+     * @throws CommandSpecException
+     * @throws ResourceNotFoundException if the task doesn't exist or belongs to another repository
+     */
+    @Override
+    public void run(CommandContext context) {
+        final AsyncCommandExecutor executor = AsyncCommandExecutor.get();
+        final GeoGIT geogit = context.getGeoGIT();
+        if (taskId == null) {
+            if (cancel || result) {
+                throw new CommandSpecException("No task was specified.");
+            }
+            context.setResponseContent(new CommandResponse() {
+                @Override
+                public void write(ResponseWriter out) throws Exception {
+                    out.start();
+                    out.writeTasks(executor.getTasks(geogit));
+                    out.finish();
+                }
+            });
+            return;
+        }
+
+        final Optional<AsyncCommand> found = cancel ? executor.cancel(geogit, taskId) : executor
+                .getTask(geogit, taskId);
+        if (!found.isPresent()) {
+            throw new ResourceNotFoundException("Task '" + taskId + "' does not exist.");
+        }
+        final AsyncCommand task = found.get();
+        if (result && task.isDone()) {
+            executor.remove(geogit, taskId);
+            if (task.getStatus() == AsyncCommand.Status.FAILED) {
+                context.setResponseContent(CommandResponse.error(task.getErrorMessage()));
+                return;
+            }
+            if (task.getResult() != null) {
+                context.setResponseContent(task.getResult());
+                return;
+            }
+        }
+        context.setResponseContent(new CommandResponse() {
+            @Override
+            public void write(ResponseWriter out) throws Exception {
+                out.start();
+                out.writeTask(task);
+                out.finish();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,287 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geogit.api.DefaultPlatform;
+import org.geogit.api.GeoGIT;
+import org.geogit.api.Platform;
+import org.geogit.web.api.AsyncCommand.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+public class AsyncCommandExecutorTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GeoGIT repo1;
+
+    private GeoGIT repo2;
+
+    private final List<String> started = Collections.synchronizedList(Lists
+            .<String> newArrayList());
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private AsyncCommandExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        repo1 = repository(folder.newFolder("repo1"));
+        repo2 = repository(folder.newFolder("repo2"));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            assertTrue(executor.stop(5000));
+        }
+    }
+
+    private static GeoGIT repository(File workingDir) {
+        final Platform platform = new DefaultPlatform();
+        return new GeoGIT(Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Platform.class).toInstance(platform);
+            }
+        }), workingDir);
+    }
+
+    /**
+     * A command that records its start and runs until {@link #release} is opened or it's cancelled
+     */
+    private class BlockingCommand extends AbstractWebAPICommand {
+
+        private final String name;
+
+        private final CountDownLatch running = new CountDownLatch(1);
+
+        BlockingCommand(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run(CommandContext context) {
+            started.add(name);
+            running.countDown();
+            try {
+                while (!release.await(5, TimeUnit.MILLISECONDS)) {
+                    if (getProgressListener().isCanceled()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            context.setResponseContent(CommandResponse.warning(name));
+        }
+
+        void awaitRunning() throws InterruptedException {
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private AsyncCommand submit(String name, GeoGIT repo, int priority) {
+        return executor.submit(name, new BlockingCommand(name), repo, priority);
+    }
+
+    private static void awaitStatus(AsyncCommand task, Status status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (task.getStatus() != status && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(status, task.getStatus());
+    }
+
+    @Test
+    public void testPriorityThenSubmissionOrder() throws Exception {
+        executor = new AsyncCommandExecutor(1, 4, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand blocker = new BlockingCommand("blocker");
+        AsyncCommand first = executor.submit("blocker", blocker, repo1, 0);
+        blocker.awaitRunning();
+
+        submit("low", repo1, 0);
+        submit("high1", repo1, 5);
+        submit("mid", repo1, 1);
+        AsyncCommand last = submit("high2", repo2, 5);
+        assertEquals(Status.WAITING, last.getStatus());
+
+        release.countDown();
+        awaitStatus(first, Status.FINISHED);
+        for (AsyncCommand task : executor.getTasks(repo1)) {
+            awaitStatus(task, Status.FINISHED);
+        }
+        awaitStatus(last, Status.FINISHED);
+        assertEquals(ImmutableList.of("blocker", "high1", "high2", "mid", "low"), started);
+    }
+
+    @Test
+    public void testPerRepositoryLimit() throws Exception {
+        executor = new AsyncCommandExecutor(4, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand first = new BlockingCommand("first");
+        AsyncCommand task1 = executor.submit("first", first, repo1, 0);
+        first.awaitRunning();
+        AsyncCommand task2 = submit("second", repo1, 10);
+        BlockingCommand other = new BlockingCommand("other");
+        AsyncCommand task3 = executor.submit("other", other, repo2, 0);
+        other.awaitRunning();
+
+        // a free thread, but the repository already runs as many tasks as allowed
+        assertEquals(Status.RUNNING, task1.getStatus());
+        assertEquals(Status.WAITING, task2.getStatus());
+        assertEquals(Status.RUNNING, task3.getStatus());
+
+        release.countDown();
+        awaitStatus(task2, Status.FINISHED);
+        assertEquals(ImmutableList.of("first", "other", "second"), started);
+    }
+
+    @Test
+    public void testTooManyWaiting() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 2, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand blocker = new BlockingCommand("blocker");
+        executor.submit("blocker", blocker, repo1, 0);
+        blocker.awaitRunning();
+        submit("waiting1", repo1, 0);
+        submit("waiting2", repo2, 0);
+        try {
+            submit("rejected", repo1, 10);
+            fail("expected CommandSpecException");
+        } catch (CommandSpecException e) {
+            assertTrue(e.getMessage().contains("Too many tasks"));
+        }
+        assertEquals(3, executor.getTasks(repo1).size() + executor.getTasks(repo2).size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand blocker = new BlockingCommand("running");
+        AsyncCommand running = executor.submit("running", blocker, repo1, 0);
+        blocker.awaitRunning();
+        AsyncCommand waiting = submit("waiting", repo1, 0);
+
+        executor.cancel(repo1, waiting.getId());
+        assertEquals(Status.CANCELLED, waiting.getStatus());
+
+        executor.cancel(repo1, running.getId());
+        awaitStatus(running, Status.CANCELLED);
+        assertNull(running.getResult());
+
+        // the cancelled waiting task never ran
+        AsyncCommand next = submit("next", repo1, 0);
+        release.countDown();
+        awaitStatus(next, Status.FINISHED);
+        assertEquals(ImmutableList.of("running", "next"), started);
+    }
+
+    @Test
+    public void testFinishedTasksExpire() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, 0);
+        release.countDown();
+        AsyncCommand task = submit("task", repo1, 0);
+        awaitStatus(task, Status.FINISHED);
+        Thread.sleep(10);
+        assertFalse(executor.getTask(repo1, task.getId()).isPresent());
+        assertTrue(executor.getTasks(repo1).isEmpty());
+    }
+
+    @Test
+    public void testFinishedTasksAreKeptUntilRemoved() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        release.countDown();
+        AsyncCommand task = submit("task", repo1, 0);
+        awaitStatus(task, Status.FINISHED);
+        assertTrue(executor.getTask(repo1, task.getId()).isPresent());
+        executor.remove(repo1, task.getId());
+        assertFalse(executor.getTask(repo1, task.getId()).isPresent());
+    }
+
+    @Test
+    public void testTasksInvisibleFromOtherRepository() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand blocker = new BlockingCommand("task");
+        AsyncCommand task = executor.submit("task", blocker, repo1, 0);
+        blocker.awaitRunning();
+
+        assertFalse(executor.getTask(repo2, task.getId()).isPresent());
+        assertTrue(executor.getTasks(repo2).isEmpty());
+        assertFalse(executor.cancel(repo2, task.getId()).isPresent());
+        assertEquals(Status.RUNNING, task.getStatus());
+        assertEquals(ImmutableList.of(task), executor.getTasks(repo1));
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        BlockingCommand blocker = new BlockingCommand("running");
+        AsyncCommand running = executor.submit("running", blocker, repo1, 0);
+        blocker.awaitRunning();
+        AsyncCommand waiting = submit("waiting", repo1, 0);
+
+        assertTrue(executor.stop(5000));
+        assertEquals(Status.CANCELLED, running.getStatus());
+        assertEquals(Status.CANCELLED, waiting.getStatus());
+        try {
+            submit("late", repo1, 0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+        executor = null;
+    }
+
+    @Test
+    public void testResponseIsWrittenByTheTask() throws Exception {
+        executor = new AsyncCommandExecutor(1, 1, 10, AsyncCommandExecutor.FINISHED_TASK_TTL);
+        final AtomicInteger writes = new AtomicInteger();
+        final String[] writer = new String[1];
+        AsyncCommand task = executor.submit("lazy", new AbstractWebAPICommand() {
+            @Override
+            public void run(CommandContext context) {
+                context.setResponseContent(new CommandResponse() {
+                    @Override
+                    public void write(ResponseWriter out) throws Exception {
+                        writes.incrementAndGet();
+                        writer[0] = Thread.currentThread().getName();
+                        out.start();
+                        out.startArray("item");
+                        out.writeElement("item", "a");
+                        out.writeElement("item", "b");
+                        out.endArray();
+                        out.finish();
+                    }
+                });
+            }
+        }, repo1, 0);
+        awaitStatus(task, Status.FINISHED);
+        assertEquals(1, writes.get());
+        assertTrue(writer[0], writer[0].startsWith("geogit-web-task-"));
+
+        StringWriter json = new StringWriter();
+        task.getResult().write(new ResponseWriter(new StreamingJSONWriter(json)));
+        assertEquals(1, writes.get());
+        assertEquals("{\"response\":{\"success\":true,\"item\":[\"a\",\"b\"]}}", json.toString());
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class CachePolicyTest extends Assert {
+
+    private static final ObjectId ID1 = ObjectId.forString("commit 1");
+
+    private static final ObjectId ID2 = ObjectId.forString("commit 2");
+
+    private static final List<ObjectId> IDS = ImmutableList.of(ID1, ID2);
+
+    @Test
+    public void testObjectTag() {
+        assertEquals(ID1.toString(), CachePolicy.objectTag(ID1));
+    }
+
+    @Test
+    public void testResponseTagIsStable() {
+        String tag = CachePolicy.responseTag("log", "path=roads", "application/json", IDS);
+        assertEquals(tag, CachePolicy.responseTag("log", "path=roads", "application/json",
+                ImmutableList.of(ID1, ID2)));
+        // an opaque tag, it shall not need quoting
+        assertTrue(tag, tag.matches("[0-9a-f]{40}"));
+    }
+
+    @Test
+    public void testResponseTagDependsOnEveryInput() {
+        String tag = CachePolicy.responseTag("log", "path=roads", "application/json", IDS);
+        assertFalse(tag.equals(CachePolicy.responseTag("ls-tree", "path=roads",
+                "application/json", IDS)));
+        assertFalse(tag.equals(CachePolicy.responseTag("log", "path=rivers", "application/json",
+                IDS)));
+        assertFalse(tag.equals(CachePolicy.responseTag("log", "path=roads", "application/xml",
+                IDS)));
+        assertFalse(tag.equals(CachePolicy.responseTag("log", "path=roads", "application/json",
+                ImmutableList.of(ID1))));
+        assertFalse(tag.equals(CachePolicy.responseTag("log", "path=roads", "application/json",
+                ImmutableList.of(ID2, ID1))));
+        assertFalse(tag.equals(CachePolicy.responseTag("log", "path=roads", "application/json",
+                Collections.<ObjectId> emptyList())));
+    }
+
+    @Test
+    public void testIsNotModified() {
+        String tag = CachePolicy.objectTag(ID1);
+        assertTrue(CachePolicy.isNotModified(ImmutableList.of(tag), tag));
+        assertTrue(CachePolicy.isNotModified(ImmutableList.of(ID2.toString(), tag), tag));
+        assertFalse(CachePolicy.isNotModified(ImmutableList.of(ID2.toString()), tag));
+        assertFalse(CachePolicy.isNotModified(Collections.<String> emptyList(), tag));
+    }
+
+    @Test
+    public void testIsNotModifiedAnyTag() {
+        String tag = CachePolicy.objectTag(ID1);
+        assertTrue(CachePolicy.isNotModified(ImmutableList.of("*"), tag));
+        assertTrue(CachePolicy.isNotModified(ImmutableList.of(ID2.toString(), "*"), tag));
+    }
+
+    /**
+     * If-None-Match uses the weak comparison, the web applications pass a weak validator
+     * {@code W/"<tag>"} by its opaque tag, which matches the strong tag it was taken from
+     */
+    @Test
+    public void testIsNotModifiedWeakTag() {
+        String tag = CachePolicy.responseTag("log", "", "application/json", IDS);
+        String weak = CachePolicy.responseTag("log", "", "application/json",
+                ImmutableList.of(ID1, ID2));
+        assertTrue(CachePolicy.isNotModified(ImmutableList.of(weak), tag));
+        assertTrue(CachePolicy.isTagMatched(ImmutableList.of(weak), tag));
+        assertFalse(CachePolicy.isNotModified(ImmutableList.of(ID1.toString()), tag));
+    }
+
+    @Test
+    public void testIsTagMatchedIgnoresAnyTag() {
+        String tag = CachePolicy.objectTag(ID1);
+        assertTrue(CachePolicy.isTagMatched(ImmutableList.of(tag), tag));
+        // "*" only matches existing representations, left for isNotModified
+        assertFalse(CachePolicy.isTagMatched(ImmutableList.of("*"), tag));
+        assertFalse(CachePolicy.isTagMatched(ImmutableList.of(ID2.toString()), tag));
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import org.geogit.api.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ContinuationTokenTest extends Assert {
+
+    private static final ObjectId ID1 = ObjectId.forString("first");
+
+    private static final ObjectId ID2 = ObjectId.forString("second");
+
+    @Test
+    public void testRoundTrip() {
+        ContinuationToken token = new ContinuationToken(250, ImmutableList.of(ID1, ObjectId.NULL,
+                ID2));
+        String encoded = token.encode();
+        assertTrue(encoded, encoded.matches("[A-Za-z0-9_-]+"));
+
+        ContinuationToken decoded = ContinuationToken.decode(encoded, 3);
+        assertEquals(250, decoded.getOffset());
+        assertEquals(ImmutableList.of(ID1, ObjectId.NULL, ID2), decoded.getIds());
+    }
+
+    @Test
+    public void testRoundTripWithoutIds() {
+        String encoded = new ContinuationToken(10, ImmutableList.<ObjectId> of()).encode();
+        ContinuationToken decoded = ContinuationToken.decode(encoded, 0);
+        assertEquals(10, decoded.getOffset());
+        assertTrue(decoded.getIds().isEmpty());
+    }
+
+    @Test
+    public void testWrongIdCount() {
+        String encoded = new ContinuationToken(10, ImmutableList.of(ID1)).encode();
+        assertInvalid(encoded, 2);
+        assertInvalid(encoded, 0);
+    }
+
+    @Test
+    public void testMalformed() {
+        assertInvalid("", 1);
+        assertInvalid("not a token!", 1);
+        // valid base64 of "10" and "-1:<id>", lacking the separator and out of range
+        assertInvalid("MTA", 0);
+        String negative = new ContinuationToken(-1, ImmutableList.of(ID1)).encode();
+        assertInvalid(negative, 1);
+        // an id that isn't one
+        String badId = new ContinuationToken(1, ImmutableList.of(ID1)).encode();
+        assertInvalid(badId.substring(0, badId.length() - 8), 1);
+    }
+
+    private void assertInvalid(String token, int expectedIds) {
+        try {
+            ContinuationToken.decode(token, expectedIds);
+            fail("expected CommandSpecException for " + token);
+        } catch (CommandSpecException e) {
+            assertTrue(e.getMessage().contains("Invalid continuation token"));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingJSONWriterTest extends Assert {
+
+    private StringWriter out;
+
+    private StreamingJSONWriter writer;
+
+    @Before
+    public void setUp() {
+        out = new StringWriter();
+        writer = new StreamingJSONWriter(out);
+    }
+
+    private void writeElement(String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        writer.writeStartDocument();
+        writeElement("text",
+                "quote \" backslash \\ newline \n tab \t bell \u0007 separator \u2028");
+        writer.writeEndDocument();
+
+        assertEquals("{\"text\":\"quote \\\" backslash \\\\ newline \\n tab \\t bell \\u0007"
+                + " separator \\u2028\"}", out.toString());
+    }
+
+    @Test
+    public void testBooleansAndAttributes() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        writer.writeAttribute("id", "1");
+        writeElement("success", "true");
+        writeElement("name", "false positive");
+        writer.writeEmptyElement("empty");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+
+        assertEquals("{\"response\":{\"@id\":\"1\",\"success\":true,\"name\":\"false positive\","
+                + "\"empty\":\"\"}}", out.toString());
+    }
+
+    @Test
+    public void testNestedObjectsAndArrays() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        writer.writeStartArray("commit");
+        for (int i = 0; i < 2; i++) {
+            writer.writeStartElement("commit");
+            writeElement("id", "c" + i);
+            writer.writeStartArray("parent");
+            writeElement("parent", "p" + i);
+            writer.writeEndArray();
+            writer.writeStartElement("author");
+            writeElement("name", "a" + i);
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndArray();
+        writeElement("next", "token");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+
+        assertEquals("{\"response\":{\"commit\":["
+                + "{\"id\":\"c0\",\"parent\":[\"p0\"],\"author\":{\"name\":\"a0\"}},"
+                + "{\"id\":\"c1\",\"parent\":[\"p1\"],\"author\":{\"name\":\"a1\"}}"
+                + "],\"next\":\"token\"}}", out.toString());
+    }
+
+    @Test
+    public void testConsecutiveArraysAreMerged() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartArray("item");
+        writeElement("item", "1");
+        writer.writeEndArray();
+        writer.writeStartArray("item");
+        writeElement("item", "2");
+        writer.writeEndArray();
+        writer.writeStartArray("other");
+        writer.writeEndArray();
+        writer.writeEndDocument();
+
+        assertEquals("{\"item\":[\"1\",\"2\"],\"other\":[]}", out.toString());
+    }
+
+    @Test
+    public void testEndDocumentClosesPendingArray() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        writer.writeStartArray("item");
+        writeElement("item", "1");
+        writer.writeEndArray();
+        writer.writeEndDocument();
+
+        assertEquals("{\"response\":{\"item\":[\"1\"]}}", out.toString());
+    }
+
+    @Test
+    public void testEndDocumentClosesOpenArray() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        writer.writeStartArray("item");
+        writeElement("item", "1");
+        writer.writeEndDocument();
+
+        assertEquals("{\"response\":{\"item\":[\"1\"]}}", out.toString());
+    }
+
+    @Test
+    public void testUnbalancedArrayEnd() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        try {
+            writer.writeEndArray();
+            fail("expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("response"));
+        }
+    }
+}
@@ -7,26 +7,36 @@ package org.geogit.web;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
 import org.codehaus.jettison.mapped.MappedNamespaceConvention;
 import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
 import org.geogit.api.GeoGIT;
+import org.geogit.web.api.CachePolicy;
 import org.geogit.web.api.CommandBuilder;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
 import org.geogit.web.api.CommandSpecException;
+import org.geogit.web.api.ForwardingResponseStreamWriter;
 import org.geogit.web.api.ParameterSet;
+import org.geogit.web.api.ResourceNotFoundException;
+import org.geogit.web.api.ResponseStreamWriter;
 import org.geogit.web.api.ResponseWriter;
+import org.geogit.web.api.StreamingJSONWriter;
 import org.geogit.web.api.WebAPICommand;
+import org.restlet.data.CacheDirective;
 import org.restlet.data.Form;
 import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.representation.Representation;
 import org.restlet.representation.Variant;
 import org.restlet.representation.WriterRepresentation;
@@ -37,6 +47,11 @@ import org.restlet.resource.ServerResource;
 
 public class CommandResource extends ServerResource {
 
+    /**
+     * Whether the compact streaming JSON format was requested instead of the mapped one
+     */
+    private boolean compactJSON;
+
     @Post("json|xml")
     public Representation postCommand(Variant variant) {
         return runCommand(variant);
@@ -66,8 +81,15 @@ public class CommandResource extends ServerResource {
                         .get("geogit");
                 RestletContext ctx = new RestletContext(geogit);
                 command.run(ctx);
-                rep = ctx.getRepresentation(format, getJSONPCallback());
+                rep = ctx.getRepresentation(format, getJSONPCallback(), compactJSON);
+                if (Method.GET.equals(getMethod()) && ctx.responseContent != null
+                        && !ctx.responseContent.getResolvedIds().isEmpty()) {
+                    rep = setCacheValidators(commandName, format, ctx.responseContent, rep);
+                }
             }
+        } catch (ResourceNotFoundException ex) {
+            setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+            rep = formatException(ex, format);
         } catch (IllegalArgumentException ex) {
             rep = formatException(ex, format);
         } catch (Exception ex) {
@@ -76,13 +98,42 @@ public class CommandResource extends ServerResource {
         return rep;
     }
 
+    /**
+     * Sets the entity tag and short lived cache directives of a response computed from the objects
+     * some refs resolved to.
+     * 
+     * @return the representation to return, or {@code null} if the client's copy is still valid
+     * @see CachePolicy
+     */
+    private Representation setCacheValidators(String commandName, MediaType format,
+            CommandResponse response, Representation rep) {
+        String query = getRequest().getResourceRef().getQuery();
+        Tag tag = new Tag(CachePolicy.responseTag(commandName, query == null ? "" : query,
+                format.toString(), response.getResolvedIds()), false);
+
+        getResponse().getCacheDirectives().add(CacheDirective.publicInfo());
+        getResponse().getCacheDirectives().add(
+                CacheDirective.maxAge(CachePolicy.SHORT_LIVED_MAX_AGE));
+
+        List<String> noneMatch = new ArrayList<String>();
+        for (Tag t : getRequest().getConditions().getNoneMatch()) {
+            noneMatch.add(t.getName());
+        }
+        if (CachePolicy.isNotModified(noneMatch, tag.getName())) {
+            setStatus(Status.REDIRECTION_NOT_MODIFIED);
+            return null;
+        }
+        rep.setTag(tag);
+        return rep;
+    }
+
     private Representation formatException(IllegalArgumentException ex, MediaType format) {
         Logger logger = getLogger();
         if (logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE, "CommandSpecException", ex);
         }
         return new JettisonRepresentation(format, CommandResponse.error(ex.getMessage()),
-                getJSONPCallback());
+                getJSONPCallback(), compactJSON);
     }
 
     private Representation formatUnexpectedException(Exception ex, MediaType format) {
@@ -98,7 +149,8 @@ public class CommandResource extends ServerResource {
             }
         }
         logger.log(Level.SEVERE, "Unexpected exception : " + uuid, ex);
-        return new JettisonRepresentation(format, CommandResponse.error(stack), getJSONPCallback());
+        return new JettisonRepresentation(format, CommandResponse.error(stack),
+                getJSONPCallback(), compactJSON);
     }
 
     private String getJSONPCallback() {
@@ -114,6 +166,9 @@ public class CommandResource extends ServerResource {
                 retval = MediaType.APPLICATION_XML;
             } else if (requested.equalsIgnoreCase("json")) {
                 retval = MediaType.APPLICATION_JSON;
+            } else if (requested.equalsIgnoreCase("compactjson")) {
+                retval = MediaType.APPLICATION_JSON;
+                compactJSON = true;
             } else {
                 throw new ResourceException(org.restlet.data.Status.CLIENT_ERROR_BAD_REQUEST,
                         "Invalid output_format '" + requested + "'");
@@ -137,8 +192,8 @@ public class CommandResource extends ServerResource {
             return geogit;
         }
 
-        Representation getRepresentation(MediaType format, String callback) {
-            return new JettisonRepresentation(format, responseContent, callback);
+        Representation getRepresentation(MediaType format, String callback, boolean compactJSON) {
+            return new JettisonRepresentation(format, responseContent, callback, compactJSON);
         }
 
         @Override
@@ -153,24 +208,32 @@ public class CommandResource extends ServerResource {
 
         String callback;
 
-        public JettisonRepresentation(MediaType mediaType, CommandResponse impl, String callback) {
+        final boolean compact;
+
+        public JettisonRepresentation(MediaType mediaType, CommandResponse impl, String callback,
+                boolean compact) {
             super(mediaType);
             this.impl = impl;
             this.callback = callback;
+            this.compact = compact;
         }
 
-        private XMLStreamWriter createWriter(Writer writer) {
+        private ResponseStreamWriter createWriter(Writer writer) {
             final MediaType mediaType = getMediaType();
-            XMLStreamWriter xml;
+            ResponseStreamWriter xml;
             if (mediaType.getSubType().equalsIgnoreCase("xml")) {
                 try {
-                    xml = XMLOutputFactory.newFactory().createXMLStreamWriter(writer);
+                    xml = new ForwardingResponseStreamWriter(XMLOutputFactory.newFactory()
+                            .createXMLStreamWriter(writer));
                 } catch (XMLStreamException ex) {
                     throw new RuntimeException(ex);
                 }
                 callback = null; // this doesn't make sense
+            } else if (mediaType == MediaType.APPLICATION_JSON && compact) {
+                xml = new StreamingJSONWriter(writer);
             } else if (mediaType == MediaType.APPLICATION_JSON) {
-                xml = new MappedXMLStreamWriter(new MappedNamespaceConvention(), writer);
+                xml = new ForwardingResponseStreamWriter(new MappedXMLStreamWriter(
+                        new MappedNamespaceConvention(), writer));
             } else {
                 throw new RuntimeException("mediatype not handled " + mediaType);
             }
@@ -179,7 +242,7 @@ public class CommandResource extends ServerResource {
 
         @Override
         public void write(Writer writer) throws IOException {
-            XMLStreamWriter stax = null;
+            ResponseStreamWriter stax = null;
             if (callback != null) {
                 writer.write(callback);
                 writer.write('(');
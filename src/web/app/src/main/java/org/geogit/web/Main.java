@@ -19,6 +19,7 @@ import org.geogit.api.Platform;
 import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.di.GeogitModule;
 import org.geogit.storage.bdbje.JEStorageModule;
+import org.geogit.web.api.AsyncCommandExecutor;
 import org.geogit.web.api.repo.AffectedFeaturesResource;
 import org.geogit.web.api.repo.ApplyChangesResource;
 import org.geogit.web.api.repo.BatchedObjectResource;
@@ -72,6 +73,19 @@ public class Main extends Application {
         }
     }
 
+    /**
+     * Stops the background tasks of the web API along with the application, so that their threads
+     * don't outlive a redeploy.
+     */
+    @Override
+    public synchronized void stop() throws Exception {
+        try {
+            super.stop();
+        } finally {
+            AsyncCommandExecutor.shutdown();
+        }
+    }
+
     @Override
     public Restlet createInboundRoot() {
         Router router = new Router();
@@ -7,9 +7,9 @@ package org.geogit.web.api.repo;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Set;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
@@ -39,7 +39,7 @@ public class FilteredChangesResource extends ServerResource {
             final JsonParser parser = new JsonParser();
             final JsonElement messageJson = parser.parse(body);
 
-            final List<ObjectId> tracked = new ArrayList<ObjectId>();
+            final Set<ObjectId> tracked = new HashSet<ObjectId>();
 
             RepositoryFilter filter = new RepositoryFilter();
 
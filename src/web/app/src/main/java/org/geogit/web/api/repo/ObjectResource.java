@@ -7,16 +7,33 @@ package org.geogit.web.api.repo;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
+import org.geogit.web.api.CachePolicy;
 import org.restlet.Request;
 import org.restlet.Response;
+import org.restlet.data.CacheDirective;
 import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.representation.OutputRepresentation;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Finder;
 import org.restlet.resource.ServerResource;
 
+/**
+ * Serves the raw contents of the object whose id is given by the {@code id} request attribute.
+ * <p>
+ * Objects are content-addressed, so they're served with their id as a strong entity tag and an
+ * immutable cache lifetime, and a request whose {@code If-None-Match} header contains the requested
+ * id is answered with {@code 304 Not Modified} without looking the object up. {@code *} only
+ * matches objects that exist.
+ * 
+ * @see CachePolicy
+ */
 public class ObjectResource extends Finder {
     @Override
     public ServerResource find(Request request, Response response) {
@@ -25,10 +42,21 @@ public class ObjectResource extends Finder {
                     .get("geogit");
             final String id = (String) request.getAttributes().get("id");
             final ObjectId oid = ObjectId.valueOf(id);
+            final Tag tag = new Tag(CachePolicy.objectTag(oid), false);
+            if (CachePolicy.isTagMatched(noneMatch(request), tag.getName())) {
+                // objects are immutable, no need to look it up if the client already has it
+                return notModified(response);
+            }
             if (ggit.getRepository().blobExists(oid)) {
+                if (CachePolicy.isNotModified(noneMatch(request), tag.getName())) {
+                    return notModified(response);
+                }
+                setCacheDirectives(response);
                 return new ServerResource() {
                     {
-                        getVariants().add(new ObjectRepresentation(oid, ggit));
+                        ObjectRepresentation representation = new ObjectRepresentation(oid, ggit);
+                        representation.setTag(tag);
+                        getVariants().add(representation);
                     }
                 };
             }
@@ -36,6 +64,32 @@ public class ObjectResource extends Finder {
         return super.find(request, response);
     }
 
+    private static List<String> noneMatch(Request request) {
+        List<String> noneMatch = new ArrayList<String>();
+        for (Tag t : request.getConditions().getNoneMatch()) {
+            noneMatch.add(t.getName());
+        }
+        return noneMatch;
+    }
+
+    private static ServerResource notModified(Response response) {
+        setCacheDirectives(response);
+        return new ServerResource() {
+            @Override
+            protected Representation get() {
+                setStatus(Status.REDIRECTION_NOT_MODIFIED);
+                return null;
+            }
+        };
+    }
+
+    private static void setCacheDirectives(Response response) {
+        List<CacheDirective> directives = response.getCacheDirectives();
+        directives.add(CacheDirective.publicInfo());
+        directives.add(CacheDirective.maxAge(CachePolicy.IMMUTABLE_MAX_AGE));
+        directives.add(new CacheDirective("immutable"));
+    }
+
     private class ObjectRepresentation extends OutputRepresentation {
         private final ObjectId oid;
 
@@ -26,6 +26,7 @@ import org.geogit.rest.repository.ParentResource;
 import org.geogit.rest.repository.RepositoryListResource;
 import org.geogit.rest.repository.RepositoryResource;
 import org.geogit.rest.repository.SendObjectResource;
+import org.geogit.web.api.AsyncCommandExecutor;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.ows.util.ResponseUtils;
 import org.geoserver.rest.GeoServerServletConverter;
@@ -38,6 +39,7 @@ import org.restlet.Router;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 
@@ -51,7 +53,7 @@ import com.noelios.restlet.ext.servlet.ServletConverter;
  * of {@link RESTMapping} so that our mappings don't get added to the regular geoserver rest
  * dispatcher.
  */
-public class GeogitDispatcher extends AbstractController {
+public class GeogitDispatcher extends AbstractController implements DisposableBean {
     /** HTTP method "PUT" */
     public static final String METHOD_PUT = "PUT";
 
@@ -90,6 +92,15 @@ public class GeogitDispatcher extends AbstractController {
         converter.setTarget(router);
     }
 
+    /**
+     * Stops the background tasks of the web API when the application context closes, so that their
+     * threads don't outlive the plugin.
+     */
+    @Override
+    public void destroy() {
+        AsyncCommandExecutor.shutdown();
+    }
+
     public Router createInboundRoot() {
         Router router = createRoot();
         router.attach("", RepositoryListResource.class);
@@ -5,6 +5,8 @@
 package org.geogit.rest.repository;
 
 import static org.geogit.rest.repository.GeogitResourceUtils.getGeogit;
+import static org.geogit.rest.repository.GeogitResourceUtils.isNotModified;
+import static org.geogit.rest.repository.GeogitResourceUtils.setCacheControl;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -15,25 +17,32 @@ import java.util.logging.Logger;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
 import org.codehaus.jettison.mapped.MappedNamespaceConvention;
 import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
 import org.geogit.api.GeoGIT;
+import org.geogit.web.api.CachePolicy;
 import org.geogit.web.api.CommandBuilder;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
 import org.geogit.web.api.CommandSpecException;
+import org.geogit.web.api.ForwardingResponseStreamWriter;
 import org.geogit.web.api.ParameterSet;
+import org.geogit.web.api.ResourceNotFoundException;
+import org.geogit.web.api.ResponseStreamWriter;
 import org.geogit.web.api.ResponseWriter;
+import org.geogit.web.api.StreamingJSONWriter;
 import org.geogit.web.api.WebAPICommand;
 import org.geoserver.rest.RestletException;
 import org.geoserver.rest.util.RESTUtils;
 import org.restlet.Context;
 import org.restlet.data.Form;
 import org.restlet.data.MediaType;
+import org.restlet.data.Method;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.resource.Representation;
 import org.restlet.resource.Resource;
 import org.restlet.resource.Variant;
@@ -50,6 +59,11 @@ public class CommandResource extends Resource {
 
     private static final Variant XML = new Variant(MediaType.APPLICATION_XML);
 
+    /**
+     * Whether the compact streaming JSON format was requested instead of the mapped one
+     */
+    private boolean compactJSON;
+
     @Override
     public void init(Context context, Request request, Response response) {
         super.init(context, request, response);
@@ -99,8 +113,15 @@ public class CommandResource extends Resource {
             if (command != null) {
                 RestletContext ctx = new RestletContext(geogit.get());
                 command.run(ctx);
-                rep = ctx.getRepresentation(format, getJSONPCallback());
+                rep = ctx.getRepresentation(format, getJSONPCallback(), compactJSON);
+                if (Method.GET.equals(request.getMethod()) && ctx.responseContent != null
+                        && !ctx.responseContent.getResolvedIds().isEmpty()) {
+                    rep = setCacheValidators(commandName, format, ctx.responseContent, rep);
+                }
             }
+        } catch (ResourceNotFoundException ex) {
+            getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+            rep = formatException(ex, format);
         } catch (IllegalArgumentException ex) {
             rep = formatException(ex, format);
         } catch (Exception ex) {
@@ -109,13 +130,35 @@ public class CommandResource extends Resource {
         return rep;
     }
 
+    /**
+     * Sets the entity tag and short lived cache lifetime of a response computed from the objects
+     * some refs resolved to.
+     * 
+     * @return the representation to return, or {@code null} if the client's copy is still valid
+     * @see CachePolicy
+     */
+    private Representation setCacheValidators(String commandName, MediaType format,
+            CommandResponse response, Representation rep) {
+        String query = getRequest().getResourceRef().getQuery();
+        String tag = CachePolicy.responseTag(commandName, query == null ? "" : query,
+                format.toString(), response.getResolvedIds());
+
+        setCacheControl(getResponse(), CachePolicy.SHORT_LIVED);
+        if (isNotModified(getRequest(), tag)) {
+            getResponse().setStatus(Status.REDIRECTION_NOT_MODIFIED);
+            return null;
+        }
+        rep.setTag(new Tag(tag, false));
+        return rep;
+    }
+
     private Representation formatException(IllegalArgumentException ex, MediaType format) {
         Logger logger = getLogger();
         if (logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE, "CommandSpecException", ex);
         }
         return new JettisonRepresentation(format, CommandResponse.error(ex.getMessage()),
-                getJSONPCallback());
+                getJSONPCallback(), compactJSON);
     }
 
     private Representation formatUnexpectedException(Exception ex, MediaType format) {
@@ -131,7 +174,8 @@ public class CommandResource extends Resource {
             }
         }
         logger.log(Level.SEVERE, "Unexpected exception : " + uuid, ex);
-        return new JettisonRepresentation(format, CommandResponse.error(stack), getJSONPCallback());
+        return new JettisonRepresentation(format, CommandResponse.error(stack),
+                getJSONPCallback(), compactJSON);
     }
 
     private String getJSONPCallback() {
@@ -147,6 +191,9 @@ public class CommandResource extends Resource {
                 retval = MediaType.APPLICATION_XML;
             } else if (requested.equalsIgnoreCase("json")) {
                 retval = MediaType.APPLICATION_JSON;
+            } else if (requested.equalsIgnoreCase("compactjson")) {
+                retval = MediaType.APPLICATION_JSON;
+                compactJSON = true;
             } else {
                 throw new RestletException("Invalid output_format '" + requested + "'",
                         org.restlet.data.Status.CLIENT_ERROR_BAD_REQUEST);
@@ -170,8 +217,8 @@ public class CommandResource extends Resource {
             return geogit;
         }
 
-        Representation getRepresentation(MediaType format, String callback) {
-            return new JettisonRepresentation(format, responseContent, callback);
+        Representation getRepresentation(MediaType format, String callback, boolean compactJSON) {
+            return new JettisonRepresentation(format, responseContent, callback, compactJSON);
         }
 
         @Override
@@ -186,24 +233,32 @@ public class CommandResource extends Resource {
 
         String callback;
 
-        public JettisonRepresentation(MediaType mediaType, CommandResponse impl, String callback) {
+        final boolean compact;
+
+        public JettisonRepresentation(MediaType mediaType, CommandResponse impl, String callback,
+                boolean compact) {
             super(mediaType);
             this.impl = impl;
             this.callback = callback;
+            this.compact = compact;
         }
 
-        private XMLStreamWriter createWriter(Writer writer) {
+        private ResponseStreamWriter createWriter(Writer writer) {
             final MediaType mediaType = getMediaType();
-            XMLStreamWriter xml;
+            ResponseStreamWriter xml;
             if (mediaType.getSubType().equalsIgnoreCase("xml")) {
                 try {
-                    xml = XMLOutputFactory.newFactory().createXMLStreamWriter(writer);
+                    xml = new ForwardingResponseStreamWriter(XMLOutputFactory.newFactory()
+                            .createXMLStreamWriter(writer));
                 } catch (XMLStreamException ex) {
                     throw new RuntimeException(ex);
                 }
                 callback = null; // this doesn't make sense
+            } else if (mediaType == MediaType.APPLICATION_JSON && compact) {
+                xml = new StreamingJSONWriter(writer);
             } else if (mediaType == MediaType.APPLICATION_JSON) {
-                xml = new MappedXMLStreamWriter(new MappedNamespaceConvention(), writer);
+                xml = new ForwardingResponseStreamWriter(new MappedXMLStreamWriter(
+                        new MappedNamespaceConvention(), writer));
             } else {
                 throw new RuntimeException("mediatype not handled " + mediaType);
             }
@@ -212,7 +267,7 @@ public class CommandResource extends Resource {
 
         @Override
         public void write(Writer writer) throws IOException {
-            XMLStreamWriter stax = null;
+            ResponseStreamWriter stax = null;
             if (callback != null) {
                 writer.write(callback);
                 writer.write('(');
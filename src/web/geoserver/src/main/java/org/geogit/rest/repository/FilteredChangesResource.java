@@ -12,9 +12,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Set;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
@@ -78,7 +78,7 @@ public class FilteredChangesResource extends Finder {
                 final JsonParser parser = new JsonParser();
                 final JsonElement messageJson = parser.parse(body);
 
-                final List<ObjectId> tracked = new ArrayList<ObjectId>();
+                final Set<ObjectId> tracked = new HashSet<ObjectId>();
 
                 RepositoryFilter filter = new RepositoryFilter();
 
@@ -6,6 +6,7 @@
 package org.geogit.rest.repository;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,7 @@ import javax.annotation.Nullable;
 import org.geogit.api.GeoGIT;
 import org.geogit.geotools.data.GeoGitDataStore;
 import org.geogit.geotools.data.GeoGitDataStoreFactory;
+import org.geogit.web.api.CachePolicy;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.Predicates;
@@ -23,8 +25,11 @@ import org.geoserver.rest.util.RESTUtils;
 import org.geotools.data.DataAccess;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
+import org.restlet.data.Form;
 import org.restlet.data.Request;
+import org.restlet.data.Response;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -34,6 +39,11 @@ import com.google.common.collect.Iterators;
 
 class GeogitResourceUtils {
 
+    /**
+     * Request/response attribute holding the non standard HTTP headers
+     */
+    private static final String HEADERS_ATTRIBUTE = "org.restlet.http.headers";
+
     public static Catalog getCatalog(Request request) {
         Map<String, Object> attributes = request.getAttributes();
         Catalog catalog = (Catalog) attributes.get("catalog");
@@ -114,4 +124,49 @@ class GeogitResourceUtils {
         return Optional.of(geogitDataStore);
     }
 
-}
\ No newline at end of file
+    /**
+     * Sets the {@code Cache-Control} header of the response.
+     * 
+     * @param cacheControl the header value, as defined by {@link CachePolicy}
+     */
+    public static void setCacheControl(Response response, String cacheControl) {
+        Map<String, Object> attributes = response.getAttributes();
+        Form headers = (Form) attributes.get(HEADERS_ATTRIBUTE);
+        if (headers == null) {
+            headers = new Form();
+            attributes.put(HEADERS_ATTRIBUTE, headers);
+        }
+        headers.add("Cache-Control", cacheControl);
+    }
+
+    /**
+     * Evaluates the request's {@code If-None-Match} condition against the given entity tag.
+     * 
+     * @param tag the opaque tag of the current representation
+     * @return {@code true} if a {@code 304 Not Modified} response shall be returned
+     */
+    public static boolean isNotModified(Request request, String tag) {
+        return CachePolicy.isNotModified(noneMatch(request), tag);
+    }
+
+    /**
+     * Evaluates the request's {@code If-None-Match} condition against the given entity tag before
+     * the representation has been looked up, only matching the exact tag.
+     * 
+     * @param tag the opaque tag of the requested representation
+     * @return {@code true} if a {@code 304 Not Modified} response shall be returned
+     * @see CachePolicy#isTagMatched
+     */
+    public static boolean isTagMatched(Request request, String tag) {
+        return CachePolicy.isTagMatched(noneMatch(request), tag);
+    }
+
+    private static List<String> noneMatch(Request request) {
+        List<String> noneMatch = new ArrayList<String>();
+        for (Tag t : request.getConditions().getNoneMatch()) {
+            noneMatch.add(t.getName());
+        }
+        return noneMatch;
+    }
+
+}
@@ -6,6 +6,9 @@
 package org.geogit.rest.repository;
 
 import static org.geogit.rest.repository.GeogitResourceUtils.getGeogit;
+import static org.geogit.rest.repository.GeogitResourceUtils.isNotModified;
+import static org.geogit.rest.repository.GeogitResourceUtils.isTagMatched;
+import static org.geogit.rest.repository.GeogitResourceUtils.setCacheControl;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,11 +18,14 @@ import java.util.List;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.repository.Repository;
+import org.geogit.web.api.CachePolicy;
 import org.restlet.Context;
 import org.restlet.Finder;
 import org.restlet.data.MediaType;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.resource.OutputRepresentation;
 import org.restlet.resource.Resource;
 import org.restlet.resource.Variant;
@@ -31,6 +37,13 @@ import com.google.common.base.Preconditions;
  * Expects an {@code id} request attribute containing the string representation of an
  * {@link ObjectId} (40 char hex string) to look up for in the repository database and return it as
  * a plain byte stream.
+ * <p>
+ * Objects are served with their id as a strong entity tag and an immutable cache lifetime, and a
+ * request whose {@code If-None-Match} header contains the requested id is answered with
+ * {@code 304 Not Modified} without looking the object up. {@code *} only matches objects that
+ * exist.
+ * 
+ * @see CachePolicy
  */
 public class ObjectFinder extends Finder {
 
@@ -44,10 +57,20 @@ public class ObjectFinder extends Finder {
             final String id = (String) request.getAttributes().get("id");
             final ObjectId oid = ObjectId.valueOf(id);
 
+            final String tag = CachePolicy.objectTag(oid);
+            if (isTagMatched(request, tag)) {
+                // objects are immutable, no need to look it up if the client already has it
+                return notModified(request, response);
+            }
+
             GeoGIT geogit = ggit.get();
             Repository repository = geogit.getRepository();
             boolean blobExists = repository.blobExists(oid);
             if (blobExists) {
+                if (isNotModified(request, tag)) {
+                    return notModified(request, response);
+                }
+                setCacheControl(response, CachePolicy.IMMUTABLE);
                 ObjectResource objectResource = new ObjectResource(oid, geogit);
                 objectResource.init(getContext(), request, response);
                 return objectResource;
@@ -57,6 +80,13 @@ public class ObjectFinder extends Finder {
         return super.findTarget(request, response);
     }
 
+    private Resource notModified(Request request, Response response) {
+        setCacheControl(response, CachePolicy.IMMUTABLE);
+        NotModifiedResource notModified = new NotModifiedResource();
+        notModified.init(getContext(), request, response);
+        return notModified;
+    }
+
     private static class ObjectResource extends Resource {
 
         private ObjectId oid;
@@ -73,7 +103,18 @@ public class ObjectFinder extends Finder {
             super.init(context, request, response);
             List<Variant> variants = getVariants();
 
-            variants.add(new RevObjectBinaryRepresentation(oid, geogit));
+            RevObjectBinaryRepresentation representation = new RevObjectBinaryRepresentation(
+                    oid, geogit);
+            representation.setTag(new Tag(CachePolicy.objectTag(oid), false));
+            variants.add(representation);
+        }
+    }
+
+    private static class NotModifiedResource extends Resource {
+
+        @Override
+        public void handleGet() {
+            getResponse().setStatus(Status.REDIRECTION_NOT_MODIFIED);
         }
     }
 
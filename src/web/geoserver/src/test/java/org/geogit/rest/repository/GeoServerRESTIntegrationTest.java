@@ -5,6 +5,7 @@
 package org.geogit.rest.repository;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -33,6 +34,7 @@ import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.bdbje.JEStorageModule;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
 import org.geogit.test.integration.RepositoryTestCase;
+import org.geogit.web.api.CachePolicy;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.DataStoreInfo;
@@ -56,6 +58,7 @@ import com.google.gson.JsonPrimitive;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.util.Modules;
+import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 
 /**
@@ -258,6 +261,79 @@ public class GeoServerRESTIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(expected, actual);
     }
 
+    /**
+     * Test for the entity tag and cache lifetime of {@code /rest/<repository>/repo/objects/<oid>}
+     */
+    @Test
+    public void testObjectCacheValidators() throws Exception {
+        GeoGIT geogit = helper.getGeogit();
+        ObjectId commitId = geogit.command(RefParse.class).setName(Ref.HEAD).call().get()
+                .getObjectId();
+        final String url = BASE_URL + "/repo/objects/" + commitId;
+        final String etag = "\"" + CachePolicy.objectTag(commitId) + "\"";
+
+        MockHttpServletResponse sr = getAsServletResponse(url);
+        assertEquals(200, sr.getStatusCode());
+        assertEquals(etag, sr.getHeader("ETag"));
+        assertEquals(CachePolicy.IMMUTABLE, sr.getHeader("Cache-Control"));
+
+        sr = getIfNoneMatch(url, etag);
+        assertEquals(304, sr.getStatusCode());
+        assertEquals(CachePolicy.IMMUTABLE, sr.getHeader("Cache-Control"));
+        assertEquals(304, getIfNoneMatch(url, "W/" + etag).getStatusCode());
+        assertEquals(304, getIfNoneMatch(url, "\"" + ObjectId.forString("other") + "\", " + etag)
+                .getStatusCode());
+        assertEquals(304, getIfNoneMatch(url, "*").getStatusCode());
+        assertEquals(200, getIfNoneMatch(url, "\"" + ObjectId.forString("other") + "\"")
+                .getStatusCode());
+
+        // "*" doesn't match objects that don't exist
+        String missing = BASE_URL + "/repo/objects/" + ObjectId.forString("missing");
+        assertFalse(304 == getIfNoneMatch(missing, "*").getStatusCode());
+    }
+
+    /**
+     * Test for the entity tag and cache lifetime of the responses of commands resolving refs, like
+     * {@code /rest/<repository>/log}
+     */
+    @Test
+    public void testCommandCacheValidators() throws Exception {
+        final String url = BASE_URL + "/log";
+
+        MockHttpServletResponse sr = getAsServletResponse(url);
+        assertEquals(200, sr.getStatusCode());
+        final String etag = sr.getHeader("ETag");
+        assertNotNull(etag);
+        assertEquals(CachePolicy.SHORT_LIVED, sr.getHeader("Cache-Control"));
+        assertEquals(etag, getAsServletResponse(url).getHeader("ETag"));
+
+        sr = getIfNoneMatch(url, etag);
+        assertEquals(304, sr.getStatusCode());
+        assertEquals(CachePolicy.SHORT_LIVED, sr.getHeader("Cache-Control"));
+        assertEquals(304, getIfNoneMatch(url, "W/" + etag).getStatusCode());
+        assertEquals(304, getIfNoneMatch(url, "*").getStatusCode());
+
+        // other requests have other tags
+        sr = getIfNoneMatch(url + "?limit=1", etag);
+        assertEquals(200, sr.getStatusCode());
+        assertFalse(etag.equals(sr.getHeader("ETag")));
+
+        // the response changes once the branch moves
+        helper.insertAndAdd(helper.lines2);
+        helper.getGeogit().command(CommitOp.class).call();
+        sr = getIfNoneMatch(url, etag);
+        assertEquals(200, sr.getStatusCode());
+        assertFalse(etag.equals(sr.getHeader("ETag")));
+    }
+
+    private MockHttpServletResponse getIfNoneMatch(String url, String noneMatch)
+            throws Exception {
+        MockHttpServletRequest request = createRequest(url);
+        request.setMethod("GET");
+        request.setHeader("If-None-Match", noneMatch);
+        return dispatch(request);
+    }
+
     private MockHttpServletResponse assertResponse(String url, String expectedContent)
             throws Exception {
 